@@ -0,0 +1,32 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.api;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Optional extension of the OTR engine host for accepting messages in batches.
+ * <p>
+ * Messages that otr4j generates autonomously, such as heartbeat messages, are produced for many sessions at the same
+ * time. An {@link OtrEngineHost} that additionally implements this interface receives such messages as a single batch,
+ * such that it can pace or coalesce them over its transport. Hosts that do not implement this interface receive each
+ * message individually through {@link OtrEngineHost#injectMessage(SessionID, String)}.
+ */
+public interface BatchEngineHost {
+
+    /**
+     * Inject a batch of messages into the host's transport.
+     * <p>
+     * For every session, the messages must be sent in the order in which they are listed.
+     *
+     * @param messages the messages to be sent, per session ID.
+     */
+    void injectMessages(@Nonnull Map<SessionID, List<String>> messages);
+}
@@ -0,0 +1,28 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.api;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Optional extension of the OTR engine listener for observing eviction of session instances.
+ * <p>
+ * The number of instances per contact is limited. (See {@link OtrPolicy#getInstanceLimit()}.) An
+ * {@link OtrEngineListener} that additionally implements this interface is notified whenever an idle instance is
+ * evicted to make room for a new instance. Frequent evictions indicate that a contact cycles through instance tags.
+ */
+public interface InstanceEvictionListener {
+
+    /**
+     * Event triggered in case an instance is evicted.
+     *
+     * @param sessionID The session ID.
+     * @param receiver  The instance tag of the evicted instance.
+     */
+    void instanceEvicted(@Nonnull SessionID sessionID, @Nonnull InstanceTag receiver);
+}
@@ -9,6 +9,7 @@ package net.java.otr4j.api;
 
 import com.google.errorprone.annotations.CheckReturnValue;
 import com.google.errorprone.annotations.Immutable;
+import net.java.otr4j.crypto.ThreadLocalRandomSource;
 
 import java.security.SecureRandom;
 import javax.annotation.Nonnull;
@@ -88,16 +89,25 @@ public final class InstanceTag {
         return new InstanceTag(random.nextDouble());
     }
 
+    /**
+     * Create a new randomly generated instance tag.
+     *
+     * @param source Source of randomness to use for generating.
+     * @return Returns new randomly generated Instance tag instance.
+     */
+    public static InstanceTag random(@Nonnull final RandomSource source) {
+        return random(source.secureRandom());
+    }
+
     /**
      * The default constructor for Instance Tag.
      *
-     * If you need to construct many instance tags, you should consider
-     * using {@link #InstanceTag(double) } and your own instance of
-     * SecureRandom to prevent the additional overhead of instantiating
-     * SecureRandom.
+     * The tag is generated using the thread-local random source. (See
+     * {@link ThreadLocalRandomSource}.) Use {@link #random(RandomSource)}
+     * to generate the tag using a specific source of randomness.
      */
     public InstanceTag() {
-        this(new SecureRandom().nextDouble());
+        this(ThreadLocalRandomSource.instance().secureRandom().nextDouble());
     }
 
     /**
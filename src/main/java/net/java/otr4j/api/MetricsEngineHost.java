@@ -0,0 +1,28 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.api;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Optional extension of the OTR engine host for collecting metrics.
+ * <p>
+ * An {@link OtrEngineHost} that additionally implements this interface provides the {@link OtrMetrics} instance to
+ * which sessions and the session manager report. The metrics instance is acquired once, upon construction of the
+ * session or session manager. Hosts that do not implement this interface do not collect metrics.
+ */
+public interface MetricsEngineHost {
+
+    /**
+     * Get the metrics instance.
+     *
+     * @return Returns the metrics instance.
+     */
+    @Nonnull
+    OtrMetrics getMetrics();
+}
@@ -0,0 +1,97 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.api;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Metrics instance that discards all measurements.
+ */
+public final class NoOpMetrics implements OtrMetrics {
+
+    private static final NoOpMetrics INSTANCE = new NoOpMetrics();
+
+    private NoOpMetrics() {
+        // Singleton instance.
+    }
+
+    /**
+     * Get the no-op metrics instance.
+     *
+     * @return Returns the singleton instance.
+     */
+    @Nonnull
+    public static NoOpMetrics instance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public void messageReceived(@Nonnull final SessionID sessionID, final int length) {
+        // Measurement is discarded.
+    }
+
+    @Override
+    public void messageSent(@Nonnull final SessionID sessionID, final int length) {
+        // Measurement is discarded.
+    }
+
+    @Override
+    public void fragmentAssembled(@Nonnull final SessionID sessionID) {
+        // Measurement is discarded.
+    }
+
+    @Override
+    public void fragmentDropped(@Nonnull final SessionID sessionID) {
+        // Measurement is discarded.
+    }
+
+    @Override
+    public void fragmentsEvicted(@Nonnull final SessionID sessionID, final int count) {
+        // Measurement is discarded.
+    }
+
+    @Override
+    public void decryptionFailed(@Nonnull final SessionID sessionID) {
+        // Measurement is discarded.
+    }
+
+    @Override
+    public void verificationFailed(@Nonnull final SessionID sessionID) {
+        // Measurement is discarded.
+    }
+
+    @Override
+    public void keyExchangeCompleted(@Nonnull final SessionID sessionID, final int version, final long nanos) {
+        // Measurement is discarded.
+    }
+
+    @Override
+    public void ratchetRotated(@Nonnull final SessionID sessionID) {
+        // Measurement is discarded.
+    }
+
+    @Override
+    public void sessionCreated(@Nonnull final SessionID sessionID) {
+        // Measurement is discarded.
+    }
+
+    @Override
+    public void sessionRemoved(@Nonnull final SessionID sessionID) {
+        // Measurement is discarded.
+    }
+
+    @Override
+    public void instanceCreated(@Nonnull final SessionID sessionID) {
+        // Measurement is discarded.
+    }
+
+    @Override
+    public void instanceRemoved(@Nonnull final SessionID sessionID) {
+        // Measurement is discarded.
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.api;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Tracer that does not trace. Starting an operation returns a shared span, such that tracing does not allocate.
+ */
+public final class NoOpTracer implements OtrTracer {
+
+    private static final NoOpTracer INSTANCE = new NoOpTracer();
+
+    private static final Span SPAN = new Span() {
+        @Override
+        public void close() {
+            // Nothing to end.
+        }
+    };
+
+    private NoOpTracer() {
+        // Singleton instance.
+    }
+
+    /**
+     * Get the no-op tracer instance.
+     *
+     * @return Returns the singleton instance.
+     */
+    @Nonnull
+    public static NoOpTracer instance() {
+        return INSTANCE;
+    }
+
+    @Nonnull
+    @Override
+    public Span start(@Nonnull final Operation operation, @Nonnull final SessionID sessionID,
+            @Nonnull final InstanceTag receiver) {
+        return SPAN;
+    }
+}
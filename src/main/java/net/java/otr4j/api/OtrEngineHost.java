@@ -113,6 +113,9 @@ public interface OtrEngineHost extends SmpEngineHost {
      * transitional signature. Only when version 4 is not acceptable/suitable, will this be the primary key pair.
      * <p>
      * The local OTRv3 key pair can be generated using {@link DSAKeyPair#generateDSAKeyPair()}.
+     * <p>
+     * This method may be called on a library-managed background thread, as the signed client profile payload is
+     * renewed in the background before it expires. The implementation must therefore be thread-safe.
      *
      * @param sessionID the session ID
      * @return Returns the local key pair.
@@ -124,6 +127,9 @@ public interface OtrEngineHost extends SmpEngineHost {
      * Request local long-term key pair from Engine Host. (OTRv4)
      * <p>
      * The long-term key pair can be generated using {@link EdDSAKeyPair#generate(java.security.SecureRandom)}.
+     * <p>
+     * This method may be called on a library-managed background thread, as the signed client profile payload is
+     * renewed in the background before it expires. The implementation must therefore be thread-safe.
      *
      * @param sessionID the session ID
      * @return Returns the local long-term Ed448-goldilocks key pair.
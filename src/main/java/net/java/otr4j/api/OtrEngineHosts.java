@@ -258,4 +258,54 @@ public final class OtrEngineHosts {
             LOGGER.log(Level.WARNING, "Faulty OtrEngineHost: Runtime exception thrown while calling 'extraSymmetricKeyDiscovered' on OtrEngineHost '" + host.getClass().getCanonicalName() + "' for session " + sessionID, e);
         }
     }
+
+    /**
+     * Safely acquire the metrics instance of the OtrEngineHost. Hosts that do not implement {@link MetricsEngineHost},
+     * or fail to provide a metrics instance, get the no-op metrics instance.
+     *
+     * @param host The OTR engine host.
+     * @return Returns the host's metrics instance, or the no-op metrics instance.
+     */
+    @Nonnull
+    public static OtrMetrics getMetrics(@Nonnull final OtrEngineHost host) {
+        if (!(host instanceof MetricsEngineHost)) {
+            return NoOpMetrics.instance();
+        }
+        try {
+            final OtrMetrics metrics = ((MetricsEngineHost) host).getMetrics();
+            if (metrics != null) {
+                return metrics;
+            }
+            LOGGER.log(Level.WARNING, "Faulty OtrEngineHost! 'getMetrics' returned null on OtrEngineHost ''{0}''.",
+                    host.getClass().getCanonicalName());
+        } catch (final RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Faulty OtrEngineHost! Runtime exception thrown while calling 'getMetrics' on OtrEngineHost '" + host.getClass().getCanonicalName() + "'", e);
+        }
+        return NoOpMetrics.instance();
+    }
+
+    /**
+     * Safely acquire the tracer of the OtrEngineHost. Hosts that do not implement {@link TracingEngineHost}, or fail
+     * to provide a tracer, get the no-op tracer.
+     *
+     * @param host The OTR engine host.
+     * @return Returns the host's tracer, or the no-op tracer.
+     */
+    @Nonnull
+    public static OtrTracer getTracer(@Nonnull final OtrEngineHost host) {
+        if (!(host instanceof TracingEngineHost)) {
+            return NoOpTracer.instance();
+        }
+        try {
+            final OtrTracer tracer = ((TracingEngineHost) host).getTracer();
+            if (tracer != null) {
+                return tracer;
+            }
+            LOGGER.log(Level.WARNING, "Faulty OtrEngineHost! 'getTracer' returned null on OtrEngineHost ''{0}''.",
+                    host.getClass().getCanonicalName());
+        } catch (final RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Faulty OtrEngineHost! Runtime exception thrown while calling 'getTracer' on OtrEngineHost '" + host.getClass().getCanonicalName() + "'", e);
+        }
+        return NoOpTracer.instance();
+    }
 }
@@ -36,7 +36,10 @@ public final class OtrEngineListeners {
      * @param listeners Original list of listeners that, additionally, must be
      * handled thread-safely.
      * @return Returns duplicated list of listeners. (For one-time use.)
+     * @deprecated Keep listeners in a {@link java.util.concurrent.CopyOnWriteArrayList} and iterate it directly
+     * instead. otr4j itself no longer uses this method.
      */
+    @Deprecated
     public static List<OtrEngineListener> duplicate(@Nonnull final List<OtrEngineListener> listeners) {
         synchronized (listeners) {
             return new ArrayList<>(listeners);
@@ -102,4 +105,28 @@ public final class OtrEngineListeners {
             }
         }
     }
+
+    /**
+     * Safely call instanceEvicted on all listeners in provided iterable that implement
+     * {@link InstanceEvictionListener}.
+     *
+     * @param listeners All listeners to be called.
+     * @param sessionID the session ID
+     * @param receiver  the instance tag of the evicted instance
+     */
+    public static void instanceEvicted(@Nonnull final Iterable<OtrEngineListener> listeners,
+            @Nonnull final SessionID sessionID, @Nonnull final InstanceTag receiver) {
+        for (final OtrEngineListener l : listeners) {
+            if (!(l instanceof InstanceEvictionListener)) {
+                continue;
+            }
+            try {
+                // Calling the listeners in order to inform of events. As a service to the user we log any problems
+                // that occur while calling listeners.
+                ((InstanceEvictionListener) l).instanceEvicted(sessionID, receiver);
+            } catch (final RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Faulty listener! Runtime exception thrown while calling 'instanceEvicted' on listener '" + l.getClass().getCanonicalName() + "' for session " + sessionID, e);
+            }
+        }
+    }
 }
@@ -0,0 +1,120 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.api;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Metrics SPI: receiver of measurements of the OTR engine.
+ * <p>
+ * The OTR engine reports to the metrics instance that is provided by a host that implements
+ * {@link MetricsEngineHost}. Hosts that do not provide metrics get a no-op instance.
+ * <p>
+ * Measurements are reported on the threads that process messages, typically while the session is locked.
+ * Implementations must therefore be thread-safe, return quickly and must not throw exceptions. Message sizes are
+ * reported in number of characters, which for OTR-encoded messages equals the number of bytes on the transport.
+ */
+public interface OtrMetrics {
+
+    /**
+     * A message is received from the transport.
+     *
+     * @param sessionID the session ID
+     * @param length    the length of the message
+     */
+    void messageReceived(@Nonnull SessionID sessionID, int length);
+
+    /**
+     * A message is sent to the transport. Every fragment of a fragmented message counts as a message.
+     *
+     * @param sessionID the session ID
+     * @param length    the length of the message
+     */
+    void messageSent(@Nonnull SessionID sessionID, int length);
+
+    /**
+     * A received fragment is accepted for reassembly.
+     *
+     * @param sessionID the session ID
+     */
+    void fragmentAssembled(@Nonnull SessionID sessionID);
+
+    /**
+     * A received fragment is rejected and dropped.
+     *
+     * @param sessionID the session ID
+     */
+    void fragmentDropped(@Nonnull SessionID sessionID);
+
+    /**
+     * Fragments of incomplete messages are evicted from reassembly, because they expired or because the memory budget
+     * for reassembly was exhausted.
+     *
+     * @param sessionID the session ID
+     * @param count     the number of evicted fragments
+     */
+    void fragmentsEvicted(@Nonnull SessionID sessionID, int count);
+
+    /**
+     * A received data message failed verification or decryption.
+     *
+     * @param sessionID the session ID
+     */
+    void decryptionFailed(@Nonnull SessionID sessionID);
+
+    /**
+     * A received key exchange message failed verification.
+     *
+     * @param sessionID the session ID
+     */
+    void verificationFailed(@Nonnull SessionID sessionID);
+
+    /**
+     * A key exchange completed and the session instance is encrypted.
+     *
+     * @param sessionID the session ID
+     * @param version   the protocol version: 2 or 3 for the AKE, 4 for the DAKE
+     * @param nanos     the duration of the key exchange in nanoseconds
+     */
+    void keyExchangeCompleted(@Nonnull SessionID sessionID, int version, long nanos);
+
+    /**
+     * The Double Ratchet rotated its sender or receiver keys.
+     *
+     * @param sessionID the session ID
+     */
+    void ratchetRotated(@Nonnull SessionID sessionID);
+
+    /**
+     * A session is created by the session manager.
+     *
+     * @param sessionID the session ID
+     */
+    void sessionCreated(@Nonnull SessionID sessionID);
+
+    /**
+     * A session is removed from the session manager.
+     *
+     * @param sessionID the session ID
+     */
+    void sessionRemoved(@Nonnull SessionID sessionID);
+
+    /**
+     * A session instance is created for an instance tag of the other party.
+     *
+     * @param sessionID the session ID
+     */
+    void instanceCreated(@Nonnull SessionID sessionID);
+
+    /**
+     * A session instance is evicted.
+     *
+     * @param sessionID the session ID
+     */
+    void instanceRemoved(@Nonnull SessionID sessionID);
+}
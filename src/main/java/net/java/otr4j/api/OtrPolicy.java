@@ -7,8 +7,11 @@
 
 package net.java.otr4j.api;
 
+import javax.annotation.Nonnull;
 import java.util.logging.Logger;
 
+import static java.util.Objects.requireNonNull;
+
 /**
  * OtrPolicy is an intelligent policy class that will return the current
  * policy's setting on various aspects. The policy object is intelligent enough
@@ -93,8 +96,48 @@ public final class OtrPolicy {
      */
     public static final int OTRL_POLICY_DEFAULT = OPPORTUNISTIC;
 
+    /**
+     * Default idleness threshold in milliseconds, after which a heartbeat message is sent in an otherwise idle private
+     * messaging session.
+     */
+    public static final long DEFAULT_HEARTBEAT_IDLENESS_MILLIS = 60_000L;
+
+    /**
+     * Default maximum number of instances, i.e. clients with distinct instance tags, per contact.
+     */
+    public static final int DEFAULT_INSTANCE_LIMIT = 16;
+
+    /**
+     * Default memory budget in bytes for reassembly of fragmented messages, per sender.
+     */
+    public static final int DEFAULT_FRAGMENT_BUDGET = 1 << 20;
+
+    /**
+     * Default memory budget in bytes for reassembly of fragmented messages, for all instances of a session together.
+     */
+    public static final int DEFAULT_FRAGMENT_SESSION_BUDGET = 4 << 20;
+
+    /**
+     * Default duration in milliseconds after which an incomplete fragmented message expires.
+     */
+    public static final long DEFAULT_FRAGMENT_EXPIRY_MILLIS = 60_000L;
+
     private int policy;
 
+    private long heartbeatIdlenessMillis = DEFAULT_HEARTBEAT_IDLENESS_MILLIS;
+
+    private int messageQueueBudget;
+
+    private QueueOverflow messageQueueOverflow = QueueOverflow.REJECT_NEWEST;
+
+    private int instanceLimit = DEFAULT_INSTANCE_LIMIT;
+
+    private int fragmentBudget = DEFAULT_FRAGMENT_BUDGET;
+
+    private int fragmentSessionBudget = DEFAULT_FRAGMENT_SESSION_BUDGET;
+
+    private long fragmentExpiryMillis = DEFAULT_FRAGMENT_EXPIRY_MILLIS;
+
     /**
      * Create OTR policy instance based on NEVER profile.
      */
@@ -121,6 +164,170 @@ public final class OtrPolicy {
         return policy;
     }
 
+    /**
+     * Get the idleness threshold for heartbeats.
+     * <p>
+     * A heartbeat message is sent for a session in private messaging state, if no message has been sent for at least
+     * the duration of the threshold. Heartbeats are sent from a background thread. A heartbeat that is overtaken by a
+     * message sent concurrently, may be rejected by an OTRv3 client as a replayed message.
+     *
+     * @return Returns the idleness threshold in milliseconds.
+     */
+    public long getHeartbeatIdlenessMillis() {
+        return heartbeatIdlenessMillis;
+    }
+
+    /**
+     * Set the idleness threshold for heartbeats.
+     *
+     * @param millis the idleness threshold in milliseconds. Must be positive.
+     */
+    public void setHeartbeatIdlenessMillis(final long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Heartbeat idleness threshold must be positive.");
+        }
+        this.heartbeatIdlenessMillis = millis;
+    }
+
+    /**
+     * Get the memory budget of the outbound message queue.
+     * <p>
+     * Messages that are sent while an encrypted session is required but not (yet) established, are queued and sent
+     * as soon as the session is encrypted. The budget limits the amount of memory occupied by queued messages.
+     *
+     * @return Returns the budget in bytes. A budget of 0 indicates that messages are not queued.
+     */
+    public int getMessageQueueBudget() {
+        return messageQueueBudget;
+    }
+
+    /**
+     * Set the memory budget of the outbound message queue.
+     *
+     * @param bytes the budget in bytes. Must not be negative. A budget of 0 disables queueing of messages.
+     */
+    public void setMessageQueueBudget(final int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Message queue budget must not be negative.");
+        }
+        this.messageQueueBudget = bytes;
+    }
+
+    /**
+     * Get the policy that is applied when the outbound message queue exceeds its budget.
+     *
+     * @return Returns the overflow policy.
+     */
+    @Nonnull
+    public QueueOverflow getMessageQueueOverflow() {
+        return messageQueueOverflow;
+    }
+
+    /**
+     * Set the policy that is applied when the outbound message queue exceeds its budget.
+     *
+     * @param overflow the overflow policy
+     */
+    public void setMessageQueueOverflow(@Nonnull final QueueOverflow overflow) {
+        this.messageQueueOverflow = requireNonNull(overflow);
+    }
+
+    /**
+     * Get the maximum number of instances per contact.
+     * <p>
+     * Every client of the contact, as identified by its instance tag, gets a dedicated session instance. Once the
+     * limit is reached, the least-recently used idle instance is evicted to make room for a new instance. An instance
+     * is idle if it is in plaintext state without a key exchange in progress. If no instance is idle, messages from
+     * new instances are ignored.
+     *
+     * @return Returns the maximum number of instances.
+     */
+    public int getInstanceLimit() {
+        return instanceLimit;
+    }
+
+    /**
+     * Set the maximum number of instances per contact.
+     *
+     * @param limit the maximum number of instances. Must be positive.
+     */
+    public void setInstanceLimit(final int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Instance limit must be positive.");
+        }
+        this.instanceLimit = limit;
+    }
+
+    /**
+     * Get the memory budget for reassembly of fragmented messages, per sender.
+     * <p>
+     * Fragments are accounted for by an estimate of their memory footprint. In case a fragment does not fit within the
+     * budget, the oldest incomplete messages of the sender are evicted. If the fragment still does not fit, it is
+     * dropped together with the message it belongs to.
+     *
+     * @return Returns the budget in bytes.
+     */
+    public int getFragmentBudget() {
+        return fragmentBudget;
+    }
+
+    /**
+     * Set the memory budget for reassembly of fragmented messages, per sender.
+     *
+     * @param bytes the budget in bytes. Must be positive.
+     */
+    public void setFragmentBudget(final int bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Fragment budget must be positive.");
+        }
+        this.fragmentBudget = bytes;
+    }
+
+    /**
+     * Get the memory budget for reassembly of fragmented messages, for all instances of a session together.
+     *
+     * @return Returns the budget in bytes.
+     */
+    public int getFragmentSessionBudget() {
+        return fragmentSessionBudget;
+    }
+
+    /**
+     * Set the memory budget for reassembly of fragmented messages, for all instances of a session together.
+     *
+     * @param bytes the budget in bytes. Must be positive.
+     */
+    public void setFragmentSessionBudget(final int bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Fragment session budget must be positive.");
+        }
+        this.fragmentSessionBudget = bytes;
+    }
+
+    /**
+     * Get the duration after which an incomplete fragmented message expires.
+     * <p>
+     * Fragments of an expired message are evicted, such that fragments that are never completed do not occupy memory
+     * indefinitely.
+     *
+     * @return Returns the duration in milliseconds.
+     */
+    public long getFragmentExpiryMillis() {
+        return fragmentExpiryMillis;
+    }
+
+    /**
+     * Set the duration after which an incomplete fragmented message expires.
+     *
+     * @param millis the duration in milliseconds. Must be positive.
+     */
+    public void setFragmentExpiryMillis(final long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Fragment expiry must be positive.");
+        }
+        this.fragmentExpiryMillis = millis;
+    }
+
     /**
      * getAllowV1 is deprecated as OTR V1 is not supported anymore.
      *
@@ -425,11 +632,37 @@ public final class OtrPolicy {
             return false;
         }
         final OtrPolicy policy = (OtrPolicy) obj;
-        return policy.policy == this.policy;
+        return policy.policy == this.policy && policy.heartbeatIdlenessMillis == this.heartbeatIdlenessMillis
+                && policy.messageQueueBudget == this.messageQueueBudget
+                && policy.messageQueueOverflow == this.messageQueueOverflow
+                && policy.instanceLimit == this.instanceLimit
+                && policy.fragmentBudget == this.fragmentBudget
+                && policy.fragmentSessionBudget == this.fragmentSessionBudget
+                && policy.fragmentExpiryMillis == this.fragmentExpiryMillis;
     }
 
     @Override
     public int hashCode() {
-        return this.policy;
+        int result = 31 * this.policy + (int) (this.heartbeatIdlenessMillis ^ (this.heartbeatIdlenessMillis >>> 32));
+        result = 31 * result + this.messageQueueBudget;
+        result = 31 * result + this.messageQueueOverflow.ordinal();
+        result = 31 * result + this.instanceLimit;
+        result = 31 * result + this.fragmentBudget;
+        result = 31 * result + this.fragmentSessionBudget;
+        return 31 * result + (int) (this.fragmentExpiryMillis ^ (this.fragmentExpiryMillis >>> 32));
+    }
+
+    /**
+     * Policy for the outbound message queue when queueing a message would exceed the queue's budget.
+     */
+    public enum QueueOverflow {
+        /**
+         * Discard the oldest queued messages until the new message fits within the budget.
+         */
+        DROP_OLDEST,
+        /**
+         * Reject the new message. The message is not queued and sending fails.
+         */
+        REJECT_NEWEST
     }
 }
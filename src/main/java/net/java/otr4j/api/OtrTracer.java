@@ -0,0 +1,99 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.api;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Tracing SPI: receiver of the start and end of operations on the OTR engine's hot paths.
+ * <p>
+ * The OTR engine traces operations through the tracer that is provided by a host that implements
+ * {@link TracingEngineHost}. Hosts that do not provide a tracer get a no-op tracer, which does not allocate. A tracer
+ * allows profiling of latency outliers in production without enabling fine-grained logging. For example, a host that
+ * runs on a JVM with Flight Recorder support, can implement the tracer with custom Flight Recorder events.
+ * <p>
+ * Operations are traced on the threads that process messages, typically while the session is locked.
+ * Implementations must therefore be thread-safe, return quickly and must not throw exceptions.
+ */
+public interface OtrTracer {
+
+    /**
+     * Start tracing an operation.
+     * <p>
+     * The returned span is closed upon completion of the operation, regardless of whether the operation succeeded.
+     *
+     * @param operation the operation
+     * @param sessionID the session ID
+     * @param receiver  the receiver instance tag of the session instance that performs the operation
+     * @return Returns the span that represents the operation.
+     */
+    @Nonnull
+    Span start(@Nonnull Operation operation, @Nonnull SessionID sessionID, @Nonnull InstanceTag receiver);
+
+    /**
+     * Traced operation in progress.
+     */
+    interface Span extends AutoCloseable {
+
+        /**
+         * End the operation.
+         */
+        @Override
+        void close();
+    }
+
+    /**
+     * The traced operations.
+     */
+    enum Operation {
+        /**
+         * Parsing of a received message.
+         */
+        PARSE_MESSAGE,
+        /**
+         * Accumulation of a received fragment, including completion of the reassembled message.
+         */
+        ASSEMBLE_FRAGMENT,
+        /**
+         * DAKE: handling of a received Identity message.
+         */
+        DAKE_IDENTITY,
+        /**
+         * DAKE: handling of a received Auth-R message.
+         */
+        DAKE_AUTH_R,
+        /**
+         * DAKE: handling of a received Auth-I message.
+         */
+        DAKE_AUTH_I,
+        /**
+         * Double Ratchet: rotation of the sender keys.
+         */
+        RATCHET_ROTATE_SENDER,
+        /**
+         * Double Ratchet: rotation of the receiver keys.
+         */
+        RATCHET_ROTATE_RECEIVER,
+        /**
+         * SMP: initiation of a negotiation.
+         */
+        SMP_INITIATE,
+        /**
+         * SMP: response to a negotiation request.
+         */
+        SMP_RESPOND,
+        /**
+         * SMP: processing of a received SMP TLV.
+         */
+        SMP_PROCESS,
+        /**
+         * Host callback: injection of messages into the transport.
+         */
+        HOST_INJECT_MESSAGE
+    }
+}
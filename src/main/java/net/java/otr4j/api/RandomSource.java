@@ -0,0 +1,36 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.api;
+
+import javax.annotation.Nonnull;
+import java.security.SecureRandom;
+
+/**
+ * Optional extension of the OTR engine host for supplying randomness.
+ * <p>
+ * otr4j requires cryptographically secure randomness for key generation, instance tags, fragment identifiers and
+ * the like. By default, otr4j uses a thread-local deterministic random bit generator that is seeded once per thread.
+ * (See {@link net.java.otr4j.crypto.ThreadLocalRandomSource}.) An {@link OtrEngineHost} that additionally implements
+ * this interface supplies the randomness for its sessions instead, for example to share a hardware-backed or
+ * FIPS-approved generator.
+ * <p>
+ * Implementations must be thread-safe. otr4j acquires a secure random instance when it needs randomness, so
+ * implementations are free to hand out a different instance to each thread. Components that live as long as an
+ * encrypted session, such as the SMP state machine, retain the instance they acquired, therefore the returned instances
+ * must be thread-safe too.
+ */
+public interface RandomSource {
+
+    /**
+     * Get a secure random instance for use by the calling thread.
+     *
+     * @return Returns the secure random instance.
+     */
+    @Nonnull
+    SecureRandom secureRandom();
+}
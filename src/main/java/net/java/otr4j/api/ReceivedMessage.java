@@ -0,0 +1,86 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.api;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The result of transforming a received message as part of a batch.
+ * See {@link Session#transformReceiving(java.util.List)}.
+ * <p>
+ * The result either carries the plaintext content of the message, or the failure that prevented the message from
+ * being processed.
+ */
+public final class ReceivedMessage {
+
+    @Nullable
+    private final String content;
+
+    @Nullable
+    private final OtrException failure;
+
+    private ReceivedMessage(@Nullable final String content, @Nullable final OtrException failure) {
+        this.content = content;
+        this.failure = failure;
+    }
+
+    /**
+     * Result of a message that was processed successfully.
+     *
+     * @param content the plaintext message content, or null if the message has no presentable content
+     * @return Returns the result.
+     */
+    @Nonnull
+    public static ReceivedMessage processed(@Nullable final String content) {
+        return new ReceivedMessage(content, null);
+    }
+
+    /**
+     * Result of a message that failed to be processed.
+     *
+     * @param failure the failure
+     * @return Returns the result.
+     */
+    @Nonnull
+    public static ReceivedMessage failed(@Nonnull final OtrException failure) {
+        return new ReceivedMessage(null, requireNonNull(failure));
+    }
+
+    /**
+     * Indicates whether the message failed to be processed.
+     *
+     * @return Returns true iff the message failed to be processed.
+     */
+    public boolean isFailed() {
+        return this.failure != null;
+    }
+
+    /**
+     * The plaintext message content.
+     *
+     * @return Returns the plaintext content, or null if the message has no presentable content (e.g. it is an OTR
+     * protocol message) or if the message failed to be processed.
+     */
+    @Nullable
+    public String getContent() {
+        return this.content;
+    }
+
+    /**
+     * The failure that prevented the message from being processed.
+     *
+     * @return Returns the failure, or null if the message was processed successfully.
+     */
+    @Nullable
+    public OtrException getFailure() {
+        return this.failure;
+    }
+}
@@ -9,6 +9,7 @@ package net.java.otr4j.api;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
 import java.security.interfaces.DSAPublicKey;
 import java.util.HashSet;
 import java.util.List;
@@ -217,6 +218,40 @@ public interface Session {
     @Nonnull
     String[] transformSending(@Nonnull String msgText, @Nonnull Iterable<TLV> tlvs) throws OtrException;
 
+    /**
+     * Transform a batch of messages to prepare for sending. This method assumes no TLVs need to be sent.
+     * <p>
+     * The batch is transformed as a whole, which is cheaper than transforming every message individually. Session
+     * status notifications are coalesced and delivered after the batch is transformed.
+     *
+     * @param messages plain message contents
+     * @return Returns OTR-processed message content in suitable fragments, per message in the same order as the
+     * messages.
+     * @throws OtrException Thrown in case of problems during transformation of any of the messages.
+     */
+    @Nonnull
+    List<String[]> transformSending(@Nonnull List<String> messages) throws OtrException;
+
+    /**
+     * Transform message text to prepare for sending, and write the result directly into the provided destination.
+     * <p>
+     * OTR-encoded messages are written into the destination without first constructing the message as a String. This
+     * variant is intended for transports that do not fragment messages, such as binary streams. The message is not
+     * fragmented: in case the message exceeds the host's maximum fragment size, an exception is thrown before the
+     * message is encrypted, such that the session is not affected. Use {@link #transformSending(String, Iterable)} in
+     * case fragmentation is required.
+     *
+     * @param destination the destination to which the (possibly ENCRYPTED) message content is written
+     * @param msgText     plain message content
+     * @param tlvs        any TLV records to be packed with the other message contents.
+     * @return Returns true iff the message is written, or false if the message is queued or withheld until an
+     * encrypted session is established.
+     * @throws OtrException Thrown in case of problems during transformation, in case the message requires
+     *                      fragmentation, or in case of failure to write to the destination.
+     */
+    boolean transformSending(@Nonnull Appendable destination, @Nonnull String msgText, @Nonnull Iterable<TLV> tlvs)
+            throws OtrException;
+
     /**
      * Transform (OTR encoded) message to plain text message.
      *
@@ -227,6 +262,48 @@ public interface Session {
     @Nullable
     String transformReceiving(@Nonnull String msgText) throws OtrException;
 
+    /**
+     * Transform (OTR encoded) message to plain text message, reading the message directly from a character sequence.
+     * <p>
+     * OTR-encoded messages are decoded directly from the character sequence, without first converting it to a String.
+     * The character sequence must not be modified afterwards: fragments of a message may refer to it until the message
+     * is reassembled.
+     *
+     * @param msgText the (possibly encrypted) raw message content
+     * @return Returns the plaintext message content.
+     * @throws OtrException Thrown in case of problems during transformation.
+     */
+    @Nullable
+    String transformReceiving(@Nonnull CharSequence msgText) throws OtrException;
+
+    /**
+     * Transform (OTR encoded) message to plain text message, reading the message directly from the bytes of a
+     * transport.
+     * <p>
+     * The remaining bytes of the buffer are decoded as UTF-8 and the message is processed without constructing an
+     * intermediate String. The position of the buffer is not modified. The bytes are not referenced after the method
+     * returns, so the buffer may be reused.
+     *
+     * @param msgBytes the (possibly encrypted) raw message content as UTF-8 encoded bytes
+     * @return Returns the plaintext message content.
+     * @throws OtrException Thrown in case of problems during transformation.
+     */
+    @Nullable
+    String transformReceiving(@Nonnull ByteBuffer msgBytes) throws OtrException;
+
+    /**
+     * Transform a batch of (OTR encoded) messages to plain text messages.
+     * <p>
+     * The session policy is queried once for the whole batch. Session status notifications are coalesced and delivered
+     * after the batch is processed. A message that cannot be processed does not abort processing of the remainder of
+     * the batch: its failure is reported in its result.
+     *
+     * @param messages the (possibly encrypted) raw message contents
+     * @return Returns the result per message, in the same order as the messages.
+     */
+    @Nonnull
+    List<ReceivedMessage> transformReceiving(@Nonnull List<String> messages);
+
     /**
      * Refresh an existing OTR session, i.e. perform new AKE. If sufficient
      * information is available about the protocol capabilities of the other
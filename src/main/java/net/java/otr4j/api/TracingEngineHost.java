@@ -0,0 +1,28 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.api;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Optional extension of the OTR engine host for tracing operations.
+ * <p>
+ * An {@link OtrEngineHost} that additionally implements this interface provides the {@link OtrTracer} that traces
+ * operations on the engine's hot paths. The tracer is acquired once, upon construction of the session. Hosts that do
+ * not implement this interface do not trace operations.
+ */
+public interface TracingEngineHost {
+
+    /**
+     * Get the tracer.
+     *
+     * @return Returns the tracer.
+     */
+    @Nonnull
+    OtrTracer getTracer();
+}
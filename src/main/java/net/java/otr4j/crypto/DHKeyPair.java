@@ -24,6 +24,11 @@ import static net.java.otr4j.util.ByteArrays.requireLengthExactly;
 // TODO Is it okay that we perform DH value handling ourselves instead of going through the obscure JCA key factories and agreements? (Consider BC) (I'm not happy with this implementation over standard JCA stuff. However, I also currently cannot find a reason to switch. OTRv4 spec makes it look so simple that there's more risk in trying to use the JCA correctly ... Except maybe for mitigating side-channel attacks such as with timing-related requirements.)
 public final class DHKeyPair implements AutoCloseable {
 
+    /**
+     * The maximum length of a DH public key, i.e. the length of the 3072-bit modulus.
+     */
+    public static final int DH_PUBLIC_KEY_MAX_LENGTH_BYTES = 384;
+
     /**
      * The expected length of DH private key.
      */
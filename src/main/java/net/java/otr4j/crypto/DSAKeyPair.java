@@ -19,6 +19,7 @@ import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.security.interfaces.DSAParams;
 import java.security.interfaces.DSAPrivateKey;
 import java.security.interfaces.DSAPublicKey;
@@ -76,9 +77,20 @@ public final class DSAKeyPair {
      */
     @Nonnull
     public static DSAKeyPair generateDSAKeyPair() {
+        return generateDSAKeyPair(ThreadLocalRandomSource.instance().secureRandom());
+    }
+
+    /**
+     * Generate a DSA key pair.
+     *
+     * @param random the secure random instance used for generating
+     * @return Returns the DSA key pair.
+     */
+    @Nonnull
+    public static DSAKeyPair generateDSAKeyPair(@Nonnull final SecureRandom random) {
         try {
             final KeyPairGenerator kg = KeyPairGenerator.getInstance(ALGORITHM_DSA);
-            kg.initialize(DSA_KEY_SIZE_BITS);
+            kg.initialize(DSA_KEY_SIZE_BITS, random);
             final KeyPair keypair = kg.genKeyPair();
             return new DSAKeyPair((DSAPrivateKey) keypair.getPrivate(), (DSAPublicKey) keypair.getPublic());
         } catch (final NoSuchAlgorithmException e) {
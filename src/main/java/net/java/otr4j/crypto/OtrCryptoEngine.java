@@ -135,12 +135,25 @@ public final class OtrCryptoEngine {
     @Nonnull
     public static byte[] sha1Hmac(@Nonnull final byte[] b, @Nonnull final byte[] key) {
         assert !allZeroBytes(b) : "Expected non-zero bytes for b. This may indicate that a critical bug is present, or it may be a false warning.";
+        return sha1Hmac(ByteBuffer.wrap(b), key);
+    }
+
+    /**
+     * The SHA-1 HMAC of the remaining bytes of the buffer. The position of the buffer is not modified.
+     *
+     * @param b   the input bytes
+     * @param key the salt
+     * @return Returns the checksum.
+     */
+    @Nonnull
+    public static byte[] sha1Hmac(@Nonnull final ByteBuffer b, @Nonnull final byte[] key) {
         assert !allZeroBytes(key) : "Expected non-zero bytes for key. This may indicate that a critical bug is present, or it may be a false warning.";
         final byte[] macBytes;
         try {
             final Mac mac = Mac.getInstance(HMAC_SHA1);
             mac.init(new SecretKeySpec(key, HMAC_SHA1));
-            macBytes = mac.doFinal(b);
+            mac.update(b.duplicate());
+            macBytes = mac.doFinal();
         } catch (final NoSuchAlgorithmException ex) {
             throw new IllegalStateException("Unsupported HMAC function specified.", ex);
         } catch (final InvalidKeyException ex) {
@@ -23,6 +23,7 @@ import javax.annotation.Nonnull;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.ProtocolException;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Objects;
@@ -68,6 +69,11 @@ public final class OtrCryptoEngine4 {
      */
     private static final byte[] OTR4_PREFIX = new byte[]{'O', 'T', 'R', 'v', '4'};
 
+    /**
+     * Length of the chunks in which a buffer without accessible backing array is fed to KDF_1.
+     */
+    private static final int KDF_CHUNK_LENGTH_BYTES = 1024;
+
     /**
      * Length of the ChaCha20 encryption/decryption key in bytes.
      */
@@ -275,6 +281,44 @@ public final class OtrCryptoEngine4 {
         digest.doFinal(dst, offset, outputSize);
     }
 
+    /**
+     * KDF_1 key derivation function, for input that consists of a byte-array followed by the remaining bytes of a
+     * buffer. ({@link #kdf1(byte[], int, KDFUsage, byte[], int)} for more details.)
+     * <p>
+     * The buffer is processed in place, such that it does not need to be concatenated with the byte-array first. The
+     * position of the buffer is not modified.
+     *
+     * @param usageID    The usage ID to be mixed in the input to KDF1.
+     * @param input      The first part of the input data.
+     * @param remainder  The remainder of the input data.
+     * @param outputSize Expected output size.
+     * @return Returns byte-array with KDF_1 result.
+     */
+    public static byte[] kdf1(@Nonnull final KDFUsage usageID, @Nonnull final byte[] input,
+            @Nonnull final ByteBuffer remainder, final int outputSize) {
+        requireAtLeast(0, outputSize);
+        final SHAKEDigest digest = new SHAKEDigest(SHAKE_256_LENGTH_BITS);
+        digest.update(OTR4_PREFIX, 0, OTR4_PREFIX.length);
+        digest.update(usageID.value);
+        digest.update(input, 0, input.length);
+        if (remainder.hasArray()) {
+            digest.update(remainder.array(), remainder.arrayOffset() + remainder.position(), remainder.remaining());
+        } else {
+            // Read-only buffers do not expose their backing array, so we feed the digest through a bounded chunk.
+            final ByteBuffer source = remainder.duplicate();
+            final byte[] chunk = new byte[Math.min(KDF_CHUNK_LENGTH_BYTES, source.remaining())];
+            while (source.hasRemaining()) {
+                final int length = Math.min(chunk.length, source.remaining());
+                source.get(chunk, 0, length);
+                digest.update(chunk, 0, length);
+            }
+            clear(chunk);
+        }
+        final byte[] result = new byte[outputSize];
+        digest.doFinal(result, 0, outputSize);
+        return result;
+    }
+
     /**
      * Generate a new random value in Z_q.
      *
@@ -586,6 +630,11 @@ public final class OtrCryptoEngine4 {
             out.writeScalar(this.r3);
         }
 
+        @Override
+        public int encodedLength() {
+            return 6 * SCALAR_LENGTH_BYTES;
+        }
+
         @SuppressWarnings("ShortCircuitBoolean")
         @Override
         public boolean equals(final Object o) {
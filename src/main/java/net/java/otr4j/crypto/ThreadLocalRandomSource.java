@@ -0,0 +1,75 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.crypto;
+
+import net.java.otr4j.api.RandomSource;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.prng.SP800SecureRandomBuilder;
+
+import javax.annotation.Nonnull;
+import java.security.SecureRandom;
+
+import static org.bouncycastle.util.Pack.longToBigEndian;
+
+/**
+ * Random source that provides every thread with its own deterministic random bit generator.
+ * <p>
+ * The generator is a NIST SP 800-90A Hash_DRBG based on SHA-512. Each generator is seeded once, upon first use in its
+ * thread, from a shared, system-provided {@link SecureRandom}. The generator reseeds itself as required by the
+ * standard. Compared to constructing a new {@link SecureRandom} for every session, this avoids repeated seeding and
+ * contention on the system entropy pool when many sessions are created at once, and avoids lock contention on a single
+ * shared instance.
+ * <p>
+ * The generators are thread-safe, so a generator that is retained and later used by another thread still produces
+ * secure random data. It merely loses the benefit of not being contended.
+ */
+public final class ThreadLocalRandomSource implements RandomSource {
+
+    private static final ThreadLocalRandomSource INSTANCE = new ThreadLocalRandomSource();
+
+    /**
+     * The system-provided source of entropy for seeding the per-thread generators.
+     */
+    private final SecureRandom entropy = new SecureRandom();
+
+    private final ThreadLocal<SecureRandom> generators = new ThreadLocal<SecureRandom>() {
+        @Override
+        protected SecureRandom initialValue() {
+            final Thread thread = Thread.currentThread();
+            final byte[] nonce = new byte[16];
+            longToBigEndian(thread.getId(), nonce, 0);
+            longToBigEndian(System.nanoTime(), nonce, 8);
+            return new SP800SecureRandomBuilder(entropy, false).buildHash(new SHA512Digest(), nonce, false);
+        }
+    };
+
+    private ThreadLocalRandomSource() {
+        // Singleton: a single instance suffices as generators are thread-local.
+    }
+
+    /**
+     * Get the thread-local random source.
+     *
+     * @return Returns the random source.
+     */
+    @Nonnull
+    public static ThreadLocalRandomSource instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the secure random instance of the calling thread.
+     *
+     * @return Returns the calling thread's secure random instance.
+     */
+    @Nonnull
+    @Override
+    public SecureRandom secureRandom() {
+        return this.generators.get();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.io;
+
+import javax.annotation.Nonnull;
+import java.net.ProtocolException;
+import java.util.Arrays;
+
+/**
+ * Decoder for the base64-encoded payload of OTR-encoded messages.
+ * <p>
+ * The decoder reads directly from a range of a CharSequence and decodes into an exactly sized byte-array. Therefore it
+ * is not necessary to first extract the payload as a separate String or to convert it to bytes. The decoder is strict:
+ * only the standard base64 alphabet with padding is accepted. Whitespace is not allowed.
+ */
+final class Base64Decoder {
+
+    /**
+     * Value for characters outside of the base64 alphabet.
+     */
+    static final int INVALID = -1;
+
+    /**
+     * Padding character.
+     */
+    static final char PADDING = '=';
+
+    private static final byte[] ALPHABET = new byte[128];
+
+    static {
+        Arrays.fill(ALPHABET, (byte) INVALID);
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            ALPHABET[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private Base64Decoder() {
+        // No need to instantiate utility class.
+    }
+
+    /**
+     * Decode the base64-encoded range of the text.
+     *
+     * @param text  the text
+     * @param start the start index of the range (inclusive)
+     * @param end   the end index of the range (exclusive)
+     * @return Returns the decoded bytes.
+     * @throws ProtocolException In case the range is not valid base64.
+     */
+    @Nonnull
+    static byte[] decode(@Nonnull final CharSequence text, final int start, final int end) throws ProtocolException {
+        if (start < 0 || end > text.length() || start > end) {
+            throw new IndexOutOfBoundsException("Illegal range: start " + start + ", end " + end);
+        }
+        final int length = end - start;
+        if (length % 4 != 0) {
+            throw new ProtocolException("Illegal base64 content: length is not a multiple of 4.");
+        }
+        if (length == 0) {
+            return new byte[0];
+        }
+        int padding = 0;
+        if (text.charAt(end - 1) == PADDING) {
+            padding++;
+            if (text.charAt(end - 2) == PADDING) {
+                padding++;
+            }
+        }
+        final byte[] out = new byte[length / 4 * 3 - padding];
+        final int fullEnd = padding == 0 ? end : end - 4;
+        int o = 0;
+        for (int i = start; i < fullEnd; i += 4) {
+            final int quad = value(text, i) << 18 | value(text, i + 1) << 12 | value(text, i + 2) << 6
+                    | value(text, i + 3);
+            out[o++] = (byte) (quad >> 16);
+            out[o++] = (byte) (quad >> 8);
+            out[o++] = (byte) quad;
+        }
+        if (padding == 1) {
+            final int triple = value(text, fullEnd) << 12 | value(text, fullEnd + 1) << 6 | value(text, fullEnd + 2);
+            out[o++] = (byte) (triple >> 10);
+            out[o] = (byte) (triple >> 2);
+        } else if (padding == 2) {
+            final int pair = value(text, fullEnd) << 6 | value(text, fullEnd + 1);
+            out[o] = (byte) (pair >> 4);
+        }
+        return out;
+    }
+
+    /**
+     * Decode only the leading characters of the base64-encoded range of the text.
+     * <p>
+     * The full range is validated in a single pass, such that a malformed range is rejected before any of its content
+     * is used. Only the leading characters are decoded.
+     *
+     * @param text     the text
+     * @param start    the start index of the range (inclusive)
+     * @param end      the end index of the range (exclusive)
+     * @param maxChars the maximum number of characters to decode, must be a multiple of 4
+     * @return Returns the decoded bytes of at most the first {@code maxChars} characters.
+     * @throws ProtocolException In case the range is not valid base64.
+     */
+    @Nonnull
+    static byte[] decodePrefix(@Nonnull final CharSequence text, final int start, final int end, final int maxChars)
+            throws ProtocolException {
+        if (maxChars < 0 || maxChars % 4 != 0) {
+            throw new IllegalArgumentException("Number of characters must be a non-negative multiple of 4.");
+        }
+        validate(text, start, end);
+        return decode(text, start, Math.min(end, start + maxChars));
+    }
+
+    /**
+     * Validate the base64-encoded range of the text without decoding it.
+     *
+     * @param text  the text
+     * @param start the start index of the range (inclusive)
+     * @param end   the end index of the range (exclusive)
+     * @throws ProtocolException In case the range is not valid base64.
+     */
+    static void validate(@Nonnull final CharSequence text, final int start, final int end) throws ProtocolException {
+        if (start < 0 || end > text.length() || start > end) {
+            throw new IndexOutOfBoundsException("Illegal range: start " + start + ", end " + end);
+        }
+        if ((end - start) % 4 != 0) {
+            throw new ProtocolException("Illegal base64 content: length is not a multiple of 4.");
+        }
+        int padding = 0;
+        if (end > start && text.charAt(end - 1) == PADDING) {
+            padding++;
+            if (text.charAt(end - 2) == PADDING) {
+                padding++;
+            }
+        }
+        for (int i = start; i < end - padding; i++) {
+            value(text, i);
+        }
+    }
+
+    /**
+     * Get the 6-bit value of a base64 character.
+     *
+     * @param c the character
+     * @return Returns the value, or {@link #INVALID} if the character is not in the base64 alphabet.
+     */
+    static int value(final char c) {
+        return c < ALPHABET.length ? ALPHABET[c] : INVALID;
+    }
+
+    private static int value(@Nonnull final CharSequence text, final int index) throws ProtocolException {
+        final int value = value(text.charAt(index));
+        if (value == INVALID) {
+            throw new ProtocolException("Illegal base64 content: invalid character at index " + index);
+        }
+        return value;
+    }
+}
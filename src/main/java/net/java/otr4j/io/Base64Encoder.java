@@ -0,0 +1,112 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.io;
+
+import javax.annotation.Nonnull;
+
+import static java.util.Objects.requireNonNull;
+import static net.java.otr4j.io.Base64Decoder.PADDING;
+
+/**
+ * Encoder that base64-encodes the bytes written to it directly into a StringBuilder.
+ * <p>
+ * Bytes can be written in any number of consecutive writes, such that the content of a buffer is encoded without
+ * first copying the bytes to a separate byte-array or the encoded characters to a separate String. Bytes of an
+ * incomplete group are carried over to the next write. {@link #finish()} writes the final, padded group.
+ * <p>
+ * Base64Encoder is NOT thread-safe.
+ */
+final class Base64Encoder {
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .toCharArray();
+
+    private final StringBuilder builder;
+
+    /**
+     * The bits of the current group.
+     */
+    private int group;
+
+    /**
+     * The number of bytes in the current group.
+     */
+    private int groupLength;
+
+    Base64Encoder(@Nonnull final StringBuilder builder) {
+        this.builder = requireNonNull(builder);
+    }
+
+    /**
+     * The number of characters of the base64 encoding, including padding.
+     *
+     * @param length the number of bytes
+     * @return Returns the number of characters.
+     */
+    static int encodedLength(final int length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    /**
+     * Write a single byte.
+     *
+     * @param b the byte
+     */
+    void write(final int b) {
+        this.group = this.group << 8 | (b & 0xff);
+        if (++this.groupLength == 3) {
+            appendGroup(this.group);
+            this.group = 0;
+            this.groupLength = 0;
+        }
+    }
+
+    /**
+     * Write a range of bytes.
+     *
+     * @param b the bytes
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     */
+    void write(@Nonnull final byte[] b, final int off, final int len) {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException("Illegal range: offset " + off + ", length " + len);
+        }
+        final int end = off + len;
+        int i = off;
+        while (this.groupLength > 0 && i < end) {
+            write(b[i++]);
+        }
+        for (; i + 3 <= end; i += 3) {
+            appendGroup((b[i] & 0xff) << 16 | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff));
+        }
+        while (i < end) {
+            write(b[i++]);
+        }
+    }
+
+    /**
+     * Write the final group, including padding. The encoder must not be used afterwards.
+     */
+    void finish() {
+        if (this.groupLength == 1) {
+            this.builder.append(ALPHABET[(this.group >> 2) & 0x3f]).append(ALPHABET[(this.group << 4) & 0x3f])
+                    .append(PADDING).append(PADDING);
+        } else if (this.groupLength == 2) {
+            this.builder.append(ALPHABET[(this.group >> 10) & 0x3f]).append(ALPHABET[(this.group >> 4) & 0x3f])
+                    .append(ALPHABET[(this.group << 2) & 0x3f]).append(PADDING);
+        }
+        this.group = 0;
+        this.groupLength = 0;
+    }
+
+    private void appendGroup(final int triple) {
+        this.builder.append(ALPHABET[(triple >> 18) & 0x3f]).append(ALPHABET[(triple >> 12) & 0x3f])
+                .append(ALPHABET[(triple >> 6) & 0x3f]).append(ALPHABET[triple & 0x3f]);
+    }
+}
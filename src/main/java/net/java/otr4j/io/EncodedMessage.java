@@ -10,11 +10,19 @@ package net.java.otr4j.io;
 import net.java.otr4j.api.InstanceTag;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.net.ProtocolException;
 
 import static java.util.Objects.requireNonNull;
 
 /**
  * Encoded message class that contains the common OTR header fields and the raw payload.
+ * <p>
+ * Messages that are parsed from text carry only the decoded header. The payload is validated upon parsing, but decoded
+ * upon first request, such that messages that are discarded based on their header, e.g. messages intended for another
+ * instance, are never decoded in full.
+ * <p>
+ * The encoded message is not thread-safe, as the payload is a stream that is consumed upon reading.
  */
 public final class EncodedMessage implements Message {
 
@@ -38,10 +46,32 @@ public final class EncodedMessage implements Message {
      */
     public final InstanceTag receiverTag;
 
+    /**
+     * The source text of the not yet decoded payload, or {@code null} if the payload is available.
+     */
+    @Nullable
+    private CharSequence source;
+
+    /**
+     * The start index (inclusive) of the base64-encoded content, starting with the header, in the source text.
+     */
+    private final int start;
+
+    /**
+     * The end index (exclusive) of the base64-encoded payload in the source text.
+     */
+    private final int end;
+
+    /**
+     * The length in bytes of the decoded header, which precedes the payload.
+     */
+    private final int headerLength;
+
     /**
      * OTR-encoded payload of the message, intended for subsequent parsing.
      */
-    public final OtrInputStream payload;
+    @Nullable
+    private OtrInputStream payload;
 
     /**
      * Constructor for the encoded message.
@@ -58,6 +88,61 @@ public final class EncodedMessage implements Message {
         this.type = type;
         this.senderTag = requireNonNull(senderTag);
         this.receiverTag = requireNonNull(receiverTag);
+        this.source = null;
+        this.start = 0;
+        this.end = 0;
+        this.headerLength = 0;
         this.payload = requireNonNull(payload);
     }
+
+    /**
+     * Constructor for the encoded message with the payload not yet decoded.
+     * <p>
+     * The base64-encoded message content is {@code source[contentStart:contentEnd]}. The header, of size
+     * {@code headerLength} bytes, is already decoded and is not part of the payload.
+     *
+     * @param version      the protocol version
+     * @param type         the message type identifier
+     * @param senderTag    the sender instance tag
+     * @param receiverTag  the receiver instance tag
+     * @param source       the source text, must not change after construction
+     * @param contentStart the start index (inclusive) of the base64-encoded content
+     * @param contentEnd   the end index (exclusive) of the base64-encoded content
+     * @param headerLength the length in bytes of the decoded header
+     */
+    EncodedMessage(final int version, final int type, @Nonnull final InstanceTag senderTag,
+            @Nonnull final InstanceTag receiverTag, @Nonnull final CharSequence source, final int contentStart,
+            final int contentEnd, final int headerLength) {
+        this.version = version;
+        this.type = type;
+        this.senderTag = requireNonNull(senderTag);
+        this.receiverTag = requireNonNull(receiverTag);
+        this.source = requireNonNull(source);
+        this.start = contentStart;
+        this.end = contentEnd;
+        this.headerLength = headerLength;
+        this.payload = null;
+    }
+
+    /**
+     * Get the OTR-encoded payload of the message, intended for subsequent parsing.
+     * <p>
+     * The payload is decoded upon first request. Subsequent requests return the same (partially consumed) stream.
+     * <p>
+     * The header is decoded along with the payload, such that {@link OtrInputStream#precedingBytes()} provides the
+     * message as it was received, e.g. for authentication.
+     *
+     * @return Returns the payload.
+     * @throws ProtocolException In case the payload is not validly encoded.
+     */
+    @Nonnull
+    public OtrInputStream getPayload() throws ProtocolException {
+        if (this.payload == null) {
+            assert this.source != null : "BUG: expected source to be available if payload is not yet decoded.";
+            this.payload = new OtrInputStream(Base64Decoder.decode(this.source, this.start, this.end),
+                    this.headerLength);
+            this.source = null;
+        }
+        return this.payload;
+    }
 }
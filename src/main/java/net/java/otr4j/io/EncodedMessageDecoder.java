@@ -0,0 +1,183 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.io;
+
+import net.java.otr4j.api.InstanceTag;
+import net.java.otr4j.api.Session.Version;
+
+import javax.annotation.Nonnull;
+import java.net.ProtocolException;
+import java.util.Arrays;
+
+import static net.java.otr4j.api.Session.Version.SUPPORTED;
+import static net.java.otr4j.io.Base64Decoder.INVALID;
+import static net.java.otr4j.io.Base64Decoder.PADDING;
+import static net.java.otr4j.io.EncodingConstants.HEAD;
+import static net.java.otr4j.io.EncodingConstants.HEAD_ENCODED;
+import static net.java.otr4j.io.EncodingConstants.TAIL_ENCODED;
+
+/**
+ * Incremental decoder for an OTR-encoded message that is received in consecutive parts, such as the contents of the
+ * fragments of a fragmented message.
+ * <p>
+ * Every part is base64-decoded as soon as it is appended. Characters of an incomplete base64 group are carried over to
+ * the next part, so parts may be split at any position. Upon completion, the decoded message is available without
+ * first concatenating the parts and parsing the message text as a whole.
+ * <p>
+ * The decoder is as strict as {@link MessageProcessor#parseMessage(CharSequence)}: the message must start with
+ * "?OTR:", must end with "." and the content must be base64 in the standard alphabet with padding.
+ * <p>
+ * EncodedMessageDecoder is NOT thread-safe.
+ */
+public final class EncodedMessageDecoder {
+
+    private static final String PREFIX = HEAD + HEAD_ENCODED;
+
+    private static final int MINIMUM_CAPACITY = 64;
+
+    /**
+     * The decoded bytes. Only the first {@link #size} bytes are in use.
+     */
+    private byte[] buffer;
+
+    private int size;
+
+    /**
+     * The number of characters of the prefix "?OTR:" that are matched.
+     */
+    private int matched;
+
+    /**
+     * The bits of the current base64 group.
+     */
+    private int group;
+
+    /**
+     * The number of characters in the current base64 group, including padding.
+     */
+    private int groupLength;
+
+    /**
+     * The number of padding characters. Padding is only allowed in the final base64 group.
+     */
+    private int padding;
+
+    private boolean terminated;
+
+    /**
+     * Constructor for the decoder.
+     *
+     * @param expectedLength the expected number of characters of the message, used to size the initial buffer
+     */
+    public EncodedMessageDecoder(final int expectedLength) {
+        if (expectedLength < 0) {
+            throw new IllegalArgumentException("Expected length cannot be negative.");
+        }
+        this.buffer = new byte[Math.max(MINIMUM_CAPACITY, expectedLength / 4 * 3)];
+    }
+
+    /**
+     * Append the next part of the message.
+     *
+     * @param part the part
+     * @throws ProtocolException In case the part violates the format of an OTR-encoded message.
+     */
+    public void append(@Nonnull final CharSequence part) throws ProtocolException {
+        append(part, 0, part.length());
+    }
+
+    /**
+     * Append the next part of the message, as the specified range of the text.
+     *
+     * @param text  the text that contains the part
+     * @param start the start index (inclusive) of the part
+     * @param end   the end index (exclusive) of the part
+     * @throws ProtocolException In case the part violates the format of an OTR-encoded message.
+     */
+    public void append(@Nonnull final CharSequence text, final int start, final int end) throws ProtocolException {
+        if (start < 0 || end > text.length() || start > end) {
+            throw new IndexOutOfBoundsException("Illegal range: start " + start + ", end " + end);
+        }
+        for (int i = start; i < end; i++) {
+            final char c = text.charAt(i);
+            if (this.matched < PREFIX.length()) {
+                if (c != PREFIX.charAt(this.matched)) {
+                    throw new ProtocolException("Illegal content: not an OTR-encoded message.");
+                }
+                this.matched++;
+            } else if (this.terminated) {
+                throw new ProtocolException("Illegal content: characters following the end of the OTR-encoded message.");
+            } else if (c == TAIL_ENCODED) {
+                if (this.groupLength != 0) {
+                    throw new ProtocolException("Illegal base64 content: length is not a multiple of 4.");
+                }
+                this.terminated = true;
+            } else if (c == PADDING) {
+                if (this.groupLength < 2) {
+                    throw new ProtocolException("Illegal base64 content: unexpected padding.");
+                }
+                this.padding++;
+                accept(0);
+            } else {
+                final int value = Base64Decoder.value(c);
+                if (value == INVALID || this.padding > 0) {
+                    throw new ProtocolException("Illegal base64 content: invalid character '" + c + "'.");
+                }
+                accept(value);
+            }
+        }
+    }
+
+    /**
+     * Complete decoding and get the decoded message.
+     *
+     * @return Returns the encoded message, of which the payload is already decoded.
+     * @throws ProtocolException In case the message is incomplete, or the header is invalid.
+     */
+    @Nonnull
+    public EncodedMessage finish() throws ProtocolException {
+        if (!this.terminated) {
+            throw new ProtocolException("Illegal content: OTR-encoded message is incomplete.");
+        }
+        final OtrInputStream input = new OtrInputStream(this.buffer, 0, this.size);
+        final int protocolVersion = input.readShort();
+        if (!SUPPORTED.contains(protocolVersion)) {
+            throw new ProtocolException("Unsupported protocol version " + protocolVersion);
+        }
+        final byte messageType = input.readByte();
+        final InstanceTag senderInstanceTag;
+        final InstanceTag receiverInstanceTag;
+        if (protocolVersion == Version.THREE || protocolVersion == Version.FOUR) {
+            senderInstanceTag = input.readInstanceTag();
+            receiverInstanceTag = input.readInstanceTag();
+        } else {
+            senderInstanceTag = InstanceTag.ZERO_TAG;
+            receiverInstanceTag = InstanceTag.ZERO_TAG;
+        }
+        return new EncodedMessage(protocolVersion, messageType, senderInstanceTag, receiverInstanceTag, input);
+    }
+
+    private void accept(final int value) {
+        this.group = this.group << 6 | value;
+        if (++this.groupLength < 4) {
+            return;
+        }
+        if (this.size + 3 > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+        }
+        this.buffer[this.size++] = (byte) (this.group >> 16);
+        if (this.padding < 2) {
+            this.buffer[this.size++] = (byte) (this.group >> 8);
+        }
+        if (this.padding < 1) {
+            this.buffer[this.size++] = (byte) this.group;
+        }
+        this.group = 0;
+        this.groupLength = 0;
+    }
+}
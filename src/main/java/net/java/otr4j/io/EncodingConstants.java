@@ -21,6 +21,7 @@ final class EncodingConstants {
     static final char HEAD_QUERY_Q = '?';
     static final char HEAD_QUERY_V = 'v';
     static final char TAIL_FRAGMENTED = ',';
+    static final char TAIL_ENCODED = '.';
     static final String ERROR_PREFIX = "Error:";
 
     static final int TYPE_LEN_BYTE = 1;
@@ -12,17 +12,22 @@ import net.java.otr4j.api.Session;
 
 import javax.annotation.Nonnull;
 import java.net.ProtocolException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import static java.lang.Integer.parseInt;
 import static java.util.Objects.requireNonNull;
+import static net.java.otr4j.api.InstanceTag.ZERO_TAG;
 import static net.java.otr4j.api.InstanceTag.ZERO_VALUE;
 import static net.java.otr4j.api.InstanceTag.isValidInstanceTag;
-import static net.java.otr4j.util.Integers.parseUnsignedInt;
+import static net.java.otr4j.io.EncodingConstants.HEAD;
+import static net.java.otr4j.io.EncodingConstants.HEAD_FRAGMENTED_V2;
+import static net.java.otr4j.io.EncodingConstants.HEAD_FRAGMENTED_V3;
+import static net.java.otr4j.io.EncodingConstants.TAIL_FRAGMENTED;
+import static net.java.otr4j.util.Strings.startsWith;
 
 /**
  * An OTR message that represents a fragment of an OTR-encoded message.
+ * <p>
+ * The fragment content is not copied from the original message. Instead, the fragment refers to the range of the
+ * original message that contains the content.
  */
 public final class Fragment implements Message {
 
@@ -35,36 +40,14 @@ public final class Fragment implements Message {
     private static final int HEXADECIMAL_SYSTEM = 16;
 
     /**
-     * OTRv2 fragment pattern.
-     * <p>
-     * Group 1: current message part index.
-     * Group 2: total number of message parts.
-     * Group 3: fragment content.
+     * Maximum number of digits of the decimal fields: index and total.
      */
-    private static final Pattern PATTERN_V2 = Pattern.compile("^\\?OTR,(\\d{1,5}),(\\d{1,5}),([a-zA-Z0-9+/=?:.]*),$");
+    private static final int MAX_DECIMAL_DIGITS = 5;
 
     /**
-     * OTRv3 fragment pattern.
-     * <p>
-     * Group 1: sender tag.
-     * Group 2: receiver tag.
-     * Group 3: current message part index.
-     * Group 4: total number of message parts.
-     * Group 5: fragment content.
+     * Maximum number of digits of the hexadecimal fields: identifier, sender tag and receiver tag.
      */
-    private static final Pattern PATTERN_V3 = Pattern.compile("^\\?OTR\\|([0-9abcdefABCDEF]{1,8})\\|([0-9abcdefABCDEF]{1,8}),(\\d{1,5}),(\\d{1,5}),([a-zA-Z0-9+/=?:.]*),$");
-
-    /**
-     * OTRv4 fragment pattern.
-     * <p>
-     * Group 1: message identifier.
-     * Group 2: sender tag.
-     * Group 3: receiver tag.
-     * Group 4: current message part index.
-     * Group 5: total number of message parts.
-     * Group 6: fragment content.
-     */
-    private static final Pattern PATTERN_V4 = Pattern.compile("^\\?OTR\\|([0-9abcdefABCDEF]{1,8})\\|([0-9abcdefABCDEF]{1,8})\\|([0-9abcdefABCDEF]{1,8}),(\\d{1,5}),(\\d{1,5}),([a-zA-Z0-9+/=?:.]*),$");
+    private static final int MAX_HEXADECIMAL_DIGITS = 8;
 
     private static final int ZERO_IDENTIFIER = 0;
 
@@ -74,65 +57,112 @@ public final class Fragment implements Message {
     private final InstanceTag receiverTag;
     private final int index;
     private final int total;
-    private final String content;
+
+    /**
+     * The original message, which contains the content.
+     */
+    private final CharSequence message;
+
+    /**
+     * The start index (inclusive) of the content in the original message.
+     */
+    private final int contentStart;
+
+    /**
+     * The end index (exclusive) of the content in the original message.
+     */
+    private final int contentEnd;
 
     private Fragment(final int version, final int identifier, @Nonnull final InstanceTag senderTag,
-            @Nonnull final InstanceTag receiverTag, final int index, final int total, @Nonnull final String content) {
+            @Nonnull final InstanceTag receiverTag, final int index, final int total,
+            @Nonnull final CharSequence message, final int contentStart, final int contentEnd) {
         this.version = version;
         this.identifier = identifier;
         this.senderTag = requireNonNull(senderTag);
         this.receiverTag = requireNonNull(receiverTag);
         this.index = index;
         this.total = total;
-        this.content = requireNonNull(content);
+        this.message = requireNonNull(message);
+        this.contentStart = contentStart;
+        this.contentEnd = contentEnd;
     }
 
     /**
      * Parse message that is a fragment and verify its contents.
+     * <p>
+     * The header is parsed in a single pass over the message. Fields are read directly from the message, so parsing
+     * does not allocate anything other than the fragment itself and its instance tags.
+     * <p>
+     * The following formats are accepted, with hexadecimal fields of 1 to 8 digits and decimal fields of 1 to 5
+     * digits:
+     * <ul>
+     * <li>OTRv2: {@code ?OTR,index,total,content,}</li>
+     * <li>OTRv3: {@code ?OTR|sender|receiver,index,total,content,}</li>
+     * <li>OTRv4: {@code ?OTR|identifier|sender|receiver,index,total,content,}</li>
+     * </ul>
      *
-     * @param message the raw message
+     * @param message the raw message, must not change after parsing as the fragment refers to it for its content
      * @return Returns a fragment.
      * @throws ProtocolException In case of invalid fragment format, or in case of bad data in the fragment.
      */
-    @SuppressWarnings({"PMD.AssignmentInOperand"})
     @Nonnull
-    public static Fragment parse(@Nonnull final String message) throws ProtocolException {
+    public static Fragment parse(@Nonnull final CharSequence message) throws ProtocolException {
+        final int length = message.length();
+        if (!startsWith(message, 0, HEAD) || length <= HEAD.length()
+                || message.charAt(length - 1) != TAIL_FRAGMENTED) {
+            throw new ProtocolException("Illegal fragment format.");
+        }
         final int version;
         final int identifier;
         final int sendertagValue;
         final int receivertagValue;
-        final int index;
-        final int total;
-        final String content;
         // Acquire data from fragment message.
-        Matcher matcher;
-        if ((matcher = PATTERN_V4.matcher(message)).matches()) {
-            version = Session.Version.FOUR;
-            identifier = parseUnsignedInt(matcher.group(1), HEXADECIMAL_SYSTEM);
-            sendertagValue = parseUnsignedInt(matcher.group(2), HEXADECIMAL_SYSTEM);
-            receivertagValue = parseUnsignedInt(matcher.group(3), HEXADECIMAL_SYSTEM);
-            index = parseInt(matcher.group(4), DECIMAL_SYSTEM);
-            total = parseInt(matcher.group(5), DECIMAL_SYSTEM);
-            content = matcher.group(6);
-        } else if ((matcher = PATTERN_V3.matcher(message)).matches()) {
-            version = Session.Version.THREE;
-            identifier = ZERO_IDENTIFIER;
-            sendertagValue = parseUnsignedInt(matcher.group(1), HEXADECIMAL_SYSTEM);
-            receivertagValue = parseUnsignedInt(matcher.group(2), HEXADECIMAL_SYSTEM);
-            index = parseInt(matcher.group(3), DECIMAL_SYSTEM);
-            total = parseInt(matcher.group(4), DECIMAL_SYSTEM);
-            content = matcher.group(5);
-        } else if ((matcher = PATTERN_V2.matcher(message)).matches()) {
+        final char type = message.charAt(HEAD.length());
+        int position = HEAD.length() + 1;
+        int end;
+        if (type == HEAD_FRAGMENTED_V3) {
+            end = endOfNumber(message, position, HEXADECIMAL_SYSTEM, MAX_HEXADECIMAL_DIGITS);
+            final int first = parseNumber(message, position, end, HEXADECIMAL_SYSTEM);
+            position = skipDelimiter(message, end, HEAD_FRAGMENTED_V3);
+            end = endOfNumber(message, position, HEXADECIMAL_SYSTEM, MAX_HEXADECIMAL_DIGITS);
+            final int second = parseNumber(message, position, end, HEXADECIMAL_SYSTEM);
+            if (message.charAt(end) == HEAD_FRAGMENTED_V3) {
+                version = Session.Version.FOUR;
+                identifier = first;
+                sendertagValue = second;
+                position = end + 1;
+                end = endOfNumber(message, position, HEXADECIMAL_SYSTEM, MAX_HEXADECIMAL_DIGITS);
+                receivertagValue = parseNumber(message, position, end, HEXADECIMAL_SYSTEM);
+            } else {
+                version = Session.Version.THREE;
+                identifier = ZERO_IDENTIFIER;
+                sendertagValue = first;
+                receivertagValue = second;
+            }
+            position = skipDelimiter(message, end, TAIL_FRAGMENTED);
+        } else if (type == HEAD_FRAGMENTED_V2) {
             version = Session.Version.TWO;
             identifier = ZERO_IDENTIFIER;
             sendertagValue = ZERO_VALUE;
             receivertagValue = ZERO_VALUE;
-            index = parseInt(matcher.group(1), DECIMAL_SYSTEM);
-            total = parseInt(matcher.group(2), DECIMAL_SYSTEM);
-            content = matcher.group(3);
         } else {
             throw new ProtocolException("Illegal fragment format.");
         }
+        end = endOfNumber(message, position, DECIMAL_SYSTEM, MAX_DECIMAL_DIGITS);
+        final int index = parseNumber(message, position, end, DECIMAL_SYSTEM);
+        position = skipDelimiter(message, end, TAIL_FRAGMENTED);
+        end = endOfNumber(message, position, DECIMAL_SYSTEM, MAX_DECIMAL_DIGITS);
+        final int total = parseNumber(message, position, end, DECIMAL_SYSTEM);
+        final int contentStart = skipDelimiter(message, end, TAIL_FRAGMENTED);
+        final int contentEnd = length - 1;
+        if (contentStart > contentEnd) {
+            throw new ProtocolException("Illegal fragment format.");
+        }
+        for (int i = contentStart; i < contentEnd; i++) {
+            if (!isContentCharacter(message.charAt(i))) {
+                throw new ProtocolException("Illegal fragment format.");
+            }
+        }
         // Verify data from fragment message.
         if (!isValidInstanceTag(sendertagValue)) {
             throw new ProtocolException("Illegal sender instance tag: " + sendertagValue);
@@ -146,8 +176,108 @@ public final class Fragment implements Message {
         if (total < index || total > MAX_FRAGMENTS) {
             throw new ProtocolException("Illegal fragment total: " + total);
         }
-        return new Fragment(version, identifier, new InstanceTag(sendertagValue), new InstanceTag(receivertagValue),
-            index, total, content);
+        return new Fragment(version, identifier, tag(sendertagValue), tag(receivertagValue), index, total, message,
+            contentStart, contentEnd);
+    }
+
+    /**
+     * Find the end of the number that starts at the specified position.
+     *
+     * @param text      the text
+     * @param start     the start index of the number
+     * @param radix     the radix of the number, either 10 or 16
+     * @param maxDigits the maximum number of digits
+     * @return Returns the end index (exclusive) of the number.
+     * @throws ProtocolException In case there is no number, or the number has too many digits.
+     */
+    private static int endOfNumber(@Nonnull final CharSequence text, final int start, final int radix,
+            final int maxDigits) throws ProtocolException {
+        // The text ends with a delimiter, so the number always ends before the end of the text.
+        final int last = text.length() - 1;
+        int end = start;
+        while (end < last && digit(text.charAt(end), radix) >= 0) {
+            end++;
+        }
+        if (end == start || end - start > maxDigits) {
+            throw new ProtocolException("Illegal fragment format.");
+        }
+        return end;
+    }
+
+    /**
+     * Parse the digits of a number, as found by {@link #endOfNumber(CharSequence, int, int, int)}.
+     * <p>
+     * Hexadecimal numbers of 8 digits are interpreted as unsigned, i.e. they may result in a negative value.
+     *
+     * @param text  the text
+     * @param start the start index (inclusive) of the number
+     * @param end   the end index (exclusive) of the number
+     * @param radix the radix of the number, either 10 or 16
+     * @return Returns the value.
+     */
+    private static int parseNumber(@Nonnull final CharSequence text, final int start, final int end,
+            final int radix) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * radix + digit(text.charAt(i), radix);
+        }
+        return value;
+    }
+
+    /**
+     * Verify that the delimiter is at the specified position.
+     *
+     * @param text      the text
+     * @param position  the position of the delimiter
+     * @param delimiter the delimiter
+     * @return Returns the position following the delimiter.
+     * @throws ProtocolException In case the delimiter is not at the position.
+     */
+    private static int skipDelimiter(@Nonnull final CharSequence text, final int position, final char delimiter)
+            throws ProtocolException {
+        if (text.charAt(position) != delimiter) {
+            throw new ProtocolException("Illegal fragment format.");
+        }
+        return position + 1;
+    }
+
+    /**
+     * Get the value of an ASCII digit.
+     *
+     * @param c     the character
+     * @param radix the radix, either 10 or 16
+     * @return Returns the value, or -1 if the character is not a digit.
+     */
+    private static int digit(final char c, final int radix) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (radix == HEXADECIMAL_SYSTEM) {
+            if (c >= 'a' && c <= 'f') {
+                return c - 'a' + 10;
+            }
+            if (c >= 'A' && c <= 'F') {
+                return c - 'A' + 10;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Test whether the character is allowed in fragment content: base64 characters and the characters of the header
+     * and tail of an OTR-encoded message.
+     *
+     * @param c the character
+     * @return Returns true iff the character is allowed.
+     */
+    private static boolean isContentCharacter(final char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '+' || c == '/'
+                || c == '=' || c == '?' || c == ':' || c == '.';
+    }
+
+    @Nonnull
+    private static InstanceTag tag(final int value) {
+        return value == ZERO_VALUE ? ZERO_TAG : new InstanceTag(value);
     }
 
     /**
@@ -210,11 +340,33 @@ public final class Fragment implements Message {
 
     /**
      * Get the fragment content.
+     * <p>
+     * The content is copied from the original message. Prefer {@link #getContentLength()} and
+     * {@link #decodeContent(EncodedMessageDecoder)}, which do not copy the content.
      *
      * @return Returns the content.
      */
     @Nonnull
     public String getContent() {
-        return content;
+        return this.message.subSequence(this.contentStart, this.contentEnd).toString();
+    }
+
+    /**
+     * Get the length of the fragment content.
+     *
+     * @return Returns the number of characters of content.
+     */
+    public int getContentLength() {
+        return this.contentEnd - this.contentStart;
+    }
+
+    /**
+     * Append the fragment content to the decoder, directly from the original message.
+     *
+     * @param decoder the decoder of the message that the fragment is part of
+     * @throws ProtocolException In case the content violates the format of an OTR-encoded message.
+     */
+    public void decodeContent(@Nonnull final EncodedMessageDecoder decoder) throws ProtocolException {
+        decoder.append(this.message, this.contentStart, this.contentEnd);
     }
 }
@@ -10,9 +10,9 @@ package net.java.otr4j.io;
 import com.google.errorprone.annotations.CheckReturnValue;
 import net.java.otr4j.api.InstanceTag;
 import net.java.otr4j.api.Session.Version;
-import org.bouncycastle.util.encoders.Base64;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.StringWriter;
 import java.net.ProtocolException;
 import java.util.ArrayList;
@@ -23,7 +23,6 @@ import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import static java.nio.charset.StandardCharsets.US_ASCII;
 import static java.util.Collections.sort;
 import static net.java.otr4j.api.Session.Version.SUPPORTED;
 import static net.java.otr4j.io.EncodingConstants.ERROR_PREFIX;
@@ -34,8 +33,10 @@ import static net.java.otr4j.io.EncodingConstants.HEAD_FRAGMENTED_V2;
 import static net.java.otr4j.io.EncodingConstants.HEAD_FRAGMENTED_V3;
 import static net.java.otr4j.io.EncodingConstants.HEAD_QUERY_Q;
 import static net.java.otr4j.io.EncodingConstants.HEAD_QUERY_V;
+import static net.java.otr4j.io.EncodingConstants.TAIL_ENCODED;
 import static net.java.otr4j.io.EncodingConstants.TAIL_FRAGMENTED;
-import static org.bouncycastle.util.encoders.Base64.decode;
+import static net.java.otr4j.util.Strings.indexOf;
+import static net.java.otr4j.util.Strings.startsWith;
 
 /**
  * Message processor.
@@ -54,18 +55,39 @@ public final class MessageProcessor {
     private static final String NUMBERINDEX = "0123456789";
 
     /**
-     * PATTERN_WHITESPACE recognizes OTR v1, v2, v3 and v4 whitespace tags. We will continue to recognize OTR v1
-     * whitespace tag for compatibility purposes and to avoid bad interpretation.
-     *
-     * Group 1: OTRv1 whitespace tag.
-     * Group 2: OTRv2 whitespace tag.
-     * Group 3: OTRv3 whitespace tag.
-     * Group 4: OTRv4 whitespace tag.
+     * Length in bytes of the header of OTRv2 encoded messages: protocol version and message type.
+     */
+    private static final int HEADER_LENGTH_OTR2 = 3;
+
+    /**
+     * Length in bytes of the header of OTRv3 and OTRv4 encoded messages: protocol version, message type, sender
+     * instance tag and receiver instance tag.
+     */
+    private static final int HEADER_LENGTH_OTR3 = 11;
+
+    /**
+     * Number of base64 characters that are decoded to peek at the header of an encoded message. 16 characters decode
+     * to 12 bytes, which covers the header of every supported protocol version.
+     */
+    private static final int HEADER_PEEK_CHARS = 16;
+
+    /**
+     * The base of the whitespace tag, which is followed by tags for the individual OTR versions.
      */
-    // TODO whitespace detection is lacking, there is no guarantee that whitespace tags for OTR versions will be found in this predefined order.
     @SuppressWarnings("RegExpRepeatedSpace")
-    private static final Pattern PATTERN_WHITESPACE = Pattern
-            .compile(" \\t  \\t\\t\\t\\t \\t \\t \\t  ( \\t \\t  \\t )?(  \\t\\t  \\t )?(  \\t\\t  \\t\\t)?(  \\t\\t \\t  )?");
+    private static final String WHITESPACE_TAG_BASE = " \t  \t\t\t\t \t \t \t  ";
+
+    /**
+     * Whitespace tag for OTRv1. We will continue to recognize OTR v1 whitespace tag for compatibility purposes and to
+     * avoid bad interpretation.
+     */
+    private static final String WHITESPACE_TAG_V1 = " \t \t  \t ";
+
+    private static final String WHITESPACE_TAG_V2 = "  \t\t  \t ";
+
+    private static final String WHITESPACE_TAG_V3 = "  \t\t  \t\t";
+
+    private static final String WHITESPACE_TAG_V4 = "  \t\t \t  ";
 
     private static final Pattern PATTERN_ERROR_FORMAT = Pattern.compile("(:?ERROR_\\d+):\\s(.*)");
 
@@ -75,109 +97,198 @@ public final class MessageProcessor {
 
     /**
      * Parse provided text in order to extract the Message instance that is represented.
+     * <p>
+     * The text is scanned once, front to back. The scanner locates the OTR header and, along the way, the first
+     * whitespace tag, such that plaintext is not scanned again. The payload of OTR-encoded messages is base64-decoded
+     * directly from the text. Fragments and OTR-encoded messages refer to the text instead of copying it, therefore
+     * the text must not change while the resulting message is in use.
      *
      * @param text the content represented as plain text
      * @return Returns the message instance of the message that the text represented.
      * @throws ProtocolException          In case of protocol violations.
      */
     @Nonnull
-    public static Message parseMessage(@Nonnull final String text) throws ProtocolException {
-        final int idxHead = text.indexOf(HEAD);
+    public static Message parseMessage(@Nonnull final CharSequence text) throws ProtocolException {
+        final int length = text.length();
+        int idxHead = -1;
+        int idxTag = -1;
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            if (c == '?' && startsWith(text, i, HEAD)) {
+                idxHead = i;
+                break;
+            }
+            if (c == ' ' && idxTag < 0 && startsWith(text, i, WHITESPACE_TAG_BASE)) {
+                idxTag = i;
+            }
+        }
         if (idxHead > -1) {
             // Message **contains** the string "?OTR". Check to see if it is an error message, a query message or a data
             // message.
-
-            final char contentType = text.charAt(idxHead + HEAD.length());
-            final int idxHeaderBody = idxHead + HEAD.length() + 1;
-            final String content = text.substring(idxHeaderBody);
-
-            if (contentType == HEAD_ERROR && content.startsWith(ERROR_PREFIX)) {
-                // FIXME we require "?OTR Error:" string to be at the start of the message. Currently we search for starting point using indexOf which means we violate the OTRv4 spec.
-                // Error tag found.
-                final String message = content.substring(idxHead + ERROR_PREFIX.length()).trim();
-                final Matcher result = PATTERN_ERROR_FORMAT.matcher(message);
-                if (result.matches()) {
-                    return new ErrorMessage(result.group(1), result.group(2));
-                }
-                return new ErrorMessage("", message);
-            } else if (contentType == HEAD_QUERY_V || contentType == HEAD_QUERY_Q) {
-                // TODO This code assumes the closing '?' for the query string exists. This may not always be the case.
-                // Query tag found.
-                final String versionString;
-                if (HEAD_QUERY_Q == contentType && content.length() > 0 && content.charAt(0) == 'v') {
-                    // OTR v1 + ... query tag format. However, we do not active
-                    // support OTRv1 anymore. Therefore the logic only supports
-                    // skipping over the OTRv1 tags in order to reach OTR v2 and
-                    // v3 version tags.
-                    versionString = content.substring(1, content.indexOf('?'));
-                } else if (HEAD_QUERY_V == contentType) {
-                    // OTR v2+ query tag format.
-                    versionString = content.substring(0, content.indexOf('?'));
-                } else {
-                    // OTR v1 ONLY query tags will be caught in this else clause and is unsupported.
-                    return new QueryMessage(Collections.<Integer>emptySet());
-                }
-                final Set<Integer> versions = parseVersionString(versionString);
-                return new QueryMessage(versions);
-            } else if (otrFragmented(text)) {
-                return Fragment.parse(text);
-            } else if (otrEncoded(text)) {
-                // TODO in case of slight errors in format, e.g. OTR-encoded message missing trailing '.', do we consider this incorrect message and return as plaintext or do we want to throw ProtocolException?
-                // Data message found.
-                /*
-                 * BC 1.48 added a check to throw an exception if a non-base64 character is encountered.
-                 * An OTR message consists of ?OTR:AbcDefFe. (note the terminating point).
-                 * Otr4j doesn't strip this point before passing the content to the base64 decoder.
-                 * So in order to decode the content string we have to get rid of the '.' first.
-                 */
-                final byte[] contentBytes = decode(content.substring(0, content.length() - 1).getBytes(US_ASCII));
-                final OtrInputStream input = new OtrInputStream(contentBytes);
-                final int protocolVersion = input.readShort();
-                if (!SUPPORTED.contains(protocolVersion)) {
-                    throw new ProtocolException("Unsupported protocol version " + protocolVersion);
-                }
-                final byte messageType = input.readByte();
-                final InstanceTag senderInstanceTag;
-                final InstanceTag receiverInstanceTag;
-                if (protocolVersion == Version.THREE || protocolVersion == Version.FOUR) {
-                    senderInstanceTag = input.readInstanceTag();
-                    receiverInstanceTag = input.readInstanceTag();
-                } else {
-                    senderInstanceTag = InstanceTag.ZERO_TAG;
-                    receiverInstanceTag = InstanceTag.ZERO_TAG;
-                }
-                return new EncodedMessage(protocolVersion, messageType, senderInstanceTag, receiverInstanceTag, input);
+            final Message message = parseOTRMessage(text, idxHead);
+            if (message != null) {
+                return message;
             }
+            if (idxTag < 0) {
+                idxTag = indexOf(text, WHITESPACE_TAG_BASE, idxHead + HEAD.length());
+            }
+        }
+        if (idxTag < 0) {
+            return new PlainTextMessage(Collections.<Integer>emptySet(), text.toString());
         }
+        return parseWhitespaceTaggedMessage(text, idxTag);
+    }
 
-        // Try to detect whitespace tag.
-        final Matcher matcher = PATTERN_WHITESPACE.matcher(text);
+    @Nullable
+    private static Message parseOTRMessage(@Nonnull final CharSequence text, final int idxHead)
+            throws ProtocolException {
+        final int length = text.length();
+        final int idxContentType = idxHead + HEAD.length();
+        if (idxContentType >= length) {
+            return null;
+        }
+        final char contentType = text.charAt(idxContentType);
+        final int idxContent = idxContentType + 1;
+        if (contentType == HEAD_ERROR && startsWith(text, idxContent, ERROR_PREFIX)) {
+            // FIXME we require "?OTR Error:" string to be at the start of the message. Currently we search for starting point using indexOf which means we violate the OTRv4 spec.
+            // Error tag found.
+            final String message = text.subSequence(idxContent + ERROR_PREFIX.length(), length).toString().trim();
+            final Matcher result = PATTERN_ERROR_FORMAT.matcher(message);
+            if (result.matches()) {
+                return new ErrorMessage(result.group(1), result.group(2));
+            }
+            return new ErrorMessage("", message);
+        }
+        if (contentType == HEAD_QUERY_V || contentType == HEAD_QUERY_Q) {
+            // Query tag found. The versions string ends at the closing '?', or at the end of the text if it is missing.
+            if (HEAD_QUERY_Q == contentType && idxContent < length && text.charAt(idxContent) == 'v') {
+                // OTR v1 + ... query tag format. However, we do not active
+                // support OTRv1 anymore. Therefore the logic only supports
+                // skipping over the OTRv1 tags in order to reach OTR v2 and
+                // v3 version tags.
+                return new QueryMessage(parseVersions(text, idxContent + 1));
+            } else if (HEAD_QUERY_V == contentType) {
+                // OTR v2+ query tag format.
+                return new QueryMessage(parseVersions(text, idxContent));
+            }
+            // OTR v1 ONLY query tags will be caught in this else clause and is unsupported.
+            return new QueryMessage(Collections.<Integer>emptySet());
+        }
+        if (idxHead > 0) {
+            // Fragments and OTR-encoded messages must start with the header.
+            return null;
+        }
+        final char last = text.charAt(length - 1);
+        if ((contentType == HEAD_FRAGMENTED_V2 || contentType == HEAD_FRAGMENTED_V3) && last == TAIL_FRAGMENTED) {
+            // The fragment refers to the text for its content, such that the content is not copied.
+            return Fragment.parse(text);
+        }
+        if (contentType == HEAD_ENCODED && last == TAIL_ENCODED) {
+            // TODO in case of slight errors in format, e.g. OTR-encoded message missing trailing '.', do we consider this incorrect message and return as plaintext or do we want to throw ProtocolException?
+            // Data message found. The content, without the terminating '.', is validated in full, such that a corrupt
+            // message is rejected before it is routed. Only the header is decoded, such that the message can be routed,
+            // or discarded, before the payload is decoded.
+            final int idxEnd = length - 1;
+            final OtrInputStream input = new OtrInputStream(Base64Decoder.decodePrefix(text, idxContent, idxEnd,
+                    HEADER_PEEK_CHARS));
+            final int protocolVersion = input.readShort();
+            if (!SUPPORTED.contains(protocolVersion)) {
+                throw new ProtocolException("Unsupported protocol version " + protocolVersion);
+            }
+            final byte messageType = input.readByte();
+            final InstanceTag senderInstanceTag;
+            final InstanceTag receiverInstanceTag;
+            final int headerLength;
+            if (protocolVersion == Version.THREE || protocolVersion == Version.FOUR) {
+                senderInstanceTag = input.readInstanceTag();
+                receiverInstanceTag = input.readInstanceTag();
+                headerLength = HEADER_LENGTH_OTR3;
+            } else {
+                senderInstanceTag = InstanceTag.ZERO_TAG;
+                receiverInstanceTag = InstanceTag.ZERO_TAG;
+                headerLength = HEADER_LENGTH_OTR2;
+            }
+            return new EncodedMessage(protocolVersion, messageType, senderInstanceTag, receiverInstanceTag,
+                    text, idxContent, idxEnd, headerLength);
+        }
+        return null;
+    }
 
-        final HashSet<Integer> versions = new HashSet<>();
+    /**
+     * Parse plaintext message that contains at least one whitespace tag. All whitespace tags are removed from the
+     * text.
+     * <p>
+     * The tags for individual OTR versions may follow the base tag in any order. Every character is inspected a
+     * bounded number of times, so parsing takes linear time.
+     *
+     * @param text   the text
+     * @param idxTag the index of the first whitespace tag
+     * @return Returns the plaintext message.
+     */
+    @Nonnull
+    private static PlainTextMessage parseWhitespaceTaggedMessage(@Nonnull final CharSequence text, final int idxTag) {
+        final StringBuilder cleanText = new StringBuilder(text.length());
         boolean v2 = false;
         boolean v3 = false;
         boolean v4 = false;
-        while (matcher.find()) {
-            // Ignore group 1 (OTRv1 tag) as V1 is not supported anymore.
-            if (!v2 && matcher.start(2) > -1) {
-                versions.add(Version.TWO);
-                v2 = true;
-            }
-            if (!v3 && matcher.start(3) > -1) {
-                versions.add(Version.THREE);
-                v3 = true;
-            }
-            if (!v4 && matcher.start(4) > -1) {
-                versions.add(Version.FOUR);
-                v4 = true;
-            }
-            if (v2 && v3 && v4) {
-                break;
+        int last = 0;
+        int idx = idxTag;
+        while (idx > -1) {
+            cleanText.append(text, last, idx);
+            idx += WHITESPACE_TAG_BASE.length();
+            while (true) {
+                if (startsWith(text, idx, WHITESPACE_TAG_V1)) {
+                    // Skip OTRv1 tag as V1 is not supported anymore.
+                    idx += WHITESPACE_TAG_V1.length();
+                } else if (startsWith(text, idx, WHITESPACE_TAG_V2)) {
+                    v2 = true;
+                    idx += WHITESPACE_TAG_V2.length();
+                } else if (startsWith(text, idx, WHITESPACE_TAG_V3)) {
+                    v3 = true;
+                    idx += WHITESPACE_TAG_V3.length();
+                } else if (startsWith(text, idx, WHITESPACE_TAG_V4)) {
+                    v4 = true;
+                    idx += WHITESPACE_TAG_V4.length();
+                } else {
+                    break;
+                }
             }
+            last = idx;
+            idx = indexOf(text, WHITESPACE_TAG_BASE, idx);
+        }
+        cleanText.append(text, last, text.length());
+        final HashSet<Integer> versions = new HashSet<>();
+        if (v2) {
+            versions.add(Version.TWO);
         }
+        if (v3) {
+            versions.add(Version.THREE);
+        }
+        if (v4) {
+            versions.add(Version.FOUR);
+        }
+        return new PlainTextMessage(versions, cleanText.toString());
+    }
 
-        final String cleanText = matcher.replaceAll("");
-        return new PlainTextMessage(versions, cleanText);
+    /**
+     * Test whether the text contains an OTR marker, i.e. the OTR header "?OTR" or the base of the whitespace tag.
+     * <p>
+     * Text without OTR markers is parsed as a plaintext message without versions, of which the clean text is equal to
+     * the text itself. This test allows the caller to skip parsing for such text. It does not allocate.
+     *
+     * @param text the text
+     * @return Returns true iff the text contains an OTR marker.
+     */
+    @CheckReturnValue
+    public static boolean containsOTRMarker(@Nonnull final CharSequence text) {
+        final int length = text.length();
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            if (c == '?' && startsWith(text, i, HEAD) || c == ' ' && startsWith(text, i, WHITESPACE_TAG_BASE)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -213,31 +324,100 @@ public final class MessageProcessor {
             sort(versions);
             writer.write(generateQueryTag(versions));
         } else if (m instanceof OtrEncodable) {
-            writer.write(HEAD);
-            writer.write(HEAD_ENCODED);
-            writer.write(Base64.toBase64String(new OtrOutputStream().write((OtrEncodable) m).toByteArray()));
-            writer.write(".");
+            return writeEncodedMessage((OtrEncodable) m);
         } else {
             throw new UnsupportedOperationException("Unsupported message type encountered: " + m.getClass().getName());
         }
         return writer.toString();
     }
 
+    /**
+     * Serialize a Message directly into the provided builder.
+     * <p>
+     * OTR-encoded messages are base64-encoded directly into the builder, without first constructing the message as a
+     * String. Other messages are appended as their string-representation.
+     *
+     * @param m       the message
+     * @param builder the builder to which the message is appended
+     * @return Returns the number of characters appended.
+     */
+    public static int writeMessage(@Nonnull final Message m, @Nonnull final StringBuilder builder) {
+        if (m instanceof OtrEncodable) {
+            final OtrOutputStream out = encodeContent((OtrEncodable) m);
+            final int length = encodedMessageLength(out.size());
+            builder.ensureCapacity(builder.length() + length);
+            writeEncodedMessage(out, builder);
+            return length;
+        }
+        final String message = writeMessage(m);
+        builder.append(message);
+        return message.length();
+    }
+
+    /**
+     * The length in characters of the OTR-encoded message of provided encodable, i.e. including header and tail.
+     * <p>
+     * The length is based on {@link OtrEncodable#encodedLength()}, which is exact for the messages that otr4j
+     * constructs. The encodable is not actually encoded.
+     *
+     * @param encodable the encodable message
+     * @return Returns the number of characters of the OTR-encoded message.
+     */
+    public static int encodedMessageLength(@Nonnull final OtrEncodable encodable) {
+        return encodedMessageLength(encodable.encodedLength());
+    }
+
+    /**
+     * The length in characters of the OTR-encoded message for content of provided length, i.e. including header and
+     * tail.
+     *
+     * @param contentLength the length in bytes of the OTR-encoded content
+     * @return Returns the number of characters of the OTR-encoded message.
+     */
+    public static int encodedMessageLength(final int contentLength) {
+        return HEAD.length() + 2 + Base64Encoder.encodedLength(contentLength);
+    }
+
+    /**
+     * Write an OTR-encoded message. The content is written into an output stream sized by its encoded length, then
+     * base64-encoded directly into an exactly sized builder.
+     */
+    @Nonnull
+    private static String writeEncodedMessage(@Nonnull final OtrEncodable encodable) {
+        final OtrOutputStream out = encodeContent(encodable);
+        final StringBuilder builder = new StringBuilder(encodedMessageLength(out.size()));
+        writeEncodedMessage(out, builder);
+        return builder.toString();
+    }
+
+    private static void writeEncodedMessage(@Nonnull final OtrOutputStream out, @Nonnull final StringBuilder builder) {
+        builder.append(HEAD).append(HEAD_ENCODED);
+        out.writeBase64To(builder);
+        builder.append(TAIL_ENCODED);
+    }
+
+    @Nonnull
+    private static OtrOutputStream encodeContent(@Nonnull final OtrEncodable encodable) {
+        final OtrOutputStream out = new OtrOutputStream(encodable.encodedLength());
+        encodable.writeTo(out);
+        return out;
+    }
+
     @Nonnull
     private static String generateWhitespaceTag(@Nonnull final Iterable<Integer> versions) {
         final StringBuilder builder = new StringBuilder(40);
         for (final int version : versions) {
             if (version == Version.TWO) {
-                builder.append("  \t\t  \t ");
+                builder.append(WHITESPACE_TAG_V2);
             }
             if (version == Version.THREE) {
-                builder.append("  \t\t  \t\t");
+                builder.append(WHITESPACE_TAG_V3);
             }
             if (version == Version.FOUR) {
-                builder.append("  \t\t \t  ");
+                builder.append(WHITESPACE_TAG_V4);
             }
         }
-        return builder.length() == 0 ? "" : " \t  \t\t\t\t \t \t \t  " + builder.toString();
+        return builder.length() == 0 ? "" : WHITESPACE_TAG_BASE + builder.toString();
     }
 
     @Nonnull
@@ -283,25 +463,26 @@ public final class MessageProcessor {
     }
 
     /**
-     * Check whether the provided content is OTR encoded.
+     * Parse the versions of a query message, starting at the specified index up to the closing '?' or the end of the
+     * text.
      *
-     * @param content the content to investigate
-     * @return Returns true if content is OTR encoded, or false otherwise.
-     */
-    @CheckReturnValue
-    private static boolean otrEncoded(@Nonnull final String content) {
-        return content.startsWith(HEAD + HEAD_ENCODED) && content.endsWith(".");
-    }
-
-    /**
-     * Check whether the provided content is OTR-fragment encoded.
-     *
-     * @param content the content to investigate
-     * @return Returns true if content is OTR fragment, or false otherwise.
+     * @param text  the text
+     * @param start the index of the first version character
+     * @return Returns set containing version ints.
      */
-    @CheckReturnValue
-    private static boolean otrFragmented(@Nonnull final String content) {
-        return (content.startsWith(HEAD + HEAD_FRAGMENTED_V2) || content.startsWith(HEAD + HEAD_FRAGMENTED_V3))
-            && content.endsWith(String.valueOf(TAIL_FRAGMENTED));
+    @Nonnull
+    private static Set<Integer> parseVersions(@Nonnull final CharSequence text, final int start) {
+        final TreeSet<Integer> versions = new TreeSet<>();
+        for (int i = start; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == HEAD_QUERY_Q) {
+                break;
+            }
+            final int idx = NUMBERINDEX.indexOf(c);
+            if (idx > -1) {
+                versions.add(idx);
+            }
+        }
+        return versions;
     }
 }
@@ -20,4 +20,14 @@ public interface OtrEncodable {
      * @param out The destination OTR output stream.
      */
     void writeTo(@Nonnull OtrOutputStream out);
+
+    /**
+     * The number of bytes that {@link #writeTo(OtrOutputStream)} writes, used to size the output buffer up front.
+     * <p>
+     * The length is a hint: the output stream grows in case more bytes are written. Use the lengths and helper methods
+     * in {@link OtrEncodables} to compute the length of the individual fields.
+     *
+     * @return Returns the length of the OTR-encoded content in bytes.
+     */
+    int encodedLength();
 }
@@ -7,13 +7,87 @@
 
 package net.java.otr4j.io;
 
+import net.java.otr4j.api.TLV;
+
 import javax.annotation.Nonnull;
+import javax.crypto.interfaces.DHPublicKey;
+import java.math.BigInteger;
+import java.security.interfaces.DSAParams;
+import java.security.interfaces.DSAPublicKey;
+
+import static net.java.otr4j.crypto.ed448.Scalar.SCALAR_LENGTH_BYTES;
+import static net.java.otr4j.io.EncodingConstants.DATA_LEN;
+import static net.java.otr4j.io.EncodingConstants.DSA_SIGNATURE_LENGTH_BYTES;
+import static net.java.otr4j.io.EncodingConstants.MAC_OTR4_LENGTH_BYTES;
+import static net.java.otr4j.io.EncodingConstants.POINT_LENGTH_BYTES;
+import static net.java.otr4j.io.EncodingConstants.TLV_LEN;
+import static net.java.otr4j.io.EncodingConstants.TYPE_LEN_BYTE;
+import static net.java.otr4j.io.EncodingConstants.TYPE_LEN_CTR;
+import static net.java.otr4j.io.EncodingConstants.TYPE_LEN_INT;
+import static net.java.otr4j.io.EncodingConstants.TYPE_LEN_LONG;
+import static net.java.otr4j.io.EncodingConstants.TYPE_LEN_MAC;
+import static net.java.otr4j.io.EncodingConstants.TYPE_LEN_SHORT;
 
 /**
  * Utilities for {@link OtrEncodable}.
  */
 public final class OtrEncodables {
 
+    /**
+     * Encoded length of a byte.
+     */
+    public static final int BYTE_LENGTH = TYPE_LEN_BYTE;
+
+    /**
+     * Encoded length of a short.
+     */
+    public static final int SHORT_LENGTH = TYPE_LEN_SHORT;
+
+    /**
+     * Encoded length of an int.
+     */
+    public static final int INT_LENGTH = TYPE_LEN_INT;
+
+    /**
+     * Encoded length of a long.
+     */
+    public static final int LONG_LENGTH = TYPE_LEN_LONG;
+
+    /**
+     * Encoded length of an instance tag.
+     */
+    public static final int INSTANCE_TAG_LENGTH = TYPE_LEN_INT;
+
+    /**
+     * Encoded length of an OTRv3 MAC.
+     */
+    public static final int MAC_LENGTH = TYPE_LEN_MAC;
+
+    /**
+     * Encoded length of an OTRv3 counter value.
+     */
+    public static final int CTR_LENGTH = TYPE_LEN_CTR;
+
+    /**
+     * Encoded length of an OTRv3 DSA signature.
+     */
+    public static final int DSA_SIGNATURE_LENGTH = DSA_SIGNATURE_LENGTH_BYTES;
+
+    /**
+     * Encoded length of an OTRv4 MAC.
+     */
+    public static final int MAC_OTR4_LENGTH = MAC_OTR4_LENGTH_BYTES;
+
+    /**
+     * Encoded length of an Edwards point.
+     */
+    public static final int POINT_LENGTH = POINT_LENGTH_BYTES;
+
+    /**
+     * Encoded length of an OTRv4 scalar.
+     */
+    public static final int SCALAR_LENGTH = SCALAR_LENGTH_BYTES;
+
     private OtrEncodables() {
         // No need to instantiate utility class.
     }
@@ -26,8 +100,85 @@ public final class OtrEncodables {
      */
     @Nonnull
     public static byte[] encode(@Nonnull final OtrEncodable encodable) {
-        final OtrOutputStream out = new OtrOutputStream();
+        final OtrOutputStream out = new OtrOutputStream(encodable.encodedLength());
         encodable.writeTo(out);
         return out.toByteArray();
     }
+
+    /**
+     * Encoded length of variable-length data, as written by {@link OtrOutputStream#writeData(byte[])}.
+     *
+     * @param length the length of the data
+     * @return Returns the encoded length.
+     */
+    public static int dataLength(final int length) {
+        return DATA_LEN + length;
+    }
+
+    /**
+     * Encoded length of a big integer (MPI), as written by {@link OtrOutputStream#writeBigInt(BigInteger)}.
+     *
+     * @param value the big integer value
+     * @return Returns the encoded length.
+     */
+    public static int bigIntLength(@Nonnull final BigInteger value) {
+        return dataLength(Math.max(1, (value.bitLength() + 7) / 8));
+    }
+
+    /**
+     * Encoded length of a DH public key, as written by {@link OtrOutputStream#writeDHPublicKey(DHPublicKey)}.
+     *
+     * @param key the DH public key
+     * @return Returns the encoded length.
+     */
+    public static int dhPublicKeyLength(@Nonnull final DHPublicKey key) {
+        return bigIntLength(key.getY());
+    }
+
+    /**
+     * Encoded length of message content, i.e. the message text, the separating zero-byte and the TLV records, as
+     * written by {@link OtrOutputStream#writeMessage(String)}, {@link OtrOutputStream#writeByte(int)} and
+     * {@link OtrOutputStream#writeTLV(Iterable)}.
+     *
+     * @param message the message text
+     * @param tlvs    the TLV records
+     * @return Returns the encoded length.
+     */
+    public static int messageContentLength(@Nonnull final String message, @Nonnull final Iterable<TLV> tlvs) {
+        int length = BYTE_LENGTH;
+        int i = 0;
+        while (i < message.length()) {
+            final char c = message.charAt(i++);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i < message.length()
+                    && Character.isLowSurrogate(message.charAt(i))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates are replaced with '?' in the UTF-8 encoding.
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        for (final TLV tlv : tlvs) {
+            length += SHORT_LENGTH + TLV_LEN + tlv.value.length;
+        }
+        return length;
+    }
+
+    /**
+     * Encoded length of a DSA public key, as written by {@link OtrOutputStream#writePublicKey(DSAPublicKey)}.
+     *
+     * @param key the DSA public key
+     * @return Returns the encoded length.
+     */
+    public static int publicKeyLength(@Nonnull final DSAPublicKey key) {
+        final DSAParams params = key.getParams();
+        return SHORT_LENGTH + bigIntLength(params.getP()) + bigIntLength(params.getQ()) + bigIntLength(params.getG())
+                + bigIntLength(key.getY());
+    }
 }
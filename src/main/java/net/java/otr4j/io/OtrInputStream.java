@@ -17,9 +17,10 @@ import net.java.otr4j.crypto.ed448.Scalar;
 
 import javax.annotation.Nonnull;
 import javax.crypto.interfaces.DHPublicKey;
-import java.io.ByteArrayInputStream;
 import java.math.BigInteger;
 import java.net.ProtocolException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.security.interfaces.DSAParams;
 import java.security.interfaces.DSAPublicKey;
 
@@ -30,7 +31,6 @@ import static net.java.otr4j.crypto.OtrCryptoEngine4.decodePoint;
 import static net.java.otr4j.crypto.ed448.Ed448.primeOrder;
 import static net.java.otr4j.crypto.ed448.Scalar.SCALAR_LENGTH_BYTES;
 import static net.java.otr4j.crypto.ed448.Scalar.decodeScalar;
-import static net.java.otr4j.io.EncodingConstants.DATA_LEN;
 import static net.java.otr4j.io.EncodingConstants.EDDSA_SIGNATURE_LENGTH_BYTES;
 import static net.java.otr4j.io.EncodingConstants.MAC_OTR4_LENGTH_BYTES;
 import static net.java.otr4j.io.EncodingConstants.NONCE_LENGTH_BYTES;
@@ -51,12 +51,18 @@ import static net.java.otr4j.io.EncodingConstants.TYPE_LEN_SHORT;
  * <p>
  * OtrInputStream provides only for the primitive types to be read. Composite objects should be read through use of the
  * primitive read methods and implemented outside of this class.
+ * <p>
+ * The stream reads from a ByteBuffer. The bytes that were already read are available as a read-only view, such that
+ * they can be authenticated without re-encoding them.
  */
 public final class OtrInputStream {
 
     private static final byte[] ZERO_BYTES = new byte[0];
 
-    private final ByteArrayInputStream in;
+    /**
+     * The source. The position of the buffer is the read position. Index 0 is the start of the source.
+     */
+    private final ByteBuffer in;
 
     /**
      * Construct OtrInputStream based on existing, provided source input stream.
@@ -64,7 +70,40 @@ public final class OtrInputStream {
      * @param in the source input stream
      */
     public OtrInputStream(@Nonnull final byte[] in) {
-        this.in = new ByteArrayInputStream(in);
+        this(in, 0, in.length);
+    }
+
+    /**
+     * Construct OtrInputStream based on the remaining bytes of the provided buffer.
+     * <p>
+     * The stream reads from a slice of the buffer, i.e. the position of the provided buffer is not modified. The
+     * content of the buffer must not change while the stream, or any slice that is read from it, is in use.
+     *
+     * @param in the source buffer
+     */
+    public OtrInputStream(@Nonnull final ByteBuffer in) {
+        this.in = in.slice();
+    }
+
+    /**
+     * Construct OtrInputStream based on the provided bytes, starting at the specified offset.
+     *
+     * @param in     the source bytes
+     * @param offset the offset of the first byte to read
+     */
+    OtrInputStream(@Nonnull final byte[] in, final int offset) {
+        this(in, offset, in.length - offset);
+    }
+
+    /**
+     * Construct OtrInputStream based on the specified range of the provided bytes.
+     *
+     * @param in     the source bytes
+     * @param offset the offset of the first byte to read
+     * @param length the number of bytes to read
+     */
+    OtrInputStream(@Nonnull final byte[] in, final int offset, final int length) {
+        this.in = ByteBuffer.wrap(in, offset, length);
     }
 
     /**
@@ -73,7 +112,23 @@ public final class OtrInputStream {
      * @return Returns number of available bytes.
      */
     public int available() {
-        return this.in.available();
+        return this.in.remaining();
+    }
+
+    /**
+     * Get a read-only view of the bytes that precede the current read position, from the start of the source.
+     * <p>
+     * For a stream that is constructed for an OTR-encoded message, these are the header and the fields that are read so
+     * far, exactly as they were received.
+     *
+     * @return Returns a read-only view of the preceding bytes.
+     */
+    @Nonnull
+    public ByteBuffer precedingBytes() {
+        final ByteBuffer view = this.in.duplicate();
+        limit(view, this.in.position());
+        position(view, 0);
+        return view.slice().asReadOnlyBuffer();
     }
 
     /**
@@ -83,7 +138,8 @@ public final class OtrInputStream {
      * @throws ProtocolException In case of unexpected content in the message stream.
      */
     public byte readByte() throws ProtocolException {
-        return (byte) readNumber(TYPE_LEN_BYTE);
+        requireAvailable(TYPE_LEN_BYTE);
+        return this.in.get();
     }
 
     /**
@@ -98,7 +154,8 @@ public final class OtrInputStream {
      * @throws ProtocolException In case of unexpected content in the message stream.
      */
     public int readInt() throws ProtocolException {
-        return readNumber(TYPE_LEN_INT);
+        requireAvailable(TYPE_LEN_INT);
+        return this.in.getInt();
     }
 
     /**
@@ -108,7 +165,8 @@ public final class OtrInputStream {
      * @throws ProtocolException In case of unexpected content in the message stream.
      */
     public int readShort() throws ProtocolException {
-        return readNumber(TYPE_LEN_SHORT);
+        requireAvailable(TYPE_LEN_SHORT);
+        return this.in.getShort() & 0xffff;
     }
 
     /**
@@ -182,7 +240,7 @@ public final class OtrInputStream {
      */
     @Nonnull
     public byte[] readData() throws ProtocolException, UnsupportedLengthException {
-        final int dataLen = checkDataLength(readNumber(DATA_LEN));
+        final int dataLen = checkDataLength(readInt());
         return checkedRead(dataLen);
     }
 
@@ -246,7 +304,7 @@ public final class OtrInputStream {
      */
     @Nonnull
     private byte[] readTlvData() throws ProtocolException {
-        final int len = readNumber(TYPE_LEN_SHORT);
+        final int len = readShort();
         return checkedRead(len);
     }
 
@@ -270,13 +328,8 @@ public final class OtrInputStream {
      * @throws ProtocolException In case of unexpected content in the message stream.
      */
     public long readLong() throws ProtocolException {
-        final byte[] b = checkedRead(TYPE_LEN_LONG);
-        long value = 0;
-        for (int i = 0; i < b.length; i++) {
-            final int shift = (b.length - 1 - i) * 8;
-            value += (b[i] & 0xFFL) << shift;
-        }
-        return value;
+        requireAvailable(TYPE_LEN_LONG);
+        return this.in.getLong();
     }
 
     /**
@@ -335,25 +388,6 @@ public final class OtrInputStream {
         return checkedRead(EDDSA_SIGNATURE_LENGTH_BYTES);
     }
 
-    /**
-     * Read a number of specified length from the input stream.
-     *
-     * @param length The length to read.
-     * @return Returns the read value in bytes.
-     * @throws ProtocolException In case of failure to read specified amount of bytes.
-     */
-    private int readNumber(final int length) throws ProtocolException {
-        final byte[] b = checkedRead(length);
-
-        int value = 0;
-        for (int i = 0; i < b.length; i++) {
-            final int shift = (b.length - 1 - i) * 8;
-            value += (b[i] & 0x000000FF) << shift;
-        }
-
-        return value;
-    }
-
     /**
      * Reads from the stream while checking possible border and error conditions
      * like a requested size of zero or the stream does not contain enough data.
@@ -368,13 +402,28 @@ public final class OtrInputStream {
         if (length == 0) {
             return ZERO_BYTES;
         }
+        requireAvailable(length);
         final byte[] b = new byte[length];
-        final int bytesRead = this.in.read(b, 0, b.length);
-        if (bytesRead != length) {
+        this.in.get(b);
+        return b;
+    }
+
+    private void requireAvailable(final int length) throws ProtocolException {
+        final int available = this.in.remaining();
+        if (available < length) {
             throw new ProtocolException("Unable to read the required amount of bytes from the stream. Expected were "
-                + length + " bytes but I could only read " + bytesRead + " bytes.");
+                + length + " bytes but I could only read " + available + " bytes.");
         }
-        return b;
+    }
+
+    // The parameter is of type Buffer, such that the call does not link to the covariant overrides of ByteBuffer that
+    // are only available as of Java 9.
+    private static void position(@Nonnull final Buffer buffer, final int position) {
+        buffer.position(position);
+    }
+
+    private static void limit(@Nonnull final Buffer buffer, final int limit) {
+        buffer.limit(limit);
     }
 
     /**
@@ -398,7 +447,7 @@ public final class OtrInputStream {
             // common use cases who suffer due to this limitation, it remains unfixed for now.
             throw new UnsupportedLengthException(length);
         }
-        final int available = this.in.available();
+        final int available = this.in.remaining();
         if (length > available) {
             throw new ProtocolException("Insufficient data in buffer for the length specified in the data field. (Specified: "
                 + length + ", available: " + available);
@@ -48,11 +48,26 @@ public final class OtrOutputStream {
 
     private final ByteArrayOutputStream out;
 
+    /**
+     * Scratch buffer for encoding numeric values, such that no temporary byte-array is needed for every value.
+     */
+    private final byte[] scratch = new byte[TYPE_LEN_LONG];
+
     /**
      * Constructor for OTR-encoded output stream.
      */
     public OtrOutputStream() {
-        this.out = new ByteArrayOutputStream();
+        this.out = new ExposedByteArrayOutputStream(32);
+    }
+
+    /**
+     * Constructor for OTR-encoded output stream with an initial capacity, such as the
+     * {@link OtrEncodable#encodedLength()} of the content that is written.
+     *
+     * @param initialCapacity the initial capacity in bytes
+     */
+    public OtrOutputStream(final int initialCapacity) {
+        this.out = new ExposedByteArrayOutputStream(initialCapacity);
     }
 
     /**
@@ -74,6 +89,31 @@ public final class OtrOutputStream {
         return this.out.toByteArray();
     }
 
+    /**
+     * The number of bytes written to the output stream.
+     *
+     * @return Returns the number of bytes.
+     */
+    int size() {
+        return this.out.size();
+    }
+
+    /**
+     * Append the base64 encoding of the bytes written to the output stream, directly to the builder.
+     *
+     * @param builder the builder
+     */
+    void writeBase64To(@Nonnull final StringBuilder builder) {
+        final Base64Encoder encoder = new Base64Encoder(builder);
+        if (this.out instanceof ExposedByteArrayOutputStream) {
+            ((ExposedByteArrayOutputStream) this.out).encodeTo(encoder);
+        } else {
+            final byte[] bytes = this.out.toByteArray();
+            encoder.write(bytes, 0, bytes.length);
+        }
+        encoder.finish();
+    }
+
     /**
      * Write the OTR-encodable to the output stream.
      *
@@ -86,6 +126,18 @@ public final class OtrOutputStream {
         return this;
     }
 
+    /**
+     * Write bytes that are already OTR-encoded, as-is.
+     *
+     * @param encoded the OTR-encoded bytes
+     * @return Returns this instance of OtrOutputStream such that method calls can be chained.
+     */
+    @Nonnull
+    public OtrOutputStream writeEncoded(@Nonnull final byte[] encoded) {
+        this.out.write(encoded, 0, encoded.length);
+        return this;
+    }
+
     /**
      * Write a plaintext message in OTR-encoded format.
      * <p>
@@ -205,12 +257,10 @@ public final class OtrOutputStream {
      */
     @Nonnull
     public OtrOutputStream writeLong(final long value) {
-        final byte[] b = new byte[TYPE_LEN_LONG];
         for (int i = 0; i < TYPE_LEN_LONG; i++) {
-            final int offset = (b.length - 1 - i) * 8;
-            b[i] = (byte) ((value >>> offset) & 0xFF);
+            this.scratch[i] = (byte) (value >>> ((TYPE_LEN_LONG - 1 - i) * 8));
         }
-        this.out.write(b, 0, b.length);
+        this.out.write(this.scratch, 0, TYPE_LEN_LONG);
         return this;
     }
 
@@ -400,11 +450,24 @@ public final class OtrOutputStream {
     }
 
     private void writeNumber(final int value, final int length) {
-        final byte[] b = new byte[length];
         for (int i = 0; i < length; i++) {
-            final int offset = (b.length - 1 - i) * 8;
-            b[i] = (byte) ((value >>> offset) & 0xFF);
+            this.scratch[i] = (byte) (value >>> ((length - 1 - i) * 8));
+        }
+        this.out.write(this.scratch, 0, length);
+    }
+
+    /**
+     * Byte-array output stream that allows encoding its content directly from the internal buffer, without first copying
+     * it to a separate byte-array.
+     */
+    private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+
+        private ExposedByteArrayOutputStream(final int initialCapacity) {
+            super(initialCapacity);
+        }
+
+        private void encodeTo(@Nonnull final Base64Encoder encoder) {
+            encoder.write(this.buf, 0, this.count);
         }
-        this.out.write(b, 0, b.length);
     }
 }
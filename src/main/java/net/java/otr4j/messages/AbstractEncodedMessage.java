@@ -17,6 +17,9 @@ import javax.annotation.Nonnull;
 import javax.annotation.OverridingMethodsMustInvokeSuper;
 
 import static java.util.Objects.requireNonNull;
+import static net.java.otr4j.io.OtrEncodables.BYTE_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.INSTANCE_TAG_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.SHORT_LENGTH;
 
 /**
  * Abstract class representing base for encoded messages.
@@ -98,6 +101,23 @@ public abstract class AbstractEncodedMessage implements Message, OtrEncodable {
         }
     }
 
+    @OverridingMethodsMustInvokeSuper
+    @Override
+    public int encodedLength() {
+        return headerLength(this.protocolVersion);
+    }
+
+    /**
+     * Encoded length of the common header: protocol version, message type and (OTRv3 and later) instance tags.
+     *
+     * @param protocolVersion the protocol version
+     * @return Returns the length in bytes.
+     */
+    static int headerLength(final int protocolVersion) {
+        final int length = SHORT_LENGTH + BYTE_LENGTH;
+        return protocolVersion == Version.TWO ? length : length + 2 * INSTANCE_TAG_LENGTH;
+    }
+
     /**
      * Get encoded message type (integer value type representation).
      *
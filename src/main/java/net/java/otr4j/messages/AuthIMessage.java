@@ -57,6 +57,11 @@ public final class AuthIMessage extends AbstractEncodedMessage {
         writer.write(this.sigma);
     }
 
+    @Override
+    public int encodedLength() {
+        return super.encodedLength() + this.sigma.encodedLength();
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) {
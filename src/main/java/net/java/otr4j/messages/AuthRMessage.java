@@ -18,6 +18,8 @@ import java.math.BigInteger;
 import java.util.Objects;
 
 import static java.util.Objects.requireNonNull;
+import static net.java.otr4j.io.OtrEncodables.POINT_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.bigIntLength;
 import static net.java.otr4j.util.Integers.requireInRange;
 
 /**
@@ -108,6 +110,12 @@ public final class AuthRMessage extends AbstractEncodedMessage {
         writer.writeBigInt(this.ourFirstDHPublicKey);
     }
 
+    @Override
+    public int encodedLength() {
+        return super.encodedLength() + this.clientProfile.encodedLength() + POINT_LENGTH + bigIntLength(this.a)
+                + this.sigma.encodedLength() + POINT_LENGTH + bigIntLength(this.ourFirstDHPublicKey);
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) {
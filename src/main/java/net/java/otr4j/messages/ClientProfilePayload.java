@@ -42,7 +42,14 @@ import static net.java.otr4j.crypto.DSAKeyPair.verifySignature;
 import static net.java.otr4j.crypto.OtrCryptoEngine4.verifyEdDSAPublicKey;
 import static net.java.otr4j.io.MessageProcessor.encodeVersionString;
 import static net.java.otr4j.io.MessageProcessor.parseVersionString;
+import static net.java.otr4j.io.OtrEncodables.INT_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.LONG_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.POINT_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.SHORT_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.bigIntLength;
+import static net.java.otr4j.io.OtrEncodables.dataLength;
 import static net.java.otr4j.io.OtrEncodables.encode;
+import static net.java.otr4j.io.OtrEncodables.publicKeyLength;
 import static net.java.otr4j.util.ByteArrays.constantTimeEquals;
 import static net.java.otr4j.util.Iterables.findByType;
 import static org.bouncycastle.util.Arrays.concatenate;
@@ -66,6 +73,11 @@ public final class ClientProfilePayload implements OtrEncodable {
 
     private final byte[] signature;
 
+    /**
+     * The OTR-encoded payload. The payload is immutable, so it is encoded only once.
+     */
+    private final byte[] encoded;
+
     /**
      * Constructor for payload remains private as we expect to create this only from one of 2 sources:
      * 1. A ClientProfile instances to be converted.
@@ -78,6 +90,17 @@ public final class ClientProfilePayload implements OtrEncodable {
     private ClientProfilePayload(@Nonnull final List<Field> fields, @Nonnull final byte[] signature) {
         this.fields = requireNonNull(fields);
         this.signature = requireNonNull(signature);
+        int length = INT_LENGTH + signature.length;
+        for (final Field field : fields) {
+            length += field.encodedLength();
+        }
+        final OtrOutputStream out = new OtrOutputStream(length);
+        out.writeInt(fields.size());
+        for (final Field field : fields) {
+            out.write(field);
+        }
+        out.writeEdDSASignature(signature);
+        this.encoded = out.toByteArray();
     }
 
     /**
@@ -229,11 +252,12 @@ public final class ClientProfilePayload implements OtrEncodable {
 
     @Override
     public void writeTo(@Nonnull final OtrOutputStream out) {
-        out.writeInt(this.fields.size());
-        for (final Field field : this.fields) {
-            out.write(field);
-        }
-        out.writeEdDSASignature(signature);
+        out.writeEncoded(this.encoded);
+    }
+
+    @Override
+    public int encodedLength() {
+        return this.encoded.length;
     }
 
     /**
@@ -478,6 +502,11 @@ public final class ClientProfilePayload implements OtrEncodable {
             out.writeInt(this.instanceTag);
         }
 
+        @Override
+        public int encodedLength() {
+            return SHORT_LENGTH + INT_LENGTH;
+        }
+
         @Override
         public boolean equals(final Object o) {
             if (this == o) {
@@ -517,6 +546,11 @@ public final class ClientProfilePayload implements OtrEncodable {
             out.writePoint(this.publicKey);
         }
 
+        @Override
+        public int encodedLength() {
+            return 2 * SHORT_LENGTH + POINT_LENGTH;
+        }
+
         @Override
         public boolean equals(final Object o) {
             if (this == o) {
@@ -556,6 +590,11 @@ public final class ClientProfilePayload implements OtrEncodable {
             out.writePoint(this.publicKey);
         }
 
+        @Override
+        public int encodedLength() {
+            return 2 * SHORT_LENGTH + POINT_LENGTH;
+        }
+
         @Override
         public boolean equals(final Object o) {
             if (this == o) {
@@ -593,6 +632,11 @@ public final class ClientProfilePayload implements OtrEncodable {
             out.writeData(encodeVersionString(versions).getBytes(US_ASCII));
         }
 
+        @Override
+        public int encodedLength() {
+            return SHORT_LENGTH + dataLength(encodeVersionString(this.versions).length());
+        }
+
         @Override
         public boolean equals(final Object o) {
             if (this == o) {
@@ -635,6 +679,11 @@ public final class ClientProfilePayload implements OtrEncodable {
             out.writeLong(this.timestamp);
         }
 
+        @Override
+        public int encodedLength() {
+            return SHORT_LENGTH + LONG_LENGTH;
+        }
+
         @Override
         public boolean equals(final Object o) {
             if (this == o) {
@@ -672,6 +721,11 @@ public final class ClientProfilePayload implements OtrEncodable {
             out.writePublicKey(this.publicKey);
         }
 
+        @Override
+        public int encodedLength() {
+            return SHORT_LENGTH + publicKeyLength(this.publicKey);
+        }
+
         @Override
         public boolean equals(final Object o) {
             if (this == o) {
@@ -710,6 +764,11 @@ public final class ClientProfilePayload implements OtrEncodable {
             out.writeBigInt(this.signature.s);
         }
 
+        @Override
+        public int encodedLength() {
+            return SHORT_LENGTH + bigIntLength(this.signature.r) + bigIntLength(this.signature.s);
+        }
+
         @Override
         public boolean equals(final Object o) {
             if (this == o) {
@@ -15,6 +15,7 @@ import javax.annotation.Nonnull;
 import java.util.Arrays;
 
 import static java.util.Objects.requireNonNull;
+import static net.java.otr4j.io.OtrEncodables.dataLength;
 import static net.java.otr4j.util.ByteArrays.constantTimeEquals;
 import static net.java.otr4j.util.Integers.requireInRange;
 
@@ -90,6 +91,12 @@ public final class DHCommitMessage extends AbstractEncodedMessage {
         writer.writeData(this.dhPublicKeyHash);
     }
 
+    @Override
+    public int encodedLength() {
+        return super.encodedLength() + dataLength(this.dhPublicKeyEncrypted.length)
+                + dataLength(this.dhPublicKeyHash.length);
+    }
+
     @Override
     public int getType() {
         return MESSAGE_DH_COMMIT;
@@ -15,6 +15,7 @@ import javax.annotation.Nonnull;
 import javax.crypto.interfaces.DHPublicKey;
 import java.util.Objects;
 
+import static net.java.otr4j.io.OtrEncodables.dhPublicKeyLength;
 import static net.java.otr4j.util.Integers.requireInRange;
 
 /**
@@ -86,6 +87,11 @@ public final class DHKeyMessage extends AbstractEncodedMessage {
         writer.writeDHPublicKey(this.dhPublicKey);
     }
 
+    @Override
+    public int encodedLength() {
+        return super.encodedLength() + dhPublicKeyLength(this.dhPublicKey);
+    }
+
     @Override
     public int getType() {
         return MESSAGE_DHKEY;
@@ -11,10 +11,19 @@ import net.java.otr4j.api.InstanceTag;
 import net.java.otr4j.io.OtrOutputStream;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.crypto.interfaces.DHPublicKey;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import static java.util.Objects.requireNonNull;
+import static net.java.otr4j.io.OtrEncodables.BYTE_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.CTR_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.INT_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.MAC_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.dataLength;
+import static net.java.otr4j.io.OtrEncodables.dhPublicKeyLength;
+import static net.java.otr4j.io.OtrEncodables.encode;
 import static net.java.otr4j.util.ByteArrays.constantTimeEquals;
 
 /**
@@ -64,6 +73,12 @@ public final class DataMessage extends AbstractEncodedMessage {
      */
     @Nonnull
     public final byte[] oldMACKeys;
+    /**
+     * The encoded 'T' value as received, i.e. a read-only view on the decoded message. (Or {@code null} in case the
+     * message is constructed locally or the received 'T' is not in canonical encoding.)
+     */
+    @Nullable
+    private final ByteBuffer encodedT;
 
     /**
      * Construct Data message.
@@ -100,6 +115,35 @@ public final class DataMessage extends AbstractEncodedMessage {
             @Nonnull final byte[] ctr, @Nonnull final byte[] encryptedMessage,
             @Nonnull final byte[] mac, @Nonnull final byte[] oldMACKeys,
             @Nonnull final InstanceTag senderInstanceTag, @Nonnull final InstanceTag receiverInstanceTag) {
+        this(protocolVersion, flags, senderKeyID, recipientKeyID, nextDH, ctr, encryptedMessage, mac, oldMACKeys,
+                senderInstanceTag, receiverInstanceTag, null);
+    }
+
+    /**
+     * Constructor for Data message as received.
+     * <p>
+     * The received 'T' value is used to verify the MAC without re-encoding the message. It is only kept if its length
+     * matches the length of the canonical encoding of 'T'.
+     *
+     * @param protocolVersion     the protocol version
+     * @param flags               the Data message flags
+     * @param senderKeyID         the sender key ID
+     * @param recipientKeyID      the receiver key ID
+     * @param nextDH              the Next DH public key to be rotated to
+     * @param ctr                 the counter value used in this Data message
+     * @param encryptedMessage    the encrypted message content
+     * @param mac                 the MAC for the message content
+     * @param oldMACKeys          the old MAC keys to reveal
+     * @param senderInstanceTag   the sender instance tag
+     * @param receiverInstanceTag the receiver instance tag
+     * @param encodedT            the encoded 'T' value as received, or null if not available
+     */
+    DataMessage(final int protocolVersion, final byte flags, final int senderKeyID,
+            final int recipientKeyID, @Nonnull final DHPublicKey nextDH,
+            @Nonnull final byte[] ctr, @Nonnull final byte[] encryptedMessage,
+            @Nonnull final byte[] mac, @Nonnull final byte[] oldMACKeys,
+            @Nonnull final InstanceTag senderInstanceTag, @Nonnull final InstanceTag receiverInstanceTag,
+            @Nullable final ByteBuffer encodedT) {
         super(protocolVersion, senderInstanceTag, receiverInstanceTag);
         this.flags = flags;
         this.senderKeyID = senderKeyID;
@@ -109,6 +153,7 @@ public final class DataMessage extends AbstractEncodedMessage {
         this.encryptedMessage = requireNonNull(encryptedMessage);
         this.mac = requireNonNull(mac);
         this.oldMACKeys = requireNonNull(oldMACKeys);
+        this.encodedT = encodedT == null || encodedT.remaining() != tLength() ? null : encodedT.asReadOnlyBuffer();
     }
 
     /**
@@ -122,6 +167,25 @@ public final class DataMessage extends AbstractEncodedMessage {
                 recipientKeyID, nextDH, ctr, encryptedMessage);
     }
 
+    /**
+     * Get the OTR-encoded mysterious 'T' value.
+     * <p>
+     * For a received message, this is a view on 'T' as received, so 'T' is not re-encoded. Otherwise, 'T' is encoded.
+     *
+     * @return Returns a read-only buffer containing the encoded 'T'.
+     */
+    @Nonnull
+    public ByteBuffer getEncodedT() {
+        if (this.encodedT != null) {
+            return this.encodedT.duplicate();
+        }
+        return ByteBuffer.wrap(encode(getT())).asReadOnlyBuffer();
+    }
+
+    private int tLength() {
+        return encodedLength() - MAC_LENGTH - dataLength(this.oldMACKeys.length);
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -186,6 +250,32 @@ public final class DataMessage extends AbstractEncodedMessage {
         writer.writeData(this.oldMACKeys);
     }
 
+    @Override
+    public int encodedLength() {
+        return super.encodedLength() + bodyLength(this.nextDH, this.encryptedMessage.length, this.oldMACKeys.length);
+    }
+
+    /**
+     * Encoded length of a data message with the provided content. The encrypted message has the same length as the
+     * plaintext content, so the length is known before the content is encrypted.
+     *
+     * @param protocolVersion        the protocol version
+     * @param nextDH                 the next DH public key
+     * @param encryptedMessageLength the length of the encrypted message
+     * @param oldMACKeysLength       the length of the old MAC keys to reveal
+     * @return Returns the length in bytes.
+     */
+    public static int encodedLength(final int protocolVersion, @Nonnull final DHPublicKey nextDH,
+            final int encryptedMessageLength, final int oldMACKeysLength) {
+        return headerLength(protocolVersion) + bodyLength(nextDH, encryptedMessageLength, oldMACKeysLength);
+    }
+
+    private static int bodyLength(@Nonnull final DHPublicKey nextDH, final int encryptedMessageLength,
+            final int oldMACKeysLength) {
+        return BYTE_LENGTH + 2 * INT_LENGTH + dhPublicKeyLength(nextDH) + CTR_LENGTH
+                + dataLength(encryptedMessageLength) + MAC_LENGTH + dataLength(oldMACKeysLength);
+    }
+
     @Override
     public int getType() {
         return MESSAGE_DATA;
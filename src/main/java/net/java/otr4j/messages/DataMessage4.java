@@ -15,10 +15,17 @@ import net.java.otr4j.io.OtrOutputStream;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 
 import static java.util.Objects.requireNonNull;
+import static net.java.otr4j.io.OtrEncodables.BYTE_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.INT_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.MAC_OTR4_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.POINT_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.bigIntLength;
+import static net.java.otr4j.io.OtrEncodables.dataLength;
 import static net.java.otr4j.util.ByteArrays.allZeroBytes;
 import static net.java.otr4j.util.ByteArrays.constantTimeEquals;
 import static net.java.otr4j.util.ByteArrays.requireLengthExactly;
@@ -84,6 +91,13 @@ public final class DataMessage4 extends AbstractEncodedMessage {
     @Nonnull
     public final byte[] revealedMacs;
 
+    /**
+     * The data message sections as received, i.e. a read-only view on the decoded message. (Or {@code null} in case
+     * the message is constructed locally or the received sections are not in canonical encoding.)
+     */
+    @Nullable
+    private final ByteBuffer sections;
+
     /**
      * Construct a new instance of DataMessage4 with the authenticator replaced by the provided one.
      *
@@ -93,7 +107,7 @@ public final class DataMessage4 extends AbstractEncodedMessage {
     public DataMessage4(@Nonnull final DataMessage4 original, @Nonnull final byte[] authenticator) {
         this(original.protocolVersion, original.senderTag, original.receiverTag, original.flags,
                 original.pn, original.i, original.j, original.ecdhPublicKey, original.dhPublicKey,
-                original.ciphertext, authenticator, original.revealedMacs);
+                original.ciphertext, authenticator, original.revealedMacs, original.sections);
     }
 
     /**
@@ -116,6 +130,35 @@ public final class DataMessage4 extends AbstractEncodedMessage {
             @Nonnull final InstanceTag receiverInstanceTag, final byte flags, final int pn, final int i, final int j,
             @Nonnull final Point ecdhPublicKey, @Nullable final BigInteger dhPublicKey,
             @Nonnull final byte[] ciphertext, @Nonnull final byte[] authenticator, @Nonnull final byte[] revealedMacs) {
+        this(protocolVersion, senderInstanceTag, receiverInstanceTag, flags, pn, i, j, ecdhPublicKey, dhPublicKey,
+                ciphertext, authenticator, revealedMacs, null);
+    }
+
+    /**
+     * Constructor for the data message as received.
+     * <p>
+     * The received data message sections are used to verify the authenticator without re-encoding the message. They
+     * are only kept if their length matches the length of the canonical encoding of the message.
+     *
+     * @param protocolVersion     the protocol version
+     * @param senderInstanceTag   the sender instance tag
+     * @param receiverInstanceTag the receiver instance tag
+     * @param flags               the message flags
+     * @param pn                  the number of messages in previous ratchet
+     * @param i                   the ratchet ID
+     * @param j                   the message ID
+     * @param ecdhPublicKey       the ECDH public key
+     * @param dhPublicKey         the DH public key (is only present every third ratchet)
+     * @param ciphertext          the ciphertext
+     * @param authenticator       the authenticator code
+     * @param revealedMacs        the revealed MAC keys
+     * @param sections            the data message sections as received, or null if not available
+     */
+    DataMessage4(final int protocolVersion, @Nonnull final InstanceTag senderInstanceTag,
+            @Nonnull final InstanceTag receiverInstanceTag, final byte flags, final int pn, final int i, final int j,
+            @Nonnull final Point ecdhPublicKey, @Nullable final BigInteger dhPublicKey,
+            @Nonnull final byte[] ciphertext, @Nonnull final byte[] authenticator, @Nonnull final byte[] revealedMacs,
+            @Nullable final ByteBuffer sections) {
         super(requireInRange(Version.FOUR, Version.FOUR, protocolVersion), senderInstanceTag, receiverInstanceTag);
         this.flags = flags;
         this.pn = pn;
@@ -126,6 +169,8 @@ public final class DataMessage4 extends AbstractEncodedMessage {
         this.ciphertext = requireNonNull(ciphertext);
         this.authenticator = requireLengthExactly(MAC_LENGTH_BYTES, authenticator);
         this.revealedMacs = requireNonNull(revealedMacs);
+        this.sections = sections == null || sections.remaining() != sectionsLength() ? null
+                : sections.asReadOnlyBuffer();
     }
 
     @Override
@@ -172,6 +217,52 @@ public final class DataMessage4 extends AbstractEncodedMessage {
         writer.writeData(this.revealedMacs);
     }
 
+    @Override
+    public int encodedLength() {
+        final int dhLength = this.dhPublicKey == null ? dataLength(0) : bigIntLength(this.dhPublicKey);
+        return super.encodedLength() + bodyLength(dhLength, this.ciphertext.length, this.revealedMacs.length);
+    }
+
+    /**
+     * Encoded length of a data message with the provided content. The ciphertext has the same length as the plaintext
+     * content, so the length is known before the content is encrypted.
+     *
+     * @param dhPublicKeyLength  the encoded length of the DH public key, or of the empty data if no DH public key is
+     *                           included
+     * @param ciphertextLength   the length of the ciphertext
+     * @param revealedMacsLength the length of the revealed MACs
+     * @return Returns the length in bytes.
+     */
+    public static int encodedLength(final int dhPublicKeyLength, final int ciphertextLength,
+            final int revealedMacsLength) {
+        return headerLength(Version.FOUR) + bodyLength(dhPublicKeyLength, ciphertextLength, revealedMacsLength);
+    }
+
+    private static int bodyLength(final int dhPublicKeyLength, final int ciphertextLength,
+            final int revealedMacsLength) {
+        return BYTE_LENGTH + 3 * INT_LENGTH + POINT_LENGTH + dhPublicKeyLength + dataLength(ciphertextLength)
+                + MAC_OTR4_LENGTH + dataLength(revealedMacsLength);
+    }
+
+    /**
+     * The data message sections as received.
+     *
+     * @return Returns a read-only view on the received data message sections, or null if not available.
+     */
+    @Nullable
+    ByteBuffer receivedSections() {
+        return this.sections == null ? null : this.sections.duplicate();
+    }
+
+    /**
+     * Encoded length of the data message sections, i.e. the encoded message without authenticator and revealed MACs.
+     *
+     * @return Returns the length in bytes.
+     */
+    int sectionsLength() {
+        return encodedLength() - MAC_OTR4_LENGTH - dataLength(this.revealedMacs.length);
+    }
+
     /**
      * Write the first part of the Data message.
      *
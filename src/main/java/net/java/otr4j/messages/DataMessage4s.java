@@ -10,6 +10,7 @@ package net.java.otr4j.messages;
 import net.java.otr4j.io.OtrOutputStream;
 
 import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
 
 /**
  * Utility class for DataMessage4.
@@ -28,8 +29,26 @@ public final class DataMessage4s {
      */
     @Nonnull
     public static byte[] encodeDataMessageSections(@Nonnull final DataMessage4 message) {
-        final OtrOutputStream out = new OtrOutputStream();
+        final OtrOutputStream out = new OtrOutputStream(message.sectionsLength());
         message.writeDataMessageSections(out);
         return out.toByteArray();
     }
+
+    /**
+     * Get the data message sections of provided DataMessage4 instance.
+     * <p>
+     * For a received message, this is a view on the sections as received, so the sections are not re-encoded.
+     * Otherwise, the data message sections are encoded.
+     *
+     * @param message the message instance
+     * @return Returns a read-only buffer containing the data message sections of the message.
+     */
+    @Nonnull
+    public static ByteBuffer dataMessageSections(@Nonnull final DataMessage4 message) {
+        final ByteBuffer sections = message.receivedSections();
+        if (sections != null) {
+            return sections;
+        }
+        return ByteBuffer.wrap(encodeDataMessageSections(message)).asReadOnlyBuffer();
+    }
 }
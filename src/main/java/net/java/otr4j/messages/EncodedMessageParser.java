@@ -13,12 +13,14 @@ import net.java.otr4j.crypto.OtrCryptoEngine4.Sigma;
 import net.java.otr4j.crypto.OtrCryptoException;
 import net.java.otr4j.crypto.ed448.Point;
 import net.java.otr4j.io.EncodedMessage;
+import net.java.otr4j.io.OtrInputStream;
 import net.java.otr4j.io.OtrInputStream.UnsupportedLengthException;
 
 import javax.annotation.Nonnull;
 import javax.crypto.interfaces.DHPublicKey;
 import java.math.BigInteger;
 import java.net.ProtocolException;
+import java.nio.ByteBuffer;
 
 import static java.math.BigInteger.ZERO;
 import static net.java.otr4j.messages.AuthIMessage.MESSAGE_AUTH_I;
@@ -60,6 +62,7 @@ public final class EncodedMessageParser {
     @Nonnull
     public static AbstractEncodedMessage parseEncodedMessage(final EncodedMessage message) throws OtrCryptoException, ProtocolException,
             UnsupportedLengthException, ValidationException {
+        final OtrInputStream payload = message.getPayload();
         switch (message.type) {
         case MESSAGE_DATA: {
             switch (message.version) {
@@ -69,34 +72,38 @@ public final class EncodedMessageParser {
                 throw new UnsupportedOperationException("Illegal protocol version: version 1 is no longer supported.");
             case Version.TWO: // intentional fall-through
             case Version.THREE: {
-                final byte flags = message.payload.readByte();
-                final int senderKeyID = message.payload.readInt();
-                final int recipientKeyID = message.payload.readInt();
-                final DHPublicKey nextDH = message.payload.readDHPublicKey();
-                final byte[] ctr = message.payload.readCtr();
-                final byte[] encryptedMessage = message.payload.readData();
-                final byte[] mac = message.payload.readMac();
-                final byte[] oldMacKeys = message.payload.readData();
+                final byte flags = payload.readByte();
+                final int senderKeyID = payload.readInt();
+                final int recipientKeyID = payload.readInt();
+                final DHPublicKey nextDH = payload.readDHPublicKey();
+                final byte[] ctr = payload.readCtr();
+                final byte[] encryptedMessage = payload.readData();
+                // 'T' is authenticated as received, instead of re-encoding it for MAC validation.
+                final ByteBuffer encodedT = payload.precedingBytes();
+                final byte[] mac = payload.readMac();
+                final byte[] oldMacKeys = payload.readData();
                 // The data message can only be validated where the current session keys are accessible. MAC validation
                 // therefore happens in a later stage. For now we return an unvalidated data message instance.
                 return new DataMessage(message.version, flags, senderKeyID, recipientKeyID, nextDH, ctr, encryptedMessage, mac,
-                        oldMacKeys, message.senderTag, message.receiverTag);
+                        oldMacKeys, message.senderTag, message.receiverTag, encodedT);
             }
             case Version.FOUR: {
-                final byte flags = message.payload.readByte();
-                final int pn = message.payload.readInt();
-                final int i = message.payload.readInt();
-                final int j = message.payload.readInt();
-                final Point ecdhPublicKey = message.payload.readPoint();
-                final BigInteger dhPublicKey = message.payload.readBigInt();
-                final byte[] ciphertext = message.payload.readData();
-                final byte[] authenticator = message.payload.readMacOTR4();
-                final byte[] revealedMacs = message.payload.readData();
+                final byte flags = payload.readByte();
+                final int pn = payload.readInt();
+                final int i = payload.readInt();
+                final int j = payload.readInt();
+                final Point ecdhPublicKey = payload.readPoint();
+                final BigInteger dhPublicKey = payload.readBigInt();
+                final byte[] ciphertext = payload.readData();
+                // The data message sections are authenticated as received, instead of re-encoding them.
+                final ByteBuffer sections = payload.precedingBytes();
+                final byte[] authenticator = payload.readMacOTR4();
+                final byte[] revealedMacs = payload.readData();
                 // We only verify the format of the data message, but do not perform the validation actions yet.
                 // Validation is delayed until a later point as we are missing context information for full validation.
                 return new DataMessage4(message.version, message.senderTag, message.receiverTag, flags, pn, i, j,
                         ecdhPublicKey, ZERO.equals(dhPublicKey) ? null : dhPublicKey, ciphertext, authenticator,
-                        revealedMacs);
+                        revealedMacs, sections);
             }
             default:
                 throw new UnsupportedOperationException("BUG: Future protocol versions are not supported. We should not have reached this state.");
@@ -104,54 +111,54 @@ public final class EncodedMessageParser {
         }
         case MESSAGE_DH_COMMIT: {
             requireOTR23(message.version);
-            final byte[] dhPublicKeyEncrypted = message.payload.readData();
-            final byte[] dhPublicKeyHash = message.payload.readData();
+            final byte[] dhPublicKeyEncrypted = payload.readData();
+            final byte[] dhPublicKeyHash = payload.readData();
             return new DHCommitMessage(message.version, dhPublicKeyHash, dhPublicKeyEncrypted, message.senderTag,
                     message.receiverTag);
         }
         case MESSAGE_DHKEY: {
             requireOTR23(message.version);
-            final DHPublicKey dhPublicKey = message.payload.readDHPublicKey();
+            final DHPublicKey dhPublicKey = payload.readDHPublicKey();
             return new DHKeyMessage(message.version, dhPublicKey, message.senderTag, message.receiverTag);
         }
         case MESSAGE_REVEALSIG: {
             requireOTR23(message.version);
-            final byte[] revealedKey = message.payload.readData();
-            final byte[] xEncrypted = message.payload.readData();
-            final byte[] xEncryptedMac = message.payload.readMac();
+            final byte[] revealedKey = payload.readData();
+            final byte[] xEncrypted = payload.readData();
+            final byte[] xEncryptedMac = payload.readMac();
             return new RevealSignatureMessage(message.version, xEncrypted, xEncryptedMac, revealedKey, message.senderTag,
                     message.receiverTag);
         }
         case MESSAGE_SIGNATURE: {
             requireOTR23(message.version);
-            final byte[] xEncryted = message.payload.readData();
-            final byte[] xEncryptedMac = message.payload.readMac();
+            final byte[] xEncryted = payload.readData();
+            final byte[] xEncryptedMac = payload.readMac();
             return new SignatureMessage(message.version, xEncryted, xEncryptedMac, message.senderTag, message.receiverTag);
         }
         case MESSAGE_IDENTITY: {
             requireOTR4(message.version);
-            final ClientProfilePayload profile = ClientProfilePayload.readFrom(message.payload);
-            final Point y = message.payload.readPoint();
-            final BigInteger b = message.payload.readBigInt();
-            final Point ourFirstECDHPublicKey = message.payload.readPoint();
-            final BigInteger ourFirstDHPublicKey = message.payload.readBigInt();
+            final ClientProfilePayload profile = ClientProfilePayload.readFrom(payload);
+            final Point y = payload.readPoint();
+            final BigInteger b = payload.readBigInt();
+            final Point ourFirstECDHPublicKey = payload.readPoint();
+            final BigInteger ourFirstDHPublicKey = payload.readBigInt();
             return new IdentityMessage(message.version, message.senderTag, message.receiverTag, profile,
                     y, b, ourFirstECDHPublicKey, ourFirstDHPublicKey);
         }
         case MESSAGE_AUTH_R: {
             requireOTR4(message.version);
-            final ClientProfilePayload profile = ClientProfilePayload.readFrom(message.payload);
-            final Point x = message.payload.readPoint();
-            final BigInteger a = message.payload.readBigInt();
-            final Sigma sigma = Sigma.readFrom(message.payload);
-            final Point ourFirstECDHPublicKey = message.payload.readPoint();
-            final BigInteger ourFirstDHPublicKey = message.payload.readBigInt();
+            final ClientProfilePayload profile = ClientProfilePayload.readFrom(payload);
+            final Point x = payload.readPoint();
+            final BigInteger a = payload.readBigInt();
+            final Sigma sigma = Sigma.readFrom(payload);
+            final Point ourFirstECDHPublicKey = payload.readPoint();
+            final BigInteger ourFirstDHPublicKey = payload.readBigInt();
             return new AuthRMessage(message.version, message.senderTag, message.receiverTag, profile, x, a, sigma,
                     ourFirstECDHPublicKey, ourFirstDHPublicKey);
         }
         case MESSAGE_AUTH_I: {
             requireOTR4(message.version);
-            final Sigma sigma = Sigma.readFrom(message.payload);
+            final Sigma sigma = Sigma.readFrom(payload);
             return new AuthIMessage(message.version, message.senderTag, message.receiverTag, sigma);
         }
         default:
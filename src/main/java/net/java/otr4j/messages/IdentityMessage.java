@@ -17,6 +17,8 @@ import java.math.BigInteger;
 import java.util.Objects;
 
 import static java.util.Objects.requireNonNull;
+import static net.java.otr4j.io.OtrEncodables.POINT_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.bigIntLength;
 import static net.java.otr4j.util.Integers.requireInRange;
 
 /**
@@ -100,6 +102,12 @@ public final class IdentityMessage extends AbstractEncodedMessage {
         writer.writeBigInt(this.ourFirstDHPublicKey);
     }
 
+    @Override
+    public int encodedLength() {
+        return super.encodedLength() + this.clientProfile.encodedLength() + POINT_LENGTH + bigIntLength(this.b)
+                + POINT_LENGTH + bigIntLength(this.ourFirstDHPublicKey);
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) {
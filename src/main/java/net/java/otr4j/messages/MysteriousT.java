@@ -18,6 +18,13 @@ import javax.crypto.interfaces.DHPublicKey;
 import java.util.Arrays;
 
 import static java.util.Objects.requireNonNull;
+import static net.java.otr4j.io.OtrEncodables.BYTE_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.CTR_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.INSTANCE_TAG_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.INT_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.SHORT_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.dataLength;
+import static net.java.otr4j.io.OtrEncodables.dhPublicKeyLength;
 import static net.java.otr4j.messages.DataMessage.MESSAGE_DATA;
 import static net.java.otr4j.util.ByteArrays.constantTimeEquals;
 
@@ -176,4 +183,11 @@ public final class MysteriousT implements OtrEncodable {
         out.writeCtr(this.ctr);
         out.writeData(this.encryptedMessage);
     }
+
+    @Override
+    public int encodedLength() {
+        final int tags = this.protocolVersion == Version.THREE ? 2 * INSTANCE_TAG_LENGTH : 0;
+        return SHORT_LENGTH + BYTE_LENGTH + tags + BYTE_LENGTH + 2 * INT_LENGTH + dhPublicKeyLength(this.nextDH)
+                + CTR_LENGTH + dataLength(this.encryptedMessage.length);
+    }
 }
@@ -15,6 +15,8 @@ import javax.annotation.Nonnull;
 import java.util.Arrays;
 
 import static java.util.Objects.requireNonNull;
+import static net.java.otr4j.io.OtrEncodables.MAC_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.dataLength;
 import static net.java.otr4j.util.ByteArrays.constantTimeEquals;
 import static net.java.otr4j.util.Integers.requireInRange;
 
@@ -68,6 +70,12 @@ public final class RevealSignatureMessage extends AbstractEncodedMessage {
         writer.writeMac(this.xEncryptedMAC);
     }
 
+    @Override
+    public int encodedLength() {
+        return super.encodedLength() + dataLength(this.revealedKey.length) + dataLength(this.xEncrypted.length)
+                + MAC_LENGTH;
+    }
+
     @Override
     public int getType() {
         return MESSAGE_REVEALSIG;
@@ -14,6 +14,9 @@ import javax.crypto.interfaces.DHPublicKey;
 import java.security.interfaces.DSAPublicKey;
 
 import static java.util.Objects.requireNonNull;
+import static net.java.otr4j.io.OtrEncodables.INT_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.bigIntLength;
+import static net.java.otr4j.io.OtrEncodables.publicKeyLength;
 import static net.java.otr4j.util.Integers.requireNotEquals;
 
 /**
@@ -92,4 +95,10 @@ public final class SignatureM implements OtrEncodable {
         out.writePublicKey(this.localLongTermPubKey);
         out.writeInt(this.keyPairID);
     }
+
+    @Override
+    public int encodedLength() {
+        return bigIntLength(this.localPubKey.getY()) + bigIntLength(this.remotePubKey.getY())
+                + publicKeyLength(this.localLongTermPubKey) + INT_LENGTH;
+    }
 }
@@ -17,6 +17,8 @@ import java.util.Arrays;
 import static java.util.Objects.requireNonNull;
 import static net.java.otr4j.crypto.DSAKeyPair.DSA_SIGNATURE_LENGTH_BYTES;
 import static net.java.otr4j.crypto.DSAKeyPair.verifySignature;
+import static net.java.otr4j.io.OtrEncodables.INT_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.publicKeyLength;
 import static net.java.otr4j.util.ByteArrays.allZeroBytes;
 import static net.java.otr4j.util.ByteArrays.constantTimeEquals;
 import static net.java.otr4j.util.ByteArrays.requireLengthExactly;
@@ -119,4 +121,9 @@ public final class SignatureX implements OtrEncodable {
         out.writeInt(this.dhKeyID);
         out.writeDSASignature(this.signature);
     }
+
+    @Override
+    public int encodedLength() {
+        return publicKeyLength(this.longTermPublicKey) + INT_LENGTH + DSA_SIGNATURE_LENGTH_BYTES;
+    }
 }
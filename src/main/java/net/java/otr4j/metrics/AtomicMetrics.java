@@ -0,0 +1,466 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.metrics;
+
+import net.java.otr4j.api.OtrMetrics;
+import net.java.otr4j.api.SessionID;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Lock-free metrics implementation that keeps global and per-session measurements.
+ * <p>
+ * Global counters are striped, such that concurrently processing sessions do not contend on the same counter.
+ * Key exchange latencies are recorded in log-linear histograms, separately for the OTRv2/OTRv3 AKE and the OTRv4
+ * DAKE.
+ * <p>
+ * Per-session measurements are kept for sessions that are managed by a session manager, from creation until
+ * removal of the session. Measurements of other sessions only count towards the global measurements. Provide the
+ * instance to the engine through {@link net.java.otr4j.api.MetricsEngineHost}.
+ */
+public final class AtomicMetrics implements OtrMetrics {
+
+    private final StripedCounter messagesReceived = new StripedCounter();
+
+    private final StripedCounter bytesReceived = new StripedCounter();
+
+    private final StripedCounter messagesSent = new StripedCounter();
+
+    private final StripedCounter bytesSent = new StripedCounter();
+
+    private final StripedCounter fragmentsAssembled = new StripedCounter();
+
+    private final StripedCounter fragmentsDropped = new StripedCounter();
+
+    private final StripedCounter fragmentsEvicted = new StripedCounter();
+
+    private final StripedCounter decryptionFailures = new StripedCounter();
+
+    private final StripedCounter verificationFailures = new StripedCounter();
+
+    private final StripedCounter ratchetRotations = new StripedCounter();
+
+    private final AtomicLong activeSessions = new AtomicLong();
+
+    private final AtomicLong activeInstances = new AtomicLong();
+
+    private final Histogram akeLatency = new Histogram();
+
+    private final Histogram dakeLatency = new Histogram();
+
+    private final ConcurrentHashMap<SessionID, SessionMetrics> sessions = new ConcurrentHashMap<>();
+
+    @Override
+    public void messageReceived(@Nonnull final SessionID sessionID, final int length) {
+        this.messagesReceived.increment();
+        this.bytesReceived.add(length);
+        final SessionMetrics session = this.sessions.get(sessionID);
+        if (session != null) {
+            session.messagesReceived.incrementAndGet();
+            session.bytesReceived.addAndGet(length);
+        }
+    }
+
+    @Override
+    public void messageSent(@Nonnull final SessionID sessionID, final int length) {
+        this.messagesSent.increment();
+        this.bytesSent.add(length);
+        final SessionMetrics session = this.sessions.get(sessionID);
+        if (session != null) {
+            session.messagesSent.incrementAndGet();
+            session.bytesSent.addAndGet(length);
+        }
+    }
+
+    @Override
+    public void fragmentAssembled(@Nonnull final SessionID sessionID) {
+        this.fragmentsAssembled.increment();
+        final SessionMetrics session = this.sessions.get(sessionID);
+        if (session != null) {
+            session.fragmentsAssembled.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void fragmentDropped(@Nonnull final SessionID sessionID) {
+        this.fragmentsDropped.increment();
+        final SessionMetrics session = this.sessions.get(sessionID);
+        if (session != null) {
+            session.fragmentsDropped.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void fragmentsEvicted(@Nonnull final SessionID sessionID, final int count) {
+        this.fragmentsEvicted.add(count);
+        final SessionMetrics session = this.sessions.get(sessionID);
+        if (session != null) {
+            session.fragmentsEvicted.addAndGet(count);
+        }
+    }
+
+    @Override
+    public void decryptionFailed(@Nonnull final SessionID sessionID) {
+        this.decryptionFailures.increment();
+        final SessionMetrics session = this.sessions.get(sessionID);
+        if (session != null) {
+            session.decryptionFailures.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void verificationFailed(@Nonnull final SessionID sessionID) {
+        this.verificationFailures.increment();
+        final SessionMetrics session = this.sessions.get(sessionID);
+        if (session != null) {
+            session.verificationFailures.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void keyExchangeCompleted(@Nonnull final SessionID sessionID, final int version, final long nanos) {
+        if (version == 4) {
+            this.dakeLatency.record(nanos);
+        } else {
+            this.akeLatency.record(nanos);
+        }
+        final SessionMetrics session = this.sessions.get(sessionID);
+        if (session != null) {
+            session.keyExchanges.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void ratchetRotated(@Nonnull final SessionID sessionID) {
+        this.ratchetRotations.increment();
+        final SessionMetrics session = this.sessions.get(sessionID);
+        if (session != null) {
+            session.ratchetRotations.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void sessionCreated(@Nonnull final SessionID sessionID) {
+        if (this.sessions.putIfAbsent(sessionID, new SessionMetrics()) == null) {
+            this.activeSessions.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void sessionRemoved(@Nonnull final SessionID sessionID) {
+        final SessionMetrics session = this.sessions.remove(sessionID);
+        if (session != null) {
+            this.activeSessions.decrementAndGet();
+            this.activeInstances.addAndGet(-session.instances.getAndSet(0));
+        }
+    }
+
+    @Override
+    public void instanceCreated(@Nonnull final SessionID sessionID) {
+        final SessionMetrics session = this.sessions.get(sessionID);
+        if (session != null) {
+            session.instances.incrementAndGet();
+            this.activeInstances.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void instanceRemoved(@Nonnull final SessionID sessionID) {
+        final SessionMetrics session = this.sessions.get(sessionID);
+        if (session != null) {
+            session.instances.decrementAndGet();
+            this.activeInstances.decrementAndGet();
+        }
+    }
+
+    /**
+     * Get the measurements of a single session.
+     *
+     * @param sessionID the session ID
+     * @return Returns the session's measurements, or null if the session is not (or no longer) managed.
+     */
+    @Nullable
+    public SessionMetrics getSession(@Nonnull final SessionID sessionID) {
+        return this.sessions.get(requireNonNull(sessionID));
+    }
+
+    /**
+     * Get the number of received messages.
+     *
+     * @return Returns the count.
+     */
+    public long getMessagesReceived() {
+        return this.messagesReceived.sum();
+    }
+
+    /**
+     * Get the number of received bytes.
+     *
+     * @return Returns the count.
+     */
+    public long getBytesReceived() {
+        return this.bytesReceived.sum();
+    }
+
+    /**
+     * Get the number of sent messages.
+     *
+     * @return Returns the count.
+     */
+    public long getMessagesSent() {
+        return this.messagesSent.sum();
+    }
+
+    /**
+     * Get the number of sent bytes.
+     *
+     * @return Returns the count.
+     */
+    public long getBytesSent() {
+        return this.bytesSent.sum();
+    }
+
+    /**
+     * Get the number of fragments that were accepted for reassembly.
+     *
+     * @return Returns the count.
+     */
+    public long getFragmentsAssembled() {
+        return this.fragmentsAssembled.sum();
+    }
+
+    /**
+     * Get the number of fragments that were dropped.
+     *
+     * @return Returns the count.
+     */
+    public long getFragmentsDropped() {
+        return this.fragmentsDropped.sum();
+    }
+
+    /**
+     * Get the number of fragments of incomplete messages that were evicted from reassembly.
+     *
+     * @return Returns the count.
+     */
+    public long getFragmentsEvicted() {
+        return this.fragmentsEvicted.sum();
+    }
+
+    /**
+     * Get the number of data messages that failed verification or decryption.
+     *
+     * @return Returns the count.
+     */
+    public long getDecryptionFailures() {
+        return this.decryptionFailures.sum();
+    }
+
+    /**
+     * Get the number of key exchange messages that failed verification.
+     *
+     * @return Returns the count.
+     */
+    public long getVerificationFailures() {
+        return this.verificationFailures.sum();
+    }
+
+    /**
+     * Get the number of Double Ratchet key rotations.
+     *
+     * @return Returns the count.
+     */
+    public long getRatchetRotations() {
+        return this.ratchetRotations.sum();
+    }
+
+    /**
+     * Get the number of active, i.e. managed, sessions.
+     *
+     * @return Returns the count.
+     */
+    public long getActiveSessions() {
+        return this.activeSessions.get();
+    }
+
+    /**
+     * Get the number of active instances of managed sessions.
+     *
+     * @return Returns the count.
+     */
+    public long getActiveInstances() {
+        return this.activeInstances.get();
+    }
+
+    /**
+     * Get the histogram of OTRv2/OTRv3 AKE latencies in nanoseconds.
+     *
+     * @return Returns the histogram.
+     */
+    @Nonnull
+    public Histogram getAkeLatency() {
+        return this.akeLatency;
+    }
+
+    /**
+     * Get the histogram of OTRv4 DAKE latencies in nanoseconds.
+     *
+     * @return Returns the histogram.
+     */
+    @Nonnull
+    public Histogram getDakeLatency() {
+        return this.dakeLatency;
+    }
+
+    /**
+     * Measurements of a single session.
+     */
+    public static final class SessionMetrics {
+
+        private final AtomicLong messagesReceived = new AtomicLong();
+
+        private final AtomicLong bytesReceived = new AtomicLong();
+
+        private final AtomicLong messagesSent = new AtomicLong();
+
+        private final AtomicLong bytesSent = new AtomicLong();
+
+        private final AtomicLong fragmentsAssembled = new AtomicLong();
+
+        private final AtomicLong fragmentsDropped = new AtomicLong();
+
+        private final AtomicLong fragmentsEvicted = new AtomicLong();
+
+        private final AtomicLong decryptionFailures = new AtomicLong();
+
+        private final AtomicLong verificationFailures = new AtomicLong();
+
+        private final AtomicLong keyExchanges = new AtomicLong();
+
+        private final AtomicLong ratchetRotations = new AtomicLong();
+
+        private final AtomicLong instances = new AtomicLong();
+
+        private SessionMetrics() {
+            // Instantiated upon creation of the session only.
+        }
+
+        /**
+         * Get the number of received messages.
+         *
+         * @return Returns the count.
+         */
+        public long getMessagesReceived() {
+            return this.messagesReceived.get();
+        }
+
+        /**
+         * Get the number of received bytes.
+         *
+         * @return Returns the count.
+         */
+        public long getBytesReceived() {
+            return this.bytesReceived.get();
+        }
+
+        /**
+         * Get the number of sent messages.
+         *
+         * @return Returns the count.
+         */
+        public long getMessagesSent() {
+            return this.messagesSent.get();
+        }
+
+        /**
+         * Get the number of sent bytes.
+         *
+         * @return Returns the count.
+         */
+        public long getBytesSent() {
+            return this.bytesSent.get();
+        }
+
+        /**
+         * Get the number of fragments that were accepted for reassembly.
+         *
+         * @return Returns the count.
+         */
+        public long getFragmentsAssembled() {
+            return this.fragmentsAssembled.get();
+        }
+
+        /**
+         * Get the number of fragments that were dropped.
+         *
+         * @return Returns the count.
+         */
+        public long getFragmentsDropped() {
+            return this.fragmentsDropped.get();
+        }
+
+        /**
+         * Get the number of fragments of incomplete messages that were evicted from reassembly.
+         *
+         * @return Returns the count.
+         */
+        public long getFragmentsEvicted() {
+            return this.fragmentsEvicted.get();
+        }
+
+        /**
+         * Get the number of data messages that failed verification or decryption.
+         *
+         * @return Returns the count.
+         */
+        public long getDecryptionFailures() {
+            return this.decryptionFailures.get();
+        }
+
+        /**
+         * Get the number of key exchange messages that failed verification.
+         *
+         * @return Returns the count.
+         */
+        public long getVerificationFailures() {
+            return this.verificationFailures.get();
+        }
+
+        /**
+         * Get the number of completed key exchanges.
+         *
+         * @return Returns the count.
+         */
+        public long getKeyExchanges() {
+            return this.keyExchanges.get();
+        }
+
+        /**
+         * Get the number of Double Ratchet key rotations.
+         *
+         * @return Returns the count.
+         */
+        public long getRatchetRotations() {
+            return this.ratchetRotations.get();
+        }
+
+        /**
+         * Get the number of instances of the session.
+         *
+         * @return Returns the count.
+         */
+        public long getInstances() {
+            return this.instances.get();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values with log-linear buckets.
+ * <p>
+ * Values below {@link #SUB_BUCKETS} are counted exactly. Larger values are counted in buckets of which the width
+ * doubles for every power of 2, with {@code SUB_BUCKETS / 2} buckets per power of 2. Therefore the relative error of
+ * a reported value is at most {@code 2 / SUB_BUCKETS}, for the full range of {@code long}, with a fixed number of
+ * buckets.
+ * <p>
+ * Recording a value is wait-free apart from tracking the maximum. Reading the histogram while values are recorded,
+ * provides a weakly-consistent view.
+ */
+public final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /**
+     * Number of values that are counted exactly.
+     */
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS >> 1;
+
+    /**
+     * Number of buckets needed to cover values up to {@link Long#MAX_VALUE}.
+     */
+    static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value. Negative values are recorded as 0.
+     *
+     * @param value the value
+     */
+    public void record(final long value) {
+        final long v = Math.max(0, value);
+        this.counts.incrementAndGet(index(v));
+        this.count.incrementAndGet();
+        this.total.addAndGet(v);
+        long current = this.max.get();
+        while (v > current && !this.max.compareAndSet(current, v)) {
+            current = this.max.get();
+        }
+    }
+
+    /**
+     * Get the number of recorded values.
+     *
+     * @return Returns the count.
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * Get the largest recorded value.
+     *
+     * @return Returns the maximum, or 0 if no values are recorded.
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Get the mean of the recorded values.
+     *
+     * @return Returns the mean, or 0 if no values are recorded.
+     */
+    public double getMean() {
+        final long n = this.count.get();
+        return n == 0 ? 0 : (double) this.total.get() / n;
+    }
+
+    /**
+     * Get the value at the specified percentile. The result is the upper bound of the bucket that contains the
+     * percentile, limited by the maximum recorded value.
+     *
+     * @param percentile the percentile, in range [0, 100]
+     * @return Returns the value at the percentile, or 0 if no values are recorded.
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be in range [0, 100].");
+        }
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += this.counts.get(i);
+        }
+        if (n == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += this.counts.get(i);
+            if (cumulative >= rank) {
+                return Math.min(upperBound(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    /**
+     * Determine the bucket index of a value.
+     *
+     * @param value the (non-negative) value
+     * @return Returns the bucket index.
+     */
+    static int index(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+    }
+
+    /**
+     * Determine the largest value that is counted in the bucket.
+     *
+     * @param index the bucket index
+     * @return Returns the upper bound (inclusive).
+     */
+    static long upperBound(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        final long sub = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.metrics;
+
+import javax.annotation.Nonnull;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.logging.Logger;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.logging.Level.WARNING;
+
+/**
+ * Exporter of the global measurements of {@link AtomicMetrics} as a JMX MXBean.
+ * <p>
+ * Register the exporter to make the measurements available to JMX clients, such as JConsole or a monitoring agent:
+ * <pre>
+ * final AtomicMetrics metrics = new AtomicMetrics();
+ * final JmxMetricsExporter exporter = JmxMetricsExporter.register(metrics);
+ * ...
+ * exporter.close();
+ * </pre>
+ * Attributes are computed upon request. The exporter does not keep any state of its own.
+ */
+public final class JmxMetricsExporter implements OtrMetricsMXBean, AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(JmxMetricsExporter.class.getName());
+
+    /**
+     * Default object name under which the metrics are registered.
+     */
+    public static final String DEFAULT_NAME = "net.java.otr4j:type=OtrMetrics";
+
+    private static final double MEDIAN = 50;
+
+    private static final double PERCENTILE_99 = 99;
+
+    private final AtomicMetrics metrics;
+
+    private final MBeanServer server;
+
+    private final ObjectName name;
+
+    private JmxMetricsExporter(@Nonnull final AtomicMetrics metrics, @Nonnull final MBeanServer server,
+            @Nonnull final ObjectName name) {
+        this.metrics = requireNonNull(metrics);
+        this.server = requireNonNull(server);
+        this.name = requireNonNull(name);
+    }
+
+    /**
+     * Register the metrics with the platform MBean server, under {@link #DEFAULT_NAME}.
+     *
+     * @param metrics the metrics
+     * @return Returns the registered exporter.
+     * @throws JMException In case registration fails, e.g. because another instance is registered under the same name.
+     */
+    @Nonnull
+    public static JmxMetricsExporter register(@Nonnull final AtomicMetrics metrics) throws JMException {
+        return register(metrics, ManagementFactory.getPlatformMBeanServer(), defaultName());
+    }
+
+    /**
+     * Register the metrics with the MBean server under the specified name.
+     *
+     * @param metrics the metrics
+     * @param server  the MBean server
+     * @param name    the object name
+     * @return Returns the registered exporter.
+     * @throws JMException In case registration fails, e.g. because another instance is registered under the same name.
+     */
+    @Nonnull
+    public static JmxMetricsExporter register(@Nonnull final AtomicMetrics metrics, @Nonnull final MBeanServer server,
+            @Nonnull final ObjectName name) throws JMException {
+        final JmxMetricsExporter exporter = new JmxMetricsExporter(metrics, server, name);
+        server.registerMBean(exporter, name);
+        return exporter;
+    }
+
+    @Nonnull
+    private static ObjectName defaultName() {
+        try {
+            return new ObjectName(DEFAULT_NAME);
+        } catch (final MalformedObjectNameException e) {
+            throw new IllegalStateException("BUG: default object name is invalid.", e);
+        }
+    }
+
+    /**
+     * Get the name under which the metrics are registered.
+     *
+     * @return Returns the object name.
+     */
+    @Nonnull
+    public ObjectName getName() {
+        return this.name;
+    }
+
+    /**
+     * Unregister the metrics from the MBean server.
+     */
+    @Override
+    public void close() {
+        try {
+            this.server.unregisterMBean(this.name);
+        } catch (final JMException e) {
+            LOGGER.log(WARNING, "Failed to unregister OTR metrics " + this.name, e);
+        }
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return this.metrics.getMessagesReceived();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return this.metrics.getBytesReceived();
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return this.metrics.getMessagesSent();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return this.metrics.getBytesSent();
+    }
+
+    @Override
+    public long getFragmentsAssembled() {
+        return this.metrics.getFragmentsAssembled();
+    }
+
+    @Override
+    public long getFragmentsDropped() {
+        return this.metrics.getFragmentsDropped();
+    }
+
+    @Override
+    public long getFragmentsEvicted() {
+        return this.metrics.getFragmentsEvicted();
+    }
+
+    @Override
+    public long getDecryptionFailures() {
+        return this.metrics.getDecryptionFailures();
+    }
+
+    @Override
+    public long getVerificationFailures() {
+        return this.metrics.getVerificationFailures();
+    }
+
+    @Override
+    public long getRatchetRotations() {
+        return this.metrics.getRatchetRotations();
+    }
+
+    @Override
+    public long getActiveSessions() {
+        return this.metrics.getActiveSessions();
+    }
+
+    @Override
+    public long getActiveInstances() {
+        return this.metrics.getActiveInstances();
+    }
+
+    @Override
+    public long getAkeCount() {
+        return this.metrics.getAkeLatency().getCount();
+    }
+
+    @Override
+    public long getAkeLatencyMedian() {
+        return this.metrics.getAkeLatency().getValueAtPercentile(MEDIAN);
+    }
+
+    @Override
+    public long getAkeLatency99thPercentile() {
+        return this.metrics.getAkeLatency().getValueAtPercentile(PERCENTILE_99);
+    }
+
+    @Override
+    public long getAkeLatencyMax() {
+        return this.metrics.getAkeLatency().getMax();
+    }
+
+    @Override
+    public long getDakeCount() {
+        return this.metrics.getDakeLatency().getCount();
+    }
+
+    @Override
+    public long getDakeLatencyMedian() {
+        return this.metrics.getDakeLatency().getValueAtPercentile(MEDIAN);
+    }
+
+    @Override
+    public long getDakeLatency99thPercentile() {
+        return this.metrics.getDakeLatency().getValueAtPercentile(PERCENTILE_99);
+    }
+
+    @Override
+    public long getDakeLatencyMax() {
+        return this.metrics.getDakeLatency().getMax();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.metrics;
+
+/**
+ * Management interface of the global OTR metrics, as exported through JMX. (See {@link JmxMetricsExporter}.)
+ * <p>
+ * Latencies are expressed in nanoseconds.
+ */
+public interface OtrMetricsMXBean {
+
+    /**
+     * Get the number of received messages.
+     *
+     * @return Returns the count.
+     */
+    long getMessagesReceived();
+
+    /**
+     * Get the number of received bytes.
+     *
+     * @return Returns the count.
+     */
+    long getBytesReceived();
+
+    /**
+     * Get the number of sent messages.
+     *
+     * @return Returns the count.
+     */
+    long getMessagesSent();
+
+    /**
+     * Get the number of sent bytes.
+     *
+     * @return Returns the count.
+     */
+    long getBytesSent();
+
+    /**
+     * Get the number of fragments that were accepted for reassembly.
+     *
+     * @return Returns the count.
+     */
+    long getFragmentsAssembled();
+
+    /**
+     * Get the number of fragments that were dropped.
+     *
+     * @return Returns the count.
+     */
+    long getFragmentsDropped();
+
+    /**
+     * Get the number of fragments of incomplete messages that were evicted from reassembly.
+     *
+     * @return Returns the count.
+     */
+    long getFragmentsEvicted();
+
+    /**
+     * Get the number of data messages that failed verification or decryption.
+     *
+     * @return Returns the count.
+     */
+    long getDecryptionFailures();
+
+    /**
+     * Get the number of key exchange messages that failed verification.
+     *
+     * @return Returns the count.
+     */
+    long getVerificationFailures();
+
+    /**
+     * Get the number of Double Ratchet key rotations.
+     *
+     * @return Returns the count.
+     */
+    long getRatchetRotations();
+
+    /**
+     * Get the number of active sessions.
+     *
+     * @return Returns the count.
+     */
+    long getActiveSessions();
+
+    /**
+     * Get the number of active instances.
+     *
+     * @return Returns the count.
+     */
+    long getActiveInstances();
+
+    /**
+     * Get the number of completed OTRv2/OTRv3 AKEs.
+     *
+     * @return Returns the count.
+     */
+    long getAkeCount();
+
+    /**
+     * Get the median OTRv2/OTRv3 AKE latency.
+     *
+     * @return Returns the latency.
+     */
+    long getAkeLatencyMedian();
+
+    /**
+     * Get the 99th percentile OTRv2/OTRv3 AKE latency.
+     *
+     * @return Returns the latency.
+     */
+    long getAkeLatency99thPercentile();
+
+    /**
+     * Get the maximum OTRv2/OTRv3 AKE latency.
+     *
+     * @return Returns the latency.
+     */
+    long getAkeLatencyMax();
+
+    /**
+     * Get the number of completed OTRv4 DAKEs.
+     *
+     * @return Returns the count.
+     */
+    long getDakeCount();
+
+    /**
+     * Get the median OTRv4 DAKE latency.
+     *
+     * @return Returns the latency.
+     */
+    long getDakeLatencyMedian();
+
+    /**
+     * Get the 99th percentile OTRv4 DAKE latency.
+     *
+     * @return Returns the latency.
+     */
+    long getDakeLatency99thPercentile();
+
+    /**
+     * Get the maximum OTRv4 DAKE latency.
+     *
+     * @return Returns the latency.
+     */
+    long getDakeLatencyMax();
+}
@@ -0,0 +1,69 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counter that spreads increments over multiple cells.
+ * <p>
+ * Threads increment the cell that corresponds to their thread ID, such that concurrently processing threads rarely
+ * contend on the same cache line. Reading the counter sums all cells. The sum is exact once all concurrent increments
+ * have completed.
+ */
+final class StripedCounter {
+
+    /**
+     * Distance between cells in number of longs, such that every cell occupies its own cache line of 64 bytes.
+     */
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells;
+
+    private final int mask;
+
+    StripedCounter() {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors()) {
+            stripes <<= 1;
+        }
+        this.mask = stripes - 1;
+        this.cells = new AtomicLongArray(stripes * PADDING);
+    }
+
+    /**
+     * Increment the counter by 1.
+     */
+    void increment() {
+        add(1);
+    }
+
+    /**
+     * Add a value to the counter.
+     *
+     * @param value the value
+     */
+    void add(final long value) {
+        final long id = Thread.currentThread().getId();
+        final int stripe = ((int) (id ^ (id >>> 32)) * 0x9E3779B9 >>> 16) & this.mask;
+        this.cells.addAndGet(stripe * PADDING, value);
+    }
+
+    /**
+     * Get the sum of the counter.
+     *
+     * @return Returns the sum.
+     */
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < this.cells.length(); i += PADDING) {
+            sum += this.cells.get(i);
+        }
+        return sum;
+    }
+}
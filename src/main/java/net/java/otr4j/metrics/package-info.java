@@ -0,0 +1,10 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+/**
+ * Implementations of the metrics SPI {@link net.java.otr4j.api.OtrMetrics}.
+ */
+package net.java.otr4j.metrics;
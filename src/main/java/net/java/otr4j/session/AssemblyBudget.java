@@ -0,0 +1,155 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import javax.annotation.Nonnull;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Memory budget for reassembly of fragmented messages, shared by multiple assemblers.
+ * <p>
+ * Every assembler acquires a {@link Reservation} through which it claims and releases bytes. Assemblers release their
+ * bytes as messages are completed, evicted or dropped. An assembler that is discarded while holding bytes, e.g. because
+ * its session is discarded, is referenced weakly. Its bytes are reclaimed once it is garbage-collected, through a
+ * {@link ReferenceQueue}.
+ * <p>
+ * AssemblyBudget is thread-safe.
+ */
+final class AssemblyBudget {
+
+    /**
+     * Memory budget in bytes for reassembly of fragmented messages, for all sessions together.
+     */
+    static final long GLOBAL_LIMIT = 64L << 20;
+
+    private static final AssemblyBudget GLOBAL = new AssemblyBudget();
+
+    private final AtomicLong used = new AtomicLong();
+
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+    /**
+     * Strong references to the reservations, such that reservations are enqueued once their owner is collected.
+     */
+    private final Set<Reservation> reservations = Collections.newSetFromMap(
+            new ConcurrentHashMap<Reservation, Boolean>());
+
+    /**
+     * Get the global assembly budget that is shared by all sessions.
+     *
+     * @return Returns the global budget.
+     */
+    @Nonnull
+    static AssemblyBudget global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Get the number of bytes that are currently claimed.
+     *
+     * @return Returns the number of bytes.
+     */
+    long used() {
+        pruneCollected();
+        return this.used.get();
+    }
+
+    /**
+     * Acquire a reservation for claiming bytes from the budget.
+     *
+     * @param owner the owner of the reservation. Bytes that are held by the reservation are reclaimed once the owner
+     *              is garbage-collected.
+     * @return Returns the reservation.
+     */
+    @Nonnull
+    Reservation reserve(@Nonnull final Object owner) {
+        pruneCollected();
+        final Reservation reservation = new Reservation(this, requireNonNull(owner), this.collected);
+        this.reservations.add(reservation);
+        return reservation;
+    }
+
+    private void pruneCollected() {
+        Reference<?> ref;
+        while ((ref = this.collected.poll()) != null) {
+            final Reservation reservation = (Reservation) ref;
+            this.reservations.remove(reservation);
+            this.used.addAndGet(-reservation.held.get());
+        }
+    }
+
+    /**
+     * Reservation of a single owner on the budget.
+     * <p>
+     * A reservation is used by its owner only, which claims and releases bytes in a single thread at a time.
+     */
+    static final class Reservation extends WeakReference<Object> {
+
+        private final AssemblyBudget budget;
+
+        /**
+         * The number of bytes held by the owner. The count is updated by the owner, and read after the owner is
+         * garbage-collected.
+         */
+        private final AtomicLong held = new AtomicLong();
+
+        private Reservation(@Nonnull final AssemblyBudget budget, @Nonnull final Object owner,
+                @Nonnull final ReferenceQueue<Object> queue) {
+            super(owner, queue);
+            this.budget = budget;
+        }
+
+        /**
+         * Claim bytes, unless that exceeds the limit of the budget.
+         *
+         * @param bytes the number of bytes
+         * @param limit the limit of the budget in bytes
+         * @return Returns true if the bytes are claimed, or false if the budget does not allow it.
+         */
+        boolean tryClaim(final long bytes, final long limit) {
+            this.budget.pruneCollected();
+            long current;
+            do {
+                current = this.budget.used.get();
+                if (current + bytes > limit) {
+                    return false;
+                }
+            } while (!this.budget.used.compareAndSet(current, current + bytes));
+            this.held.addAndGet(bytes);
+            return true;
+        }
+
+        /**
+         * Release previously claimed bytes.
+         *
+         * @param bytes the number of bytes
+         */
+        void release(final long bytes) {
+            assert bytes <= this.held.get() : "BUG: releasing more bytes than were claimed.";
+            this.held.addAndGet(-bytes);
+            this.budget.used.addAndGet(-bytes);
+        }
+
+        /**
+         * Get the number of bytes held through this reservation.
+         *
+         * @return Returns the number of bytes.
+         */
+        long held() {
+            return this.held.get();
+        }
+    }
+}
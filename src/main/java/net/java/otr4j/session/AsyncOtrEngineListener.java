@@ -0,0 +1,201 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import net.java.otr4j.api.InstanceEvictionListener;
+import net.java.otr4j.api.InstanceTag;
+import net.java.otr4j.api.OtrEngineListener;
+import net.java.otr4j.api.SessionID;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+
+/**
+ * Listener that delivers events to its delegate listener asynchronously.
+ * <p>
+ * Listeners are notified on the thread that processes messages, while the session is locked. A listener that is slow
+ * to handle events, such as a listener that updates a user interface, therefore stalls message processing for the
+ * session. Register the slow listener wrapped in an asynchronous listener, to decouple event handling from message
+ * processing:
+ * <pre>
+ * session.addOtrEngineListener(new AsyncOtrEngineListener(uiListener, 1024));
+ * </pre>
+ * Events are put in a bounded ring buffer and delivered to the delegate, in order, by a dedicated dispatcher thread.
+ * Publishing an event never blocks. In case the buffer is full, the event is dropped and a warning is logged. The
+ * number of dropped events is available through {@link #getDroppedEvents()}.
+ * <p>
+ * The delegate receives {@link InstanceEvictionListener} events only if it implements that interface.
+ * <p>
+ * The dispatcher thread is a daemon thread. Call {@link #close()} to stop it. Events that are still buffered upon
+ * closing are discarded.
+ */
+public final class AsyncOtrEngineListener implements OtrEngineListener, InstanceEvictionListener, AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(AsyncOtrEngineListener.class.getName());
+
+    private final OtrEngineListener delegate;
+
+    private final ArrayBlockingQueue<Event> events;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Thread dispatcher;
+
+    private volatile boolean closed;
+
+    /**
+     * Construct asynchronous listener.
+     *
+     * @param delegate the listener that receives the events on the dispatcher thread
+     * @param capacity the maximum number of buffered events
+     */
+    public AsyncOtrEngineListener(@Nonnull final OtrEngineListener delegate, final int capacity) {
+        this.delegate = requireNonNull(delegate);
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        this.events = new ArrayBlockingQueue<>(capacity);
+        this.dispatcher = new Thread(new Dispatcher(), "otr-event-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Get the number of events that were dropped because the buffer was full.
+     *
+     * @return Returns the number of dropped events.
+     */
+    public long getDroppedEvents() {
+        return this.dropped.get();
+    }
+
+    @Override
+    public void sessionStatusChanged(@Nonnull final SessionID sessionID, @Nonnull final InstanceTag receiver) {
+        publish(new Event(EventType.SESSION_STATUS_CHANGED, sessionID, receiver));
+    }
+
+    @Override
+    public void multipleInstancesDetected(@Nonnull final SessionID sessionID) {
+        publish(new Event(EventType.MULTIPLE_INSTANCES_DETECTED, sessionID, null));
+    }
+
+    @Override
+    public void outgoingSessionChanged(@Nonnull final SessionID sessionID) {
+        publish(new Event(EventType.OUTGOING_SESSION_CHANGED, sessionID, null));
+    }
+
+    @Override
+    public void instanceEvicted(@Nonnull final SessionID sessionID, @Nonnull final InstanceTag receiver) {
+        if (this.delegate instanceof InstanceEvictionListener) {
+            publish(new Event(EventType.INSTANCE_EVICTED, sessionID, receiver));
+        }
+    }
+
+    /**
+     * Stop the dispatcher thread. Buffered events are discarded.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.dispatcher.interrupt();
+    }
+
+    private void publish(@Nonnull final Event event) {
+        if (this.closed) {
+            LOGGER.log(FINE, "Asynchronous listener is closed. Event is discarded.");
+            return;
+        }
+        if (!this.events.offer(event)) {
+            this.dropped.incrementAndGet();
+            LOGGER.log(WARNING, "Event buffer of asynchronous listener is full. Event for session {0} is dropped.",
+                    event.sessionID);
+        }
+    }
+
+    @SuppressWarnings("PMD.AvoidCatchingGenericException")
+    private void deliver(@Nonnull final Event event) {
+        try {
+            switch (event.type) {
+            case SESSION_STATUS_CHANGED:
+                this.delegate.sessionStatusChanged(event.sessionID, event.receiver);
+                break;
+            case MULTIPLE_INSTANCES_DETECTED:
+                this.delegate.multipleInstancesDetected(event.sessionID);
+                break;
+            case OUTGOING_SESSION_CHANGED:
+                this.delegate.outgoingSessionChanged(event.sessionID);
+                break;
+            case INSTANCE_EVICTED:
+                ((InstanceEvictionListener) this.delegate).instanceEvicted(event.sessionID, event.receiver);
+                break;
+            default:
+                throw new UnsupportedOperationException("BUG: unsupported event type: " + event.type);
+            }
+        } catch (final RuntimeException e) {
+            LOGGER.log(WARNING, "Faulty listener! Runtime exception thrown while delivering event to listener '"
+                    + this.delegate.getClass().getCanonicalName() + "' for session " + event.sessionID, e);
+        }
+    }
+
+    /**
+     * Dispatcher that delivers buffered events to the delegate.
+     */
+    private final class Dispatcher implements Runnable {
+
+        @Override
+        public void run() {
+            while (!closed) {
+                final Event event;
+                try {
+                    event = events.take();
+                } catch (final InterruptedException e) {
+                    // Interruption signals that the listener is closed.
+                    break;
+                }
+                deliver(event);
+            }
+            events.clear();
+        }
+    }
+
+    /**
+     * Buffered event.
+     */
+    private static final class Event {
+
+        private final EventType type;
+
+        private final SessionID sessionID;
+
+        private final InstanceTag receiver;
+
+        private Event(@Nonnull final EventType type, @Nonnull final SessionID sessionID,
+                @Nullable final InstanceTag receiver) {
+            this.type = requireNonNull(type);
+            this.sessionID = requireNonNull(sessionID);
+            this.receiver = receiver;
+        }
+    }
+
+    /**
+     * Type of buffered event.
+     */
+    private enum EventType {
+        SESSION_STATUS_CHANGED,
+        MULTIPLE_INSTANCES_DETECTED,
+        OUTGOING_SESSION_CHANGED,
+        INSTANCE_EVICTED
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import net.java.otr4j.api.Session;
+import net.java.otr4j.api.TLV;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.logging.Level.WARNING;
+
+/**
+ * Asynchronous facade for a {@link Session}.
+ * <p>
+ * Message transformations may involve expensive cryptographic operations, such as DH key agreement and ring signatures
+ * during key exchange. The asynchronous facade runs these operations on an executor, such that the calling thread
+ * (typically a network I/O thread) does not block. Every operation returns a {@link Future} and optionally notifies
+ * a {@link Callback} upon completion.
+ * <p>
+ * The facade runs all operations of its session on a serial lane of the provided executor: operations of the session
+ * are executed one at a time and in order of submission. Operations of different sessions, i.e. of different facades
+ * sharing the same executor, run concurrently. To preserve ordering, use a single facade instance per session.
+ * <p>
+ * The facade does not manage the executor's life-cycle. In case the executor rejects an operation, a
+ * {@link RejectedExecutionException} is thrown to the caller.
+ */
+public final class AsyncSession {
+
+    private static final Logger LOGGER = Logger.getLogger(AsyncSession.class.getName());
+
+    private final Session session;
+
+    private final SerialExecutor lane;
+
+    /**
+     * Construct asynchronous facade for a session.
+     *
+     * @param session  the session
+     * @param executor the (shared) executor on which the session's operations are run
+     */
+    public AsyncSession(@Nonnull final Session session, @Nonnull final Executor executor) {
+        this.session = requireNonNull(session);
+        this.lane = new SerialExecutor(requireNonNull(executor));
+    }
+
+    /**
+     * Get the underlying session.
+     *
+     * @return Returns the session.
+     */
+    @Nonnull
+    public Session getSession() {
+        return this.session;
+    }
+
+    /**
+     * Asynchronously transform a received message. See {@link Session#transformReceiving(String)}.
+     *
+     * @param msgText the received message
+     * @return Returns the future result of the transformation.
+     */
+    @Nonnull
+    public Future<String> transformReceiving(@Nonnull final String msgText) {
+        return transformReceiving(msgText, null);
+    }
+
+    /**
+     * Asynchronously transform a received message. See {@link Session#transformReceiving(String)}.
+     *
+     * @param msgText  the received message
+     * @param callback the callback that is notified upon completion (optional)
+     * @return Returns the future result of the transformation.
+     */
+    @Nonnull
+    public Future<String> transformReceiving(@Nonnull final String msgText, @Nullable final Callback<String> callback) {
+        requireNonNull(msgText);
+        return submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return session.transformReceiving(msgText);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously transform a message to be sent. See {@link Session#transformSending(String)}.
+     *
+     * @param msgText the message
+     * @return Returns the future result of the transformation.
+     */
+    @Nonnull
+    public Future<String[]> transformSending(@Nonnull final String msgText) {
+        return transformSending(msgText, Collections.<TLV>emptyList(), null);
+    }
+
+    /**
+     * Asynchronously transform a message to be sent. See {@link Session#transformSending(String, Iterable)}.
+     *
+     * @param msgText  the message
+     * @param tlvs     the TLVs to include
+     * @param callback the callback that is notified upon completion (optional)
+     * @return Returns the future result of the transformation.
+     */
+    @Nonnull
+    public Future<String[]> transformSending(@Nonnull final String msgText, @Nonnull final Iterable<TLV> tlvs,
+            @Nullable final Callback<String[]> callback) {
+        requireNonNull(msgText);
+        requireNonNull(tlvs);
+        return submit(new Callable<String[]>() {
+            @Override
+            public String[] call() throws Exception {
+                return session.transformSending(msgText, tlvs);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously start the session. See {@link Session#startSession()}.
+     *
+     * @return Returns future that completes once the session start is initiated.
+     */
+    @Nonnull
+    public Future<Void> startSession() {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                session.startSession();
+                return null;
+            }
+        }, null);
+    }
+
+    /**
+     * Asynchronously refresh the session. See {@link Session#refreshSession()}.
+     *
+     * @return Returns future that completes once the session refresh is initiated.
+     */
+    @Nonnull
+    public Future<Void> refreshSession() {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                session.refreshSession();
+                return null;
+            }
+        }, null);
+    }
+
+    /**
+     * Asynchronously end the session. See {@link Session#endSession()}.
+     *
+     * @return Returns future that completes once the session is ended.
+     */
+    @Nonnull
+    public Future<Void> endSession() {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                session.endSession();
+                return null;
+            }
+        }, null);
+    }
+
+    @Nonnull
+    private <T> Future<T> submit(@Nonnull final Callable<T> operation, @Nullable final Callback<T> callback) {
+        final Operation<T> task = new Operation<>(operation, callback);
+        this.lane.execute(task);
+        return task;
+    }
+
+    /**
+     * Callback for completion of an asynchronous operation.
+     * <p>
+     * The callback is called on the thread that completed the operation. Callbacks should return quickly, as
+     * subsequent operations of the same session wait for the callback to finish.
+     *
+     * @param <T> the type of the result
+     */
+    public interface Callback<T> {
+
+        /**
+         * The operation completed successfully.
+         *
+         * @param result the result of the operation
+         */
+        void completed(@Nullable T result);
+
+        /**
+         * The operation failed or was cancelled.
+         *
+         * @param cause the cause of failure: typically an {@link net.java.otr4j.api.OtrException}, or
+         *              {@link CancellationException} in case the operation was cancelled.
+         */
+        void failed(@Nonnull Throwable cause);
+    }
+
+    /**
+     * Operation as executed on the session's lane, notifying the callback upon completion.
+     *
+     * @param <T> the type of result
+     */
+    private static final class Operation<T> extends FutureTask<T> {
+
+        private final Callback<T> callback;
+
+        private Operation(@Nonnull final Callable<T> callable, @Nullable final Callback<T> callback) {
+            super(callable);
+            this.callback = callback;
+        }
+
+        @Override
+        protected void done() {
+            if (this.callback == null) {
+                return;
+            }
+            try {
+                final T result;
+                try {
+                    result = get();
+                } catch (final ExecutionException e) {
+                    this.callback.failed(e.getCause());
+                    return;
+                } catch (final CancellationException e) {
+                    this.callback.failed(e);
+                    return;
+                }
+                this.callback.completed(result);
+            } catch (final InterruptedException e) {
+                // Cannot happen: the operation is already completed.
+                Thread.currentThread().interrupt();
+            } catch (final RuntimeException e) {
+                LOGGER.log(WARNING, "Callback failed with an exception.", e);
+            }
+        }
+    }
+}
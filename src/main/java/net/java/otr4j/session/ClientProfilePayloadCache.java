@@ -0,0 +1,232 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import net.java.otr4j.api.ClientProfile;
+import net.java.otr4j.api.OtrEngineHost;
+import net.java.otr4j.api.SessionID;
+import net.java.otr4j.messages.ClientProfilePayload;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+
+/**
+ * Cache of signed client profile payloads.
+ * <p>
+ * Signing a client profile payload requires an EdDSA signature and, for profiles with a DSA public key, an additional
+ * transitional DSA signature. Instead of signing a payload for every session instance, the signed payload is cached
+ * per client profile, i.e. per local account, and shared among all sessions and their key exchanges. The payload is
+ * encoded only once. (See {@link ClientProfilePayload#writeTo(net.java.otr4j.io.OtrOutputStream)}.)
+ * <p>
+ * A signed payload is valid for {@link #VALIDITY_MILLIS}. Once a payload has reached half of its validity, a new payload
+ * is signed in the background upon next use, while the current payload remains in use until its replacement is
+ * available. A payload that is (nearly) expired is never handed out: in that case a new payload is signed on the
+ * calling thread. Background signing acquires the signing keys from the host on the cache's executor. (See
+ * {@link OtrEngineHost#getLocalKeyPair(SessionID)} and {@link OtrEngineHost#getLongTermKeyPair(SessionID)}.)
+ * <p>
+ * Cached payloads are retained for as long as the cache exists. The number of entries is bounded by the number of
+ * distinct client profiles, i.e. local accounts.
+ */
+final class ClientProfilePayloadCache {
+
+    private static final Logger LOGGER = Logger.getLogger(ClientProfilePayloadCache.class.getName());
+
+    /**
+     * Validity period of a signed client profile payload.
+     */
+    static final long VALIDITY_MILLIS = TimeUnit.DAYS.toMillis(14);
+
+    /**
+     * Age of a payload after which it is refreshed in the background.
+     */
+    static final long REFRESH_MILLIS = VALIDITY_MILLIS / 2;
+
+    /**
+     * Margin before expiration within which a payload is no longer handed out.
+     */
+    static final long EXPIRATION_MARGIN_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final ConcurrentHashMap<ClientProfile, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Locks that serialize signing per client profile, such that concurrently created sessions do not sign the same
+     * profile many times, while different profiles are signed independently.
+     */
+    private final ConcurrentHashMap<ClientProfile, ReentrantLock> signing = new ConcurrentHashMap<>();
+
+    private final Executor executor;
+
+    /**
+     * Construct client profile payload cache.
+     *
+     * @param executor the executor on which payloads are refreshed in the background
+     */
+    ClientProfilePayloadCache(@Nonnull final Executor executor) {
+        this.executor = requireNonNull(executor);
+    }
+
+    /**
+     * Get the default, shared cache.
+     *
+     * @return Returns the default cache.
+     */
+    @Nonnull
+    static ClientProfilePayloadCache defaultCache() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Get the signed payload for the client profile.
+     *
+     * @param profile   the client profile
+     * @param host      the host that provides the signing keys
+     * @param sessionID the session ID for which the signing keys are acquired
+     * @return Returns the signed client profile payload.
+     */
+    @Nonnull
+    ClientProfilePayload get(@Nonnull final ClientProfile profile, @Nonnull final OtrEngineHost host,
+            @Nonnull final SessionID sessionID) {
+        return get(profile, host, sessionID, System.currentTimeMillis());
+    }
+
+    /**
+     * Get the signed payload for the client profile.
+     *
+     * @param profile   the client profile
+     * @param host      the host that provides the signing keys
+     * @param sessionID the session ID for which the signing keys are acquired
+     * @param now       the current time in milliseconds since epoch
+     * @return Returns the signed client profile payload.
+     */
+    @Nonnull
+    ClientProfilePayload get(@Nonnull final ClientProfile profile, @Nonnull final OtrEngineHost host,
+            @Nonnull final SessionID sessionID, final long now) {
+        final Entry entry = this.entries.get(profile);
+        if (entry == null || now >= entry.expiration - EXPIRATION_MARGIN_MILLIS) {
+            return sign(profile, host, sessionID, now).payload;
+        }
+        if (now >= entry.expiration - VALIDITY_MILLIS + REFRESH_MILLIS && entry.refreshing.compareAndSet(false, true)) {
+            refresh(entry, profile, host, sessionID);
+        }
+        return entry.payload;
+    }
+
+    private void refresh(@Nonnull final Entry entry, @Nonnull final ClientProfile profile,
+            @Nonnull final OtrEngineHost host, @Nonnull final SessionID sessionID) {
+        try {
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sign(profile, host, sessionID, System.currentTimeMillis());
+                    } catch (final RuntimeException e) {
+                        LOGGER.log(WARNING, "Failed to refresh client profile payload. Retrying upon next use.", e);
+                        entry.refreshing.set(false);
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            LOGGER.log(WARNING, "Failed to schedule refresh of client profile payload. Retrying upon next use.", e);
+            entry.refreshing.set(false);
+        }
+    }
+
+    @Nonnull
+    private Entry sign(@Nonnull final ClientProfile profile, @Nonnull final OtrEngineHost host,
+            @Nonnull final SessionID sessionID, final long now) {
+        final ReentrantLock lock = signingLock(profile);
+        lock.lock();
+        try {
+            final Entry current = this.entries.get(profile);
+            if (current != null && !current.refreshing.get()
+                    && now < current.expiration - EXPIRATION_MARGIN_MILLIS) {
+                // Another thread signed the payload while we were waiting.
+                return current;
+            }
+            LOGGER.log(FINE, "Signing client profile payload for instance tag {0}.",
+                    profile.getInstanceTag().getValue());
+            final long expiration = now + VALIDITY_MILLIS;
+            final ClientProfilePayload payload = ClientProfilePayload.sign(profile, expiration / 1000,
+                    host.getLocalKeyPair(sessionID), host.getLongTermKeyPair(sessionID));
+            final Entry entry = new Entry(payload, expiration);
+            this.entries.put(profile, entry);
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Nonnull
+    private ReentrantLock signingLock(@Nonnull final ClientProfile profile) {
+        final ReentrantLock lock = this.signing.get(profile);
+        if (lock != null) {
+            return lock;
+        }
+        final ReentrantLock created = new ReentrantLock();
+        final ReentrantLock existing = this.signing.putIfAbsent(profile, created);
+        return existing == null ? created : existing;
+    }
+
+    /**
+     * Cached payload.
+     */
+    private static final class Entry {
+
+        private final ClientProfilePayload payload;
+
+        /**
+         * Expiration of the payload in milliseconds since epoch.
+         */
+        private final long expiration;
+
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(@Nonnull final ClientProfilePayload payload, final long expiration) {
+            this.payload = requireNonNull(payload);
+            this.expiration = expiration;
+        }
+    }
+
+    /**
+     * Holder of the default cache. The refresh thread only exists while a refresh is in progress.
+     */
+    private static final class DefaultHolder {
+
+        private static final ClientProfilePayloadCache INSTANCE;
+
+        static {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(@Nonnull final Runnable r) {
+                            final Thread thread = new Thread(r, "otr-client-profile-refresh");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            INSTANCE = new ClientProfilePayloadCache(executor);
+        }
+
+        private DefaultHolder() {
+            // No need to instantiate holder class.
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import net.java.otr4j.api.BatchEngineHost;
+import net.java.otr4j.api.InstanceTag;
+import net.java.otr4j.api.OtrEngineHost;
+import net.java.otr4j.api.OtrException;
+import net.java.otr4j.api.SessionID;
+import net.java.otr4j.session.state.IncorrectStateException;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+import static net.java.otr4j.util.Logging.log;
+
+/**
+ * Heartbeat engine.
+ * <p>
+ * The heartbeat engine determines when a session instance in private messaging state is due for a heartbeat and
+ * constructs the heartbeat messages. To prevent all idle sessions from sending their heartbeats at the same instant,
+ * the engine:
+ * <ul>
+ * <li>adds a per-session jitter on top of the idleness threshold. The jitter is derived from the session ID and the
+ * receiver instance tag, such that it is stable for a session instance and spread evenly over all sessions.</li>
+ * <li>limits the number of heartbeats that is sent per scheduler tick. Heartbeats that exceed the limit are postponed
+ * to the next tick.</li>
+ * <li>hands the heartbeats of a tick to the host together. Hosts that implement {@link BatchEngineHost} receive a
+ * single batch. Other hosts receive the messages one-by-one through
+ * {@link OtrEngineHost#injectMessage(SessionID, String)}.</li>
+ * </ul>
+ * The idleness threshold is taken from the session policy. See {@link net.java.otr4j.api.OtrPolicy}.
+ * <p>
+ * Note that heartbeat messages are injected when the batch is flushed, i.e. after they are constructed and outside of
+ * the session's lock. This is deliberate: injecting under the session's lock would require injecting heartbeats one at
+ * a time, which defeats handing them to the host together. As a consequence, a data message that is constructed after
+ * a heartbeat, may reach the transport before it. An OTRv3 receiver then rejects the heartbeat, as its counter value is
+ * not larger than that of the data message. It shows an error to its user and replies with an OTR error message.
+ * OTRv4 does not have this problem, as messages are identified by their ratchet and message IDs and may arrive out of
+ * order. Apart from the error, the dropped heartbeat has no consequences: the data message that overtook it already
+ * made the session non-idle.
+ */
+final class HeartbeatEngine {
+
+    private static final Logger LOGGER = Logger.getLogger(HeartbeatEngine.class.getName());
+
+    /**
+     * Default maximum number of heartbeats sent per tick.
+     */
+    static final int DEFAULT_MAX_HEARTBEATS_PER_TICK = 500;
+
+    /**
+     * The jitter window is a fraction of the idleness threshold: 1 / JITTER_DIVISOR.
+     */
+    private static final int JITTER_DIVISOR = 4;
+
+    private final int maxPerTick;
+
+    /**
+     * Construct heartbeat engine.
+     *
+     * @param maxPerTick the maximum number of heartbeats sent per tick.
+     */
+    HeartbeatEngine(final int maxPerTick) {
+        if (maxPerTick <= 0) {
+            throw new IllegalArgumentException("Maximum number of heartbeats per tick must be positive.");
+        }
+        this.maxPerTick = maxPerTick;
+    }
+
+    /**
+     * Determine the moment at which the session instance is due for a heartbeat.
+     *
+     * @param instance the session instance
+     * @return Returns the monotonic timestamp at which the heartbeat is due.
+     * @throws IncorrectStateException In case the session instance is not in private messaging state.
+     */
+    static long deadline(@Nonnull final SessionImpl instance) throws IncorrectStateException {
+        final long lastMessageSent = instance.getLastMessageSentTimestamp();
+        final long idleness = TimeUnit.MILLISECONDS.toNanos(instance.getSessionPolicy().getHeartbeatIdlenessMillis());
+        return lastMessageSent + idleness + jitter(instance.getSessionID(), instance.getReceiverInstanceTag(),
+                idleness);
+    }
+
+    /**
+     * Determine the jitter for a session instance.
+     *
+     * @param sessionID   the session ID
+     * @param receiverTag the receiver instance tag
+     * @param idleness    the idleness threshold in nanoseconds
+     * @return Returns the jitter in nanoseconds, in the range [0, idleness / 4).
+     */
+    static long jitter(@Nonnull final SessionID sessionID, @Nonnull final InstanceTag receiverTag,
+            final long idleness) {
+        final long window = idleness / JITTER_DIVISOR;
+        if (window <= 0) {
+            return 0;
+        }
+        // Mix the bits such that similar session IDs still result in very different jitter values.
+        long h = (sessionID.hashCode() * 31L + receiverTag.getValue()) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (h & Long.MAX_VALUE) % window;
+    }
+
+    /**
+     * Start a new batch of heartbeats for a single tick.
+     *
+     * @return Returns a new batch.
+     */
+    @Nonnull
+    Batch batch() {
+        return new Batch(this.maxPerTick);
+    }
+
+    /**
+     * Batch of heartbeats collected during a single tick.
+     * <p>
+     * Batch is NOT thread-safe. A batch is expected to be used by the scheduler thread only.
+     */
+    static final class Batch {
+
+        private final IdentityHashMap<OtrEngineHost, LinkedHashMap<SessionID, List<String>>> messages
+                = new IdentityHashMap<>();
+
+        private int remaining;
+
+        private Batch(final int limit) {
+            this.remaining = limit;
+        }
+
+        /**
+         * Construct a heartbeat for the session instance, if it is due.
+         *
+         * @param instance the session instance
+         * @param now      the current monotonic time
+         * @return Returns true if handled, i.e. the heartbeat was constructed or not due. Returns false if the
+         * heartbeat is due but was postponed because the limit for this tick has been reached.
+         */
+        boolean heartbeat(@Nonnull final SessionImpl instance, final long now) {
+            try {
+                if (now - deadline(instance) < 0) {
+                    return true;
+                }
+                if (this.remaining <= 0) {
+                    return false;
+                }
+                this.remaining--;
+                log(LOGGER, FINE, "Sending heartbeat for session {0} ({1})", instance.getSessionID(),
+                        instance.getSenderInstanceTag());
+                add(instance.getHost(), instance.getSessionID(), instance.heartbeat());
+            } catch (final IncorrectStateException e) {
+                LOGGER.finest("Session instance's current state is not a private messaging state.");
+            } catch (final OtrException e) {
+                LOGGER.log(WARNING, "Failure while constructing heartbeat for session instance.", e);
+            }
+            return true;
+        }
+
+        /**
+         * Add messages to the batch.
+         *
+         * @param host      the host that needs to inject the messages
+         * @param sessionID the session ID
+         * @param fragments the messages
+         */
+        void add(@Nonnull final OtrEngineHost host, @Nonnull final SessionID sessionID,
+                @Nonnull final String[] fragments) {
+            if (fragments.length == 0) {
+                return;
+            }
+            LinkedHashMap<SessionID, List<String>> hostMessages = this.messages.get(host);
+            if (hostMessages == null) {
+                hostMessages = new LinkedHashMap<>();
+                this.messages.put(host, hostMessages);
+            }
+            List<String> sessionMessages = hostMessages.get(sessionID);
+            if (sessionMessages == null) {
+                sessionMessages = new ArrayList<>(fragments.length);
+                hostMessages.put(sessionID, sessionMessages);
+            }
+            Collections.addAll(sessionMessages, fragments);
+        }
+
+        /**
+         * Hand all collected messages to their hosts.
+         */
+        void flush() {
+            for (final Map.Entry<OtrEngineHost, LinkedHashMap<SessionID, List<String>>> entry
+                    : this.messages.entrySet()) {
+                final OtrEngineHost host = entry.getKey();
+                try {
+                    if (host instanceof BatchEngineHost) {
+                        ((BatchEngineHost) host).injectMessages(Collections.unmodifiableMap(entry.getValue()));
+                        continue;
+                    }
+                    for (final Map.Entry<SessionID, List<String>> session : entry.getValue().entrySet()) {
+                        for (final String message : session.getValue()) {
+                            host.injectMessage(session.getKey(), message);
+                        }
+                    }
+                } catch (final RuntimeException e) {
+                    LOGGER.log(WARNING, "Faulty OtrEngineHost! Runtime exception thrown while injecting heartbeat messages.", e);
+                }
+            }
+            this.messages.clear();
+        }
+    }
+}
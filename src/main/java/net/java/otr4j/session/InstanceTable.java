@@ -0,0 +1,233 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Table of session instances, keyed by instance tag value.
+ * <p>
+ * The table is a hash table with primitive {@code int} keys, such that looking up an instance for a received message
+ * does not require boxing of the instance tag. Entries are additionally linked in order of access, starting at the
+ * least-recently accessed entry. This order is used to select instances for eviction.
+ * <p>
+ * InstanceTable is NOT thread-safe.
+ *
+ * @param <V> the type of instance
+ */
+final class InstanceTable<V> {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * Buckets of the hash table. The number of buckets is always a power of 2. Allocated upon first insertion, as most
+     * tables never contain any entries.
+     */
+    @Nullable
+    private Node<V>[] buckets;
+
+    /**
+     * The sentinel of the doubly-linked access order list. {@code head.after} is the least-recently accessed entry,
+     * {@code head.before} the most-recently accessed entry.
+     */
+    private final Node<V> head = new Node<>(0, null);
+
+    private int size;
+
+    InstanceTable() {
+        this.head.before = this.head;
+        this.head.after = this.head;
+    }
+
+    /**
+     * Get the number of entries.
+     *
+     * @return Returns the number of entries.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Get the instance for the tag, without affecting the access order.
+     *
+     * @param tag the instance tag value
+     * @return Returns the instance or null if no instance exists for the tag.
+     */
+    @Nullable
+    V get(final int tag) {
+        final Node<V> node = find(tag);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Get the instance for the tag and mark it as most-recently accessed.
+     *
+     * @param tag the instance tag value
+     * @return Returns the instance or null if no instance exists for the tag.
+     */
+    @Nullable
+    V access(final int tag) {
+        final Node<V> node = find(tag);
+        if (node == null) {
+            return null;
+        }
+        unlink(node);
+        linkLast(node);
+        return node.value;
+    }
+
+    /**
+     * Put an instance for the tag. The instance is marked as most-recently accessed.
+     *
+     * @param tag   the instance tag value
+     * @param value the instance
+     * @return Returns the previous instance for the tag, or null if none existed.
+     */
+    @Nullable
+    V put(final int tag, @Nonnull final V value) {
+        requireNonNull(value);
+        final Node<V> existing = find(tag);
+        if (existing != null) {
+            final V previous = existing.value;
+            existing.value = value;
+            unlink(existing);
+            linkLast(existing);
+            return previous;
+        }
+        if (this.buckets == null) {
+            this.buckets = newBuckets(INITIAL_CAPACITY);
+        } else if (this.size >= this.buckets.length - (this.buckets.length >>> 2)) {
+            resize();
+        }
+        final Node<V> node = new Node<>(tag, value);
+        final int index = index(tag, this.buckets.length);
+        node.next = this.buckets[index];
+        this.buckets[index] = node;
+        linkLast(node);
+        this.size++;
+        return null;
+    }
+
+    /**
+     * Remove the instance for the tag.
+     *
+     * @param tag the instance tag value
+     * @return Returns the removed instance, or null if no instance existed for the tag.
+     */
+    @Nullable
+    V remove(final int tag) {
+        if (this.buckets == null) {
+            return null;
+        }
+        final int index = index(tag, this.buckets.length);
+        Node<V> previous = null;
+        for (Node<V> node = this.buckets[index]; node != null; previous = node, node = node.next) {
+            if (node.key != tag) {
+                continue;
+            }
+            if (previous == null) {
+                this.buckets[index] = node.next;
+            } else {
+                previous.next = node.next;
+            }
+            unlink(node);
+            this.size--;
+            return node.value;
+        }
+        return null;
+    }
+
+    /**
+     * Get a snapshot of the instances, in order of access: least-recently accessed first.
+     *
+     * @return Returns list of instances.
+     */
+    @Nonnull
+    List<V> values() {
+        final ArrayList<V> values = new ArrayList<>(this.size);
+        for (Node<V> node = this.head.after; node != this.head; node = node.after) {
+            values.add(node.value);
+        }
+        return values;
+    }
+
+    @Nullable
+    private Node<V> find(final int tag) {
+        if (this.buckets == null) {
+            return null;
+        }
+        for (Node<V> node = this.buckets[index(tag, this.buckets.length)]; node != null; node = node.next) {
+            if (node.key == tag) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private void resize() {
+        assert this.buckets != null;
+        final Node<V>[] resized = newBuckets(this.buckets.length << 1);
+        for (Node<V> node = this.head.after; node != this.head; node = node.after) {
+            final int index = index(node.key, resized.length);
+            node.next = resized[index];
+            resized[index] = node;
+        }
+        this.buckets = resized;
+    }
+
+    private void linkLast(@Nonnull final Node<V> node) {
+        node.before = this.head.before;
+        node.after = this.head;
+        this.head.before.after = node;
+        this.head.before = node;
+    }
+
+    private static <V> void unlink(@Nonnull final Node<V> node) {
+        node.before.after = node.after;
+        node.after.before = node.before;
+    }
+
+    private static int index(final int tag, final int length) {
+        // Instance tags of honest clients are random, but the tag is chosen by the other party. Spread the bits such
+        // that tags that differ only in their high bits do not end up in the same bucket.
+        final int h = tag * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (length - 1);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <V> Node<V>[] newBuckets(final int length) {
+        return (Node<V>[]) new Node[length];
+    }
+
+    private static final class Node<V> {
+
+        private final int key;
+
+        private V value;
+
+        /**
+         * Next node in the same bucket.
+         */
+        private Node<V> next;
+
+        private Node<V> before;
+
+        private Node<V> after;
+
+        private Node(final int key, @Nullable final V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
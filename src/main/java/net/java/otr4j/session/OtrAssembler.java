@@ -6,27 +6,91 @@
  */
 package net.java.otr4j.session;
 
+import net.java.otr4j.api.OtrMetrics;
+import net.java.otr4j.api.OtrPolicy;
 import net.java.otr4j.api.Session;
+import net.java.otr4j.api.SessionID;
+import net.java.otr4j.io.EncodedMessage;
+import net.java.otr4j.io.EncodedMessageDecoder;
 import net.java.otr4j.io.Fragment;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.net.ProtocolException;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static java.util.Objects.requireNonNull;
 import static net.java.otr4j.util.Arrays.containsEmpty;
-import static net.java.otr4j.util.Strings.join;
+import static net.java.otr4j.util.Logging.log;
 
 /**
  * Support for re-assembling fragmented OTR-encoded messages.
+ * <p>
+ * Fragments of OTRv2/OTRv3 messages arrive in order. Their content is base64-decoded as each fragment arrives, such
+ * that the message is never held as both text and bytes, and completion of the message does not require decoding the
+ * message as a whole. Fragments of OTRv4 messages may arrive out of order. Their content is decoded once all fragments
+ * have arrived.
+ * <p>
+ * Incomplete messages are accounted for by an estimate of their memory footprint: 2 bytes per character of fragment
+ * content plus a fixed overhead per message. The assembler never holds more than the budgets allow:
+ * <ul>
+ * <li>the budget per sender, as specified by the session policy. (Every slave session has its own assembler, and
+ * therefore serves a single sender instance.)</li>
+ * <li>the budget per session, as specified by the session policy, which is shared by all instances of a session.</li>
+ * <li>the global budget, which is shared by all sessions. (See {@link AssemblyBudget#GLOBAL_LIMIT}.)</li>
+ * </ul>
+ * In case a fragment does not fit, the oldest incomplete messages are evicted first. If the fragment still does not
+ * fit, it is rejected and the incomplete message that it belongs to is dropped. Incomplete messages expire after the
+ * duration specified by the session policy. Expiry is performed upon accumulating a fragment, as well as by the
+ * session scheduler, such that incomplete messages do not linger if no further fragments arrive.
+ * <p>
+ * OtrAssembler is NOT thread-safe.
  */
 final class OtrAssembler {
 
+    private static final Logger LOGGER = Logger.getLogger(OtrAssembler.class.getName());
+
+    /**
+     * Estimated fixed overhead per incomplete message.
+     */
+    private static final int OVERHEAD = 64;
+
     private final InOrderAssembler inOrder = new InOrderAssembler();
     private final OutOfOrderAssembler outOfOrder = new OutOfOrderAssembler();
 
+    private final SessionID sessionID;
+
+    private final OtrMetrics metrics;
+
+    private final AssemblyBudget.Reservation sessionBudget;
+
+    private final AssemblyBudget.Reservation globalBudget;
+
+    /**
+     * The number of bytes held by incomplete messages of this assembler.
+     */
+    private long size;
+
+    /**
+     * Constructor for the assembler.
+     *
+     * @param sessionID     the session ID
+     * @param metrics       the metrics to which evictions are reported
+     * @param sessionBudget the budget that is shared by all instances of the session
+     * @param globalBudget  the budget that is shared by all sessions
+     */
+    OtrAssembler(@Nonnull final SessionID sessionID, @Nonnull final OtrMetrics metrics,
+            @Nonnull final AssemblyBudget sessionBudget, @Nonnull final AssemblyBudget globalBudget) {
+        this.sessionID = requireNonNull(sessionID);
+        this.metrics = requireNonNull(metrics);
+        this.sessionBudget = sessionBudget.reserve(this);
+        this.globalBudget = globalBudget.reserve(this);
+    }
+
     /**
      * Accumulate fragments into a full OTR-encoded message.
      * <p>
@@ -34,28 +98,220 @@ final class OtrAssembler {
      * tag have been read and fragment is redirected to the appropriate slave session.
      *
      * @param fragment a message fragment
+     * @param policy   the session policy that specifies budgets and expiry
+     * @param now      the current monotonic time, as {@link System#nanoTime()}
      * @return Returns completed OTR-encoded message, or null if more fragments are needed to complete the message.
-     * @throws ProtocolException In case the fragment is rejected.
+     * @throws ProtocolException In case the fragment is rejected, or the fragments do not combine into a valid
+     *                           OTR-encoded message.
      */
     @Nullable
-    String accumulate(@Nonnull final Fragment fragment) throws ProtocolException {
+    EncodedMessage accumulate(@Nonnull final Fragment fragment, @Nonnull final OtrPolicy policy, final long now)
+            throws ProtocolException {
+        expire(policy, now);
         final int version = fragment.getVersion();
         switch (version) {
         case Session.Version.TWO:
         case Session.Version.THREE:
-            return inOrder.accumulate(fragment);
+            return inOrder.accumulate(fragment, policy, now);
         case Session.Version.FOUR:
-            return outOfOrder.accumulate(fragment);
+            return outOfOrder.accumulate(fragment, policy, now);
         default:
             throw new UnsupportedOperationException("Unsupported protocol version.");
         }
     }
 
+    /**
+     * Get the number of bytes held by incomplete messages.
+     *
+     * @return Returns the estimated size in bytes.
+     */
+    long size() {
+        return this.size;
+    }
+
+    /**
+     * Evict all incomplete messages that have expired according to the session policy.
+     *
+     * @param policy the session policy that specifies expiry
+     * @param now    the current monotonic time, as {@link System#nanoTime()}
+     */
+    void expire(@Nonnull final OtrPolicy policy, final long now) {
+        expire(now - TimeUnit.MILLISECONDS.toNanos(policy.getFragmentExpiryMillis()));
+    }
+
+    /**
+     * Get the moment at which the oldest incomplete message expires.
+     *
+     * @param policy the session policy that specifies expiry
+     * @return Returns the expiry as monotonic timestamp, or null if there are no incomplete messages.
+     */
+    @Nullable
+    Long expiry(@Nonnull final OtrPolicy policy) {
+        final Series oldest = oldest(null);
+        return oldest == null ? null : oldest.started + TimeUnit.MILLISECONDS.toNanos(policy.getFragmentExpiryMillis());
+    }
+
+    /**
+     * Evict all incomplete messages that started before the threshold.
+     *
+     * @param threshold the monotonic time before which incomplete messages are expired
+     */
+    private void expire(final long threshold) {
+        expire(this.inOrder.accumulations.values().iterator(), threshold);
+        expire(this.outOfOrder.fragments.values().iterator(), threshold);
+    }
+
+    private void expire(@Nonnull final Iterator<? extends Series> series, final long threshold) {
+        while (series.hasNext()) {
+            final Series next = series.next();
+            if (next.started - threshold < 0) {
+                series.remove();
+                release(next);
+                log(LOGGER, Level.FINE, "{0}: Incomplete fragmented message expired. {1} fragments are evicted.",
+                        this.sessionID, next.fragments);
+                this.metrics.fragmentsEvicted(this.sessionID, next.fragments);
+            }
+        }
+    }
+
+    /**
+     * Claim bytes for the series. The oldest other series are evicted as long as the budgets do not allow the claim.
+     *
+     * @param series the series that the bytes are claimed for
+     * @param bytes  the number of bytes
+     * @param policy the session policy that specifies the budgets
+     * @throws ProtocolException In case the budgets do not allow the claim, even after evicting all other series.
+     */
+    private void claim(@Nonnull final Series series, final long bytes, @Nonnull final OtrPolicy policy)
+            throws ProtocolException {
+        while (!tryClaim(bytes, policy)) {
+            final Series oldest = oldest(series);
+            if (oldest == null) {
+                throw new ProtocolException("Rejecting fragment: memory budget for reassembly of fragmented messages is exhausted.");
+            }
+            log(LOGGER, Level.FINE, "{0}: Memory budget for reassembly exhausted. Oldest incomplete message with {1} fragments is evicted.",
+                    this.sessionID, oldest.fragments);
+            evict(oldest);
+        }
+        series.bytes += bytes;
+    }
+
+    /**
+     * Evict the series: remove it from the assembler and release its bytes.
+     *
+     * @param series the series
+     */
+    private void evict(@Nonnull final Series series) {
+        drop(series);
+        if (series.fragments > 0) {
+            this.metrics.fragmentsEvicted(this.sessionID, series.fragments);
+        }
+    }
+
+    /**
+     * Drop the series: remove it from the assembler and release its bytes.
+     *
+     * @param series the series
+     */
+    private void drop(@Nonnull final Series series) {
+        series.owner.remove(series.key);
+        release(series);
+    }
+
+    private boolean tryClaim(final long bytes, @Nonnull final OtrPolicy policy) {
+        if (this.size + bytes > policy.getFragmentBudget()) {
+            return false;
+        }
+        if (!this.sessionBudget.tryClaim(bytes, policy.getFragmentSessionBudget())) {
+            return false;
+        }
+        if (!this.globalBudget.tryClaim(bytes, AssemblyBudget.GLOBAL_LIMIT)) {
+            this.sessionBudget.release(bytes);
+            return false;
+        }
+        this.size += bytes;
+        return true;
+    }
+
+    /**
+     * Release all bytes that are claimed for the series.
+     *
+     * @param series the series
+     */
+    private void release(@Nonnull final Series series) {
+        this.size -= series.bytes;
+        this.sessionBudget.release(series.bytes);
+        this.globalBudget.release(series.bytes);
+        series.bytes = 0;
+    }
+
+    /**
+     * Find the oldest series, other than the excluded series.
+     *
+     * @param excluded the series that is excluded, or null to consider all series
+     * @return Returns the oldest series, or null if there are no other series.
+     */
+    @Nullable
+    private Series oldest(@Nullable final Series excluded) {
+        Series oldest = null;
+        for (final Series candidate : this.inOrder.accumulations.values()) {
+            if (candidate != excluded && (oldest == null || candidate.started - oldest.started < 0)) {
+                oldest = candidate;
+            }
+        }
+        for (final Series candidate : this.outOfOrder.fragments.values()) {
+            if (candidate != excluded && (oldest == null || candidate.started - oldest.started < 0)) {
+                oldest = candidate;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Estimate the memory footprint of fragment content.
+     *
+     * @param fragment the fragment
+     * @return Returns the estimated size in bytes.
+     */
+    private static long cost(@Nonnull final Fragment fragment) {
+        return 2L * fragment.getContentLength();
+    }
+
+    /**
+     * In-progress assembly of a single message.
+     */
+    private abstract static class Series {
+
+        private final HashMap<Integer, ? extends Series> owner;
+
+        private final int key;
+
+        /**
+         * Monotonic time at which assembly of the message started.
+         */
+        private final long started;
+
+        /**
+         * The number of bytes claimed for this series.
+         */
+        private long bytes;
+
+        /**
+         * The number of accumulated fragments.
+         */
+        int fragments;
+
+        Series(@Nonnull final HashMap<Integer, ? extends Series> owner, final int key, final long started) {
+            this.owner = requireNonNull(owner);
+            this.key = key;
+            this.started = started;
+        }
+    }
+
     /**
      * In-order assembler, following OTRv2/OTRv3 specification.
      */
-    @SuppressWarnings("PMD.AvoidStringBufferField")
-    private static final class InOrderAssembler {
+    private final class InOrderAssembler {
 
         private static final int INDEX_FIRST_FRAGMENT = 1;
 
@@ -73,102 +329,163 @@ final class OtrAssembler {
          * (V3) ?OTR|sender_instance|receiver_instance,k,n,piece-k,
          *
          * @param fragment The message fragment to process.
-         * @return String with the accumulated message or
-         * null if the message was incomplete or malformed
+         * @param policy   The session policy.
+         * @param now      The current monotonic time.
+         * @return The accumulated message or null if the message is incomplete.
          * @throws ProtocolException Thrown in case the message is bad in some way
          *                           that breaks with the expectations of the OTR protocol.
          */
         @Nullable
-        private String accumulate(@Nonnull final Fragment fragment) throws ProtocolException {
+        private EncodedMessage accumulate(@Nonnull final Fragment fragment, @Nonnull final OtrPolicy policy, final long now)
+                throws ProtocolException {
             final int id = fragment.getSenderTag().getValue();
+            final Status status;
             if (fragment.getIndex() == INDEX_FIRST_FRAGMENT) {
                 // first fragment
-                final Status status = new Status(fragment.getIndex(), fragment.getTotal(), fragment.getContent());
+                final Status previous = this.accumulations.get(id);
+                if (previous != null) {
+                    // The new series replaces the incomplete message.
+                    log(LOGGER, Level.FINE, "{0}: New fragmented message started. Incomplete message with {1} fragments is evicted.",
+                            sessionID, previous.fragments);
+                    evict(previous);
+                }
+                status = new Status(this.accumulations, id, now, fragment.getIndex(), fragment.getTotal(),
+                        fragment.getContentLength());
                 this.accumulations.put(id, status);
             } else {
                 // next fragment
-                final Status status = this.accumulations.get(id);
+                status = this.accumulations.get(id);
                 if (status == null) {
                     throw new ProtocolException("Rejecting fragment from unknown sender tag, for which we have not started collecting yet.");
                 }
-                if (fragment.getTotal() == status.total && fragment.getIndex() == status.current + 1) {
-                    // consecutive fragment, in order
-                    status.current++;
-                    status.content.append(fragment.getContent());
-                } else {
+                if (fragment.getTotal() != status.total || fragment.getIndex() != status.current + 1) {
                     // out-of-order fragment
                     this.accumulations.remove(id);
+                    release(status);
                     throw new ProtocolException("Rejecting fragment that was received out-of-order.");
                 }
+                status.current++;
+            }
+            try {
+                claim(status, (status.fragments == 0 ? OVERHEAD : 0) + cost(fragment), policy);
+            } catch (final ProtocolException e) {
+                evict(status);
+                throw e;
+            }
+            try {
+                fragment.decodeContent(status.decoder);
+            } catch (final ProtocolException e) {
+                drop(status);
+                throw e;
             }
+            status.fragments++;
 
             if (fragment.getIndex() == fragment.getTotal()) {
-                final Status status = this.accumulations.remove(id);
-                return status.content.toString();
+                drop(status);
+                return status.decoder.finish();
             }
 
             // Fragment did not result in completed message. Waiting for next fragment.
             return null;
         }
+    }
 
-        /**
-         * In-progress assembly status type.
-         */
-        private static final class Status {
-            private int current;
-            private final int total;
-            private final StringBuilder content;
-
-            public Status(final int index, final int total, final String content) {
-                this.current = index;
-                this.total = total;
-                this.content = new StringBuilder(content);
-            }
+    /**
+     * In-progress assembly status type.
+     */
+    private static final class Status extends Series {
+        private int current;
+        private final int total;
+        private final EncodedMessageDecoder decoder;
+
+        Status(@Nonnull final HashMap<Integer, Status> owner, final int key, final long started, final int index,
+                final int total, final int expectedLength) {
+            super(owner, key, started);
+            this.current = index;
+            this.total = total;
+            this.decoder = new EncodedMessageDecoder(expectedLength);
         }
     }
 
     /**
      * Out-of-order assembler, following OTRv4 specification.
      */
-    // TODO introduce some kind of clean-up such that fragments list does not grow infinitely. (Described in spec.)
-    private static final class OutOfOrderAssembler {
+    private final class OutOfOrderAssembler {
 
-        private static final Logger LOGGER = Logger.getLogger(OutOfOrderAssembler.class.getName());
-
-        private final HashMap<Integer, String[]> fragments = new HashMap<>();
+        private final HashMap<Integer, Parts> fragments = new HashMap<>();
 
         /**
          * Accumulate fragments.
          *
          * @param fragment the fragment to accumulate in the assembly
-         * @return Returns null in case of incomplete message (more fragments needed) or reassembled message text in
-         * case of complete reassembly.
+         * @param policy   the session policy
+         * @param now      the current monotonic time
+         * @return Returns null in case of incomplete message (more fragments needed) or reassembled message in case of
+         * complete reassembly.
          */
         @Nullable
-        String accumulate(@Nonnull final Fragment fragment) throws ProtocolException {
-            String[] parts = fragments.get(fragment.getIdentifier());
+        EncodedMessage accumulate(@Nonnull final Fragment fragment, @Nonnull final OtrPolicy policy, final long now)
+                throws ProtocolException {
+            Parts parts = this.fragments.get(fragment.getIdentifier());
             if (parts == null) {
-                parts = new String[fragment.getTotal()];
-                fragments.put(fragment.getIdentifier(), parts);
+                parts = new Parts(this.fragments, fragment.getIdentifier(), now, fragment.getTotal());
+                // The array of parts is accounted for up front, such that a peer cannot have us allocate large arrays
+                // for free.
+                try {
+                    claim(parts, OVERHEAD + 8L * fragment.getTotal(), policy);
+                } catch (final ProtocolException e) {
+                    release(parts);
+                    throw e;
+                }
+                parts.parts = new Fragment[parts.total];
+                this.fragments.put(fragment.getIdentifier(), parts);
             }
-            if (fragment.getTotal() != parts.length) {
-                LOGGER.log(Level.FINEST, "OTRv4 fragmentation of other party may be broken. Initial total is different from this message. Ignoring this fragment. (Original: {0}, current fragment: {1})",
-                        new Object[]{parts.length, fragment.getTotal()});
+            if (fragment.getTotal() != parts.total) {
+                log(LOGGER, Level.FINEST, "OTRv4 fragmentation of other party may be broken. Initial total is different from this message. Ignoring this fragment. (Original: {0}, current fragment: {1})",
+                        parts.total, fragment.getTotal());
                 throw new ProtocolException("Rejecting fragment with different total value than other fragments of the same series.");
             }
             final int zeroBasedIndex = fragment.getIndex() - 1;
-            if (parts[zeroBasedIndex] != null) {
-                LOGGER.log(Level.FINEST, "Fragment with index {0} is already present. Ignoring this fragment.",
-                        new Object[]{fragment.getIndex()});
+            if (parts.parts[zeroBasedIndex] != null) {
+                log(LOGGER, Level.FINEST, "Fragment with index {0} is already present. Ignoring this fragment.",
+                        fragment.getIndex());
                 throw new ProtocolException("Rejecting fragment with index that is already present.");
             }
-            parts[zeroBasedIndex] = fragment.getContent();
-            if (containsEmpty(parts)) {
+            try {
+                claim(parts, cost(fragment), policy);
+            } catch (final ProtocolException e) {
+                evict(parts);
+                throw e;
+            }
+            parts.parts[zeroBasedIndex] = fragment;
+            parts.fragments++;
+            if (containsEmpty(parts.parts)) {
                 // Not all message parts are present. Return null and wait for next message part before continuing.
                 return null;
             }
-            fragments.remove(fragment.getIdentifier());
-            return join(parts);
+            drop(parts);
+            int length = 0;
+            for (final Fragment part : parts.parts) {
+                length += part.getContentLength();
+            }
+            final EncodedMessageDecoder decoder = new EncodedMessageDecoder(length);
+            for (final Fragment part : parts.parts) {
+                part.decodeContent(decoder);
+            }
+            return decoder.finish();
+        }
+    }
+
+    /**
+     * In-progress assembly of the out-of-order parts of a message.
+     */
+    private static final class Parts extends Series {
+        private final int total;
+        private Fragment[] parts;
+
+        Parts(@Nonnull final HashMap<Integer, Parts> owner, final int key, final long started, final int total) {
+            super(owner, key, started);
+            this.total = total;
         }
     }
 }
@@ -7,13 +7,12 @@
 package net.java.otr4j.session;
 
 import net.java.otr4j.api.OtrEngineHost;
+import net.java.otr4j.api.RandomSource;
 import net.java.otr4j.api.Session.Version;
 import net.java.otr4j.api.SessionID;
 
 import javax.annotation.Nonnull;
 import java.net.ProtocolException;
-import java.security.SecureRandom;
-import java.util.ArrayList;
 
 import static java.util.Objects.requireNonNull;
 
@@ -31,19 +30,14 @@ final class OtrFragmenter {
     private static final int MAXIMUM_NUMBER_OF_FRAGMENTS = 65535;
 
     /**
-     * The message format of an OTRv4 message fragment.
+     * Digits for the hexadecimal representation of instance tags and identifiers in fragment headers.
      */
-    private static final String OTRV4_MESSAGE_FRAGMENT_FORMAT = "?OTR|%08x|%08x|%08x,%05d,%05d,%s,";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
     /**
-     * The message format of an OTRv3 message fragment.
+     * Digits for the decimal representation of the fragment index and total in fragment headers.
      */
-    private static final String OTRV3_MESSAGE_FRAGMENT_FORMAT = "?OTR|%08x|%08x,%05d,%05d,%s,";
-
-    /**
-     * The message format of an OTRv2 message fragment.
-     */
-    private static final String OTRV2_MESSAGE_FRAGMENT_FORMAT = "?OTR,%d,%d,%s,";
+    private static final char[] DECIMAL_DIGITS = "0123456789".toCharArray();
 
     /**
      * OTRv2 header size (overhead of fragmentation).
@@ -61,9 +55,9 @@ final class OtrFragmenter {
     private static final int OTRV4_HEADER_SIZE = 45;
 
     /**
-     * Secure random instance.
+     * Source of randomness for fragment identifiers.
      */
-    private final SecureRandom random;
+    private final RandomSource random;
 
     /**
      * Instructions on how to fragment the input message.
@@ -80,7 +74,7 @@ final class OtrFragmenter {
      *
      * @param host OTR engine host calling upon OTR session
      */
-    OtrFragmenter(@Nonnull final SecureRandom random, @Nonnull final OtrEngineHost host,
+    OtrFragmenter(@Nonnull final RandomSource random, @Nonnull final OtrEngineHost host,
             @Nonnull final SessionID sessionID) {
         this.random = requireNonNull(random);
         this.host = requireNonNull(host);
@@ -108,6 +102,16 @@ final class OtrFragmenter {
         return computeFragmentNumber(version, message, fragmentSize);
     }
 
+    /**
+     * Test whether a message needs to be fragmented in order to be sent.
+     *
+     * @param length the length of the message in characters
+     * @return Returns true iff the message exceeds the maximum fragment size.
+     */
+    boolean requiresFragmentation(final int length) {
+        return this.host.getMaxFragmentSize(this.sessionID) < length;
+    }
+
     /**
      * Compute the number of fragments required.
      *
@@ -149,7 +153,43 @@ final class OtrFragmenter {
     String[] fragment(final int version, final int sender, final int receiver, @Nonnull final String message)
             throws ProtocolException {
         final int fragmentSize = this.host.getMaxFragmentSize(this.sessionID);
-        return fragment(version, sender, receiver, message, fragmentSize);
+        if (fragmentSize >= message.length()) {
+            return new String[] {message};
+        }
+        final String[] fragments = new String[computeFragmentNumber(version, message, fragmentSize)];
+        fragment(version, sender, receiver, message, fragmentSize, new FragmentConsumer() {
+            private int index;
+
+            @Override
+            public void accept(@Nonnull final String fragment) {
+                fragments[this.index++] = fragment;
+            }
+        });
+        return fragments;
+    }
+
+    /**
+     * Fragment the given message into pieces, and pass on every fragment to the consumer as soon as it is created.
+     * <p>
+     * In case the message does not need to be fragmented, the message itself is passed on. Fragments are not collected.
+     * All fragment headers are written into a single builder that is reused for every fragment.
+     *
+     * @param version  protocol version
+     * @param sender   sender instance
+     * @param receiver receiver instance
+     * @param message  the original message
+     * @param consumer the consumer that receives the fragments in order
+     * @throws ProtocolException if the fragment size is too small or if the maximum number of fragments is exceeded.
+     *                           In that case, no fragment is passed on to the consumer.
+     */
+    void fragment(final int version, final int sender, final int receiver, @Nonnull final String message,
+            @Nonnull final FragmentConsumer consumer) throws ProtocolException {
+        final int fragmentSize = this.host.getMaxFragmentSize(this.sessionID);
+        if (fragmentSize >= message.length()) {
+            consumer.accept(message);
+            return;
+        }
+        fragment(version, sender, receiver, message, fragmentSize, consumer);
     }
 
     /**
@@ -160,106 +200,115 @@ final class OtrFragmenter {
      * @param receivertag  the receiver instance tag
      * @param message      the message
      * @param fragmentSize the maximum fragment size
-     * @return Returns the fragmented message. The array will contain at least 1
-     * message fragment, or more if fragmentation is necessary.
+     * @param consumer     the consumer that receives the fragments in order
      * @throws ProtocolException In the case when it is impossible to fragment the message according to the specified
      *                           instructions.
      */
-    @Nonnull
-    private String[] fragment(final int version, final int sendertag, final int receivertag,
-            @Nonnull final String message, final int fragmentSize) throws ProtocolException {
-        if (fragmentSize >= message.length()) {
-            return new String[]{message};
-        }
+    private void fragment(final int version, final int sendertag, final int receivertag, @Nonnull final String message,
+            final int fragmentSize, @Nonnull final FragmentConsumer consumer) throws ProtocolException {
         final int num = computeFragmentNumber(version, message, fragmentSize);
         if (num > MAXIMUM_NUMBER_OF_FRAGMENTS) {
             throw new ProtocolException("Number of necessary fragments exceeds limit.");
         }
-        final int payloadSize = fragmentSize - computeHeaderSize(version);
-        final int id = this.random.nextInt();
+        final int headerSize = computeHeaderSize(version);
+        final int payloadSize = fragmentSize - headerSize;
+        final int id = this.random.secureRandom().nextInt();
+        final StringBuilder builder = new StringBuilder(fragmentSize);
         int previous = 0;
-        final ArrayList<String> fragments = new ArrayList<>(num);
+        int count = 1;
         while (previous < message.length()) {
             // Either get new position or position of exact message end
             final int end = Math.min(previous + payloadSize, message.length());
-
-            final String partialContent = message.substring(previous, end);
-            fragments.add(createMessageFragment(version, id, sendertag, receivertag, fragments.size(), num,
-                    partialContent));
-
+            builder.setLength(0);
+            appendHeader(builder, version, id, sendertag, receivertag, count, num);
+            builder.append(message, previous, end).append(',');
+            consumer.accept(builder.toString());
             previous = end;
+            count++;
         }
-        return fragments.toArray(new String[0]);
     }
 
     /**
-     * Create a message fragment.
+     * Append the header of a message fragment.
+     * <p>
+     * The header formats are, with {@code x} for hexadecimal and {@code d} for decimal digits:
+     * <ul>
+     * <li>OTRv2: {@code ?OTR,d,d,}</li>
+     * <li>OTRv3: {@code ?OTR|xxxxxxxx|xxxxxxxx,ddddd,ddddd,}</li>
+     * <li>OTRv4: {@code ?OTR|xxxxxxxx|xxxxxxxx|xxxxxxxx,ddddd,ddddd,}</li>
+     * </ul>
      *
-     * @param version        the protocol version to use for these fragments
-     * @param id             the current message's identifier used in all created fragments (only relevant for OTRv4)
-     * @param sendertag      the current message's sender tag
-     * @param receivertag    the current message's receiver tag
-     * @param count          the current fragment number
-     * @param total          the total number of fragments
-     * @param partialContent the content for this fragment
-     * @return returns the full message fragment
-     * @throws UnsupportedOperationException in case v1 is only allowed in policy
+     * @param builder     the builder to append to
+     * @param version     the protocol version to use for these fragments
+     * @param id          the current message's identifier used in all created fragments (only relevant for OTRv4)
+     * @param sendertag   the current message's sender tag
+     * @param receivertag the current message's receiver tag
+     * @param count       the current fragment number (1-based)
+     * @param total       the total number of fragments
+     * @throws IllegalArgumentException in case of an unsupported protocol version
      */
-    @Nonnull
-    private String createMessageFragment(final int version, final int id, final int sendertag, final int receivertag,
-            final int count, final int total, @Nonnull final String partialContent) {
+    private static void appendHeader(@Nonnull final StringBuilder builder, final int version, final int id,
+            final int sendertag, final int receivertag, final int count, final int total) {
+        builder.append("?OTR");
         switch (version) {
         case Version.TWO:
-            return createV2MessageFragment(count, total, partialContent);
-        case Version.THREE:
-            return createV3MessageFragment(sendertag, receivertag, count, total, partialContent);
+            builder.append(',');
+            appendDecimal(builder, count);
+            builder.append(',');
+            appendDecimal(builder, total);
+            builder.append(',');
+            return;
         case Version.FOUR:
-            return createV4MessageFragment(id, sendertag, receivertag, count, total, partialContent);
+            builder.append('|');
+            appendHex(builder, id);
+            // intentional fall-through
+        case Version.THREE:
+            builder.append('|');
+            appendHex(builder, sendertag);
+            builder.append('|');
+            appendHex(builder, receivertag);
+            builder.append(',');
+            appendPaddedDecimal(builder, count);
+            builder.append(',');
+            appendPaddedDecimal(builder, total);
+            builder.append(',');
+            return;
         default:
             throw new IllegalArgumentException("Unsupported protocol version: " + version);
         }
     }
 
     /**
-     * Create a message fragment according to the v4 message format.
-     *
-     * @param id             the current message's identifier
-     * @param count          the current fragment number
-     * @param total          the total number of fragments
-     * @param partialContent the content for this fragment
-     * @return returns the full message fragment
+     * Append the value as 8 hexadecimal digits, i.e. the value is interpreted as unsigned.
      */
-    @Nonnull
-    private String createV4MessageFragment(final int id, final int sendertag, final int receivertag, final int count,
-            final int total, @Nonnull final String partialContent) {
-        return String.format(OTRV4_MESSAGE_FRAGMENT_FORMAT, id, sendertag, receivertag, count + 1, total, partialContent);
+    private static void appendHex(@Nonnull final StringBuilder builder, final int value) {
+        for (int shift = 28; shift >= 0; shift -= 4) {
+            builder.append(HEX_DIGITS[(value >>> shift) & 0xf]);
+        }
     }
 
     /**
-     * Create a message fragment according to the v3 message format.
-     *
-     * @param count          the current fragment number
-     * @param total          the total number of fragments
-     * @param partialContent the content for this fragment
-     * @return returns the full message fragment
+     * Append the non-negative value as decimal digits, zero-padded to 5 digits.
      */
-    @Nonnull
-    private String createV3MessageFragment(final int sendertag, final int receivertag, final int count, final int total,
-            @Nonnull final String partialContent) {
-        return String.format(OTRV3_MESSAGE_FRAGMENT_FORMAT, sendertag, receivertag, count + 1, total, partialContent);
+    private static void appendPaddedDecimal(@Nonnull final StringBuilder builder, final int value) {
+        assert value >= 0 && value <= MAXIMUM_NUMBER_OF_FRAGMENTS;
+        for (int divisor = 10000; divisor > 0; divisor /= 10) {
+            builder.append(DECIMAL_DIGITS[value / divisor % 10]);
+        }
     }
 
     /**
-     * Create a message fragment according to the v2 message format.
-     *
-     * @param count          the current fragment number
-     * @param total          the total number of fragments
-     * @param partialContent the content for this fragment
-     * @return returns the full message fragment
+     * Append the non-negative value as decimal digits, without padding.
      */
-    @Nonnull
-    private String createV2MessageFragment(final int count, final int total, @Nonnull final String partialContent) {
-        return String.format(OTRV2_MESSAGE_FRAGMENT_FORMAT, count + 1, total, partialContent);
+    private static void appendDecimal(@Nonnull final StringBuilder builder, final int value) {
+        assert value >= 0 && value <= MAXIMUM_NUMBER_OF_FRAGMENTS;
+        int divisor = 10000;
+        while (divisor > 1 && value < divisor) {
+            divisor /= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            builder.append(DECIMAL_DIGITS[value / divisor % 10]);
+        }
     }
 
     /**
@@ -280,4 +329,17 @@ final class OtrFragmenter {
             throw new UnsupportedOperationException("Unsupported protocol version: " + version);
         }
     }
+
+    /**
+     * Consumer of message fragments.
+     */
+    interface FragmentConsumer {
+
+        /**
+         * Accept the next fragment.
+         *
+         * @param fragment the fragment
+         */
+        void accept(@Nonnull String fragment);
+    }
 }
@@ -7,23 +7,24 @@
 
 package net.java.otr4j.session;
 
+import net.java.otr4j.api.InstanceEvictionListener;
 import net.java.otr4j.api.InstanceTag;
 import net.java.otr4j.api.OtrEngineHost;
+import net.java.otr4j.api.OtrEngineHosts;
 import net.java.otr4j.api.OtrEngineListener;
 import net.java.otr4j.api.OtrEngineListeners;
+import net.java.otr4j.api.OtrMetrics;
 import net.java.otr4j.api.Session;
 import net.java.otr4j.api.SessionID;
 
 import javax.annotation.Nonnull;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Timer;
-import java.util.logging.Logger;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
 
-import static java.util.Collections.synchronizedMap;
 import static java.util.Objects.requireNonNull;
-import static net.java.otr4j.api.OtrEngineListeners.duplicate;
 
 /**
  * The OTR session manager.
@@ -39,57 +40,49 @@ import static net.java.otr4j.api.OtrEngineListeners.duplicate;
  */
 public final class OtrSessionManager {
 
-    private static final Logger LOGGER = Logger.getLogger(OtrSessionManager.class.getName());
-
-    private static final long EXPIRATION_TIMER_INITIAL_DELAY = 60000L;
-
-    private static final long EXPIRATION_TIMER_PERIOD = 60000L;
-
-    private static final long HEARTBEAT_TIMER_INITIAL_DELAY = 60000L;
-
-    private static final long HEARTBEAT_TIMER_PERIOD = 60000L;
-
     /**
-     * The timer that periodically runs to check for expired OTR sessions.
+     * The OTR Engine Host instance.
      */
-    private static final Timer EXPIRATION_TIMER = new Timer("otr-session-expiration-timer", true);
+    private final OtrEngineHost host;
 
     /**
-     * The timer that periodically checks to see if we need to send a heartbeat message for instance sessions that are
-     * in private messaging state.
+     * Metrics to which the session manager reports creation and removal of sessions.
      */
-    private static final Timer HEARTBEAT_TIMER = new Timer("otr-heartbeat-timer", true);
+    private final OtrMetrics metrics;
 
-    static {
-        EXPIRATION_TIMER.schedule(SessionExpirationTimerTask.instance(), EXPIRATION_TIMER_INITIAL_DELAY,
-                EXPIRATION_TIMER_PERIOD);
-        LOGGER.info("OTR session expiration timer started.");
-        HEARTBEAT_TIMER.schedule(HeartBeatTimerTask.instance(), HEARTBEAT_TIMER_INITIAL_DELAY, HEARTBEAT_TIMER_PERIOD);
-        LOGGER.info("OTR heartbeat timer started.");
-    }
+    /**
+     * The scheduler that expires sessions and sends heartbeats for idle sessions in private messaging state.
+     */
+    private final SessionScheduler scheduler;
 
     /**
-     * The OTR Engine Host instance.
+     * Registry with known sessions.
+     * <p>
+     * The registry guarantees that a session is created at most once per session ID, without blocking look-ups or
+     * creation of sessions with other session IDs.
      */
-    private final OtrEngineHost host;
+    private final SessionRegistry<SessionImpl> sessions = new SessionRegistry<>();
 
     /**
-     * Map with known sessions.
-     *
-     * As the session map is needed as soon as we get/create our first session,
-     * we might as well construct it immediately.
+     * Factory for new (master) sessions managed by this session manager.
      */
-    // For now, we suppress the UseConcurrentHashMap warning, because the ConcurrentHashMap does not allow us to
-    // synchronize on the complete map such that we can be sure that only a single entry is added for a key.
-    // ConcurrentHashMap has its own construct for putting conditionally. Currently, it is not worth the benefit as it
-    // is a relatively minor issue compared to the introduction of OTRv4 support. For now, we'll leave it as is.
-    @SuppressWarnings("PMD.UseConcurrentHashMap")
-    private final Map<SessionID, SessionImpl> sessions = synchronizedMap(new HashMap<SessionID, SessionImpl>());
+    private final SessionRegistry.Factory<SessionImpl> sessionFactory = new SessionRegistry.Factory<SessionImpl>() {
+        @Nonnull
+        @Override
+        public SessionImpl create(@Nonnull final SessionID sessionID) {
+            final SessionImpl session = new SessionImpl(sessionID, OtrSessionManager.this.host);
+            session.addOtrEngineListener(sessionManagerListener);
+            OtrSessionManager.this.scheduler.register(session, true);
+            OtrSessionManager.this.metrics.sessionCreated(sessionID);
+            return session;
+        }
+    };
 
     /**
-     * List for keeping track of listeners.
+     * List for keeping track of listeners. The copy-on-write list allows notifying listeners without locking or
+     * copying the list.
      */
-    private final ArrayList<OtrEngineListener> listeners = new ArrayList<>(0);
+    private final CopyOnWriteArrayList<OtrEngineListener> listeners = new CopyOnWriteArrayList<>();
 
     /**
      * Constructor for OTR session manager.
@@ -99,6 +92,23 @@ public final class OtrSessionManager {
      */
     public OtrSessionManager(@Nonnull final OtrEngineHost host) {
         this.host = requireNonNull(host, "OtrEngineHost is required");
+        this.metrics = OtrEngineHosts.getMetrics(host);
+        this.scheduler = SessionScheduler.defaultScheduler();
+    }
+
+    /**
+     * Constructor for OTR session manager with a host-provided executor.
+     * <p>
+     * Session expiration and heartbeats for the managed sessions are scheduled on the provided executor instead of on
+     * the shared, library-managed scheduler thread. The session manager does not shut down the executor.
+     *
+     * @param host     OTR engine host that provides callback interface to host logic.
+     * @param executor executor on which session expiration and heartbeats are scheduled.
+     */
+    public OtrSessionManager(@Nonnull final OtrEngineHost host, @Nonnull final ScheduledExecutorService executor) {
+        this.host = requireNonNull(host, "OtrEngineHost is required");
+        this.metrics = OtrEngineHosts.getMetrics(host);
+        this.scheduler = new SessionScheduler(requireNonNull(executor, "executor is required"));
     }
 
     /**
@@ -113,7 +123,7 @@ public final class OtrSessionManager {
     @Nonnull
     public static Session createSession(@Nonnull final SessionID sessionID, @Nonnull final OtrEngineHost host) {
         final SessionImpl session = new SessionImpl(sessionID, host);
-        SessionExpirationTimerTask.instance().register(session);
+        SessionScheduler.defaultScheduler().register(session, false);
         return session;
     }
 
@@ -124,24 +134,34 @@ public final class OtrSessionManager {
      * This listener instance will be registered as an OtrEngineListener with
      * all new sessions.
      */
-    private final OtrEngineListener sessionManagerListener = new OtrEngineListener() {
+    private final OtrEngineListener sessionManagerListener = new SessionManagerListener();
+
+    /**
+     * Listener that propagates the events of all managed sessions to the listeners of the session manager.
+     */
+    private final class SessionManagerListener implements OtrEngineListener, InstanceEvictionListener {
         // Note that this implementation must be context-agnostic as the same instance is now reused in all sessions.
 
         @Override
         public void sessionStatusChanged(@Nonnull final SessionID sessionID, @Nonnull final InstanceTag receiverTag) {
-            OtrEngineListeners.sessionStatusChanged(duplicate(listeners), sessionID, receiverTag);
+            OtrEngineListeners.sessionStatusChanged(listeners, sessionID, receiverTag);
         }
 
         @Override
         public void multipleInstancesDetected(@Nonnull final SessionID sessionID) {
-            OtrEngineListeners.multipleInstancesDetected(duplicate(listeners), sessionID);
+            OtrEngineListeners.multipleInstancesDetected(listeners, sessionID);
         }
 
         @Override
         public void outgoingSessionChanged(@Nonnull final SessionID sessionID) {
-            OtrEngineListeners.outgoingSessionChanged(duplicate(listeners), sessionID);
+            OtrEngineListeners.outgoingSessionChanged(listeners, sessionID);
         }
-    };
+
+        @Override
+        public void instanceEvicted(@Nonnull final SessionID sessionID, @Nonnull final InstanceTag receiver) {
+            OtrEngineListeners.instanceEvicted(listeners, sessionID, receiver);
+        }
+    }
 
     /**
      * Fetches the existing session with this {@link SessionID} or creates a new
@@ -151,19 +171,44 @@ public final class OtrSessionManager {
      * @return Returns Session instance that corresponds to provided sessionID.
      */
     public Session getSession(@Nonnull final SessionID sessionID) {
-        synchronized (sessions) {
-            SessionImpl session = sessions.get(sessionID);
-            if (session == null) {
-                // Don't differentiate between existing but null and non-existing. If we do not get a valid instance,
-                // then we create a new instance.
-                session = new SessionImpl(sessionID, this.host);
-                session.addOtrEngineListener(sessionManagerListener);
-                SessionExpirationTimerTask.instance().register(session);
-                HeartBeatTimerTask.instance().register(session);
-                sessions.put(sessionID, session);
-            }
-            return session;
+        requireNonNull(sessionID);
+        return this.sessions.getOrCreate(sessionID, this.sessionFactory);
+    }
+
+    /**
+     * Remove the session with specified {@link SessionID} from the session manager.
+     * <p>
+     * The session itself is not ended. The session manager stops managing the session: it will no longer propagate
+     * its events to the listeners of the session manager, and it will no longer expire the session or send heartbeats
+     * for it. A subsequent call to {@link #getSession(SessionID)} will
+     * create a new session.
+     *
+     * @param sessionID The session's ID.
+     * @return Returns the removed session, or null if no session was managed for this session ID.
+     */
+    @Nullable
+    public Session removeSession(@Nonnull final SessionID sessionID) {
+        requireNonNull(sessionID);
+        final SessionImpl session = this.sessions.remove(sessionID);
+        if (session != null) {
+            session.removeOtrEngineListener(sessionManagerListener);
+            this.scheduler.unregister(session);
+            this.metrics.sessionRemoved(sessionID);
         }
+        return session;
+    }
+
+    /**
+     * Get all sessions that are currently managed by the session manager.
+     * <p>
+     * The returned collection is a weakly-consistent snapshot: sessions that are created or removed concurrently may
+     * or may not be included.
+     *
+     * @return Returns an unmodifiable collection of sessions.
+     */
+    @Nonnull
+    public Collection<Session> sessions() {
+        return Collections.<Session>unmodifiableCollection(this.sessions.sessions());
     }
 
     /**
@@ -173,11 +218,7 @@ public final class OtrSessionManager {
      */
     public void addOtrEngineListener(@Nonnull final OtrEngineListener l) {
         requireNonNull(l, "null is not a valid listener");
-        synchronized (listeners) {
-            if (!listeners.contains(l)) {
-                listeners.add(l);
-            }
-        }
+        listeners.addIfAbsent(l);
     }
 
     /**
@@ -187,8 +228,6 @@ public final class OtrSessionManager {
      */
     public void removeOtrEngineListener(@Nonnull final OtrEngineListener l) {
         requireNonNull(l, "null is not a valid listener");
-        synchronized (listeners) {
-            listeners.remove(l);
-        }
+        listeners.remove(l);
     }
 }
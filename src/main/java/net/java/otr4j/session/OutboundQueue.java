@@ -0,0 +1,134 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import net.java.otr4j.api.OtrException;
+import net.java.otr4j.api.OtrPolicy;
+import net.java.otr4j.api.TLV;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Bounded queue of outbound messages that wait for an encrypted session.
+ * <p>
+ * Messages are accounted for by an estimate of their memory footprint: 2 bytes per character of message text plus the
+ * size of the TLV values. The queue never holds more than the budget, as specified by the session policy.
+ * <p>
+ * OutboundQueue is NOT thread-safe.
+ */
+final class OutboundQueue {
+
+    private static final Logger LOGGER = Logger.getLogger(OutboundQueue.class.getName());
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+
+    private long size;
+
+    /**
+     * Check if the queue is empty.
+     *
+     * @return Returns true if no messages are queued.
+     */
+    boolean isEmpty() {
+        return this.entries.isEmpty();
+    }
+
+    /**
+     * Get the number of queued messages.
+     *
+     * @return Returns the number of messages.
+     */
+    int count() {
+        return this.entries.size();
+    }
+
+    /**
+     * Get the current memory footprint of the queued messages.
+     *
+     * @return Returns the estimated size in bytes.
+     */
+    long size() {
+        return this.size;
+    }
+
+    /**
+     * Queue a message.
+     *
+     * @param msgText  the message text
+     * @param tlvs     the TLVs to be sent with the message
+     * @param budget   the budget in bytes
+     * @param overflow the overflow policy that is applied in case the message does not fit within the budget
+     * @throws OtrException In case the message cannot be queued, i.e. it is larger than the budget or the overflow
+     *                      policy rejects the message.
+     */
+    void add(@Nonnull final String msgText, @Nonnull final Iterable<TLV> tlvs, final int budget,
+            @Nonnull final OtrPolicy.QueueOverflow overflow) throws OtrException {
+        final Entry entry = new Entry(msgText, tlvs);
+        if (entry.size > budget) {
+            throw new OtrException("Message is too large to be queued for later transmission.");
+        }
+        while (this.size + entry.size > budget) {
+            if (overflow == OtrPolicy.QueueOverflow.REJECT_NEWEST) {
+                throw new OtrException("Outbound message queue is full. Message is not queued.");
+            }
+            final Entry dropped = this.entries.removeFirst();
+            this.size -= dropped.size;
+            LOGGER.warning("Outbound message queue is full. Oldest queued message is dropped.");
+        }
+        this.entries.addLast(entry);
+        this.size += entry.size;
+    }
+
+    /**
+     * Remove all messages from the queue.
+     *
+     * @return Returns the messages in order of queueing.
+     */
+    @Nonnull
+    List<Entry> drain() {
+        final ArrayList<Entry> drained = new ArrayList<>(this.entries);
+        this.entries.clear();
+        this.size = 0;
+        return drained;
+    }
+
+    /**
+     * Queued message.
+     */
+    static final class Entry {
+
+        /**
+         * Estimated fixed overhead per queued message.
+         */
+        private static final int OVERHEAD = 64;
+
+        final String msgText;
+
+        final List<TLV> tlvs;
+
+        private final long size;
+
+        private Entry(@Nonnull final String msgText, @Nonnull final Iterable<TLV> tlvs) {
+            this.msgText = requireNonNull(msgText);
+            final ArrayList<TLV> copy = new ArrayList<>();
+            long total = OVERHEAD + 2L * msgText.length();
+            for (final TLV tlv : tlvs) {
+                copy.add(tlv);
+                total += tlv.value.length;
+            }
+            this.tlvs = copy;
+            this.size = total;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Executor that runs its tasks one at a time, in order of submission, on an underlying (shared) executor.
+ * <p>
+ * A serial executor forms a "lane" on the underlying executor. Tasks of a single lane never run concurrently and
+ * always run in submission order. Tasks of different lanes run concurrently, as far as the underlying executor
+ * allows. At most one task of a lane is submitted to the underlying executor at any time, so a busy lane does not
+ * occupy more than a single thread.
+ */
+final class SerialExecutor implements Executor {
+
+    private final Executor executor;
+
+    @GuardedBy("tasks")
+    private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+
+    @GuardedBy("tasks")
+    @Nullable
+    private Task active;
+
+    /**
+     * Construct serial executor.
+     *
+     * @param executor the underlying executor
+     */
+    SerialExecutor(@Nonnull final Executor executor) {
+        this.executor = requireNonNull(executor);
+    }
+
+    /**
+     * Submit a task for execution in this lane.
+     *
+     * @param command the task
+     * @throws RejectedExecutionException In case the underlying executor rejects the lane's tasks. All tasks that are
+     *                                    still queued in the lane are discarded. Queued tasks that are {@link Future}s
+     *                                    are cancelled.
+     */
+    @Override
+    public void execute(@Nonnull final Runnable command) {
+        requireNonNull(command);
+        synchronized (this.tasks) {
+            this.tasks.add(new Task(command));
+            if (this.active == null) {
+                scheduleNext();
+            }
+        }
+    }
+
+    private void scheduleNext() {
+        synchronized (this.tasks) {
+            this.active = this.tasks.poll();
+            if (this.active == null) {
+                return;
+            }
+            try {
+                this.executor.execute(this.active);
+            } catch (final RejectedExecutionException e) {
+                // The underlying executor does not accept tasks. Discard everything such that no task gets stuck.
+                discard(this.active);
+                for (final Task task : this.tasks) {
+                    discard(task);
+                }
+                this.tasks.clear();
+                this.active = null;
+                throw e;
+            }
+        }
+    }
+
+    private static void discard(@Nonnull final Task task) {
+        if (task.command instanceof Future) {
+            ((Future<?>) task.command).cancel(false);
+        }
+    }
+
+    /**
+     * Task wrapper that continues with the next task of the lane upon completion.
+     */
+    private final class Task implements Runnable {
+
+        private final Runnable command;
+
+        private Task(@Nonnull final Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.command.run();
+            } finally {
+                scheduleNext();
+            }
+        }
+    }
+}
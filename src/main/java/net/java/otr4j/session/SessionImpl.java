@@ -8,6 +8,7 @@
 package net.java.otr4j.session;
 
 import com.google.errorprone.annotations.concurrent.GuardedBy;
+import net.java.otr4j.api.BatchEngineHost;
 import net.java.otr4j.api.ClientProfile;
 import net.java.otr4j.api.InstanceTag;
 import net.java.otr4j.api.OfferStatus;
@@ -16,13 +17,18 @@ import net.java.otr4j.api.OtrEngineHosts;
 import net.java.otr4j.api.OtrEngineListener;
 import net.java.otr4j.api.OtrEngineListeners;
 import net.java.otr4j.api.OtrException;
+import net.java.otr4j.api.OtrMetrics;
 import net.java.otr4j.api.OtrPolicy;
 import net.java.otr4j.api.OtrPolicys;
+import net.java.otr4j.api.OtrTracer;
+import net.java.otr4j.api.RandomSource;
+import net.java.otr4j.api.ReceivedMessage;
 import net.java.otr4j.api.Session;
 import net.java.otr4j.api.SessionID;
 import net.java.otr4j.api.SessionStatus;
 import net.java.otr4j.api.TLV;
 import net.java.otr4j.crypto.DSAKeyPair;
+import net.java.otr4j.crypto.ThreadLocalRandomSource;
 import net.java.otr4j.io.EncodedMessage;
 import net.java.otr4j.io.ErrorMessage;
 import net.java.otr4j.io.Fragment;
@@ -41,34 +47,44 @@ import net.java.otr4j.session.state.StatePlaintext;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.IOException;
 import java.net.ProtocolException;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.security.interfaces.DSAPublicKey;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static java.util.Objects.requireNonNull;
 import static java.util.logging.Level.WARNING;
 import static net.java.otr4j.api.InstanceTag.ZERO_TAG;
 import static net.java.otr4j.api.OtrEngineHosts.messageFromAnotherInstanceReceived;
-import static net.java.otr4j.api.OtrEngineListeners.duplicate;
+import static net.java.otr4j.api.OtrEngineHosts.requireEncryptedMessage;
+import static net.java.otr4j.api.OtrEngineListeners.instanceEvicted;
 import static net.java.otr4j.api.OtrEngineListeners.outgoingSessionChanged;
 import static net.java.otr4j.api.OtrEngineListeners.sessionStatusChanged;
+import static net.java.otr4j.api.OtrTracer.Operation.ASSEMBLE_FRAGMENT;
+import static net.java.otr4j.api.OtrTracer.Operation.HOST_INJECT_MESSAGE;
+import static net.java.otr4j.api.OtrTracer.Operation.PARSE_MESSAGE;
+import static net.java.otr4j.api.OtrTracer.Operation.SMP_INITIATE;
+import static net.java.otr4j.api.OtrTracer.Operation.SMP_RESPOND;
 import static net.java.otr4j.api.Session.Version.FOUR;
 import static net.java.otr4j.api.Session.Version.THREE;
 import static net.java.otr4j.api.Session.Version.TWO;
 import static net.java.otr4j.api.SessionStatus.ENCRYPTED;
 import static net.java.otr4j.api.SessionStatus.PLAINTEXT;
+import static net.java.otr4j.io.MessageProcessor.containsOTRMarker;
+import static net.java.otr4j.io.MessageProcessor.encodedMessageLength;
 import static net.java.otr4j.io.MessageProcessor.parseMessage;
 import static net.java.otr4j.io.MessageProcessor.writeMessage;
 import static net.java.otr4j.messages.EncodedMessageParser.checkAuthRMessage;
@@ -76,6 +92,7 @@ import static net.java.otr4j.messages.EncodedMessageParser.checkDHKeyMessage;
 import static net.java.otr4j.session.api.SMPStatus.INPROGRESS;
 import static net.java.otr4j.session.state.State.FLAG_IGNORE_UNREADABLE;
 import static net.java.otr4j.session.state.State.FLAG_NONE;
+import static net.java.otr4j.util.Logging.log;
 
 /**
  * Implementation of the OTR session.
@@ -106,17 +123,40 @@ import static net.java.otr4j.session.state.State.FLAG_NONE;
  * case - we copy AKE state to the (possibly newly created) slave sessions and
  * continue AKE message handling there.
  *
- * SessionImpl is thread-safe. Thread-safety is achieved by serializing method calls of a session instance.
+ * <p>
+ * SessionImpl is thread-safe. Thread-safety is achieved through two kinds of locks:
+ * <ol>
+ * <li>The <i>instance lock</i> of the session instance. Every session instance, master and slaves alike, guards its
+ * own message state, fragment assembly and fragmentation with its instance lock. Message
+ * processing for different instances can therefore proceed concurrently.</li>
+ * <li>The <i>routing lock</i> of the master session. The routing lock guards the state that is shared among all
+ * instances: the slave sessions, the selected outgoing session and the offer status. The routing lock is only held for
+ * short durations and never while calling into another session instance.</li>
+ * </ol>
+ * Locks are acquired in the following order: (slave) instance lock, master instance lock, routing lock. The master
+ * session never acquires the instance lock of a slave session. Messages are delegated from the master session to a
+ * slave session without holding any of the master session's locks. The message state is additionally published through
+ * a volatile field such that the session status can be queried without acquiring any lock.
+ * <p>
+ * Both locks are {@link ReentrantLock}s instead of object monitors. Host callbacks and expensive cryptographic
+ * operations are performed while holding the instance lock. A virtual thread that blocks while holding a monitor pins
+ * its carrier thread, whereas blocking while holding a {@code java.util.concurrent} lock does not.
  *
  * @author George Politis
  * @author Danny van Heumen
  */
 // TODO *do* report an error if flag IGNORE_UNREADABLE is not set, i.e. check if this logic is in place. (unreadable message to OtrEngineHost)
-// FIXME consider refining synchronization such that multiple session instances can operate concurrently
-// TODO I suspect a deadlock may occur between interactions with slave sessions accessing master, and master sessions accessing slave.
 @SuppressWarnings("PMD.TooManyFields")
 final class SessionImpl implements Session, Context {
 
+    private static final Logger LOGGER = Logger.getLogger(SessionImpl.class.getName());
+
+    /**
+     * Session instances with deferred session status notifications, for the batch that is processed by the current
+     * thread. Null if the current thread is not processing a batch.
+     */
+    private static final ThreadLocal<Set<SessionImpl>> DEFERRED_STATUS_CHANGES = new ThreadLocal<>();
+
     private static final String DEFAULT_FALLBACK_MESSAGE = "Your contact is requesting to start an encrypted chat. Please install an app that supports OTR: https://github.com/otr4j/otr4j/wiki/Apps";
 
     /**
@@ -126,20 +166,24 @@ final class SessionImpl implements Session, Context {
      * instance that contains the logic concerning message handling for both
      * incoming and outgoing messages, and everything related to this message
      * state.
+     *
+     * The field is volatile such that the session status can be read without acquiring the instance lock. Modifications
+     * are only performed while holding the instance lock.
      */
-    @GuardedBy("masterSession")
     @Nonnull
-    private State sessionState;
+    private volatile State sessionState;
 
     /**
      * Slave sessions contain the mappings of instance tags to outgoing
-     * sessions. In case of the master session, it is initialized with an empty
-     * instance. In case of slaves the slaveSessions instance is initialized to
-     * an (immutable) empty map.
+     * sessions. Only the master session manages slave sessions. In case of
+     * slaves the table remains empty.
+     * <p>
+     * The number of slave sessions is limited by the policy's instance limit.
+     * (See {@link OtrPolicy#getInstanceLimit()}.)
      */
-    @GuardedBy("masterSession")
+    @GuardedBy("masterSession.routingLock")
     @Nonnull
-    private final Map<InstanceTag, SessionImpl> slaveSessions;
+    private final InstanceTable<SessionImpl> slaveSessions = new InstanceTable<>();
 
     @Nonnull
     private final SessionID sessionID;
@@ -148,7 +192,7 @@ final class SessionImpl implements Session, Context {
      * The currently selected slave session that will be used as the session
      * for outgoing messages.
      */
-    @GuardedBy("masterSession")
+    @GuardedBy("masterSession.routingLock")
     @Nonnull
     private SessionImpl outgoingSession;
 
@@ -156,10 +200,34 @@ final class SessionImpl implements Session, Context {
      * Flag indicating whether this instance is a master session or a slave
      * session.
      */
-    @GuardedBy("itself")
     @Nonnull
     private final SessionImpl masterSession;
 
+    /**
+     * Instance lock guarding the message state, fragment assembly and fragmentation of this session instance.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Routing lock guarding the state shared among the master session and its slave sessions. Only the master session's
+     * routing lock is used. See the class documentation for the lock order.
+     */
+    private final ReentrantLock routingLock = new ReentrantLock();
+
+    /**
+     * The number of slave sessions that are being constructed. Reserved slots count towards the instance limit, such
+     * that concurrently constructed slave sessions cannot exceed it. Only used on the master session.
+     */
+    @GuardedBy("routingLock")
+    private int pendingSlaveSessions;
+
+    /**
+     * Flag indicating that this slave session was evicted. A thread that looked up the slave session before it was
+     * evicted, finds this flag set after acquiring the instance lock and retries with a new slave session.
+     */
+    @GuardedBy("lock")
+    private boolean evicted;
+
     /**
      * The Engine Host instance. This is a reference to the host logic that uses
      * OTR. The reference is used to call back into the program logic in order
@@ -168,28 +236,31 @@ final class SessionImpl implements Session, Context {
     @Nonnull
     private final OtrEngineHost host;
 
-    @SuppressWarnings({"NonConstantLogger", "PMD.LoggerIsNotStaticFinal"})
-    private final Logger logger;
-
     /**
      * Offer status for whitespace-tagged message indicating OTR supported.
      */
-    @GuardedBy("masterSession")
+    @GuardedBy("masterSession.routingLock")
     private OfferStatus offerStatus;
 
+    /**
+     * Queue of outbound messages that wait for an encrypted session. Only the master session's queue is used, such
+     * that queued messages are sent through the first session instance that becomes encrypted.
+     */
+    @GuardedBy("masterSession.routingLock")
+    private final OutboundQueue outboundQueue = new OutboundQueue();
+
     /**
      * The Client Profile.
      */
     private final ClientProfile profile;
 
     /**
-     * The OTR-encodable, signed payload containing the client profile, ready to be sent.
+     * The cache of OTR-encodable, signed payloads containing the client profile, ready to be sent. The signed payload
+     * is shared among all sessions with the same client profile and is refreshed before it expires. The key exchange
+     * states keep the payload that they started with, such that the same payload is used throughout a key exchange.
      */
-    // TODO refresh client profile payload after it is expired. (Maybe leave until after initial use, as expiration date is recommended for 2+ weeks.)
-    // TODO consider keeping an internal class-level cache of signed payload per client profile, such that we do not keep constructing it again and again
     // TODO ability for user to specify amount of expiration time on a profile
-    // FIXME requirement to publish the same ClientProfilePayload as is in use, therefore we cannot generate on-the-fly on every execution.
-    private final ClientProfilePayload profilePayload;
+    private final ClientProfilePayloadCache profilePayloads;
 
     /**
      * Receiver instance tag.
@@ -199,56 +270,100 @@ final class SessionImpl implements Session, Context {
      */
     private final InstanceTag receiverTag;
 
+    /**
+     * Memory budget for reassembly of fragmented messages, shared by all instances of the session.
+     */
+    private final AssemblyBudget assemblyBudget;
+
     /**
      * OTR-encoded message-assembler.
      */
-    @GuardedBy("masterSession")
-    private final OtrAssembler assembler = new OtrAssembler();
+    @GuardedBy("lock")
+    private final OtrAssembler assembler;
 
     /**
      * Message fragmenter.
      */
-    @GuardedBy("masterSession")
+    @GuardedBy("lock")
     private final OtrFragmenter fragmenter;
 
     /**
-     * Secure random instance to be used for this Session. This single SecureRandom instance is there to be shared among
-     * the classes in this package in order to support this specific Session instance. The SecureRandom instance should
-     * not be shared between sessions.
+     * Consumer that injects messages, or fragments thereof, through the host and reports them as sent.
+     */
+    private final OtrFragmenter.FragmentConsumer injector = new OtrFragmenter.FragmentConsumer() {
+        @Override
+        public void accept(@Nonnull final String fragment) {
+            host.injectMessage(sessionID, fragment);
+            metrics.messageSent(sessionID, fragment.length());
+        }
+    };
+
+    /**
+     * Source of randomness for this session, its slave sessions and the classes in this package that support it. The
+     * secure random instance is acquired from the source upon use. (See {@link #secureRandom()}.)
      */
-    private final SecureRandom secureRandom;
+    private final RandomSource randomSource;
+
+    /**
+     * Metrics to which this session and its slave sessions report. Acquired from the host upon construction of the
+     * master session.
+     */
+    private final OtrMetrics metrics;
+
+    /**
+     * Tracer of operations of this session and its slave sessions. Acquired from the host upon construction of the
+     * master session.
+     */
+    private final OtrTracer tracer;
+
+    /**
+     * Start of the key exchange that is in progress, as {@link System#nanoTime()}, or 0 if no key exchange is in
+     * progress. Used to report the latency of the key exchange once the session instance is encrypted.
+     */
+    @GuardedBy("lock")
+    private long keyExchangeStarted;
+
+    /**
+     * Indicates that the session instance transitioned to an encrypted state while handling an encoded message, such
+     * that the outbound queue is flushed once the message, including any AKE reply, has been handled.
+     */
+    @GuardedBy("lock")
+    private boolean outboundQueueFlushPending;
+
+    /**
+     * Listener that is notified when an instance of the session starts reassembling a fragmented message, such that
+     * the incomplete message's expiry is scheduled. Only set on the master session, and null if the session is not
+     * registered with a scheduler.
+     */
+    @Nullable
+    private volatile SessionScheduler.DeadlineListener deadlineListener;
 
     /**
      * List of registered listeners.
      *
-     * Synchronized access is required. This is currently managed in methods
-     * accessing the list.
+     * Listeners are registered rarely and notified often. The copy-on-write list allows notifying listeners without
+     * locking or copying the list.
      */
-    @GuardedBy("masterSession")
-    private final ArrayList<OtrEngineListener> listeners = new ArrayList<>();
+    private final CopyOnWriteArrayList<OtrEngineListener> listeners = new CopyOnWriteArrayList<>();
 
     /**
      * Listener for propagating events from slave sessions to the listeners of
      * the master session. The same instance is reused for all slave sessions.
      */
-    @GuardedBy("masterSession")
     private final OtrEngineListener slaveSessionsListener = new OtrEngineListener() {
 
         // TODO temporarily suppress PMD warning due to false-positive in use of existing static import. (https://github.com/pmd/pmd/issues/1316)
         @SuppressWarnings("PMD.UnnecessaryFullyQualifiedName")
-        @GuardedBy("SessionImpl.this.masterSession")
         @Override
         public void sessionStatusChanged(@Nonnull final SessionID sessionID, @Nonnull final InstanceTag receiver) {
-            OtrEngineListeners.sessionStatusChanged(duplicate(listeners), sessionID, receiver);
+            OtrEngineListeners.sessionStatusChanged(listeners, sessionID, receiver);
         }
 
-        @GuardedBy("SessionImpl.this.masterSession")
         @Override
         public void multipleInstancesDetected(@Nonnull final SessionID sessionID) {
             throw new IllegalStateException("Multiple instances should be detected in the master session. This event should never have happened.");
         }
 
-        @GuardedBy("SessionImpl.this.masterSession")
         @Override
         public void outgoingSessionChanged(@Nonnull final SessionID sessionID) {
             throw new IllegalStateException("Outgoing session changes should be performed in the master session only. This event should never have happened.");
@@ -268,7 +383,8 @@ final class SessionImpl implements Session, Context {
      * @param host      The OTR engine host listener.
      */
     SessionImpl(@Nonnull final SessionID sessionID, @Nonnull final OtrEngineHost host) {
-        this(null, sessionID, host, ZERO_TAG, new SecureRandom());
+        this(null, sessionID, host, ZERO_TAG, host instanceof RandomSource ? (RandomSource) host
+                : ThreadLocalRandomSource.instance());
     }
 
     /**
@@ -280,51 +396,47 @@ final class SessionImpl implements Session, Context {
      * @param sessionID     The session ID.
      * @param host          OTR engine host instance.
      * @param receiverTag   The receiver instance tag. The receiver instance tag is allowed to be ZERO.
-     * @param secureRandom  The secure random instance.
+     * @param randomSource  The source of randomness.
      */
     private SessionImpl(@Nullable final SessionImpl masterSession,
             @Nonnull final SessionID sessionID,
             @Nonnull final OtrEngineHost host,
             @Nonnull final InstanceTag receiverTag,
-            @Nonnull final SecureRandom secureRandom) {
+            @Nonnull final RandomSource randomSource) {
         this.masterSession = masterSession == null ? this : masterSession;
         assert this.masterSession.masterSession == this.masterSession : "BUG: expected master session to be its own master session. This is likely an illegal state.";
-        this.secureRandom = requireNonNull(secureRandom);
+        this.randomSource = requireNonNull(randomSource);
+        this.metrics = masterSession == null ? OtrEngineHosts.getMetrics(host) : masterSession.metrics;
+        this.tracer = masterSession == null ? OtrEngineHosts.getTracer(host) : masterSession.tracer;
         this.sessionID = requireNonNull(sessionID);
-        this.logger = Logger.getLogger(sessionID.getAccountID() + "-->" + sessionID.getUserID());
         this.host = requireNonNull(host);
         this.receiverTag = requireNonNull(receiverTag);
         this.offerStatus = OfferStatus.IDLE;
-        // Master session uses the map to manage slave sessions. Slave sessions do not use the map.
-        if (this.masterSession == this) {
-            this.slaveSessions = new HashMap<>(0);
-        } else {
-            this.slaveSessions = emptyMap();
-        }
         outgoingSession = this;
         // Initialize message fragmentation support.
         this.profile = this.host.getClientProfile(sessionID);
         if (this.profile.getInstanceTag().equals(ZERO_TAG)) {
             throw new IllegalArgumentException("Only actual instance tags are allowed. The 'zero' tag is not valid.");
         }
-        final Calendar expirationDate = Calendar.getInstance();
-        expirationDate.add(Calendar.DAY_OF_YEAR, 14);
-        this.profilePayload = ClientProfilePayload.sign(this.profile, expirationDate.getTimeInMillis() / 1000,
-                this.host.getLocalKeyPair(sessionID), this.host.getLongTermKeyPair(sessionID));
+        this.profilePayloads = ClientProfilePayloadCache.defaultCache();
+        // Acquire the signed payload ahead of the first key exchange, such that an unusable profile is detected early.
+        this.profilePayloads.get(this.profile, this.host, this.sessionID);
         this.sessionState = new StatePlaintext(StateInitial.instance());
-        this.fragmenter = new OtrFragmenter(this.secureRandom, host, this.sessionID);
+        this.fragmenter = new OtrFragmenter(this.randomSource, host, this.sessionID);
+        this.assemblyBudget = masterSession == null ? new AssemblyBudget() : masterSession.assemblyBudget;
+        this.assembler = new OtrAssembler(this.sessionID, this.metrics, this.assemblyBudget, AssemblyBudget.global());
     }
 
     /**
      * Expose secure random instance to other classes in the package.
      * Don't expose to public, though.
      *
-     * @return Returns the Session's secure random instance.
+     * @return Returns the secure random instance of the session's random source for the calling thread.
      */
     @Override
     @Nonnull
     public SecureRandom secureRandom() {
-        return this.secureRandom;
+        return this.randomSource.secureRandom();
     }
 
     @Nonnull
@@ -336,24 +448,34 @@ final class SessionImpl implements Session, Context {
     @Nonnull
     @Override
     public ClientProfilePayload getClientProfilePayload() {
-        return this.profilePayload;
+        return this.profilePayloads.get(this.profile, this.host, this.sessionID);
     }
 
-    @GuardedBy("masterSession")
+    @GuardedBy("lock")
     @Override
     public void setAuthState(@Nonnull final AuthState state) {
+        if (!(state instanceof StateInitial) && this.sessionState.getAuthState() instanceof StateInitial) {
+            this.keyExchangeStarted = System.nanoTime();
+        }
         this.sessionState.setAuthState(state);
     }
 
-    @GuardedBy("masterSession")
+    @GuardedBy("lock")
     @Override
     public void transition(@Nonnull final State fromState, @Nonnull final State toState) {
         if (this.sessionState != fromState) {
             throw new IllegalArgumentException("BUG: provided \"from\" state is not the current state. Expected "
                     + this.sessionState + ", but got " + fromState);
         }
-        logger.log(Level.FINE, "Transitioning to message state: " + toState);
+        log(LOGGER, Level.FINE, "{0}: Transitioning to message state: {1}", this.sessionID, toState);
         this.sessionState = requireNonNull(toState);
+        if (toState.getStatus() == ENCRYPTED && this.keyExchangeStarted != 0) {
+            this.metrics.keyExchangeCompleted(this.sessionID, toState.getVersion(),
+                    System.nanoTime() - this.keyExchangeStarted);
+            this.keyExchangeStarted = 0;
+        } else if (isDAKEInProgress(toState) && !isDAKEInProgress(fromState)) {
+            this.keyExchangeStarted = System.nanoTime();
+        }
         if (fromState.getStatus() != ENCRYPTED && toState.getStatus() == ENCRYPTED
                 && this.masterSession.getOutgoingSession().getSessionStatus() == PLAINTEXT) {
             // This behavior is adopted to preserve behavior between otr4j before refactoring and after. Originally,
@@ -361,21 +483,25 @@ final class SessionImpl implements Session, Context {
             // session was created. Now we ensure that once we have secured the session, we also switch to that
             // session such that subsequently sent messages are already encrypted, even if the client does not
             // explicitly switch.
-            logger.finest("Switching to the just-secured session, as the previous state was an insecure state.");
+            log(LOGGER, Level.FINEST, "{0}: Switching to the just-secured session, as the previous state was an insecure state.",
+                    this.sessionID);
             this.masterSession.setOutgoingSession(getReceiverInstanceTag());
         }
         fromState.destroy();
-        sessionStatusChanged(duplicate(listeners), this.sessionID, this.receiverTag);
+        if (toState.getStatus() == ENCRYPTED) {
+            this.outboundQueueFlushPending = true;
+        }
+        notifySessionStatusChanged();
+    }
+
+    private static boolean isDAKEInProgress(@Nonnull final State state) {
+        return state.getVersion() == FOUR && state.getStatus() != ENCRYPTED;
     }
 
     @Override
     @Nonnull
     public SessionStatus getSessionStatus() {
-        synchronized (this.masterSession) {
-            synchronized (this.outgoingSession.masterSession) {
-                return this.outgoingSession.sessionState.getStatus();
-            }
-        }
+        return getOutgoingSession().sessionState.getStatus();
     }
 
     @Override
@@ -393,45 +519,119 @@ final class SessionImpl implements Session, Context {
     @Override
     @Nonnull
     public OfferStatus getOfferStatus() {
-        synchronized (this.masterSession) {
+        this.masterSession.routingLock.lock();
+        try {
             return this.offerStatus;
+        } finally {
+            this.masterSession.routingLock.unlock();
         }
     }
 
     @Override
     public void setOfferStatusSent() {
-        synchronized (this.masterSession) {
+        this.masterSession.routingLock.lock();
+        try {
             this.offerStatus = OfferStatus.SENT;
+        } finally {
+            this.masterSession.routingLock.unlock();
         }
     }
 
     @Override
     @Nullable
     public String transformReceiving(@Nonnull final String msgText) throws OtrException {
-        synchronized (this.masterSession) {
-            logger.log(Level.FINEST, "Entering {0} session.", masterSession == this ? "master" : "slave");
+        return transformReceiving(msgText, getSessionPolicy());
+    }
 
-            if (msgText.length() == 0) {
-                return msgText;
-            }
+    @Override
+    @Nullable
+    public String transformReceiving(@Nonnull final CharSequence msgText) throws OtrException {
+        return transformReceiving(msgText, getSessionPolicy());
+    }
 
-            // OTR: "They all assume that at least one of ALLOW_V1, ALLOW_V2 or
-            // ALLOW_V3 is set; if not, then OTR is completely disabled, and no
-            // special handling of messages should be done at all."
-            final OtrPolicy policy = getSessionPolicy();
-            if (!policy.viable()) {
-                logger.info("Policy does not allow any version of OTR. OTR messages will not be processed at all.");
-                return msgText;
-            }
+    @Override
+    @Nullable
+    public String transformReceiving(@Nonnull final ByteBuffer msgBytes) throws OtrException {
+        // The bytes are decoded into a buffer of our own, as fragments may refer to the text after this call returns.
+        return transformReceiving(UTF_8.decode(msgBytes.duplicate()), getSessionPolicy());
+    }
 
-            final Message m;
-            try {
-                m = parseMessage(msgText);
-            } catch (final ProtocolException e) {
-                // TODO we probably want to just drop the message, i.s.o. throwing exception.
-                throw new OtrException("Invalid message.", e);
+    /**
+     * Transform a batch of received messages.
+     * <p>
+     * The session policy is queried once for the whole batch. Session status notifications that result from
+     * processing the batch are coalesced: listeners are notified once per session instance, after all messages are
+     * processed.
+     * <p>
+     * The instance lock is acquired per message, not held for a run of messages. The instance that handles a message is
+     * only known after the message is parsed, and instance locks have no order among each other: holding one instance's
+     * lock while acquiring another's could deadlock with a concurrent batch. The instance lock is reentrant and
+     * uncontended in the common case, so acquiring it per message is cheap compared to processing the message.
+     * <p>
+     * A message that fails to be processed, does not abort the batch. The failure is reported in the message's result.
+     *
+     * @param messages the received messages
+     * @return Returns the results per message, in the same order as the messages.
+     */
+    @Override
+    @Nonnull
+    public List<ReceivedMessage> transformReceiving(@Nonnull final List<String> messages) {
+        final OtrPolicy policy = getSessionPolicy();
+        final ArrayList<ReceivedMessage> results = new ArrayList<>(messages.size());
+        final boolean outermost = deferSessionStatusChanges();
+        try {
+            for (final String message : messages) {
+                try {
+                    results.add(ReceivedMessage.processed(transformReceiving(message, policy)));
+                } catch (final OtrException e) {
+                    log(LOGGER, Level.FINE, "{0}: Failed to process received message. Continuing with the remainder of the batch.",
+                            this.sessionID, e);
+                    results.add(ReceivedMessage.failed(e));
+                }
+            }
+        } finally {
+            if (outermost) {
+                flushSessionStatusChanges();
             }
+        }
+        return results;
+    }
+
+    @Nullable
+    private String transformReceiving(@Nonnull final CharSequence msgText, @Nonnull final OtrPolicy policy)
+            throws OtrException {
+        log(LOGGER, Level.FINEST, "{0}: Entering {1} session.", this.sessionID, masterSession == this ? "master" : "slave");
+
+        if (msgText.length() == 0) {
+            return "";
+        }
+        this.metrics.messageReceived(this.sessionID, msgText.length());
+
+        // OTR: "They all assume that at least one of ALLOW_V1, ALLOW_V2 or
+        // ALLOW_V3 is set; if not, then OTR is completely disabled, and no
+        // special handling of messages should be done at all."
+        if (!policy.viable()) {
+            log(LOGGER, Level.INFO, "{0}: Policy does not allow any version of OTR. OTR messages will not be processed at all.",
+                    this.sessionID);
+            return msgText.toString();
+        }
+
+        if (!containsOTRMarker(msgText)) {
+            // Most traffic is plain chat. Without OTR markers, parsing would result in a plaintext message without
+            // versions, of which the clean text is the message text itself.
+            return handleUnmarkedPlainText(msgText.toString(), policy);
+        }
 
+        final Message m;
+        try (OtrTracer.Span ignored = this.tracer.start(PARSE_MESSAGE, this.sessionID, this.receiverTag)) {
+            m = parseMessage(msgText);
+        } catch (final ProtocolException e) {
+            // TODO we probably want to just drop the message, i.s.o. throwing exception.
+            throw new OtrException("Invalid message.", e);
+        }
+
+        this.masterSession.routingLock.lock();
+        try {
             if (m instanceof PlainTextMessage) {
                 if (offerStatus == OfferStatus.SENT) {
                     offerStatus = OfferStatus.REJECTED;
@@ -439,65 +639,77 @@ final class SessionImpl implements Session, Context {
             } else {
                 offerStatus = OfferStatus.ACCEPTED;
             }
+        } finally {
+            this.masterSession.routingLock.unlock();
+        }
 
-            // FIXME evaluate inter-play between master and slave sessions. How much of certainty do we have if we reset the state from within one of the AKE states, that we actually reset sufficiently? In most cases, context.setState will manipulate the slave session, not the master session, so the influence limited.
-            if (masterSession == this && m instanceof Fragment && (((Fragment) m).getVersion() == THREE
-                    || ((Fragment) m).getVersion() == FOUR)) {
-                final Fragment fragment = (Fragment) m;
-
-                if (ZERO_TAG.equals(fragment.getSenderTag())) {
-                    logger.log(Level.INFO, "Message fragment contains 0 sender tag. Ignoring message. (Message ID: {}, index: {}, total: {})",
-                            new Object[] {fragment.getIdentifier(), fragment.getIndex(), fragment.getTotal()});
-                    return null;
-                }
+        // Messages for OTRv3 and OTRv4 are delegated to the slave session corresponding to the sender instance tag.
+        // Delegation is performed without holding the master session's instance lock, such that slave sessions can
+        // process messages concurrently.
+        // FIXME evaluate inter-play between master and slave sessions. How much of certainty do we have if we reset the state from within one of the AKE states, that we actually reset sufficiently? In most cases, context.setState will manipulate the slave session, not the master session, so the influence limited.
+        if (masterSession == this && m instanceof Fragment && (((Fragment) m).getVersion() == THREE
+                || ((Fragment) m).getVersion() == FOUR)) {
+            final Fragment fragment = (Fragment) m;
+
+            if (ZERO_TAG.equals(fragment.getSenderTag())) {
+                log(LOGGER, Level.INFO, "{0}: Message fragment contains 0 sender tag. Ignoring message. (Message ID: {1}, index: {2}, total: {3})",
+                        this.sessionID, fragment.getIdentifier(), fragment.getIndex(), fragment.getTotal());
+                return null;
+            }
 
-                if (!ZERO_TAG.equals(fragment.getReceiverTag())
-                        && fragment.getReceiverTag().getValue() != this.profile.getInstanceTag().getValue()) {
-                    // The message is not intended for us. Discarding...
-                    logger.finest("Received a message fragment with receiver instance tag that is different from ours. Ignore this message.");
-                    messageFromAnotherInstanceReceived(this.host, this.sessionID);
-                    return null;
-                }
+            if (!ZERO_TAG.equals(fragment.getReceiverTag())
+                    && fragment.getReceiverTag().getValue() != this.profile.getInstanceTag().getValue()) {
+                // The message is not intended for us. Discarding...
+                log(LOGGER, Level.FINEST, "{0}: Received a message fragment with receiver instance tag that is different from ours. Ignore this message.",
+                        this.sessionID);
+                messageFromAnotherInstanceReceived(this.host, this.sessionID);
+                return null;
+            }
 
-                if (!this.slaveSessions.containsKey(fragment.getSenderTag())) {
-                    final SessionImpl newSlaveSession = new SessionImpl(this, sessionID, this.host,
-                            fragment.getSenderTag(), this.secureRandom);
-                    newSlaveSession.addOtrEngineListener(this.slaveSessionsListener);
-                    this.slaveSessions.put(fragment.getSenderTag(), newSlaveSession);
-                }
-                final SessionImpl slave = this.slaveSessions.get(fragment.getSenderTag());
+            final SessionImpl slave = lockSlaveSession(fragment.getSenderTag(), policy);
+            if (slave == null) {
+                return null;
+            }
+            try {
                 return slave.handleFragment(fragment);
-            } else if (masterSession == this && m instanceof EncodedMessage && (((EncodedMessage) m).version == THREE
-                    || ((EncodedMessage) m).version == FOUR)) {
-                final EncodedMessage message = (EncodedMessage) m;
+            } finally {
+                slave.lock.unlock();
+            }
+        } else if (masterSession == this && m instanceof EncodedMessage && (((EncodedMessage) m).version == THREE
+                || ((EncodedMessage) m).version == FOUR)) {
+            final EncodedMessage message = (EncodedMessage) m;
 
-                if (ZERO_TAG.equals(message.senderTag)) {
-                    // An encoded message without a sender instance tag is always bad.
-                    logger.warning("Encoded message is missing sender instance tag. Ignoring message.");
-                    return null;
-                }
+            if (ZERO_TAG.equals(message.senderTag)) {
+                // An encoded message without a sender instance tag is always bad.
+                log(LOGGER, WARNING, "{0}: Encoded message is missing sender instance tag. Ignoring message.", this.sessionID);
+                return null;
+            }
 
-                if (!ZERO_TAG.equals(message.receiverTag) && !message.receiverTag.equals(this.profile.getInstanceTag())) {
-                    // The message is not intended for us. Discarding...
-                    logger.finest("Received an encoded message with receiver instance tag that is different from ours. Ignore this message.");
-                    messageFromAnotherInstanceReceived(this.host, sessionID);
-                    return null;
-                }
+            if (!ZERO_TAG.equals(message.receiverTag) && !message.receiverTag.equals(this.profile.getInstanceTag())) {
+                // The message is not intended for us. Discarding...
+                log(LOGGER, Level.FINEST, "{0}: Received an encoded message with receiver instance tag that is different from ours. Ignore this message.",
+                        this.sessionID);
+                messageFromAnotherInstanceReceived(this.host, sessionID);
+                return null;
+            }
 
-                if (!this.slaveSessions.containsKey(message.senderTag)) {
-                    final SessionImpl newSlaveSession = new SessionImpl(this, sessionID, this.host,
-                            message.senderTag, this.secureRandom);
-                    newSlaveSession.addOtrEngineListener(this.slaveSessionsListener);
-                    this.slaveSessions.put(message.senderTag, newSlaveSession);
-                }
-                // FIXME when to detect multiple instances and signal local user with message?
-                final SessionImpl slave = this.slaveSessions.get(message.senderTag);
-                logger.log(Level.FINEST, "Delegating to slave session for instance tag {0}",
+            // FIXME when to detect multiple instances and signal local user with message?
+            final SessionImpl slave = lockSlaveSession(message.senderTag, policy);
+            if (slave == null) {
+                return null;
+            }
+            try {
+                log(LOGGER, Level.FINEST, "{0}: Delegating to slave session for instance tag {1}", this.sessionID,
                         message.senderTag.getValue());
                 return slave.handleEncodedMessage(message);
+            } finally {
+                slave.lock.unlock();
             }
+        }
 
-            logger.log(Level.FINE, "Received message with type {0}", m.getClass());
+        this.lock.lock();
+        try {
+            log(LOGGER, Level.FINE, "{0}: Received message with type {1}", this.sessionID, m.getClass());
             if (m instanceof Fragment) {
                 return handleFragment((Fragment) m);
             } else if (m instanceof EncodedMessage) {
@@ -506,9 +718,9 @@ final class SessionImpl implements Session, Context {
                 handleErrorMessage((ErrorMessage) m);
                 return null;
             } else if (m instanceof PlainTextMessage) {
-                return handlePlainTextMessage((PlainTextMessage) m);
+                return handlePlainTextMessage((PlainTextMessage) m, policy);
             } else if (m instanceof QueryMessage) {
-                handleQueryMessage((QueryMessage) m);
+                handleQueryMessage((QueryMessage) m, policy);
                 return null;
             } else {
                 // At this point, the message m has a known type, but support was not implemented at this point in the code.
@@ -516,7 +728,143 @@ final class SessionImpl implements Session, Context {
                 // Unknown messages are caught earlier.
                 throw new UnsupportedOperationException("This message type is not supported. Support is expected to be implemented for all known message types.");
             }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get or create the slave session for the specified sender instance tag and acquire its instance lock.
+     * <p>
+     * A slave session may be evicted after it is looked up, but before its instance lock is acquired. In that case the
+     * look-up is repeated, such that the message is processed by the slave session that replaces it.
+     *
+     * @param senderTag the sender instance tag of the other party
+     * @param policy    the session policy
+     * @return Returns the slave session with its instance lock held, or null if no slave session is available. The
+     * caller must release the instance lock.
+     */
+    @Nullable
+    private SessionImpl lockSlaveSession(@Nonnull final InstanceTag senderTag, @Nonnull final OtrPolicy policy) {
+        while (true) {
+            final SessionImpl slave = getOrCreateSlaveSession(senderTag, policy);
+            if (slave == null) {
+                return null;
+            }
+            slave.lock.lock();
+            if (!slave.evicted) {
+                return slave;
+            }
+            slave.lock.unlock();
+            log(LOGGER, Level.FINE, "{0}: Instance {1} was evicted concurrently. Retrying.", this.sessionID,
+                    senderTag.getValue());
+        }
+    }
+
+    /**
+     * Get the slave session for the specified sender instance tag, or create a new slave session if it does not exist.
+     * <p>
+     * In case the instance limit is reached, the least-recently used idle slave session is evicted to make room for
+     * the new slave session. The instance limit is checked before the slave session is constructed, such that a
+     * message from a new instance that cannot be accommodated does not cause any work.
+     *
+     * @param senderTag the sender instance tag of the other party
+     * @param policy    the session policy
+     * @return Returns the slave session, or null if the instance limit is reached and no slave session can be evicted.
+     */
+    @Nullable
+    private SessionImpl getOrCreateSlaveSession(@Nonnull final InstanceTag senderTag,
+            @Nonnull final OtrPolicy policy) {
+        assert this.masterSession == this : "BUG: slave sessions are only managed by the master session.";
+        final SessionImpl evicted;
+        this.routingLock.lock();
+        try {
+            final SessionImpl existing = this.slaveSessions.access(senderTag.getValue());
+            if (existing != null) {
+                return existing;
+            }
+            if (this.slaveSessions.size() + this.pendingSlaveSessions >= policy.getInstanceLimit()) {
+                evicted = evictIdleSlaveSession();
+                if (evicted == null) {
+                    log(LOGGER, WARNING, "{0}: Instance limit reached and no instance is idle. Ignoring message from new instance {1}.",
+                            this.sessionID, senderTag.getValue());
+                    return null;
+                }
+            } else {
+                evicted = null;
+            }
+            this.pendingSlaveSessions++;
+        } finally {
+            this.routingLock.unlock();
+        }
+        if (evicted != null) {
+            this.metrics.instanceRemoved(this.sessionID);
+            evicted.removeOtrEngineListener(this.slaveSessionsListener);
+            log(LOGGER, Level.INFO, "{0}: Instance limit reached. Evicted idle instance {1} to make room for instance {2}.",
+                    this.sessionID, evicted.receiverTag.getValue(), senderTag.getValue());
+            instanceEvicted(this.listeners, this.sessionID, evicted.receiverTag);
+        }
+        // Construct the slave session outside of the routing lock, as construction queries the host for the client
+        // profile. The slot for the slave session is reserved above. The slave session is published only if no other
+        // thread published one for the same instance in the mean time.
+        SessionImpl slave = null;
+        try {
+            slave = new SessionImpl(this, sessionID, this.host, senderTag, this.randomSource);
+            slave.addOtrEngineListener(this.slaveSessionsListener);
+        } finally {
+            if (slave == null) {
+                this.routingLock.lock();
+                try {
+                    this.pendingSlaveSessions--;
+                } finally {
+                    this.routingLock.unlock();
+                }
+            }
+        }
+        this.routingLock.lock();
+        try {
+            this.pendingSlaveSessions--;
+            final SessionImpl existing = this.slaveSessions.access(senderTag.getValue());
+            if (existing != null) {
+                slave.removeOtrEngineListener(this.slaveSessionsListener);
+                return existing;
+            }
+            this.slaveSessions.put(senderTag.getValue(), slave);
+        } finally {
+            this.routingLock.unlock();
+        }
+        this.metrics.instanceCreated(this.sessionID);
+        return slave;
+    }
+
+    /**
+     * Evict the least-recently used idle slave session. A slave session is idle if it is in plaintext state without a
+     * key exchange in progress, and it is not the outgoing session.
+     * <p>
+     * The instance lock of a slave session precedes the routing lock in the lock order. Therefore the slave's instance
+     * lock is only tried. A slave session that is currently processing a message is not idle.
+     *
+     * @return Returns the evicted slave session, or null if no slave session is idle.
+     */
+    @GuardedBy("masterSession.routingLock")
+    @Nullable
+    private SessionImpl evictIdleSlaveSession() {
+        for (final SessionImpl candidate : this.slaveSessions.values()) {
+            if (candidate == this.outgoingSession || !candidate.lock.tryLock()) {
+                continue;
+            }
+            try {
+                final State state = candidate.sessionState;
+                if (state instanceof StatePlaintext && state.getAuthState() instanceof StateInitial) {
+                    this.slaveSessions.remove(candidate.receiverTag.getValue());
+                    candidate.evicted = true;
+                    return candidate;
+                }
+            } finally {
+                candidate.lock.unlock();
+            }
         }
+        return null;
     }
 
     /**
@@ -526,46 +874,45 @@ final class SessionImpl implements Session, Context {
      * @return Returns assembled and processed result of message fragment, in case fragment is final fragment. Or return
      * null in case fragment is not the last fragment and processing is delayed until remaining fragments are received.
      */
-    @GuardedBy("masterSession")
     @Nullable
     private String handleFragment(@Nonnull final Fragment fragment) throws OtrException {
-        assert this.masterSession != this || fragment.getVersion() == TWO
-            : "BUG: Expect to only handle OTRv2 message fragments on master session. All other fragments should be handled on dedicated slave session.";
-        final String reassembledText;
+        this.lock.lock();
         try {
-            reassembledText = assembler.accumulate(fragment);
-            if (reassembledText == null) {
-                logger.log(Level.FINEST, "Fragment received, but message is still incomplete.");
+            assert this.masterSession != this || fragment.getVersion() == TWO
+                : "BUG: Expect to only handle OTRv2 message fragments on master session. All other fragments should be handled on dedicated slave session.";
+            final EncodedMessage message;
+            try (OtrTracer.Span ignored = this.tracer.start(ASSEMBLE_FRAGMENT, this.sessionID, this.receiverTag)) {
+                final boolean pending = this.assembler.size() > 0;
+                // The assembler decodes the fragments as they arrive, so the completed message need not be parsed.
+                message = assembler.accumulate(fragment, getSessionPolicy(), System.nanoTime());
+                this.metrics.fragmentAssembled(this.sessionID);
+                if (message == null) {
+                    log(LOGGER, Level.FINEST, "{0}: Fragment received, but message is still incomplete.", this.sessionID);
+                    if (!pending) {
+                        notifyDeadlineChanged();
+                    }
+                    return null;
+                }
+            } catch (final ProtocolException e) {
+                log(LOGGER, Level.FINE, "{0}: Rejected message fragment from sender instance {1}", this.sessionID,
+                        fragment.getSenderTag().getValue(), e);
+                this.metrics.fragmentDropped(this.sessionID);
                 return null;
             }
-        } catch (final ProtocolException e) {
-            logger.log(Level.FINE, "Rejected message fragment from sender instance "
-                    + fragment.getSenderTag().getValue(), e);
-            return null;
-        }
-        final EncodedMessage message;
-        try {
-            final Message m = parseMessage(reassembledText);
-            if (!(m instanceof EncodedMessage)) {
-                logger.fine("Expected fragments to combine into an encoded message, but was something else. "
-                        + m.getClass().getName());
+            // There is no good reason why the reassembled message should have any other protocol version, sender
+            // instance tag or receiver instance tag than the fragments themselves. For now, be safe and drop any
+            // inconsistencies to ensure that the inconsistencies cannot be exploited.
+            // TODO write unit test for fragment payload containing different metadata from fragment's metadata.
+            if (message.version != fragment.getVersion() || !message.senderTag.equals(fragment.getSenderTag())
+                    || !message.receiverTag.equals(fragment.getReceiverTag())) {
+                log(LOGGER, Level.INFO, "{0}: Inconsistent OTR-encoded message: message contains different protocol version, sender tag or receiver tag than last received fragment. Message is ignored.",
+                        this.sessionID);
                 return null;
             }
-            message = (EncodedMessage) m;
-        } catch (final ProtocolException e) {
-            logger.log(WARNING, "Reassembled message violates the OTR protocol for encoded messages.", e);
-            return null;
-        }
-        // There is no good reason why the reassembled message should have any other protocol version, sender
-        // instance tag or receiver instance tag than the fragments themselves. For now, be safe and drop any
-        // inconsistencies to ensure that the inconsistencies cannot be exploited.
-        // TODO write unit test for fragment payload containing different metadata from fragment's metadata.
-        if (message.version != fragment.getVersion() || !message.senderTag.equals(fragment.getSenderTag())
-                || !message.receiverTag.equals(fragment.getReceiverTag())) {
-            logger.log(Level.INFO, "Inconsistent OTR-encoded message: message contains different protocol version, sender tag or receiver tag than last received fragment. Message is ignored.");
-            return null;
+            return handleEncodedMessage(message);
+        } finally {
+            this.lock.unlock();
         }
-        return handleEncodedMessage(message);
     }
 
     /**
@@ -575,85 +922,123 @@ final class SessionImpl implements Session, Context {
      * @return Returns result of handling message, typically decrypting encoded messages or null if no presentable result.
      * @throws OtrException In case of failure to process.
      */
-    @GuardedBy("masterSession")
     @Nullable
     private String handleEncodedMessage(@Nonnull final EncodedMessage message) throws OtrException {
-        assert this.masterSession != this || message.version == TWO : "BUG: We should not process encoded message in master session for protocol version 3 or higher.";
-        assert !ZERO_TAG.equals(message.senderTag) : "BUG: No encoded message without sender instance tag should reach this point.";
-        // TODO We've started replicating current (auth)State in *all* cases where a new slave session is created. Is this indeed correct? Probably is, but needs focused verification.
-        if (message.version == THREE && checkDHKeyMessage(message)) {
-            // Copy state to slave session, as this is the earliest moment that we know the instance tag of the other party.
-            // FIXME evaluate whether this screws things up in case we *do* know the receiver instance tag in advance, as we would be copying an outdated authentication-state instance.
-            synchronized (this.masterSession.masterSession) {
-                this.sessionState.setAuthState(this.masterSession.sessionState.getAuthState());
+        this.lock.lock();
+        try {
+            assert this.masterSession != this || message.version == TWO : "BUG: We should not process encoded message in master session for protocol version 3 or higher.";
+            assert !ZERO_TAG.equals(message.senderTag) : "BUG: No encoded message without sender instance tag should reach this point.";
+            // TODO We've started replicating current (auth)State in *all* cases where a new slave session is created. Is this indeed correct? Probably is, but needs focused verification.
+            if (message.version == THREE && checkDHKeyMessage(message)) {
+                // Copy state to slave session, as this is the earliest moment that we know the instance tag of the other party.
+                // FIXME evaluate whether this screws things up in case we *do* know the receiver instance tag in advance, as we would be copying an outdated authentication-state instance.
+                // Acquire the master session's instance lock, in accordance with the lock order.
+                this.masterSession.lock.lock();
+                try {
+                    this.sessionState.setAuthState(this.masterSession.sessionState.getAuthState());
+                    this.keyExchangeStarted = this.masterSession.keyExchangeStarted;
+                } finally {
+                    this.masterSession.lock.unlock();
+                }
+            } else if (checkAuthRMessage(message)) {
+                assert this != this.masterSession : "We expected to be working inside a slave session instead of a master session.";
+                // Copy state to slave session, as this is the earliest moment that we know the instance tag of the other party.
+                // FIXME We now copy the state whenever an Auth-R message is received. Will this screw with running encrypted sessions? (in unexpected ways, for example sudden transition to plaintext)
+                this.masterSession.lock.lock();
+                try {
+                    this.sessionState = this.masterSession.sessionState;
+                    this.keyExchangeStarted = this.masterSession.keyExchangeStarted;
+                } finally {
+                    this.masterSession.lock.unlock();
+                }
             }
-        } else if (checkAuthRMessage(message)) {
-            assert this != this.masterSession : "We expected to be working inside a slave session instead of a master session.";
-            // Copy state to slave session, as this is the earliest moment that we know the instance tag of the other party.
-            // FIXME We now copy the state whenever an Auth-R message is received. Will this screw with running encrypted sessions? (in unexpected ways, for example sudden transition to plaintext)
-            synchronized (this.masterSession.masterSession) {
-                this.sessionState = this.masterSession.sessionState;
+            final String result = this.sessionState.handleEncodedMessage(this, message);
+            if (this.outboundQueueFlushPending) {
+                // Queued messages are sent only after the AKE reply is injected, such that the other party completes
+                // the AKE before it receives the data messages.
+                this.outboundQueueFlushPending = false;
+                flushOutboundQueue();
             }
+            return result;
+        } finally {
+            this.lock.unlock();
         }
-        return this.sessionState.handleEncodedMessage(this, message);
     }
 
-    @GuardedBy("masterSession")
-    private void handleQueryMessage(@Nonnull final QueryMessage queryMessage) throws OtrException {
+    @GuardedBy("lock")
+    private void handleQueryMessage(@Nonnull final QueryMessage queryMessage, @Nonnull final OtrPolicy policy)
+            throws OtrException {
         assert this.masterSession == this : "BUG: handleQueryMessage should only ever be called from the master session, as no instance tags are known.";
-        logger.log(Level.FINEST, "{0} received a query message from {1} through {2}.",
-                new Object[]{this.sessionID.getAccountID(), this.sessionID.getUserID(), this.sessionID.getProtocolName()});
+        log(LOGGER, Level.FINEST, "{0}: Received a query message.", this.sessionID);
 
-        final OtrPolicy policy = getSessionPolicy();
         if (queryMessage.getVersions().contains(FOUR) && policy.isAllowV4()) {
-            logger.finest("Query message with V4 support found. Sending Identity Message.");
+            log(LOGGER, Level.FINEST, "{0}: Query message with V4 support found. Sending Identity Message.",
+                    this.sessionID);
             respondAuth(FOUR, ZERO_TAG);
         } else if (queryMessage.getVersions().contains(THREE) && policy.isAllowV3()) {
-            logger.finest("Query message with V3 support found. Sending D-H Commit Message.");
+            log(LOGGER, Level.FINEST, "{0}: Query message with V3 support found. Sending D-H Commit Message.",
+                    this.sessionID);
             respondAuth(THREE, ZERO_TAG);
         } else if (queryMessage.getVersions().contains(TWO) && policy.isAllowV2()) {
-            logger.finest("Query message with V2 support found. Sending D-H Commit Message.");
+            log(LOGGER, Level.FINEST, "{0}: Query message with V2 support found. Sending D-H Commit Message.",
+                    this.sessionID);
             respondAuth(TWO, ZERO_TAG);
         } else {
-            logger.info("Query message received, but none of the versions are acceptable. They are either excluded by policy or through lack of support.");
+            log(LOGGER, Level.INFO, "{0}: Query message received, but none of the versions are acceptable. They are either excluded by policy or through lack of support.",
+                    this.sessionID);
         }
     }
 
-    @GuardedBy("masterSession")
+    @GuardedBy("lock")
     private void handleErrorMessage(@Nonnull final ErrorMessage errorMessage)
             throws OtrException {
         assert this.masterSession == this : "BUG: handleErrorMessage should only ever be called from the master session, as no instance tags are known.";
-        logger.log(Level.FINEST, "{0} received an error message from {1} through {2}.",
-                new Object[]{this.sessionID.getAccountID(), this.sessionID.getUserID(), this.sessionID.getProtocolName()});
+        log(LOGGER, Level.FINEST, "{0}: Received an error message.", this.sessionID);
         this.sessionState.handleErrorMessage(this, errorMessage);
     }
 
     @Override
     public void injectMessage(@Nonnull final Message m) throws OtrException {
-        synchronized (this.masterSession) {
+        this.lock.lock();
+        try {
             final String serialized = writeMessage(m);
-            final String[] fragments;
-            if (m instanceof QueryMessage) {
-                assert this.masterSession == this : "Expected query messages to only be sent from Master session!";
-                assert !(m instanceof PlainTextMessage)
-                        : "PlainText messages (with possible whitespace tag) should not end up here. We should not append the fallback message to a whitespace-tagged plaintext message.";
-                final int spaceForFallbackMessage = host.getMaxFragmentSize(this.sessionID) - 1 - serialized.length();
-                fragments = new String[] {serialized + ' ' + getFallbackMessage(this.sessionID, spaceForFallbackMessage)};
-            } else if (m instanceof AbstractEncodedMessage) {
-                final AbstractEncodedMessage encoded = (AbstractEncodedMessage) m;
-                try {
-                    fragments = this.fragmenter.fragment(encoded.protocolVersion, encoded.senderTag.getValue(),
-                            encoded.receiverTag.getValue(), serialized);
-                } catch (final ProtocolException e) {
-                    throw new OtrException("Failed to fragment OTR-encoded message to specified protocol parameters.", e);
+            try (OtrTracer.Span ignored = this.tracer.start(HOST_INJECT_MESSAGE, this.sessionID, this.receiverTag)) {
+                if (m instanceof QueryMessage) {
+                    assert this.masterSession == this : "Expected query messages to only be sent from Master session!";
+                    assert !(m instanceof PlainTextMessage)
+                            : "PlainText messages (with possible whitespace tag) should not end up here. We should not append the fallback message to a whitespace-tagged plaintext message.";
+                    final int spaceForFallbackMessage = host.getMaxFragmentSize(this.sessionID) - 1 - serialized.length();
+                    this.injector.accept(serialized + ' ' + getFallbackMessage(this.sessionID, spaceForFallbackMessage));
+                } else if (m instanceof AbstractEncodedMessage) {
+                    final AbstractEncodedMessage encoded = (AbstractEncodedMessage) m;
+                    try {
+                        // Fragments are injected as they are created, without collecting them first.
+                        this.fragmenter.fragment(encoded.protocolVersion, encoded.senderTag.getValue(),
+                                encoded.receiverTag.getValue(), serialized, this.injector);
+                    } catch (final ProtocolException e) {
+                        throw new OtrException("Failed to fragment OTR-encoded message to specified protocol parameters.", e);
+                    }
+                } else {
+                    this.injector.accept(serialized);
                 }
-            } else {
-                fragments = new String[] {serialized};
-            }
-            for (final String fragment : fragments) {
-                this.host.injectMessage(this.sessionID, fragment);
             }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Report messages that are sent, or are returned to the host to be sent.
+     *
+     * @param messages the messages
+     * @return Returns the same messages.
+     */
+    @Nonnull
+    private String[] reportSent(@Nonnull final String[] messages) {
+        for (final String message : messages) {
+            this.metrics.messageSent(this.sessionID, message.length());
         }
+        return messages;
     }
 
     @Nonnull
@@ -671,53 +1056,89 @@ final class SessionImpl implements Session, Context {
         return fallback;
     }
 
-    @GuardedBy("masterSession")
+    /**
+     * Handle plaintext that contains neither an OTR header nor a whitespace tag.
+     * <p>
+     * Without an encrypted session, the text is returned as-is without allocating a plaintext message. Other states
+     * need to warn the user for unencrypted messages and are handled as any other plaintext message.
+     *
+     * @param msgText the message text
+     * @param policy  the session policy
+     * @return Returns the message text.
+     */
+    @Nonnull
+    private String handleUnmarkedPlainText(@Nonnull final String msgText, @Nonnull final OtrPolicy policy) {
+        this.masterSession.routingLock.lock();
+        try {
+            if (offerStatus == OfferStatus.SENT) {
+                offerStatus = OfferStatus.REJECTED;
+            }
+        } finally {
+            this.masterSession.routingLock.unlock();
+        }
+        this.lock.lock();
+        try {
+            if (this.sessionState.getStatus() == PLAINTEXT) {
+                return msgText;
+            }
+            return handlePlainTextMessage(new PlainTextMessage(Collections.<Integer>emptySet(), msgText), policy);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @GuardedBy("lock")
     @Nonnull
-    private String handlePlainTextMessage(@Nonnull final PlainTextMessage plainTextMessage) {
+    private String handlePlainTextMessage(@Nonnull final PlainTextMessage plainTextMessage,
+            @Nonnull final OtrPolicy policy) {
         assert this.masterSession == this : "BUG: handlePlainTextMessage should only ever be called from the master session, as no instance tags are known.";
-        logger.log(Level.FINEST, "{0} received a plaintext message from {1} through {2}.",
-                new Object[]{this.sessionID.getAccountID(), this.sessionID.getUserID(), this.sessionID.getProtocolName()});
+        log(LOGGER, Level.FINEST, "{0}: Received a plaintext message.", this.sessionID);
         final String messagetext = this.sessionState.handlePlainTextMessage(this, plainTextMessage);
         if (plainTextMessage.getVersions().isEmpty()) {
-            logger.finest("Received plaintext message without the whitespace tag.");
+            log(LOGGER, Level.FINEST, "{0}: Received plaintext message without the whitespace tag.", this.sessionID);
         } else {
-            logger.finest("Received plaintext message with the whitespace tag.");
-            handleWhitespaceTag(plainTextMessage);
+            log(LOGGER, Level.FINEST, "{0}: Received plaintext message with the whitespace tag.", this.sessionID);
+            handleWhitespaceTag(plainTextMessage, policy);
         }
         return messagetext;
     }
 
-    @GuardedBy("masterSession")
-    private void handleWhitespaceTag(@Nonnull final PlainTextMessage plainTextMessage) {
-        final OtrPolicy policy = getSessionPolicy();
+    @GuardedBy("lock")
+    private void handleWhitespaceTag(@Nonnull final PlainTextMessage plainTextMessage,
+            @Nonnull final OtrPolicy policy) {
         if (!policy.isWhitespaceStartAKE()) {
             // no policy w.r.t. starting AKE on whitespace tag
             return;
         }
-        logger.finest("WHITESPACE_START_AKE is set, processing whitespace-tagged message.");
+        log(LOGGER, Level.FINEST, "{0}: WHITESPACE_START_AKE is set, processing whitespace-tagged message.",
+                this.sessionID);
         if (plainTextMessage.getVersions().contains(FOUR) && policy.isAllowV4()) {
-            logger.finest("V4 tag found. Sending Identity Message.");
+            log(LOGGER, Level.FINEST, "{0}: V4 tag found. Sending Identity Message.", this.sessionID);
             try {
                 respondAuth(FOUR, ZERO_TAG);
             } catch (final OtrException e) {
-                logger.log(WARNING, "An exception occurred while constructing and sending Identity message. (OTRv4)", e);
+                log(LOGGER, WARNING, "{0}: An exception occurred while constructing and sending Identity message. (OTRv4)",
+                        this.sessionID, e);
             }
         } else if (plainTextMessage.getVersions().contains(THREE) && policy.isAllowV3()) {
-            logger.finest("V3 tag found. Sending D-H Commit Message.");
+            log(LOGGER, Level.FINEST, "{0}: V3 tag found. Sending D-H Commit Message.", this.sessionID);
             try {
                 respondAuth(THREE, ZERO_TAG);
             } catch (final OtrException e) {
-                logger.log(WARNING, "An exception occurred while constructing and sending DH commit message. (OTRv3)", e);
+                log(LOGGER, WARNING, "{0}: An exception occurred while constructing and sending DH commit message. (OTRv3)",
+                        this.sessionID, e);
             }
         } else if (plainTextMessage.getVersions().contains(TWO) && policy.isAllowV2()) {
-            logger.finest("V2 tag found. Sending D-H Commit Message.");
+            log(LOGGER, Level.FINEST, "{0}: V2 tag found. Sending D-H Commit Message.", this.sessionID);
             try {
                 respondAuth(TWO, ZERO_TAG);
             } catch (final OtrException e) {
-                logger.log(WARNING, "An exception occurred while constructing and sending DH commit message. (OTRv2)", e);
+                log(LOGGER, WARNING, "{0}: An exception occurred while constructing and sending DH commit message. (OTRv2)",
+                        this.sessionID, e);
             }
         } else {
-            logger.info("Message with whitespace tags received, but none of the tags are useful. They are either excluded by policy or by lack of support.");
+            log(LOGGER, Level.INFO, "{0}: Message with whitespace tags received, but none of the tags are useful. They are either excluded by policy or by lack of support.",
+                    this.sessionID);
         }
     }
 
@@ -732,9 +1153,7 @@ final class SessionImpl implements Session, Context {
     @Override
     @Nonnull
     public String[] transformSending(@Nonnull final String msgText) throws OtrException {
-        synchronized (this.masterSession) {
-            return this.transformSending(msgText, Collections.<TLV>emptyList());
-        }
+        return this.transformSending(msgText, Collections.<TLV>emptyList());
     }
 
     /**
@@ -750,25 +1169,279 @@ final class SessionImpl implements Session, Context {
     @Nonnull
     public String[] transformSending(@Nonnull final String msgText, @Nonnull final Iterable<TLV> tlvs)
             throws OtrException {
-        synchronized (this.masterSession) {
-            if (masterSession == this && outgoingSession != this) {
-                return outgoingSession.transformSending(msgText, tlvs);
+        final SessionImpl outgoing = getOutgoingSession();
+        if (outgoing != this) {
+            return outgoing.transformSending(msgText, tlvs);
+        }
+        this.lock.lock();
+        try {
+            return transformSendingLocked(msgText, tlvs);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Transform a batch of messages to be sent.
+     * <p>
+     * The outgoing session is selected once and all messages are transformed while holding its instance lock only
+     * once. Session status notifications that result from transforming the batch are coalesced: listeners are notified
+     * once per session instance, after all messages are transformed.
+     *
+     * @param messages the (normal) message contents
+     * @return Returns the (array of) messages to be sent over IM network, per message in the same order as the
+     * messages.
+     * @throws OtrException In case of failure to transform any of the messages. None of the batch's messages should
+     *                      be considered sent.
+     */
+    @Override
+    @Nonnull
+    public List<String[]> transformSending(@Nonnull final List<String> messages) throws OtrException {
+        final SessionImpl outgoing = getOutgoingSession();
+        if (outgoing != this) {
+            return outgoing.transformSending(messages);
+        }
+        final ArrayList<String[]> results = new ArrayList<>(messages.size());
+        final boolean outermost = deferSessionStatusChanges();
+        try {
+            this.lock.lock();
+            try {
+                for (final String message : messages) {
+                    results.add(transformSendingLocked(message, Collections.<TLV>emptyList()));
+                }
+            } finally {
+                this.lock.unlock();
             }
-            final Message m = this.sessionState.transformSending(this, msgText, tlvs, FLAG_NONE);
-            if (m == null) {
-                return new String[0];
+        } finally {
+            if (outermost) {
+                flushSessionStatusChanges();
             }
-            final String serialized = writeMessage(m);
-            if (m instanceof AbstractEncodedMessage) {
-                final AbstractEncodedMessage encoded = (AbstractEncodedMessage) m;
-                try {
-                    return this.fragmenter.fragment(encoded.protocolVersion, encoded.senderTag.getValue(),
-                            encoded.receiverTag.getValue(), serialized);
-                } catch (final ProtocolException e) {
-                    throw new OtrException("Failed to fragment message according to protocol parameters.", e);
+        }
+        return results;
+    }
+
+    /**
+     * Transform message to be sent, and write it directly into the provided destination.
+     * <p>
+     * The message is not fragmented. The length of the encrypted message is checked against the maximum fragment size
+     * before the message is encrypted, such that a message that is too long does not consume any key material.
+     *
+     * @param destination the destination
+     * @param msgText     the (normal) message content
+     * @param tlvs        TLV items (must not be null, may be an empty list)
+     * @return Returns true iff the message is written, or false if the message is queued.
+     * @throws OtrException In case of failure to transform the message, in case the message requires fragmentation, or
+     *                      in case of failure to write to the destination.
+     */
+    @Override
+    public boolean transformSending(@Nonnull final Appendable destination, @Nonnull final String msgText,
+            @Nonnull final Iterable<TLV> tlvs) throws OtrException {
+        requireNonNull(destination);
+        final SessionImpl outgoing = getOutgoingSession();
+        if (outgoing != this) {
+            return outgoing.transformSending(destination, msgText, tlvs);
+        }
+        this.lock.lock();
+        try {
+            if (this.sessionState instanceof StateEncrypted) {
+                final int encodedLength = encodedMessageLength(
+                        ((StateEncrypted) this.sessionState).encodedDataMessageLength(msgText, tlvs));
+                if (this.fragmenter.requiresFragmentation(encodedLength)) {
+                    throw new OtrException("Message exceeds the maximum fragment size. Fragmented messages cannot be written to a single destination.");
                 }
             }
-            return new String[] {serialized};
+            final Message m = prepareSending(msgText, tlvs);
+            if (m == null) {
+                return false;
+            }
+            final int length = writeMessageTo(m, destination);
+            this.metrics.messageSent(this.sessionID, length);
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Write the message into the destination. Messages are written directly into a StringBuilder destination.
+     * Otherwise, the message is written into a builder first, which is then appended to the destination.
+     *
+     * @param m           the message
+     * @param destination the destination
+     * @return Returns the number of characters written.
+     * @throws OtrException In case of failure to write to the destination.
+     */
+    private static int writeMessageTo(@Nonnull final Message m, @Nonnull final Appendable destination)
+            throws OtrException {
+        if (destination instanceof StringBuilder) {
+            return writeMessage(m, (StringBuilder) destination);
+        }
+        final StringBuilder builder = new StringBuilder();
+        final int length = writeMessage(m, builder);
+        try {
+            destination.append(builder);
+        } catch (final IOException e) {
+            throw new OtrException("Failed to write message to destination.", e);
+        }
+        return length;
+    }
+
+    @GuardedBy("lock")
+    @Nonnull
+    private String[] transformSendingLocked(@Nonnull final String msgText, @Nonnull final Iterable<TLV> tlvs)
+            throws OtrException {
+        final Message m = prepareSending(msgText, tlvs);
+        if (m == null) {
+            return new String[0];
+        }
+        final String serialized = writeMessage(m);
+        if (m instanceof AbstractEncodedMessage) {
+            final AbstractEncodedMessage encoded = (AbstractEncodedMessage) m;
+            try {
+                return reportSent(this.fragmenter.fragment(encoded.protocolVersion, encoded.senderTag.getValue(),
+                        encoded.receiverTag.getValue(), serialized));
+            } catch (final ProtocolException e) {
+                throw new OtrException("Failed to fragment message according to protocol parameters.", e);
+            }
+        }
+        return reportSent(new String[] {serialized});
+    }
+
+    /**
+     * Transform the message to be sent according to the current message state.
+     *
+     * @param msgText the (normal) message content
+     * @param tlvs    TLV items
+     * @return Returns the message to be sent, or null if the message is queued until an encrypted session is
+     * established.
+     * @throws OtrException In case of failure to transform or queue the message.
+     */
+    @GuardedBy("lock")
+    @Nullable
+    private Message prepareSending(@Nonnull final String msgText, @Nonnull final Iterable<TLV> tlvs)
+            throws OtrException {
+        if (this.sessionState.getStatus() == PLAINTEXT && hasQueuedMessages()
+                && getSessionPolicy().isRequireEncryption()) {
+            // Earlier messages already wait for the encrypted session. Queue this message as well, such that the order
+            // of messages is preserved and no additional AKE is initiated.
+            requireEncryptedMessage(this.host, this.sessionID, msgText);
+            queueMessage(msgText, tlvs);
+            return null;
+        }
+        final Message m = this.sessionState.transformSending(this, msgText, tlvs, FLAG_NONE);
+        if (m == null) {
+            // The message state withholds the message until an encrypted session is established.
+            queueMessage(msgText, tlvs);
+        }
+        return m;
+    }
+
+    private boolean hasQueuedMessages() {
+        this.masterSession.routingLock.lock();
+        try {
+            return !this.masterSession.outboundQueue.isEmpty();
+        } finally {
+            this.masterSession.routingLock.unlock();
+        }
+    }
+
+    /**
+     * Queue a message for transmission once an encrypted session is established. Messages are only queued if the
+     * session policy specifies a budget for the outbound message queue.
+     *
+     * @param msgText the message text
+     * @param tlvs    the TLVs to be sent with the message
+     * @throws OtrException In case the message could not be queued due to the queue's budget.
+     */
+    @GuardedBy("lock")
+    private void queueMessage(@Nonnull final String msgText, @Nonnull final Iterable<TLV> tlvs)
+            throws OtrException {
+        final OtrPolicy policy = getSessionPolicy();
+        if (policy.getMessageQueueBudget() == 0) {
+            return;
+        }
+        this.masterSession.routingLock.lock();
+        try {
+            this.masterSession.outboundQueue.add(msgText, tlvs, policy.getMessageQueueBudget(),
+                    policy.getMessageQueueOverflow());
+        } finally {
+            this.masterSession.routingLock.unlock();
+        }
+    }
+
+    /**
+     * Send all queued messages through this (just encrypted) session instance. The resulting data messages are handed
+     * to the host together. The queue is flushed after handling the encoded message that completed the AKE, i.e. after
+     * any AKE reply is injected.
+     */
+    @GuardedBy("lock")
+    private void flushOutboundQueue() {
+        final List<OutboundQueue.Entry> queued;
+        this.masterSession.routingLock.lock();
+        try {
+            queued = this.masterSession.outboundQueue.drain();
+        } finally {
+            this.masterSession.routingLock.unlock();
+        }
+        if (queued.isEmpty()) {
+            return;
+        }
+        log(LOGGER, Level.FINE, "{0}: Sending {1} queued messages.", this.sessionID, queued.size());
+        final List<String> fragments = new ArrayList<>();
+        for (final OutboundQueue.Entry entry : queued) {
+            try {
+                Collections.addAll(fragments, transformSendingLocked(entry.msgText, entry.tlvs));
+            } catch (final OtrException e) {
+                log(LOGGER, WARNING, "{0}: Failed to send queued message.", this.sessionID, e);
+            }
+        }
+        try (OtrTracer.Span ignored = this.tracer.start(HOST_INJECT_MESSAGE, this.sessionID, this.receiverTag)) {
+            if (this.host instanceof BatchEngineHost) {
+                ((BatchEngineHost) this.host).injectMessages(singletonMap(this.sessionID, fragments));
+                return;
+            }
+            for (final String fragment : fragments) {
+                this.host.injectMessage(this.sessionID, fragment);
+            }
+        }
+    }
+
+    /**
+     * Notify listeners of a change in session status of this session instance. In case the current thread is
+     * processing a batch, the notification is deferred until the batch is completed.
+     */
+    private void notifySessionStatusChanged() {
+        final Set<SessionImpl> deferred = DEFERRED_STATUS_CHANGES.get();
+        if (deferred == null) {
+            sessionStatusChanged(this.listeners, this.sessionID, this.receiverTag);
+        } else {
+            deferred.add(this);
+        }
+    }
+
+    /**
+     * Start deferring session status notifications for the current thread.
+     *
+     * @return Returns true if this is the outermost batch, i.e. the caller is responsible for flushing deferred
+     * notifications.
+     */
+    private static boolean deferSessionStatusChanges() {
+        if (DEFERRED_STATUS_CHANGES.get() != null) {
+            return false;
+        }
+        DEFERRED_STATUS_CHANGES.set(new LinkedHashSet<SessionImpl>());
+        return true;
+    }
+
+    /**
+     * Stop deferring session status notifications for the current thread and notify listeners once for every session
+     * instance that changed status.
+     */
+    private static void flushSessionStatusChanges() {
+        final Set<SessionImpl> deferred = DEFERRED_STATUS_CHANGES.get();
+        DEFERRED_STATUS_CHANGES.remove();
+        for (final SessionImpl instance : deferred) {
+            sessionStatusChanged(instance.listeners, instance.sessionID, instance.receiverTag);
         }
     }
 
@@ -780,12 +1453,15 @@ final class SessionImpl implements Session, Context {
      */
     @Override
     public void startSession() throws OtrException {
-        synchronized (this.masterSession) {
+        this.lock.lock();
+        try {
             if (this.getSessionStatus() == ENCRYPTED) {
-                logger.info("startSession was called, however an encrypted session is already established.");
+                log(LOGGER, Level.INFO, "{0}: startSession was called, however an encrypted session is already established.",
+                        this.sessionID);
                 return;
             }
-            logger.finest("Enquiring to start Authenticated Key Exchange, sending query message");
+            log(LOGGER, Level.FINEST, "{0}: Enquiring to start Authenticated Key Exchange, sending query message",
+                    this.sessionID);
             final OtrPolicy policy = this.getSessionPolicy();
             final Set<Integer> allowedVersions = OtrPolicys.allowedVersions(policy);
             if (allowedVersions.isEmpty()) {
@@ -793,6 +1469,8 @@ final class SessionImpl implements Session, Context {
             }
             final QueryMessage queryMessage = new QueryMessage(allowedVersions);
             injectMessage(queryMessage);
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -804,12 +1482,16 @@ final class SessionImpl implements Session, Context {
      */
     @Override
     public void endSession() throws OtrException {
-        synchronized (this.masterSession) {
-            if (this != outgoingSession) {
-                outgoingSession.endSession();
-                return;
-            }
+        final SessionImpl outgoing = getOutgoingSession();
+        if (outgoing != this) {
+            outgoing.endSession();
+            return;
+        }
+        this.lock.lock();
+        try {
             this.sessionState.end(this);
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -828,11 +1510,13 @@ final class SessionImpl implements Session, Context {
      */
     @Override
     public void refreshSession() throws OtrException {
-        synchronized (this.masterSession) {
-            if (this.outgoingSession != this) {
-                this.outgoingSession.refreshSession();
-                return;
-            }
+        final SessionImpl outgoing = getOutgoingSession();
+        if (outgoing != this) {
+            outgoing.refreshSession();
+            return;
+        }
+        this.lock.lock();
+        try {
             final int version = this.sessionState.getVersion();
             this.sessionState.end(this);
             if (version == 0) {
@@ -840,42 +1524,35 @@ final class SessionImpl implements Session, Context {
             } else {
                 respondAuth(version, this.receiverTag);
             }
+        } finally {
+            this.lock.unlock();
         }
     }
 
     @Override
     @Nonnull
     public DSAPublicKey getRemotePublicKey() throws IncorrectStateException {
-        synchronized (this.masterSession) {
-            if (this != outgoingSession) {
-                return outgoingSession.getRemotePublicKey();
-            }
-            return this.sessionState.getRemotePublicKey();
+        final SessionImpl outgoing = getOutgoingSession();
+        if (outgoing != this) {
+            return outgoing.getRemotePublicKey();
         }
+        return this.sessionState.getRemotePublicKey();
     }
 
     @Override
     public void addOtrEngineListener(@Nonnull final OtrEngineListener l) {
-        synchronized (this.masterSession) {
-            if (!listeners.contains(l)) {
-                listeners.add(l);
-            }
-        }
+        this.listeners.addIfAbsent(requireNonNull(l));
     }
 
     @Override
     public void removeOtrEngineListener(@Nonnull final OtrEngineListener l) {
-        synchronized (this.masterSession) {
-            listeners.remove(l);
-        }
+        this.listeners.remove(l);
     }
 
     @Override
     @Nonnull
     public OtrPolicy getSessionPolicy() {
-        synchronized (this.masterSession) {
-            return this.host.getSessionPolicy(this.sessionID);
-        }
+        return this.host.getSessionPolicy(this.sessionID);
     }
 
     @Override
@@ -901,9 +1578,7 @@ final class SessionImpl implements Session, Context {
      */
     @Override
     public int getProtocolVersion() {
-        synchronized (this.masterSession) {
-            return this.sessionState.getVersion();
-        }
+        return this.sessionState.getVersion();
     }
 
     /**
@@ -916,12 +1591,15 @@ final class SessionImpl implements Session, Context {
     @Override
     @Nonnull
     public List<SessionImpl> getInstances() {
-        synchronized (this.masterSession) {
-            assert this == this.masterSession : "BUG: expected this method to be called from master session only.";
+        assert this == this.masterSession : "BUG: expected this method to be called from master session only.";
+        this.masterSession.routingLock.lock();
+        try {
             final List<SessionImpl> result = new ArrayList<>();
             result.add(this);
             result.addAll(slaveSessions.values());
             return result;
+        } finally {
+            this.masterSession.routingLock.unlock();
         }
     }
 
@@ -932,23 +1610,26 @@ final class SessionImpl implements Session, Context {
      */
     @Override
     public void setOutgoingSession(@Nonnull final InstanceTag tag) {
-        synchronized (this.masterSession) {
-            if (masterSession != this) {
-                // Only master session can set the outgoing session.
-                throw new UnsupportedOperationException("Only master session is allowed to set/change the outgoing session instance.");
-            }
+        if (masterSession != this) {
+            // Only master session can set the outgoing session.
+            throw new UnsupportedOperationException("Only master session is allowed to set/change the outgoing session instance.");
+        }
+        this.masterSession.routingLock.lock();
+        try {
             if (tag.equals(this.receiverTag)) {
                 outgoingSession = this;
-                outgoingSessionChanged(duplicate(listeners), this.sessionID);
-                return;
-            }
-            final SessionImpl newActiveSession = slaveSessions.get(tag);
-            if (newActiveSession == null) {
-                throw new IllegalArgumentException("No slave session exists with provided instance tag.");
+            } else {
+                final SessionImpl newActiveSession = slaveSessions.get(tag.getValue());
+                if (newActiveSession == null) {
+                    throw new IllegalArgumentException("No slave session exists with provided instance tag.");
+                }
+                outgoingSession = newActiveSession;
             }
-            outgoingSession = newActiveSession;
-            outgoingSessionChanged(duplicate(listeners), this.sessionID);
+        } finally {
+            this.masterSession.routingLock.unlock();
         }
+        // Listeners are notified after releasing the routing lock.
+        outgoingSessionChanged(this.listeners, this.sessionID);
     }
 
     /**
@@ -961,16 +1642,14 @@ final class SessionImpl implements Session, Context {
     @Override
     @Nonnull
     public SessionStatus getSessionStatus(@Nonnull final InstanceTag tag) {
-        synchronized (this.masterSession) {
-            if (tag.equals(this.receiverTag)) {
-                return this.sessionState.getStatus();
-            }
-            final SessionImpl slave = slaveSessions.get(tag);
-            if (slave == null) {
-                throw new IllegalArgumentException("Unknown instance tag specified: " + tag.getValue());
-            }
-            return slave.getSessionStatus();
+        if (tag.equals(this.receiverTag)) {
+            return this.sessionState.getStatus();
+        }
+        final SessionImpl slave = getSlaveSession(tag);
+        if (slave == null) {
+            throw new IllegalArgumentException("Unknown instance tag specified: " + tag.getValue());
         }
+        return slave.getSessionStatus();
     }
 
     /**
@@ -985,24 +1664,36 @@ final class SessionImpl implements Session, Context {
     @Override
     @Nonnull
     public DSAPublicKey getRemotePublicKey(@Nonnull final InstanceTag tag) throws IncorrectStateException {
-        synchronized (this.masterSession) {
-            if (tag.equals(this.receiverTag)) {
-                return this.sessionState.getRemotePublicKey();
-            }
-            final SessionImpl slave = slaveSessions.get(tag);
-            if (slave == null) {
-                throw new IllegalArgumentException("Unknown tag specified: " + tag.getValue());
-            }
-            return slave.getRemotePublicKey();
+        if (tag.equals(this.receiverTag)) {
+            return this.sessionState.getRemotePublicKey();
+        }
+        final SessionImpl slave = getSlaveSession(tag);
+        if (slave == null) {
+            throw new IllegalArgumentException("Unknown tag specified: " + tag.getValue());
+        }
+        return slave.getRemotePublicKey();
+    }
+
+    /**
+     * Look up the slave session for the specified receiver instance tag.
+     *
+     * @param tag the receiver instance tag
+     * @return Returns the slave session, or null if no slave session exists for the instance tag.
+     */
+    @Nullable
+    private SessionImpl getSlaveSession(@Nonnull final InstanceTag tag) {
+        this.masterSession.routingLock.lock();
+        try {
+            return this.slaveSessions.get(tag.getValue());
+        } finally {
+            this.masterSession.routingLock.unlock();
         }
     }
 
     @Override
     @Nonnull
     public SessionImpl getMasterSession() {
-        synchronized (this.masterSession) {
-            return this.masterSession;
-        }
+        return this.masterSession;
     }
 
     /**
@@ -1014,8 +1705,11 @@ final class SessionImpl implements Session, Context {
     @Override
     @Nonnull
     public SessionImpl getOutgoingSession() {
-        synchronized (this.masterSession) {
+        this.masterSession.routingLock.lock();
+        try {
             return this.outgoingSession;
+        } finally {
+            this.masterSession.routingLock.unlock();
         }
     }
 
@@ -1028,7 +1722,7 @@ final class SessionImpl implements Session, Context {
      * case), specify {@link InstanceTag#ZERO_TAG}.
      * @throws OtrException In case of invalid/unsupported OTR protocol version.
      */
-    @GuardedBy("masterSession")
+    @GuardedBy("lock")
     private void respondAuth(final int version, @Nonnull final InstanceTag receiverTag) throws OtrException {
         if (!Version.SUPPORTED.contains(version)) {
             throw new OtrException("Unsupported OTR version encountered.");
@@ -1037,9 +1731,12 @@ final class SessionImpl implements Session, Context {
         // state upon receiving a DHKey message. This is caused by the fact that we may get multiple D-H Key responses
         // to a D-H Commit message without receiver instance tag. (This is due to the subtle workings of the
         // implementation.)
-        logger.finest("Responding to Query Message, acknowledging version " + version);
-        synchronized (this.masterSession.masterSession) {
+        log(LOGGER, Level.FINEST, "{0}: Responding to Query Message, acknowledging version {1}", this.sessionID, version);
+        this.masterSession.lock.lock();
+        try {
             injectMessage(this.masterSession.sessionState.initiateAKE(this.masterSession, version, receiverTag));
+        } finally {
+            this.masterSession.lock.unlock();
         }
     }
 
@@ -1052,27 +1749,38 @@ final class SessionImpl implements Session, Context {
      */
     @Override
     public void initSmp(@Nullable final String question, @Nonnull final String answer) throws OtrException {
-        synchronized (this.masterSession) {
-            if (this != outgoingSession) {
-                outgoingSession.initSmp(question, answer);
-                return;
-            }
+        final SessionImpl outgoing = getOutgoingSession();
+        if (outgoing != this) {
+            outgoing.initSmp(question, answer);
+            return;
+        }
+        this.lock.lock();
+        try {
             final State session = this.sessionState;
             if (!(session instanceof StateEncrypted)) {
-                logger.log(Level.INFO, "Not initiating SMP negotiation as we are currently not in an Encrypted messaging state.");
+                log(LOGGER, Level.INFO, "{0}: Not initiating SMP negotiation as we are currently not in an Encrypted messaging state.",
+                        this.sessionID);
                 return;
             }
             final StateEncrypted encrypted = (StateEncrypted) session;
             // First try, we may find that we get an SMP Abort response. A running SMP negotiation was aborted.
-            final TLV tlv = encrypted.getSmpHandler().initiate(question == null ? "" : question, answer.getBytes(UTF_8));
+            final TLV tlv;
+            try (OtrTracer.Span ignored = this.tracer.start(SMP_INITIATE, this.sessionID, this.receiverTag)) {
+                tlv = encrypted.getSmpHandler().initiate(question == null ? "" : question, answer.getBytes(UTF_8));
+            }
             injectMessage(encrypted.transformSending(this, "", singletonList(tlv), FLAG_IGNORE_UNREADABLE));
             if (!encrypted.getSmpHandler().smpAbortedTLV(tlv)) {
                 return;
             }
             // Second try, in case first try aborted an open negotiation. Initiations should be possible at any moment, even
             // if this aborts a running SMP negotiation.
-            final TLV tlv2 = encrypted.getSmpHandler().initiate(question == null ? "" : question, answer.getBytes(UTF_8));
+            final TLV tlv2;
+            try (OtrTracer.Span ignored = this.tracer.start(SMP_INITIATE, this.sessionID, this.receiverTag)) {
+                tlv2 = encrypted.getSmpHandler().initiate(question == null ? "" : question, answer.getBytes(UTF_8));
+            }
             injectMessage(encrypted.transformSending(this, "", singletonList(tlv2), FLAG_IGNORE_UNREADABLE));
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -1086,12 +1794,16 @@ final class SessionImpl implements Session, Context {
      */
     @Override
     public void respondSmp(@Nullable final String question, @Nonnull final String secret) throws OtrException {
-        synchronized (this.masterSession) {
-            if (this != outgoingSession) {
-                outgoingSession.respondSmp(question, secret);
-                return;
-            }
+        final SessionImpl outgoing = getOutgoingSession();
+        if (outgoing != this) {
+            outgoing.respondSmp(question, secret);
+            return;
+        }
+        this.lock.lock();
+        try {
             sendResponseSmp(question, secret);
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -1106,12 +1818,15 @@ final class SessionImpl implements Session, Context {
     @Override
     public void respondSmp(@Nonnull final InstanceTag receiverTag, @Nullable final String question,
             @Nonnull final String secret) throws OtrException {
-        synchronized (this.masterSession) {
-            final SessionImpl session = receiverTag.equals(this.receiverTag) ? this : this.slaveSessions.get(receiverTag);
-            if (session == null) {
-                throw new IllegalArgumentException("Unknown receiver instance tag: " + receiverTag.getValue());
-            }
+        final SessionImpl session = receiverTag.equals(this.receiverTag) ? this : getSlaveSession(receiverTag);
+        if (session == null) {
+            throw new IllegalArgumentException("Unknown receiver instance tag: " + receiverTag.getValue());
+        }
+        session.lock.lock();
+        try {
             session.sendResponseSmp(question, secret);
+        } finally {
+            session.lock.unlock();
         }
     }
 
@@ -1123,11 +1838,11 @@ final class SessionImpl implements Session, Context {
      * @throws OtrException In case of failure to send, message state different
      *                      from ENCRYPTED, issues with SMP processing.
      */
-    @GuardedBy("masterSession")
+    @GuardedBy("lock")
     private void sendResponseSmp(@Nullable final String question, @Nonnull final String answer) throws OtrException {
         final State session = this.sessionState;
         final TLV tlv;
-        try {
+        try (OtrTracer.Span ignored = this.tracer.start(SMP_RESPOND, this.sessionID, this.receiverTag)) {
             tlv = session.getSmpHandler().respond(question == null ? "" : question, answer.getBytes(UTF_8));
         } catch (final IncorrectStateException e) {
             throw new OtrException("Responding to SMP request failed, because current session is not encrypted.", e);
@@ -1145,11 +1860,13 @@ final class SessionImpl implements Session, Context {
      */
     @Override
     public void abortSmp() throws OtrException {
-        synchronized (this.masterSession) {
-            if (this != outgoingSession) {
-                outgoingSession.abortSmp();
-                return;
-            }
+        final SessionImpl outgoing = getOutgoingSession();
+        if (outgoing != this) {
+            outgoing.abortSmp();
+            return;
+        }
+        this.lock.lock();
+        try {
             final State session = this.sessionState;
             final TLV tlv;
             try {
@@ -1161,6 +1878,8 @@ final class SessionImpl implements Session, Context {
             if (m != null) {
                 injectMessage(m);
             }
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -1173,15 +1892,19 @@ final class SessionImpl implements Session, Context {
      */
     @Override
     public boolean isSmpInProgress() {
-        synchronized (this.masterSession) {
-            if (this != outgoingSession) {
-                return outgoingSession.isSmpInProgress();
-            }
+        final SessionImpl outgoing = getOutgoingSession();
+        if (outgoing != this) {
+            return outgoing.isSmpInProgress();
+        }
+        this.lock.lock();
+        try {
             try {
                 return this.sessionState.getSmpHandler().getStatus() == INPROGRESS;
             } catch (final IncorrectStateException e) {
                 return false;
             }
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -1202,12 +1925,15 @@ final class SessionImpl implements Session, Context {
     @Override
     @Nonnull
     public byte[] getExtraSymmetricKey() throws OtrException {
-        synchronized (this.masterSession) {
+        this.lock.lock();
+        try {
             try {
                 return this.sessionState.getExtraSymmetricKey();
             } catch (final IncorrectStateException e) {
                 throw new OtrException("Cannot acquire Extra Symmetric Key, because current session is not encrypted.", e);
             }
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -1219,8 +1945,11 @@ final class SessionImpl implements Session, Context {
      *                                 "last activity".
      */
     long getLastActivityTimestamp() throws IncorrectStateException {
-        synchronized (this.masterSession) {
+        this.lock.lock();
+        try {
             return this.sessionState.getLastActivityTimestamp();
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -1230,14 +1959,77 @@ final class SessionImpl implements Session, Context {
      * @throws OtrException Thrown in case of failure to fully expire the session.
      */
     void expireSession() throws OtrException {
-        synchronized (this.masterSession) {
+        this.lock.lock();
+        try {
             final State state = this.sessionState;
             try {
                 state.expire(this);
             } finally {
                 state.destroy();
-                sessionStatusChanged(duplicate(this.listeners), this.sessionID, this.receiverTag);
+                notifySessionStatusChanged();
             }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Evict incomplete fragmented messages that have expired.
+     *
+     * @param now the current monotonic time, as {@link System#nanoTime()}
+     */
+    void expireFragments(final long now) {
+        this.lock.lock();
+        try {
+            this.assembler.expire(getSessionPolicy(), now);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get the moment at which the oldest incomplete fragmented message expires.
+     *
+     * @return Returns the monotonic timestamp ({@link System#nanoTime()}) of expiry, or null if there are no
+     * incomplete fragmented messages.
+     */
+    @Nullable
+    Long getFragmentExpiryTimestamp() {
+        this.lock.lock();
+        try {
+            return this.assembler.expiry(getSessionPolicy());
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Set the listener that is notified when the session acquires a new deadline outside of session status changes.
+     *
+     * @param listener the deadline listener
+     */
+    void setDeadlineListener(@Nonnull final SessionScheduler.DeadlineListener listener) {
+        assert this.masterSession == this : "BUG: the deadline listener is only set on the master session.";
+        this.deadlineListener = requireNonNull(listener);
+    }
+
+    /**
+     * Clear the deadline listener.
+     *
+     * @return Returns the deadline listener that was set, or null if none was set.
+     */
+    @Nullable
+    SessionScheduler.DeadlineListener clearDeadlineListener() {
+        assert this.masterSession == this : "BUG: the deadline listener is only set on the master session.";
+        final SessionScheduler.DeadlineListener listener = this.deadlineListener;
+        this.deadlineListener = null;
+        return listener;
+    }
+
+    private void notifyDeadlineChanged() {
+        final SessionScheduler.DeadlineListener listener = this.masterSession.deadlineListener;
+        if (listener != null) {
+            listener.deadlineChanged();
         }
     }
 
@@ -1251,25 +2043,44 @@ final class SessionImpl implements Session, Context {
      * @throws IncorrectStateException In case session is not in private messaging state.
      */
     long getLastMessageSentTimestamp() throws IncorrectStateException {
-        synchronized (this.masterSession) {
+        this.lock.lock();
+        try {
             return this.sessionState.getLastMessageSentTimestamp();
+        } finally {
+            this.lock.unlock();
         }
     }
 
     /**
-     * Send heartbeat message.
+     * Construct a heartbeat message.
+     * <p>
+     * The heartbeat message is constructed and fragmented, but not injected. The caller is responsible for sending
+     * the fragments, such that heartbeats of many sessions can be handed to the host together. Consequently, a message
+     * that is constructed later, may be sent before the heartbeat, in which case an OTRv3 receiver drops the heartbeat.
+     * (See {@link HeartbeatEngine}.)
      *
-     * @throws OtrException In case of failure to inject the heartbeat message into the communication channel.
+     * @return Returns the fragments of the heartbeat message, or an empty array if the session is not in private
+     * messaging state.
+     * @throws OtrException In case of failure to construct the heartbeat message.
      */
-    void sendHeartbeat() throws OtrException {
-        synchronized (this.masterSession) {
+    @Nonnull
+    String[] heartbeat() throws OtrException {
+        this.lock.lock();
+        try {
             final State state = this.sessionState;
             if (!(state instanceof StateEncrypted)) {
-                return;
+                return new String[0];
             }
             final AbstractEncodedMessage heartbeat = ((StateEncrypted) state).transformSending(this, "",
                     Collections.<TLV>emptyList(), FLAG_IGNORE_UNREADABLE);
-            injectMessage(heartbeat);
+            try {
+                return reportSent(this.fragmenter.fragment(heartbeat.protocolVersion, heartbeat.senderTag.getValue(),
+                        heartbeat.receiverTag.getValue(), writeMessage(heartbeat)));
+            } catch (final ProtocolException e) {
+                throw new OtrException("Failed to fragment heartbeat message according to protocol parameters.", e);
+            }
+        } finally {
+            this.lock.unlock();
         }
     }
 }
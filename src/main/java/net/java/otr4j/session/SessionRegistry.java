@@ -0,0 +1,236 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import net.java.otr4j.api.SessionID;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Concurrent, sharded registry of sessions.
+ * <p>
+ * The registry distributes its entries over a fixed number of shards, each backed by a {@link ConcurrentHashMap}.
+ * Look-ups never block. Creation of a session for a {@link SessionID} is performed at most once: the first thread to
+ * register an entry for the session ID performs the construction, while concurrent requests for that same session ID
+ * wait for its completion. Requests for other session IDs are not affected by an ongoing construction.
+ * <p>
+ * In case construction fails, the entry is removed such that a next request gets the opportunity to try again.
+ *
+ * @param <S> the type of the registered sessions
+ */
+final class SessionRegistry<S> {
+
+    /**
+     * Number of shards. Must be a power of 2.
+     */
+    private static final int DEFAULT_SHARDS = 16;
+
+    private final ConcurrentHashMap<SessionID, FutureTask<S>>[] shards;
+
+    private final int mask;
+
+    /**
+     * Construct session registry with default number of shards.
+     */
+    SessionRegistry() {
+        this(DEFAULT_SHARDS);
+    }
+
+    /**
+     * Construct session registry.
+     *
+     * @param numShards the number of shards, must be a positive power of 2.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    SessionRegistry(final int numShards) {
+        if (numShards <= 0 || Integer.bitCount(numShards) != 1) {
+            throw new IllegalArgumentException("Number of shards must be a positive power of 2.");
+        }
+        this.shards = new ConcurrentHashMap[numShards];
+        for (int i = 0; i < numShards; i++) {
+            this.shards[i] = new ConcurrentHashMap<>();
+        }
+        this.mask = numShards - 1;
+    }
+
+    /**
+     * Get the session for the provided session ID, or create it using the factory in case it does not yet exist.
+     *
+     * @param sessionID the session ID
+     * @param factory   the factory that is used to create a new session instance if none exists
+     * @return Returns the existing or newly created session.
+     */
+    @Nonnull
+    S getOrCreate(@Nonnull final SessionID sessionID, @Nonnull final Factory<S> factory) {
+        requireNonNull(factory);
+        final ConcurrentHashMap<SessionID, FutureTask<S>> shard = shard(sessionID);
+        FutureTask<S> entry = shard.get(sessionID);
+        if (entry == null) {
+            final FutureTask<S> creation = new FutureTask<>(new Callable<S>() {
+                @Override
+                public S call() {
+                    return requireNonNull(factory.create(sessionID), "Factory must not return null.");
+                }
+            });
+            entry = shard.putIfAbsent(sessionID, creation);
+            if (entry == null) {
+                entry = creation;
+                creation.run();
+            }
+        }
+        try {
+            return await(entry);
+        } catch (final RuntimeException | Error e) {
+            // Remove the failed entry, such that a subsequent request gets the chance to retry.
+            shard.remove(sessionID, entry);
+            throw e;
+        }
+    }
+
+    /**
+     * Get the session for the provided session ID, if it exists.
+     *
+     * @param sessionID the session ID
+     * @return Returns the session, or null if no (completed) session exists.
+     */
+    @Nullable
+    S get(@Nonnull final SessionID sessionID) {
+        final FutureTask<S> entry = shard(sessionID).get(sessionID);
+        if (entry == null || !entry.isDone()) {
+            return null;
+        }
+        try {
+            return await(entry);
+        } catch (final RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Remove the session with specified session ID from the registry.
+     *
+     * @param sessionID the session ID
+     * @return Returns the removed session, or null if no (completed) session was registered.
+     */
+    @Nullable
+    S remove(@Nonnull final SessionID sessionID) {
+        final FutureTask<S> entry = shard(sessionID).remove(sessionID);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return await(entry);
+        } catch (final RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Acquire a weakly-consistent snapshot of all (completed) sessions in the registry.
+     * <p>
+     * Sessions that are still under construction are not included.
+     *
+     * @return Returns collection of sessions.
+     */
+    @Nonnull
+    Collection<S> sessions() {
+        final ArrayList<S> result = new ArrayList<>();
+        for (final ConcurrentHashMap<SessionID, FutureTask<S>> shard : this.shards) {
+            for (final FutureTask<S> entry : shard.values()) {
+                if (!entry.isDone()) {
+                    continue;
+                }
+                try {
+                    result.add(await(entry));
+                } catch (final RuntimeException e) {
+                    // Skip entries of which construction failed.
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of registered sessions, including sessions that are currently under construction.
+     *
+     * @return Returns the number of entries.
+     */
+    int size() {
+        int size = 0;
+        for (final ConcurrentHashMap<SessionID, FutureTask<S>> shard : this.shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    @Nonnull
+    private ConcurrentHashMap<SessionID, FutureTask<S>> shard(@Nonnull final SessionID sessionID) {
+        // Spread the hash code bits, such that shards are selected from both upper and lower bits.
+        final int h = sessionID.hashCode();
+        return this.shards[(h ^ (h >>> 16)) & this.mask];
+    }
+
+    /**
+     * Await completion of the session construction, without being interruptible.
+     *
+     * @param entry the registry entry
+     * @return Returns the session instance.
+     */
+    @Nonnull
+    private static <S> S await(@Nonnull final FutureTask<S> entry) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return entry.get();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                } catch (final ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException("Unexpected failure during session construction.", cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Factory for constructing new session instances.
+     *
+     * @param <S> the type of session
+     */
+    interface Factory<S> {
+
+        /**
+         * Create a new session instance.
+         *
+         * @param sessionID the session ID
+         * @return Returns the new session instance.
+         */
+        @Nonnull
+        S create(@Nonnull SessionID sessionID);
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import net.java.otr4j.api.InstanceTag;
+import net.java.otr4j.api.OtrEngineListener;
+import net.java.otr4j.api.OtrException;
+import net.java.otr4j.api.SessionID;
+import net.java.otr4j.session.state.IncorrectStateException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+import static net.java.otr4j.util.Logging.log;
+
+/**
+ * Scheduler for session expiration and heartbeats.
+ * <p>
+ * Sessions are registered with the scheduler and indexed in a {@link TimingWheel} by their next deadline, i.e. the
+ * earliest moment at which one of the session's instances expires, needs to send a heartbeat or holds an incomplete
+ * fragmented message that expires. At every tick, only
+ * the sessions with a deadline that is due are visited. A visited session determines its next deadline, which may have
+ * moved in the mean time as a consequence of session activity, and is rescheduled accordingly. Sessions that do not
+ * have any instance in a private messaging state or incomplete fragmented message are not scheduled at all until their
+ * session status changes or they start reassembling a fragmented message.
+ * <p>
+ * The scheduler's lock is never held while calling into a session. Vice versa, session status changes, which are
+ * signaled while holding a session instance lock, only acquire the scheduler's lock.
+ * <p>
+ * Sessions are referenced weakly. Sessions that are garbage-collected are pruned from the scheduler through a
+ * {@link ReferenceQueue}.
+ * <p>
+ * The scheduler ticks on a {@link ScheduledExecutorService}, which can be provided by the host application. By default,
+ * a shared single-threaded daemon executor is used.
+ */
+final class SessionScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(SessionScheduler.class.getName());
+
+    /**
+     * Duration of a single tick of the timing wheel.
+     */
+    private static final long TICK_NANOSECONDS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final long SESSION_TIMEOUT_NANOSECONDS = 7200_000_000_000L;
+
+    /**
+     * Origin of the monotonic clock from which ticks are counted.
+     */
+    private final long origin = System.nanoTime();
+
+    private final Object lock = new Object();
+
+    @GuardedBy("lock")
+    private final TimingWheel<Entry> wheel;
+
+    private final ReferenceQueue<SessionImpl> collected = new ReferenceQueue<>();
+
+    private final HeartbeatEngine heartbeats = new HeartbeatEngine(HeartbeatEngine.DEFAULT_MAX_HEARTBEATS_PER_TICK);
+
+    /**
+     * Construct a session scheduler that ticks on the provided executor.
+     *
+     * @param executor the executor on which the scheduler ticks
+     */
+    SessionScheduler(@Nonnull final ScheduledExecutorService executor) {
+        this.wheel = new TimingWheel<>(0);
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                tick(System.nanoTime());
+            }
+        }, TICK_NANOSECONDS, TICK_NANOSECONDS, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the default, shared session scheduler. The default scheduler is started upon first use.
+     *
+     * @return Returns the default scheduler.
+     */
+    @Nonnull
+    static SessionScheduler defaultScheduler() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Register a (master) session with the scheduler. All instances of the session are managed.
+     *
+     * @param session    the master session
+     * @param heartbeats indicates whether heartbeats should be sent for idle sessions
+     */
+    void register(@Nonnull final SessionImpl session, final boolean heartbeats) {
+        final Entry entry = new Entry(session, this.collected, heartbeats);
+        session.addOtrEngineListener(entry);
+        session.setDeadlineListener(entry);
+        reschedule(entry, nextDeadline(session, heartbeats));
+    }
+
+    /**
+     * Unregister a (master) session from the scheduler. The session is no longer expired and no heartbeats are sent
+     * for its instances. Unregistering a session that is not registered has no effect.
+     *
+     * @param session the master session
+     */
+    void unregister(@Nonnull final SessionImpl session) {
+        final DeadlineListener listener = session.clearDeadlineListener();
+        if (!(listener instanceof Entry)) {
+            return;
+        }
+        final Entry entry = (Entry) listener;
+        session.removeOtrEngineListener(entry);
+        synchronized (this.lock) {
+            if (entry.timeout != null) {
+                this.wheel.cancel(entry.timeout);
+                entry.timeout = null;
+            }
+            // Clearing the reference prevents a concurrent tick from rescheduling the entry.
+            entry.clear();
+        }
+    }
+
+    /**
+     * Get the number of sessions that are currently scheduled.
+     *
+     * @return Returns number of scheduled sessions.
+     */
+    int scheduled() {
+        synchronized (this.lock) {
+            return this.wheel.size();
+        }
+    }
+
+    /**
+     * Perform a single tick: prune collected sessions and process all sessions that are due.
+     *
+     * @param now the current monotonic time
+     */
+    void tick(final long now) {
+        try {
+            pruneCollected();
+            final List<Entry> due;
+            synchronized (this.lock) {
+                due = this.wheel.advance(toTick(now));
+            }
+            final HeartbeatEngine.Batch batch = this.heartbeats.batch();
+            for (final Entry entry : due) {
+                process(entry, now, batch);
+            }
+            batch.flush();
+        } catch (final RuntimeException e) {
+            // Prevent the scheduled task from being cancelled due to an unexpected failure.
+            LOGGER.log(WARNING, "Unexpected failure while processing scheduled sessions.", e);
+        }
+    }
+
+    private void pruneCollected() {
+        Reference<? extends SessionImpl> ref;
+        while ((ref = this.collected.poll()) != null) {
+            final Entry entry = (Entry) ref;
+            synchronized (this.lock) {
+                if (entry.timeout != null) {
+                    this.wheel.cancel(entry.timeout);
+                    entry.timeout = null;
+                }
+            }
+        }
+    }
+
+    private void process(@Nonnull final Entry entry, final long now, @Nonnull final HeartbeatEngine.Batch batch) {
+        final SessionImpl master = entry.get();
+        if (master == null) {
+            return;
+        }
+        boolean postponed = false;
+        for (final SessionImpl instance : master.getInstances()) {
+            expireOnTimeout(now, instance);
+            instance.expireFragments(now);
+            if (entry.heartbeats && !batch.heartbeat(instance, now)) {
+                postponed = true;
+            }
+        }
+        // Postponed heartbeats are retried at the next tick.
+        reschedule(entry, postponed ? Long.valueOf(now) : nextDeadline(master, entry.heartbeats));
+    }
+
+    private void reschedule(@Nonnull final Entry entry, @Nullable final Long deadline) {
+        synchronized (this.lock) {
+            if (entry.timeout != null) {
+                this.wheel.cancel(entry.timeout);
+                entry.timeout = null;
+            }
+            if (deadline != null && entry.get() != null) {
+                // Round up, such that a session is never visited before its deadline.
+                entry.timeout = this.wheel.schedule(entry, toTick(deadline + TICK_NANOSECONDS - 1));
+            }
+        }
+    }
+
+    /**
+     * Determine the earliest deadline among all instances of the session.
+     *
+     * @param master     the master session
+     * @param heartbeats whether heartbeat deadlines are included
+     * @return Returns the earliest deadline as monotonic timestamp, or null if none of the instances has a deadline.
+     */
+    @Nullable
+    private static Long nextDeadline(@Nonnull final SessionImpl master, final boolean heartbeats) {
+        Long earliest = null;
+        for (final SessionImpl instance : master.getInstances()) {
+            try {
+                earliest = earliest(earliest, instance.getLastActivityTimestamp() + SESSION_TIMEOUT_NANOSECONDS);
+            } catch (final IncorrectStateException e) {
+                // Instance's current state does not expire.
+            }
+            final Long fragmentExpiry = instance.getFragmentExpiryTimestamp();
+            if (fragmentExpiry != null) {
+                earliest = earliest(earliest, fragmentExpiry);
+            }
+            if (!heartbeats) {
+                continue;
+            }
+            try {
+                earliest = earliest(earliest, HeartbeatEngine.deadline(instance));
+            } catch (final IncorrectStateException e) {
+                // Instance's current state is not a private messaging state.
+            }
+        }
+        return earliest;
+    }
+
+    @Nonnull
+    private static Long earliest(@Nullable final Long current, final long candidate) {
+        return current == null || candidate - current < 0 ? candidate : current;
+    }
+
+    private static void expireOnTimeout(final long now, @Nonnull final SessionImpl session) {
+        try {
+            if (now - session.getLastActivityTimestamp() > SESSION_TIMEOUT_NANOSECONDS) {
+                log(LOGGER, FINE, "Expiring session {0} ({1})", session.getSessionID(), session.getSenderInstanceTag());
+                session.expireSession();
+            }
+        } catch (final IncorrectStateException e) {
+            LOGGER.finest("Session instance's current state does not expire.");
+        } catch (final OtrException e) {
+            LOGGER.log(WARNING, "Failure while expiring session instance.", e);
+        }
+    }
+
+    /**
+     * Convert monotonic timestamp to tick. Timestamps from before the origin result in zero or a negative tick, which
+     * the timing wheel considers due immediately.
+     *
+     * @param nanoTime the monotonic timestamp
+     * @return Returns the corresponding tick.
+     */
+    private long toTick(final long nanoTime) {
+        return (nanoTime - this.origin) / TICK_NANOSECONDS;
+    }
+
+    /**
+     * Scheduler entry for a single master session.
+     * <p>
+     * The entry references the session weakly and is registered with the reference queue for pruning. The entry also
+     * listens for session status changes, such that sessions are (re)scheduled as soon as they acquire a deadline.
+     */
+    private final class Entry extends WeakReference<SessionImpl> implements OtrEngineListener, DeadlineListener {
+
+        private final boolean heartbeats;
+
+        /**
+         * The scheduled timeout, or null if the session is currently not scheduled. Guarded by the scheduler's lock.
+         */
+        @Nullable
+        private TimingWheel.Timeout<Entry> timeout;
+
+        private Entry(@Nonnull final SessionImpl session, @Nonnull final ReferenceQueue<SessionImpl> queue,
+                final boolean heartbeats) {
+            super(requireNonNull(session), queue);
+            this.heartbeats = heartbeats;
+        }
+
+        /**
+         * Schedule the session to be visited at the next tick, such that its deadline is re-evaluated.
+         * <p>
+         * The listener is called while a session instance lock is held. Therefore, we must not query (other) session
+         * instances from here, as that would violate the session's lock order.
+         */
+        @Override
+        public void sessionStatusChanged(@Nonnull final SessionID sessionID, @Nonnull final InstanceTag receiver) {
+            reschedule(this, System.nanoTime());
+        }
+
+        /**
+         * Schedule the session to be visited at the next tick, such that its deadline is re-evaluated.
+         * <p>
+         * Like session status changes, the listener is called while a session instance lock is held.
+         */
+        @Override
+        public void deadlineChanged() {
+            reschedule(this, System.nanoTime());
+        }
+
+        @Override
+        public void multipleInstancesDetected(@Nonnull final SessionID sessionID) {
+            // No need to react to multiple instances being detected.
+        }
+
+        @Override
+        public void outgoingSessionChanged(@Nonnull final SessionID sessionID) {
+            // No need to react to changes in outgoing session.
+        }
+    }
+
+    /**
+     * Listener for sessions that acquire a new deadline other than through a change of session status.
+     */
+    interface DeadlineListener {
+
+        /**
+         * The session acquired a new deadline, such that it needs to be (re)scheduled.
+         */
+        void deadlineChanged();
+    }
+
+    /**
+     * Holder for the lazily started, shared default scheduler.
+     */
+    private static final class DefaultHolder {
+
+        private static final SessionScheduler INSTANCE;
+
+        static {
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(@Nonnull final Runnable r) {
+                    final Thread thread = new Thread(r, "otr-session-scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            INSTANCE = new SessionScheduler(executor);
+            LOGGER.info("OTR session scheduler started.");
+        }
+
+        private DefaultHolder() {
+            // No need to instantiate holder class.
+        }
+    }
+}
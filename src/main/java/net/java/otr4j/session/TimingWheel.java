@@ -0,0 +1,261 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Hierarchical timing wheel.
+ * <p>
+ * The timing wheel indexes timeouts by their deadline, expressed in ticks. The lowest level wheel has a slot for every
+ * tick. Every higher level wheel has slots that each span a full rotation of the wheel below. Timeouts are placed in
+ * the lowest level that can hold their deadline. Upon advancing, only the slots that are due are visited. Timeouts in
+ * higher level slots are cascaded to lower levels as the wheel progresses. Scheduling and cancelling a timeout are
+ * constant-time operations.
+ * <p>
+ * Deadlines that exceed the range of the timing wheel are placed in the last slot of the highest level. Such timeouts
+ * are cascaded repeatedly until their deadline is within range.
+ * <p>
+ * TimingWheel is NOT thread-safe. Callers are expected to provide their own synchronization.
+ *
+ * @param <T> the type of item that is scheduled
+ */
+final class TimingWheel<T> {
+
+    private static final int SLOT_BITS = 6;
+
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private static final int LEVELS = 4;
+
+    /**
+     * Maximum distance in ticks that can be represented in the timing wheel.
+     */
+    private static final long MAX_DELTA = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    /**
+     * The slots per level. Each slot is the head of a doubly-linked list of timeouts.
+     */
+    private final Timeout<T>[][] wheels;
+
+    /**
+     * The current tick: all timeouts with a deadline up to and including the current tick have fired.
+     */
+    private long currentTick;
+
+    /**
+     * The number of scheduled timeouts.
+     */
+    private int size;
+
+    /**
+     * Construct timing wheel.
+     *
+     * @param startTick the tick at which the timing wheel starts
+     */
+    @SuppressWarnings("unchecked")
+    TimingWheel(final long startTick) {
+        this.wheels = new Timeout[LEVELS][SLOTS];
+        this.currentTick = startTick;
+    }
+
+    /**
+     * Schedule an item.
+     *
+     * @param item         the item
+     * @param deadlineTick the tick at which the item is due. Deadlines that have already passed are due at the next
+     *                     tick.
+     * @return Returns the timeout that can be used to cancel the scheduled item.
+     */
+    @Nonnull
+    Timeout<T> schedule(@Nonnull final T item, final long deadlineTick) {
+        final Timeout<T> timeout = new Timeout<>(requireNonNull(item), Math.max(deadlineTick, this.currentTick + 1));
+        insert(timeout);
+        this.size++;
+        return timeout;
+    }
+
+    /**
+     * Cancel a scheduled timeout.
+     *
+     * @param timeout the timeout
+     * @return Returns true if timeout was cancelled, or false if the timeout was not scheduled (anymore).
+     */
+    boolean cancel(@Nonnull final Timeout<T> timeout) {
+        if (timeout.level < 0) {
+            return false;
+        }
+        unlink(timeout);
+        this.size--;
+        return true;
+    }
+
+    /**
+     * Advance the timing wheel up to and including the provided tick.
+     *
+     * @param tick the tick up to which to advance
+     * @return Returns the items of all timeouts that are due, in order of their deadline.
+     */
+    @Nonnull
+    List<T> advance(final long tick) {
+        final ArrayList<T> due = new ArrayList<>();
+        while (this.currentTick < tick) {
+            if (this.size == 0) {
+                // Nothing to do, so skip directly to the requested tick.
+                this.currentTick = tick;
+                break;
+            }
+            this.currentTick++;
+            cascade();
+            final int index = (int) (this.currentTick & SLOT_MASK);
+            Timeout<T> timeout = this.wheels[0][index];
+            this.wheels[0][index] = null;
+            while (timeout != null) {
+                final Timeout<T> next = timeout.next;
+                timeout.level = -1;
+                timeout.prev = null;
+                timeout.next = null;
+                this.size--;
+                due.add(timeout.item);
+                timeout = next;
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Get the current tick of the timing wheel.
+     *
+     * @return Returns the current tick.
+     */
+    long currentTick() {
+        return this.currentTick;
+    }
+
+    /**
+     * Get the number of scheduled timeouts.
+     *
+     * @return Returns number of timeouts.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Cascade timeouts from higher level wheels into lower level wheels, for all levels of which the lower levels
+     * completed a full rotation at the current tick. Higher levels are cascaded first, such that their timeouts can
+     * be cascaded further within the same tick.
+     */
+    private void cascade() {
+        int level = 0;
+        while (level + 1 < LEVELS && (this.currentTick >>> (SLOT_BITS * (level + 1)) << (SLOT_BITS * (level + 1)))
+                == this.currentTick) {
+            level++;
+        }
+        for (; level > 0; level--) {
+            final int index = (int) ((this.currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+            Timeout<T> timeout = this.wheels[level][index];
+            this.wheels[level][index] = null;
+            while (timeout != null) {
+                final Timeout<T> next = timeout.next;
+                timeout.prev = null;
+                timeout.next = null;
+                insert(timeout);
+                timeout = next;
+            }
+        }
+    }
+
+    private void insert(@Nonnull final Timeout<T> timeout) {
+        final long delta = Math.min(timeout.deadlineTick - this.currentTick, MAX_DELTA);
+        final long target = this.currentTick + delta;
+        int level = 0;
+        while (level + 1 < LEVELS && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        final int index = (int) ((target >>> (SLOT_BITS * level)) & SLOT_MASK);
+        timeout.level = level;
+        timeout.index = index;
+        final Timeout<T> head = this.wheels[level][index];
+        timeout.prev = null;
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        this.wheels[level][index] = timeout;
+    }
+
+    private void unlink(@Nonnull final Timeout<T> timeout) {
+        if (timeout.prev == null) {
+            this.wheels[timeout.level][timeout.index] = timeout.next;
+        } else {
+            timeout.prev.next = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.level = -1;
+    }
+
+    /**
+     * Timeout as scheduled in the timing wheel.
+     *
+     * @param <T> the type of item
+     */
+    static final class Timeout<T> {
+
+        private final T item;
+
+        private final long deadlineTick;
+
+        /**
+         * The level in which the timeout is placed, or -1 if the timeout is not scheduled.
+         */
+        private int level = -1;
+
+        private int index;
+
+        @Nullable
+        private Timeout<T> prev;
+
+        @Nullable
+        private Timeout<T> next;
+
+        private Timeout(@Nonnull final T item, final long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * The deadline of the timeout.
+         *
+         * @return Returns deadline as tick.
+         */
+        long getDeadlineTick() {
+            return this.deadlineTick;
+        }
+
+        /**
+         * Indicates whether the timeout is still scheduled.
+         *
+         * @return Returns true iff scheduled.
+         */
+        boolean isScheduled() {
+            return this.level >= 0;
+        }
+    }
+}
@@ -15,6 +15,9 @@ import javax.annotation.Nonnull;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
+import static net.java.otr4j.io.OtrEncodables.POINT_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.SCALAR_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.dataLength;
 
 final class SMPMessage1 implements SMPMessage {
 
@@ -49,4 +52,9 @@ final class SMPMessage1 implements SMPMessage {
         out.writeData(question.getBytes(UTF_8)).writePoint(this.g2a).writeScalar(this.c2).writeScalar(this.d2)
                 .writePoint(this.g3a).writeScalar(this.c3).writeScalar(this.d3);
     }
+
+    @Override
+    public int encodedLength() {
+        return dataLength(this.question.getBytes(UTF_8).length) + 2 * POINT_LENGTH + 4 * SCALAR_LENGTH;
+    }
 }
@@ -14,6 +14,8 @@ import net.java.otr4j.io.OtrOutputStream;
 import javax.annotation.Nonnull;
 
 import static java.util.Objects.requireNonNull;
+import static net.java.otr4j.io.OtrEncodables.POINT_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.SCALAR_LENGTH;
 
 final class SMPMessage2 implements SMPMessage {
 
@@ -61,4 +63,9 @@ final class SMPMessage2 implements SMPMessage {
                 .writeScalar(this.d3).writePoint(this.pb).writePoint(this.qb).writeScalar(this.cp).writeScalar(this.d5)
                 .writeScalar(this.d6);
     }
+
+    @Override
+    public int encodedLength() {
+        return 4 * POINT_LENGTH + 7 * SCALAR_LENGTH;
+    }
 }
@@ -14,6 +14,8 @@ import net.java.otr4j.io.OtrOutputStream;
 import javax.annotation.Nonnull;
 
 import static java.util.Objects.requireNonNull;
+import static net.java.otr4j.io.OtrEncodables.POINT_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.SCALAR_LENGTH;
 
 final class SMPMessage3 implements SMPMessage {
 
@@ -50,4 +52,9 @@ final class SMPMessage3 implements SMPMessage {
         out.writePoint(this.pa).writePoint(this.qa).writeScalar(this.cp).writeScalar(this.d5).writeScalar(this.d6)
                 .writePoint(this.ra).writeScalar(this.cr).writeScalar(this.d7);
     }
+
+    @Override
+    public int encodedLength() {
+        return 3 * POINT_LENGTH + 5 * SCALAR_LENGTH;
+    }
 }
@@ -14,6 +14,8 @@ import net.java.otr4j.io.OtrOutputStream;
 import javax.annotation.Nonnull;
 
 import static java.util.Objects.requireNonNull;
+import static net.java.otr4j.io.OtrEncodables.POINT_LENGTH;
+import static net.java.otr4j.io.OtrEncodables.SCALAR_LENGTH;
 
 final class SMPMessage4 implements SMPMessage {
 
@@ -33,4 +35,9 @@ final class SMPMessage4 implements SMPMessage {
     public void writeTo(@Nonnull final OtrOutputStream out) {
         out.writePoint(this.rb).writeScalar(this.cr).writeScalar(this.d7);
     }
+
+    @Override
+    public int encodedLength() {
+        return POINT_LENGTH + 2 * SCALAR_LENGTH;
+    }
 }
@@ -31,10 +31,12 @@ import java.util.logging.Logger;
 
 import static java.util.Objects.requireNonNull;
 import static net.java.otr4j.api.InstanceTag.ZERO_TAG;
+import static net.java.otr4j.api.OtrEngineHosts.getMetrics;
 import static net.java.otr4j.api.Session.Version.THREE;
 import static net.java.otr4j.api.Session.Version.TWO;
 import static net.java.otr4j.api.SessionStatus.ENCRYPTED;
 import static net.java.otr4j.messages.EncodedMessageParser.parseEncodedMessage;
+import static net.java.otr4j.util.Logging.log;
 
 /**
  * Abstract base implementation for session state implementations.
@@ -90,8 +92,8 @@ abstract class AbstractOTR3State implements State {
         try {
             final SessionID sessionID = context.getSessionID();
             if (encodedM instanceof DataMessage) {
-                LOGGER.log(Level.FINEST, "{0} received a data message (OTRv2/OTRv3) from {1}, handling in state {2}.",
-                        new Object[]{sessionID.getAccountID(), sessionID.getUserID(), this.getClass().getName()});
+                log(LOGGER, Level.FINEST, "{0}: Received a data message (OTRv2/OTRv3), handling in state {1}.",
+                        sessionID, this.getClass());
                 return handleDataMessage(context, (DataMessage) encodedM);
             }
             // Anything that is not a Data message is some type of AKE message.
@@ -115,8 +117,7 @@ abstract class AbstractOTR3State implements State {
         }
 
         final SessionID sessionID = context.getSessionID();
-        LOGGER.log(Level.FINEST, "{0} received an AKE message from {1} through {2}.",
-                new Object[]{sessionID.getAccountID(), sessionID.getUserID(), sessionID.getProtocolName()});
+        log(LOGGER, Level.FINEST, "{0}: Received an AKE message.", sessionID);
 
         // Verify that policy allows handling message according to protocol version.
         final OtrPolicy policy = context.getSessionPolicy();
@@ -151,6 +152,7 @@ abstract class AbstractOTR3State implements State {
             return null;
         } catch (final OtrCryptoException e) {
             LOGGER.log(Level.FINEST, "Ignoring message. Exception while processing message due to cryptographic verification failure.", e);
+            getMetrics(context.getHost()).verificationFailed(context.getSessionID());
             return null;
         } catch (final OtrException e) {
             LOGGER.log(Level.FINEST, "Ignoring message. Exception while processing message due to non-cryptographic error.", e);
@@ -42,6 +42,7 @@ import static net.java.otr4j.messages.EncodedMessageParser.parseEncodedMessage;
 import static net.java.otr4j.messages.IdentityMessages.validate;
 import static net.java.otr4j.messages.MysteriousT4.Purpose.AUTH_R;
 import static net.java.otr4j.messages.MysteriousT4.encode;
+import static net.java.otr4j.util.Logging.log;
 
 abstract class AbstractOTR4State extends AbstractOTR3State {
 
@@ -70,8 +71,8 @@ abstract class AbstractOTR4State extends AbstractOTR3State {
         try {
             final SessionID sessionID = context.getSessionID();
             if (encodedM instanceof DataMessage4) {
-                LOGGER.log(Level.FINEST, "{0} received a data message (OTRv4) from {1}, handling in state {2}.",
-                        new Object[]{sessionID.getAccountID(), sessionID.getUserID(), this.getClass().getName()});
+                log(LOGGER, Level.FINEST, "{0}: Received a data message (OTRv4), handling in state {1}.",
+                        sessionID, this.getClass());
                 return handleDataMessage(context, (DataMessage4) encodedM);
             }
             // Anything that is not a Data message is some type of AKE message.
@@ -18,6 +18,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.logging.Logger;
 
 import static java.lang.Integer.MIN_VALUE;
@@ -35,6 +36,7 @@ import static net.java.otr4j.crypto.OtrCryptoEngine4.kdf1;
 import static net.java.otr4j.util.ByteArrays.allZeroBytes;
 import static net.java.otr4j.util.ByteArrays.constantTimeEquals;
 import static net.java.otr4j.util.ByteArrays.requireLengthExactly;
+import static net.java.otr4j.util.Logging.log;
 import static org.bouncycastle.util.Arrays.clear;
 import static org.bouncycastle.util.Arrays.concatenate;
 
@@ -150,6 +152,25 @@ final class DoubleRatchet implements AutoCloseable {
         return this.senderRatchet.needsRotation;
     }
 
+    /**
+     * Indicates whether the next sender key rotation performs a DH ratchet, i.e. produces a new DH public key.
+     *
+     * @return Returns true iff the next sender key rotation performs a DH ratchet.
+     */
+    @CheckReturnValue
+    boolean isDHRatchetOnSenderKeyRotation() {
+        return this.i % 3 == 0;
+    }
+
+    /**
+     * The length of the MACs that are revealed with the next sender key rotation.
+     *
+     * @return Returns the length in bytes.
+     */
+    int macsToRevealLength() {
+        return this.macsToReveal.size();
+    }
+
     /**
      * The ratchet ID ('i')
      *
@@ -207,7 +228,7 @@ final class DoubleRatchet implements AutoCloseable {
             throw new IllegalStateException("Rotation is only allowed after new public key material was received from the other party.");
         }
         // Perform sender key rotation.
-        LOGGER.log(FINEST, "Rotating root key and sending chain key for ratchet " + this.i);
+        log(LOGGER, FINEST, "Rotating root key and sending chain key for ratchet {0}", this.i);
         final boolean performDHRatchet = this.i % 3 == 0;
         this.sharedSecret.rotateOurKeys(performDHRatchet);
         generateRatchetKeys(Purpose.SENDING);
@@ -229,8 +250,8 @@ final class DoubleRatchet implements AutoCloseable {
      */
     @Nonnull
     byte[] encrypt(@Nonnull final byte[] data) {
-        LOGGER.log(FINEST, "Generating message keys for encryption of ratchet {0}, message {1}.",
-                new Object[]{this.i - 1, this.senderRatchet.messageID});
+        log(LOGGER, FINEST, "Generating message keys for encryption of ratchet {0}, message {1}.",
+                this.i - 1, this.senderRatchet.messageID);
         try (MessageKeys keys = this.generateSendingKeys()) {
             return keys.encrypt(data);
         }
@@ -244,8 +265,8 @@ final class DoubleRatchet implements AutoCloseable {
      */
     @Nonnull
     byte[] authenticate(@Nonnull final byte[] dataMessageSectionsContent) {
-        LOGGER.log(FINEST, "Generating message keys for authentication of ratchet {0}, message {1}.",
-                new Object[]{this.i - 1, this.senderRatchet.messageID});
+        log(LOGGER, FINEST, "Generating message keys for authentication of ratchet {0}, message {1}.",
+                this.i - 1, this.senderRatchet.messageID);
         try (MessageKeys keys = this.generateSendingKeys()) {
             return keys.authenticate(dataMessageSectionsContent);
         }
@@ -278,8 +299,28 @@ final class DoubleRatchet implements AutoCloseable {
     byte[] decrypt(final int ratchetId, final int messageId, @Nonnull final byte[] encodedDataMessageSections,
             @Nonnull final byte[] authenticator, @Nonnull final byte[] ciphertext)
             throws VerificationException, RotationLimitationException {
-        LOGGER.log(FINEST, "Generating message keys for verification and decryption of ratchet {0}, message {1}.",
-                new Object[] {this.i - 1, this.receiverRatchet.messageID});
+        return decrypt(ratchetId, messageId, ByteBuffer.wrap(encodedDataMessageSections), authenticator, ciphertext);
+    }
+
+    /**
+     * Verify then decrypt a received OTRv4 data message.
+     *
+     * @param ratchetId                  ID for the receiving ratchet.
+     * @param messageId                  ID for the receiving ratchet message ID.
+     * @param encodedDataMessageSections Data message sections that need to be authenticated, as the remaining bytes of
+     *                                   the buffer, e.g. a view of the message as it was received.
+     * @param ciphertext                 The encrypted message ciphertext.
+     * @return Returns the decrypted ciphertext.
+     * @throws VerificationException       If data message fails verification, i.e. the authenticators do not match.
+     * @throws RotationLimitationException In case of failure to acquire the corresponding message keys. This exception
+     *                                     occurs when the first message of a new message is missing and therefore we
+     *                                     cannot generate the necessary keys.
+     */
+    byte[] decrypt(final int ratchetId, final int messageId, @Nonnull final ByteBuffer encodedDataMessageSections,
+            @Nonnull final byte[] authenticator, @Nonnull final byte[] ciphertext)
+            throws VerificationException, RotationLimitationException {
+        log(LOGGER, FINEST, "Generating message keys for verification and decryption of ratchet {0}, message {1}.",
+                this.i - 1, this.receiverRatchet.messageID);
         try (MessageKeys keys = generateReceivingKeys(ratchetId, messageId)) {
             keys.verify(encodedDataMessageSections, authenticator);
             this.macsToReveal.write(authenticator, 0, authenticator.length);
@@ -298,8 +339,8 @@ final class DoubleRatchet implements AutoCloseable {
     @Nonnull
     byte[] extraSymmetricSendingKey() {
         requireNotClosed();
-        LOGGER.log(FINEST, "Generating extra symmetric keys for encryption of ratchet {0}, message {1}.",
-                new Object[] {this.i - 1, this.senderRatchet.messageID});
+        log(LOGGER, FINEST, "Generating extra symmetric keys for encryption of ratchet {0}, message {1}.",
+                this.i - 1, this.senderRatchet.messageID);
         try (MessageKeys keys = generateSendingKeys()) {
             return keys.getExtraSymmetricKey();
         }
@@ -313,8 +354,8 @@ final class DoubleRatchet implements AutoCloseable {
     @Nonnull
     byte[] extraSymmetricReceivingKey(final int ratchetId, final int messageId) throws RotationLimitationException {
         requireNotClosed();
-        LOGGER.log(FINEST, "Generating extra symmetric keys for encryption of ratchet {0}, message {1}.",
-                new Object[] {this.i - 1, this.senderRatchet.messageID});
+        log(LOGGER, FINEST, "Generating extra symmetric keys for encryption of ratchet {0}, message {1}.",
+                this.i - 1, this.senderRatchet.messageID);
         try (MessageKeys keys = generateReceivingKeys(ratchetId, messageId)) {
             return keys.getExtraSymmetricKey();
         }
@@ -344,7 +385,7 @@ final class DoubleRatchet implements AutoCloseable {
         }
         // TODO verify that number of messages needing to fast-forward is acceptable. (max_skip in OTRv4 spec)
         while (this.receiverRatchet.messageID < messageId) {
-            LOGGER.log(FINEST, "Fast-forward rotating receiving chain key to catch up with message ID: " + messageId);
+            log(LOGGER, FINEST, "Fast-forward rotating receiving chain key to catch up with message ID: {0}", messageId);
             this.receiverRatchet.rotateChainKey();
             // TODO store intermediate message keys for previous messages as the message may arrive out-of-order
         }
@@ -383,8 +424,8 @@ final class DoubleRatchet implements AutoCloseable {
     // FIXME need to verify that public keys (ECDH and DH) were not encountered previously.
     void rotateReceiverKeys(@Nonnull final Point nextECDH, @Nullable final BigInteger nextDH) throws OtrCryptoException {
         requireNotClosed();
-        LOGGER.log(FINEST, "Rotating root key and receiving chain key for ratchet {0} (nextDH = {1})",
-                new Object[]{this.i, nextDH != null});
+        log(LOGGER, FINEST, "Rotating root key and receiving chain key for ratchet {1} (nextDH = {0})",
+                Boolean.valueOf(nextDH != null), this.i);
         // FIXME do we want to check DH and ECDH public keys individually and immediately decide to return early? (or check both and only then decide)
         if (nextECDH.equals(this.sharedSecret.getTheirECDHPublicKey())) {
             LOGGER.log(FINE, "Skipping rotating receiver keys as ECDH public key is already known.");
@@ -651,10 +692,19 @@ final class DoubleRatchet implements AutoCloseable {
          */
         @Nonnull
         byte[] authenticate(@Nonnull final byte[] dataMessageSections) {
+            return authenticate(ByteBuffer.wrap(dataMessageSections));
+        }
+
+        /**
+         * Get the authenticator (MAC) for the data message sections that are the remaining bytes of the buffer.
+         *
+         * @param dataMessageSections The data message sections (excluding Authenticator and Revealed MACs).
+         * @return Returns the MAC. (Must be cleared separately.)
+         */
+        @Nonnull
+        byte[] authenticate(@Nonnull final ByteBuffer dataMessageSections) {
             final byte[] mac = generateMAC();
-            final byte[] concatMacDataMessageSections = concatenate(mac, dataMessageSections);
-            final byte[] authenticator = kdf1(AUTHENTICATOR, concatMacDataMessageSections, AUTHENTICATOR_LENGTH_BYTES);
-            clear(concatMacDataMessageSections);
+            final byte[] authenticator = kdf1(AUTHENTICATOR, mac, dataMessageSections, AUTHENTICATOR_LENGTH_BYTES);
             clear(mac);
             return authenticator;
         }
@@ -667,7 +717,7 @@ final class DoubleRatchet implements AutoCloseable {
          * @throws VerificationException In case of failure to verify the authenticator against the data message section
          *                               content.
          */
-        void verify(@Nonnull final byte[] dataMessageSection, @Nonnull final byte[] authenticator)
+        void verify(@Nonnull final ByteBuffer dataMessageSection, @Nonnull final byte[] authenticator)
                 throws VerificationException {
             requireNotClosed();
             final byte[] expectedAuthenticator = authenticate(dataMessageSection);
@@ -23,6 +23,7 @@ import java.util.logging.Logger;
 import static java.util.Objects.requireNonNull;
 import static net.java.otr4j.crypto.OtrCryptoEngine.sha1Hash;
 import static net.java.otr4j.util.ByteArrays.allZeroBytes;
+import static net.java.otr4j.util.Logging.log;
 
 // TODO consider doing lazy evaluation of generating 's', 'receivingCtr' and 'sendingCtr'. (Would save some memory/computation in case this session key combination is not actually used.)
 // TODO Does it make sense to randomly generate the initial sending counter value to further avoid reuse?
@@ -207,8 +208,8 @@ final class SessionKey implements AutoCloseable {
      */
     @Nonnull
     byte[] acquireSendingCtr() {
-        LOGGER.log(Level.FINEST, "Incrementing counter for (localkeyID, remoteKeyID) = ({0},{1})",
-                new Object[] {this.localKeyID, remoteKeyID});
+        log(LOGGER, Level.FINEST, "Incrementing counter for (localkeyID, remoteKeyID) = ({0},{1})",
+                this.localKeyID, remoteKeyID);
         for (int i = this.sendingCtr.length - 1; i >= 0; i--) {
             sendingCtr[i]++;
             if (this.sendingCtr[i] != 0) {
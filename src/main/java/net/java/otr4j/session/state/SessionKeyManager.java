@@ -23,6 +23,7 @@ import java.util.logging.Logger;
 
 import static java.util.Collections.synchronizedList;
 import static net.java.otr4j.crypto.DHKeyPairOTR3.generateDHKeyPair;
+import static net.java.otr4j.util.Logging.log;
 
 /**
  * Session key manager.
@@ -84,8 +85,8 @@ final class SessionKeyManager implements AutoCloseable {
      */
     @Nonnull
     SessionKey get(final int localKeyId, final int remoteKeyId) throws SessionKeyUnavailableException {
-        LOGGER.log(Level.FINEST, "Searching for session keys with (localKeyID, remoteKeyID) = ({0},{1})",
-                new Object[]{localKeyId, remoteKeyId});
+        log(LOGGER, Level.FINEST, "Searching for session keys with (localKeyID, remoteKeyID) = ({0},{1})",
+                localKeyId, remoteKeyId);
         for (final EnumMap<Index, SessionKey> sessionKeys : this.keys.values()) {
             for (final SessionKey key : sessionKeys.values()) {
                 if (key.getLocalKeyID() == localKeyId && key.getRemoteKeyID() == remoteKeyId) {
@@ -224,6 +225,21 @@ final class SessionKeyManager implements AutoCloseable {
         }
     }
 
+    /**
+     * The length of the old MAC keys that {@link #collectOldMacKeys()} would collect.
+     *
+     * @return Returns the length in bytes.
+     */
+    int oldMacKeysLength() {
+        synchronized (this.oldMacKeys) {
+            int len = 0;
+            for (final byte[] k : this.oldMacKeys) {
+                len += k.length;
+            }
+            return len;
+        }
+    }
+
     /**
      * Acquire the extra symmetric key that is facilitated by OTRv3.
      *
@@ -10,6 +10,7 @@ package net.java.otr4j.session.state;
 import net.java.otr4j.api.ClientProfile;
 import net.java.otr4j.api.InstanceTag;
 import net.java.otr4j.api.OtrException;
+import net.java.otr4j.api.OtrTracer;
 import net.java.otr4j.api.SessionID;
 import net.java.otr4j.api.SessionStatus;
 import net.java.otr4j.crypto.DHKeyPair;
@@ -39,6 +40,10 @@ import static java.util.Objects.requireNonNull;
 import static java.util.logging.Level.FINEST;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
+import static net.java.otr4j.api.OtrEngineHosts.getMetrics;
+import static net.java.otr4j.api.OtrEngineHosts.getTracer;
+import static net.java.otr4j.api.OtrTracer.Operation.DAKE_AUTH_R;
+import static net.java.otr4j.api.OtrTracer.Operation.DAKE_IDENTITY;
 import static net.java.otr4j.api.Session.Version.FOUR;
 import static net.java.otr4j.api.SessionStatus.PLAINTEXT;
 import static net.java.otr4j.crypto.OtrCryptoEngine4.KDFUsage.FIRST_ROOT_KEY;
@@ -133,18 +138,22 @@ final class StateAwaitingAuthR extends AbstractCommonState {
     @Override
     AbstractEncodedMessage handleAKEMessage(@Nonnull final Context context, @Nonnull final AbstractEncodedMessage message) {
         if (message instanceof IdentityMessage) {
-            try {
+            try (OtrTracer.Span ignored = getTracer(context.getHost()).start(DAKE_IDENTITY, context.getSessionID(),
+                    context.getReceiverInstanceTag())) {
                 return handleIdentityMessage(context, (IdentityMessage) message);
             } catch (final ValidationException e) {
                 LOGGER.log(INFO, "Failed to process Identity message.", e);
+                getMetrics(context.getHost()).verificationFailed(context.getSessionID());
                 return null;
             }
         }
         if (message instanceof AuthRMessage) {
-            try {
+            try (OtrTracer.Span ignored = getTracer(context.getHost()).start(DAKE_AUTH_R, context.getSessionID(),
+                    context.getReceiverInstanceTag())) {
                 return handleAuthRMessage(context, (AuthRMessage) message);
             } catch (final ValidationException e) {
                 LOGGER.log(WARNING, "Failed to process Auth-R message.", e);
+                getMetrics(context.getHost()).verificationFailed(context.getSessionID());
                 return null;
             }
         }
@@ -29,4 +29,16 @@ public interface StateEncrypted extends State {
     @Override
     AbstractEncodedMessage transformSending(@Nonnull Context context, @Nonnull String msgText,
             @Nonnull Iterable<TLV> tlvs, byte flags);
+
+    /**
+     * The length of the OTR-encoded data message that {@link #transformSending(Context, String, Iterable, byte)}
+     * produces for the provided content. The length is determined without encrypting the content, i.e. without
+     * consuming any key material. Components that are generated during encryption are accounted for with their maximum
+     * length.
+     *
+     * @param msgText the message text
+     * @param tlvs    the TLVs
+     * @return Returns the (maximum) length in bytes.
+     */
+    int encodedDataMessageLength(@Nonnull String msgText, @Nonnull Iterable<TLV> tlvs);
 }
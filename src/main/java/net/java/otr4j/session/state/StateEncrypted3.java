@@ -9,6 +9,7 @@ package net.java.otr4j.session.state;
 
 import net.java.otr4j.api.OtrException;
 import net.java.otr4j.api.OtrPolicy;
+import net.java.otr4j.api.OtrTracer;
 import net.java.otr4j.api.Session;
 import net.java.otr4j.api.SessionID;
 import net.java.otr4j.api.SessionStatus;
@@ -34,23 +35,30 @@ import javax.crypto.interfaces.DHPublicKey;
 import java.net.ProtocolException;
 import java.security.interfaces.DSAPublicKey;
 import java.util.Set;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static java.util.Collections.singletonList;
 import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.FINEST;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
 import static net.java.otr4j.api.OtrEngineHosts.extraSymmetricKeyDiscovered;
+import static net.java.otr4j.api.OtrEngineHosts.getMetrics;
+import static net.java.otr4j.api.OtrEngineHosts.getTracer;
 import static net.java.otr4j.api.OtrEngineHosts.showError;
 import static net.java.otr4j.api.OtrEngineHosts.unencryptedMessageReceived;
 import static net.java.otr4j.api.OtrPolicys.allowedVersions;
+import static net.java.otr4j.api.OtrTracer.Operation.SMP_PROCESS;
 import static net.java.otr4j.crypto.OtrCryptoEngine.aesDecrypt;
 import static net.java.otr4j.crypto.OtrCryptoEngine.aesEncrypt;
 import static net.java.otr4j.crypto.OtrCryptoEngine.sha1Hmac;
 import static net.java.otr4j.io.EncryptedMessage.extractContents;
 import static net.java.otr4j.io.ErrorMessage.ERROR_1_MESSAGE_UNREADABLE_MESSAGE;
 import static net.java.otr4j.io.OtrEncodables.encode;
+import static net.java.otr4j.io.OtrEncodables.messageContentLength;
 import static net.java.otr4j.session.smp.SmpTlvHandler.smpPayload;
 import static net.java.otr4j.util.ByteArrays.constantTimeEquals;
+import static net.java.otr4j.util.Logging.log;
 
 /**
  * Message state in case an encrypted session is established.
@@ -79,14 +87,13 @@ final class StateEncrypted3 extends AbstractCommonState implements StateEncrypte
      */
     private static final int USE_EXTRA_SYMMETRIC_KEY = 0x0008;
 
+    private static final Logger LOGGER = Logger.getLogger(StateEncrypted3.class.getName());
+
     /**
      * Active version of the protocol in use in this encrypted session.
      */
     private final int protocolVersion;
 
-    @SuppressWarnings("PMD.LoggerIsNotStaticFinal")
-    private final Logger logger;
-
     /**
      * The Socialist Millionaire Protocol handler.
      */
@@ -107,7 +114,6 @@ final class StateEncrypted3 extends AbstractCommonState implements StateEncrypte
     StateEncrypted3(@Nonnull final Context context, @Nonnull final AuthState state, @Nonnull final SecurityParameters params) throws OtrCryptoException {
         super(state);
         final SessionID sessionID = context.getSessionID();
-        this.logger = Logger.getLogger(sessionID.getAccountID() + "-->" + sessionID.getUserID());
         this.protocolVersion = params.getVersion();
         this.smpTlvHandler = new SmpTlvHandler(context.secureRandom(), sessionID, params.getRemoteLongTermPublicKey(),
                 context.getReceiverInstanceTag(), context.getHost(), params.getS());
@@ -159,7 +165,8 @@ final class StateEncrypted3 extends AbstractCommonState implements StateEncrypte
     @Nullable
     @Override
     AbstractEncodedMessage handleAKEMessage(@Nonnull final Context context, @Nonnull final AbstractEncodedMessage message) {
-        logger.log(FINE, " Ignoring OTRv4 DAKE message as we are in OTRv3 encrypted message state.");
+        log(LOGGER, FINE, "{0}: Ignoring OTRv4 DAKE message as we are in OTRv3 encrypted message state.",
+                context.getSessionID());
         return null;
     }
 
@@ -167,28 +174,30 @@ final class StateEncrypted3 extends AbstractCommonState implements StateEncrypte
     @Nullable
     String handleDataMessage(@Nonnull final Context context, @Nonnull final DataMessage message)
             throws OtrException, ProtocolException {
-        logger.finest("Message state is ENCRYPTED. Trying to decrypt message.");
+        log(LOGGER, FINEST, "{0}: Message state is ENCRYPTED. Trying to decrypt message.", context.getSessionID());
         // Find matching session keys.
         final SessionKey matchingKeys;
         try {
             matchingKeys = sessionKeyManager.get(message.recipientKeyID, message.senderKeyID);
         } catch (final SessionKeyManager.SessionKeyUnavailableException ex) {
-            logger.finest("No matching keys found.");
+            log(LOGGER, FINEST, "{0}: No matching keys found.", context.getSessionID());
+            getMetrics(context.getHost()).decryptionFailed(context.getSessionID());
             handleUnreadableMessage(context, message, "", ERROR_1_MESSAGE_UNREADABLE_MESSAGE);
             return null;
         }
 
         // Verify received MAC with a locally calculated MAC.
-        logger.finest("Transforming T to byte[] to calculate it's HmacSHA1.");
+        log(LOGGER, FINEST, "{0}: Transforming T to byte[] to calculate its HmacSHA1.", context.getSessionID());
 
-        final byte[] computedMAC = sha1Hmac(encode(message.getT()), matchingKeys.receivingMAC());
+        final byte[] computedMAC = sha1Hmac(message.getEncodedT(), matchingKeys.receivingMAC());
         if (!constantTimeEquals(computedMAC, message.mac)) {
-            logger.finest("MAC verification failed, ignoring message");
+            log(LOGGER, FINEST, "{0}: MAC verification failed, ignoring message", context.getSessionID());
+            getMetrics(context.getHost()).decryptionFailed(context.getSessionID());
             handleUnreadableMessage(context, message, "", ERROR_1_MESSAGE_UNREADABLE_MESSAGE);
             return null;
         }
 
-        logger.finest("Computed HmacSHA1 value matches sent one.");
+        log(LOGGER, FINEST, "{0}: Computed HmacSHA1 value matches sent one.", context.getSessionID());
 
         // Mark this MAC key as old to be revealed.
         matchingKeys.markUsed();
@@ -197,7 +206,9 @@ final class StateEncrypted3 extends AbstractCommonState implements StateEncrypte
             final byte[] lengthenedReceivingCtr = matchingKeys.verifyReceivingCtr(message.ctr);
             dmc = aesDecrypt(matchingKeys.receivingAESKey(), lengthenedReceivingCtr, message.encryptedMessage);
         } catch (final SessionKey.ReceivingCounterValidationFailed ex) {
-            logger.log(Level.WARNING, "Receiving ctr value failed validation, ignoring message: {0}", ex.getMessage());
+            log(LOGGER, WARNING, "{0}: Receiving ctr value failed validation, ignoring message: {1}",
+                    context.getSessionID(), ex.getMessage());
+            getMetrics(context.getHost()).decryptionFailed(context.getSessionID());
             showError(context.getHost(), context.getSessionID(), "Counter value of received message failed validation.");
             context.injectMessage(new ErrorMessage("", "Message's counter value failed validation."));
             return null;
@@ -215,16 +226,17 @@ final class StateEncrypted3 extends AbstractCommonState implements StateEncrypte
         // Extract and process TLVs.
         final Content content = extractContents(dmc);
         for (final TLV tlv : content.tlvs) {
-            logger.log(FINE, "Received TLV type {0}", tlv.type);
+            log(LOGGER, FINE, "{0}: Received TLV type {1}", context.getSessionID(), tlv.type);
             if (smpPayload(tlv)) {
-                try {
+                try (OtrTracer.Span ignored = getTracer(context.getHost()).start(SMP_PROCESS, context.getSessionID(),
+                        context.getReceiverInstanceTag())) {
                     final TLV response = this.smpTlvHandler.process(tlv);
                     if (response != null) {
                         context.injectMessage(transformSending(context, "", singletonList(response), FLAG_IGNORE_UNREADABLE));
                     }
                 } catch (final SMException e) {
-                    this.logger.log(Level.WARNING, "Illegal, bad or corrupt SMP TLV encountered. Stopped processing. This may indicate a bad implementation of OTR at the other party.",
-                            e);
+                    log(LOGGER, WARNING, "{0}: Illegal, bad or corrupt SMP TLV encountered. Stopped processing. This may indicate a bad implementation of OTR at the other party.",
+                            context.getSessionID(), e);
                 }
                 continue;
             }
@@ -234,7 +246,8 @@ final class StateEncrypted3 extends AbstractCommonState implements StateEncrypte
                 break;
             case TLV.DISCONNECTED: // TLV1
                 if (!content.message.isEmpty()) {
-                    logger.warning("Expected other party to send TLV type 1 with empty human-readable message.");
+                    log(LOGGER, WARNING, "{0}: Expected other party to send TLV type 1 with empty human-readable message.",
+                            context.getSessionID());
                 }
                 context.transition(this, new StateFinished(getAuthState()));
                 break;
@@ -243,7 +256,7 @@ final class StateEncrypted3 extends AbstractCommonState implements StateEncrypte
                 extraSymmetricKeyDiscovered(context.getHost(), context.getSessionID(), content.message, key, tlv.value);
                 break;
             default:
-                logger.log(Level.INFO, "Unsupported TLV #{0} received. Ignoring.", tlv.type);
+                log(LOGGER, INFO, "{0}: Unsupported TLV #{1} received. Ignoring.", context.getSessionID(), tlv.type);
                 break;
             }
         }
@@ -265,9 +278,9 @@ final class StateEncrypted3 extends AbstractCommonState implements StateEncrypte
             return;
         }
         // Re-negotiate if we got an error and we are in ENCRYPTED message state
-        logger.finest("Error message starts AKE.");
+        log(LOGGER, FINEST, "{0}: Error message starts AKE.", context.getSessionID());
         final Set<Integer> versions = allowedVersions(policy);
-        logger.finest("Sending Query");
+        log(LOGGER, FINEST, "{0}: Sending Query", context.getSessionID());
         context.injectMessage(new QueryMessage(versions));
     }
 
@@ -275,9 +288,7 @@ final class StateEncrypted3 extends AbstractCommonState implements StateEncrypte
     @Nonnull
     public DataMessage transformSending(@Nonnull final Context context, @Nonnull final String msgText,
             @Nonnull final Iterable<TLV> tlvs, final byte flags) {
-        final SessionID sessionID = context.getSessionID();
-        logger.log(Level.FINEST, "{0} sends an encrypted message to {1} through {2}.",
-                new Object[]{sessionID.getAccountID(), sessionID.getUserID(), sessionID.getProtocolName()});
+        log(LOGGER, FINEST, "{0}: Sending an encrypted message.", context.getSessionID());
 
         final byte[] data = new OtrOutputStream().writeMessage(msgText).writeByte(0).writeTLV(tlvs).toByteArray();
 
@@ -290,8 +301,8 @@ final class StateEncrypted3 extends AbstractCommonState implements StateEncrypte
         final byte[] ctr = encryptionKeys.acquireSendingCtr();
 
         // Encrypt message.
-        logger.log(Level.FINEST, "Encrypting message with keyids (localKeyID, remoteKeyID) = ({0}, {1})",
-                new Object[]{senderKeyID, recipientKeyID});
+        log(LOGGER, FINEST, "{0}: Encrypting message with keyids (localKeyID, remoteKeyID) = ({1}, {2})",
+                context.getSessionID(), senderKeyID, recipientKeyID);
         final byte[] encryptedMsg = aesEncrypt(encryptionKeys.sendingAESKey(), ctr, data);
 
         // Get most recent keys to get the next D-H public key.
@@ -305,7 +316,7 @@ final class StateEncrypted3 extends AbstractCommonState implements StateEncrypte
         // Calculate T hash.
         final byte[] sendingMACKey = encryptionKeys.sendingMAC();
 
-        logger.finest("Transforming T to byte[] to calculate it's HmacSHA1.");
+        log(LOGGER, FINEST, "{0}: Transforming T to byte[] to calculate its HmacSHA1.", context.getSessionID());
         final byte[] mac = sha1Hmac(encode(t), sendingMACKey);
 
         // Get old MAC keys to be revealed.
@@ -316,6 +327,13 @@ final class StateEncrypted3 extends AbstractCommonState implements StateEncrypte
         return message;
     }
 
+    @Override
+    public int encodedDataMessageLength(@Nonnull final String msgText, @Nonnull final Iterable<TLV> tlvs) {
+        final DHPublicKey nextDH = this.sessionKeyManager.getMostRecentSessionKeys().getLocalKeyPair().getPublic();
+        return DataMessage.encodedLength(this.protocolVersion, nextDH, messageContentLength(msgText, tlvs),
+                this.sessionKeyManager.oldMacKeysLength());
+    }
+
     @Override
     public void end(@Nonnull final Context context) throws OtrException {
         // The message carrying TLV 1 (Disconnect) is supposed to contain remaining MAC keys. However, as part of
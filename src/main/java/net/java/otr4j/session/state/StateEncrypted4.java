@@ -8,6 +8,7 @@
 package net.java.otr4j.session.state;
 
 import net.java.otr4j.api.OtrException;
+import net.java.otr4j.api.OtrTracer;
 import net.java.otr4j.api.SessionID;
 import net.java.otr4j.api.SessionStatus;
 import net.java.otr4j.api.TLV;
@@ -41,15 +42,25 @@ import static java.util.logging.Level.FINE;
 import static java.util.logging.Level.FINEST;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
+import static net.java.otr4j.api.OtrEngineHosts.getMetrics;
+import static net.java.otr4j.api.OtrEngineHosts.getTracer;
 import static net.java.otr4j.api.OtrEngineHosts.unencryptedMessageReceived;
+import static net.java.otr4j.api.OtrTracer.Operation.RATCHET_ROTATE_RECEIVER;
+import static net.java.otr4j.api.OtrTracer.Operation.RATCHET_ROTATE_SENDER;
+import static net.java.otr4j.api.OtrTracer.Operation.SMP_PROCESS;
 import static net.java.otr4j.api.Session.Version.FOUR;
 import static net.java.otr4j.api.TLV.DISCONNECTED;
+import static net.java.otr4j.crypto.DHKeyPair.DH_PUBLIC_KEY_MAX_LENGTH_BYTES;
 import static net.java.otr4j.io.EncryptedMessage.extractContents;
 import static net.java.otr4j.io.ErrorMessage.ERROR_1_MESSAGE_UNREADABLE_MESSAGE;
 import static net.java.otr4j.io.ErrorMessage.ERROR_ID_UNREADABLE_MESSAGE;
+import static net.java.otr4j.io.OtrEncodables.dataLength;
+import static net.java.otr4j.io.OtrEncodables.messageContentLength;
+import static net.java.otr4j.messages.DataMessage4s.dataMessageSections;
 import static net.java.otr4j.messages.DataMessage4s.encodeDataMessageSections;
 import static net.java.otr4j.session.smpv4.SMP.smpPayload;
 import static net.java.otr4j.util.ByteArrays.allZeroBytes;
+import static net.java.otr4j.util.Logging.log;
 import static org.bouncycastle.util.Arrays.concatenate;
 
 /**
@@ -61,8 +72,7 @@ final class StateEncrypted4 extends AbstractCommonState implements StateEncrypte
 
     private static final int VERSION = FOUR;
 
-    @SuppressWarnings("PMD.LoggerIsNotStaticFinal")
-    private final Logger logger;
+    private static final Logger LOGGER = Logger.getLogger(StateEncrypted4.class.getName());
 
     private final DoubleRatchet ratchet;
 
@@ -75,7 +85,6 @@ final class StateEncrypted4 extends AbstractCommonState implements StateEncrypte
             @Nonnull final DoubleRatchet ratchet, @Nonnull final AuthState authState) {
         super(authState);
         final SessionID sessionID = context.getSessionID();
-        this.logger = Logger.getLogger(sessionID.getAccountID() + "-->" + sessionID.getUserID());
         this.ratchet = requireNonNull(ratchet);
         this.smp = new SMP(context.secureRandom(), context.getHost(), sessionID, ssid, ourLongTermPublicKey,
                 theirLongTermPublicKey, context.getReceiverInstanceTag());
@@ -141,13 +150,18 @@ final class StateEncrypted4 extends AbstractCommonState implements StateEncrypte
         final BigInteger dhPublicKey;
         final byte[] collectedMACs;
         if (this.ratchet.isNeedSenderKeyRotation()) {
-            final RotationResult rotation = this.ratchet.rotateSenderKeys();
-            this.logger.log(FINEST, "Sender keys rotated. DH public key: {0}, revealed MACs size: {1}.",
-                    new Object[] {rotation.dhPublicKey != null, rotation.revealedMacs.length});
+            final RotationResult rotation;
+            try (OtrTracer.Span ignored = getTracer(context.getHost()).start(RATCHET_ROTATE_SENDER,
+                    context.getSessionID(), context.getReceiverInstanceTag())) {
+                rotation = this.ratchet.rotateSenderKeys();
+            }
+            getMetrics(context.getHost()).ratchetRotated(context.getSessionID());
+            log(LOGGER, FINEST, "{0}: Sender keys rotated. DH public key: {1}, revealed MACs size: {2}.",
+                    context.getSessionID(), Boolean.valueOf(rotation.dhPublicKey != null), rotation.revealedMacs.length);
             dhPublicKey = rotation.dhPublicKey;
             collectedMACs = concatenate(providedMACsToReveal, rotation.revealedMacs);
         } else {
-            this.logger.log(FINEST, "Sender keys rotation is not needed.");
+            log(LOGGER, FINEST, "{0}: Sender keys rotation is not needed.", context.getSessionID());
             dhPublicKey = null;
             collectedMACs = providedMACsToReveal;
         }
@@ -168,6 +182,16 @@ final class StateEncrypted4 extends AbstractCommonState implements StateEncrypte
         return message;
     }
 
+    @Override
+    public int encodedDataMessageLength(@Nonnull final String msgText, @Nonnull final Iterable<TLV> tlvs) {
+        // The DH public key is generated during sender key rotation. Its length is accounted for with the maximum.
+        final boolean rotation = this.ratchet.isNeedSenderKeyRotation();
+        final int dhLength = rotation && this.ratchet.isDHRatchetOnSenderKeyRotation()
+                ? dataLength(DH_PUBLIC_KEY_MAX_LENGTH_BYTES) : dataLength(0);
+        final int revealedMacsLength = rotation ? this.ratchet.macsToRevealLength() : 0;
+        return DataMessage4.encodedLength(dhLength, messageContentLength(msgText, tlvs), revealedMacsLength);
+    }
+
     @Nullable
     @Override
     AbstractEncodedMessage handleAKEMessage(@Nonnull final Context context, @Nonnull final AbstractEncodedMessage message) {
@@ -175,12 +199,13 @@ final class StateEncrypted4 extends AbstractCommonState implements StateEncrypte
             try {
                 return handleIdentityMessage(context, (IdentityMessage) message);
             } catch (final ValidationException e) {
-                logger.log(INFO, "Failed to process Identity message.", e);
+                log(LOGGER, INFO, "{0}: Failed to process Identity message.", context.getSessionID(), e);
+                getMetrics(context.getHost()).verificationFailed(context.getSessionID());
                 return null;
             }
         }
-        logger.log(INFO, "We only expect to receive an Identity message. Ignoring message with messagetype: {0}",
-                message.getType());
+        log(LOGGER, INFO, "{0}: We only expect to receive an Identity message. Ignoring message with messagetype: {1}",
+                context.getSessionID(), message.getType());
         return null;
     }
 
@@ -207,9 +232,14 @@ final class StateEncrypted4 extends AbstractCommonState implements StateEncrypte
             // The Double Ratchet prescribes alternate rotations, so after a single rotation for each we expect to reveal MAC codes.
             if (message.i > 0 && message.revealedMacs.length == 0) {
                 assert false : "CHECK: Shouldn't there always be at least one MAC code to reveal?";
-                logger.warning("Expected other party to reveal recently used MAC codes, but no MAC codes are revealed! (This may be a bug in the other party's OTR implementation.)");
+                log(LOGGER, WARNING, "{0}: Expected other party to reveal recently used MAC codes, but no MAC codes are revealed! (This may be a bug in the OTR implementation of the other party.)",
+                        context.getSessionID());
+            }
+            try (OtrTracer.Span ignored = getTracer(context.getHost()).start(RATCHET_ROTATE_RECEIVER,
+                    context.getSessionID(), context.getReceiverInstanceTag())) {
+                this.ratchet.rotateReceiverKeys(message.ecdhPublicKey, message.dhPublicKey);
             }
-            this.ratchet.rotateReceiverKeys(message.ecdhPublicKey, message.dhPublicKey);
+            getMetrics(context.getHost()).ratchetRotated(context.getSessionID());
         }
         // If the encrypted message corresponds to an stored message key corresponding to an skipped message, the
         // message is verified and decrypted with that key which is deleted from the storage.
@@ -219,14 +249,17 @@ final class StateEncrypted4 extends AbstractCommonState implements StateEncrypte
         // message key and the next receiving chain key. The message is then verified and decrypted.
         final byte[] decrypted;
         try {
-            decrypted = this.ratchet.decrypt(message.i, message.j, encodeDataMessageSections(message),
+            decrypted = this.ratchet.decrypt(message.i, message.j, dataMessageSections(message),
                     message.authenticator, message.ciphertext);
         } catch (final RotationLimitationException e) {
-            this.logger.log(INFO, "Message received that is part of next ratchet. As we do not have the public keys for that ratchet yet, the message cannot be decrypted. This message is now lost.");
+            log(LOGGER, INFO, "{0}: Message received that is part of next ratchet. As we do not have the public keys for that ratchet yet, the message cannot be decrypted. This message is now lost.",
+                    context.getSessionID());
+            getMetrics(context.getHost()).decryptionFailed(context.getSessionID());
             handleUnreadableMessage(context, message, ERROR_ID_UNREADABLE_MESSAGE, ERROR_1_MESSAGE_UNREADABLE_MESSAGE);
             return null;
         } catch (final VerificationException e) {
-            this.logger.log(FINE, "Received message fails verification. Rejecting the message.");
+            log(LOGGER, FINE, "{0}: Received message fails verification. Rejecting the message.", context.getSessionID());
+            getMetrics(context.getHost()).decryptionFailed(context.getSessionID());
             handleUnreadableMessage(context, message, ERROR_ID_UNREADABLE_MESSAGE, ERROR_1_MESSAGE_UNREADABLE_MESSAGE);
             return null;
         }
@@ -234,19 +267,21 @@ final class StateEncrypted4 extends AbstractCommonState implements StateEncrypte
         // Process decrypted message contents. Extract and process TLVs.
         final Content content = extractContents(decrypted);
         for (final TLV tlv : content.tlvs) {
-            logger.log(FINE, "Received TLV type {0}", tlv.type);
+            log(LOGGER, FINE, "{0}: Received TLV type {1}", context.getSessionID(), tlv.type);
             if (smpPayload(tlv)) {
                 if ((message.flags & FLAG_IGNORE_UNREADABLE) != FLAG_IGNORE_UNREADABLE) {
-                    logger.log(WARNING, "Other party is using a faulty OTR client: all SMP messages are expected to have the IGNORE_UNREADABLE flag set.");
+                    log(LOGGER, WARNING, "{0}: Other party is using a faulty OTR client: all SMP messages are expected to have the IGNORE_UNREADABLE flag set.",
+                            context.getSessionID());
                 }
-                try {
+                try (OtrTracer.Span ignored = getTracer(context.getHost()).start(SMP_PROCESS, context.getSessionID(),
+                        context.getReceiverInstanceTag())) {
                     final TLV response = this.smp.process(tlv);
                     if (response != null) {
                         context.injectMessage(transformSending(context, "", singletonList(response), FLAG_IGNORE_UNREADABLE));
                     }
                 } catch (final ProtocolException | OtrCryptoException e) {
-                    this.logger.log(WARNING, "Illegal, bad or corrupt SMP TLV encountered. Stopped processing. This may indicate a bad implementation of OTR at the other party.",
-                            e);
+                    log(LOGGER, WARNING, "{0}: Illegal, bad or corrupt SMP TLV encountered. Stopped processing. This may indicate a bad implementation of OTR at the other party.",
+                            context.getSessionID(), e);
                 }
                 continue;
             }
@@ -256,16 +291,18 @@ final class StateEncrypted4 extends AbstractCommonState implements StateEncrypte
                 break;
             case DISCONNECTED: // TLV1
                 if ((message.flags & FLAG_IGNORE_UNREADABLE) != FLAG_IGNORE_UNREADABLE) {
-                    logger.log(WARNING, "Other party is using a faulty OTR client: DISCONNECT messages are expected to have the IGNORE_UNREADABLE flag set.");
+                    log(LOGGER, WARNING, "{0}: Other party is using a faulty OTR client: DISCONNECT messages are expected to have the IGNORE_UNREADABLE flag set.",
+                            context.getSessionID());
                 }
                 if (!content.message.isEmpty()) {
-                    logger.warning("Expected other party to send TLV type 1 with empty human-readable message.");
+                    log(LOGGER, WARNING, "{0}: Expected other party to send TLV type 1 with empty human-readable message.",
+                            context.getSessionID());
                 }
                 this.ratchet.forgetRemainingMACsToReveal();
                 context.transition(this, new StateFinished(getAuthState()));
                 break;
             default:
-                logger.log(INFO, "Unsupported TLV #{0} received. Ignoring.", tlv.type);
+                log(LOGGER, INFO, "{0}: Unsupported TLV #{1} received. Ignoring.", context.getSessionID(), tlv.type);
                 break;
             }
         }
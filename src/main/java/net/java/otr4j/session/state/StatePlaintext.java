@@ -31,6 +31,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static java.util.logging.Level.INFO;
+import static net.java.otr4j.api.OtrEngineHosts.getMetrics;
 import static net.java.otr4j.api.OtrEngineHosts.requireEncryptedMessage;
 import static net.java.otr4j.api.OtrPolicys.allowedVersions;
 import static net.java.otr4j.io.ErrorMessage.ERROR_2_NOT_IN_PRIVATE_STATE_MESSAGE;
@@ -101,6 +102,7 @@ public final class StatePlaintext extends AbstractCommonState {
             return handleIdentityMessage(context, (IdentityMessage) message);
         } catch (final ValidationException e) {
             LOGGER.log(INFO, "Failed to process Identity message.", e);
+            getMetrics(context.getHost()).verificationFailed(context.getSessionID());
             return null;
         }
     }
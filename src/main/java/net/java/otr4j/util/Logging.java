@@ -0,0 +1,268 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.util;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Level-guarded logging utilities for use on hot paths.
+ * <p>
+ * Every method checks whether the level is loggable before doing anything else. Parameters are passed as separate
+ * arguments instead of varargs, and {@code int} overloads are provided, such that a call at a disabled level does not
+ * allocate: no message string is built, no parameter array is created and no value is boxed. Messages use the
+ * {@link java.text.MessageFormat} placeholders of {@link java.util.logging}, e.g. {@code {0}}.
+ * <p>
+ * Context, such as the session ID, is passed as a parameter, such that a single static logger per class suffices.
+ * <pre>
+ * Logging.log(LOGGER, FINEST, "{0}: rotating root key, ratchet {1}", sessionID, ratchetID);
+ * </pre>
+ * The logger's name is reported as source class, which is the class name for loggers that are acquired through
+ * {@code Logger.getLogger(Foo.class.getName())}. This avoids inspecting the stack to infer the caller.
+ */
+public final class Logging {
+
+    private Logging() {
+        // No need to instantiate utility class.
+    }
+
+    /**
+     * Log a message.
+     *
+     * @param logger  the logger
+     * @param level   the level
+     * @param message the message
+     */
+    public static void log(@Nonnull final Logger logger, @Nonnull final Level level, @Nonnull final String message) {
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        publish(logger, level, message, null, null);
+    }
+
+    /**
+     * Log a message with an exception.
+     *
+     * @param logger  the logger
+     * @param level   the level
+     * @param message the message
+     * @param thrown  the exception
+     */
+    public static void log(@Nonnull final Logger logger, @Nonnull final Level level, @Nonnull final String message,
+            @Nullable final Throwable thrown) {
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        publish(logger, level, message, null, thrown);
+    }
+
+    /**
+     * Log a message with one parameter.
+     *
+     * @param logger  the logger
+     * @param level   the level
+     * @param message the message
+     * @param p0      parameter {@code {0}}
+     */
+    public static void log(@Nonnull final Logger logger, @Nonnull final Level level, @Nonnull final String message,
+            @Nullable final Object p0) {
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        publish(logger, level, message, new Object[] {p0}, null);
+    }
+
+    /**
+     * Log a message with one parameter and an exception.
+     *
+     * @param logger  the logger
+     * @param level   the level
+     * @param message the message
+     * @param p0      parameter {@code {0}}
+     * @param thrown  the exception
+     */
+    public static void log(@Nonnull final Logger logger, @Nonnull final Level level, @Nonnull final String message,
+            @Nullable final Object p0, @Nullable final Throwable thrown) {
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        publish(logger, level, message, new Object[] {p0}, thrown);
+    }
+
+    /**
+     * Log a message with two parameters.
+     *
+     * @param logger  the logger
+     * @param level   the level
+     * @param message the message
+     * @param p0      parameter {@code {0}}
+     * @param p1      parameter {@code {1}}
+     */
+    public static void log(@Nonnull final Logger logger, @Nonnull final Level level, @Nonnull final String message,
+            @Nullable final Object p0, @Nullable final Object p1) {
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        publish(logger, level, message, new Object[] {p0, p1}, null);
+    }
+
+    /**
+     * Log a message with two parameters and an exception.
+     *
+     * @param logger  the logger
+     * @param level   the level
+     * @param message the message
+     * @param p0      parameter {@code {0}}
+     * @param p1      parameter {@code {1}}
+     * @param thrown  the exception
+     */
+    public static void log(@Nonnull final Logger logger, @Nonnull final Level level, @Nonnull final String message,
+            @Nullable final Object p0, @Nullable final Object p1, @Nullable final Throwable thrown) {
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        publish(logger, level, message, new Object[] {p0, p1}, thrown);
+    }
+
+    /**
+     * Log a message with three parameters.
+     *
+     * @param logger  the logger
+     * @param level   the level
+     * @param message the message
+     * @param p0      parameter {@code {0}}
+     * @param p1      parameter {@code {1}}
+     * @param p2      parameter {@code {2}}
+     */
+    public static void log(@Nonnull final Logger logger, @Nonnull final Level level, @Nonnull final String message,
+            @Nullable final Object p0, @Nullable final Object p1, @Nullable final Object p2) {
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        publish(logger, level, message, new Object[] {p0, p1, p2}, null);
+    }
+
+    /**
+     * Log a message with four parameters.
+     *
+     * @param logger  the logger
+     * @param level   the level
+     * @param message the message
+     * @param p0      parameter {@code {0}}
+     * @param p1      parameter {@code {1}}
+     * @param p2      parameter {@code {2}}
+     * @param p3      parameter {@code {3}}
+     */
+    public static void log(@Nonnull final Logger logger, @Nonnull final Level level, @Nonnull final String message,
+            @Nullable final Object p0, @Nullable final Object p1, @Nullable final Object p2,
+            @Nullable final Object p3) {
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        publish(logger, level, message, new Object[] {p0, p1, p2, p3}, null);
+    }
+
+    /**
+     * Log a message with an {@code int} parameter.
+     *
+     * @param logger  the logger
+     * @param level   the level
+     * @param message the message
+     * @param p0      parameter {@code {0}}
+     */
+    public static void log(@Nonnull final Logger logger, @Nonnull final Level level, @Nonnull final String message,
+            final int p0) {
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        publish(logger, level, message, new Object[] {p0}, null);
+    }
+
+    /**
+     * Log a message with two {@code int} parameters.
+     *
+     * @param logger  the logger
+     * @param level   the level
+     * @param message the message
+     * @param p0      parameter {@code {0}}
+     * @param p1      parameter {@code {1}}
+     */
+    public static void log(@Nonnull final Logger logger, @Nonnull final Level level, @Nonnull final String message,
+            final int p0, final int p1) {
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        publish(logger, level, message, new Object[] {p0, p1}, null);
+    }
+
+    /**
+     * Log a message with a context parameter and an {@code int} parameter.
+     *
+     * @param logger  the logger
+     * @param level   the level
+     * @param message the message
+     * @param p0      parameter {@code {0}}, typically the context
+     * @param p1      parameter {@code {1}}
+     */
+    public static void log(@Nonnull final Logger logger, @Nonnull final Level level, @Nonnull final String message,
+            @Nullable final Object p0, final int p1) {
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        publish(logger, level, message, new Object[] {p0, p1}, null);
+    }
+
+    /**
+     * Log a message with a context parameter, a parameter and an {@code int} parameter.
+     *
+     * @param logger  the logger
+     * @param level   the level
+     * @param message the message
+     * @param p0      parameter {@code {0}}, typically the context
+     * @param p1      parameter {@code {1}}
+     * @param p2      parameter {@code {2}}
+     */
+    public static void log(@Nonnull final Logger logger, @Nonnull final Level level, @Nonnull final String message,
+            @Nullable final Object p0, @Nullable final Object p1, final int p2) {
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        publish(logger, level, message, new Object[] {p0, p1, p2}, null);
+    }
+
+    /**
+     * Log a message with a context parameter and two {@code int} parameters.
+     *
+     * @param logger  the logger
+     * @param level   the level
+     * @param message the message
+     * @param p0      parameter {@code {0}}, typically the context
+     * @param p1      parameter {@code {1}}
+     * @param p2      parameter {@code {2}}
+     */
+    public static void log(@Nonnull final Logger logger, @Nonnull final Level level, @Nonnull final String message,
+            @Nullable final Object p0, final int p1, final int p2) {
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        publish(logger, level, message, new Object[] {p0, p1, p2}, null);
+    }
+
+    private static void publish(@Nonnull final Logger logger, @Nonnull final Level level,
+            @Nonnull final String message, @Nullable final Object[] params, @Nullable final Throwable thrown) {
+        final LogRecord record = new LogRecord(level, message);
+        record.setLoggerName(logger.getName());
+        record.setSourceClassName(logger.getName());
+        record.setParameters(params);
+        record.setThrown(thrown);
+        logger.log(record);
+    }
+}
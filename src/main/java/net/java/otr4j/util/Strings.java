@@ -31,4 +31,42 @@ public final class Strings {
         }
         return builder.toString();
     }
+
+    /**
+     * Test whether the text contains the string at the specified offset.
+     *
+     * @param text   the text
+     * @param offset the offset in text
+     * @param prefix the string that is expected at the offset
+     * @return Returns true iff text contains prefix at offset.
+     */
+    public static boolean startsWith(@Nonnull final CharSequence text, final int offset, @Nonnull final String prefix) {
+        if (offset < 0 || offset > text.length() - prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(offset + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the first occurrence of a string in the text, starting at the specified index.
+     *
+     * @param text   the text
+     * @param needle the string to find
+     * @param from   the index from which to start searching
+     * @return Returns the index of the first occurrence at or after index 'from', or -1 if there is none.
+     */
+    public static int indexOf(@Nonnull final CharSequence text, @Nonnull final String needle, final int from) {
+        final int last = text.length() - needle.length();
+        for (int i = Math.max(0, from); i <= last; i++) {
+            if (startsWith(text, i, needle)) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
@@ -7,6 +7,7 @@
 
 package net.java.otr4j.api;
 
+import net.java.otr4j.crypto.ThreadLocalRandomSource;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
@@ -105,4 +106,10 @@ public class InstanceTagTest {
             assertTrue(part > 0);
         }
     }
+
+    @Test
+    public void testRandomFromRandomSource() {
+        final InstanceTag tag = InstanceTag.random(ThreadLocalRandomSource.instance());
+        assertTrue(InstanceTag.isValidInstanceTag(tag.getValue()));
+    }
 }
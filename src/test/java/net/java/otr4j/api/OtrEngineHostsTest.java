@@ -19,10 +19,12 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static net.java.otr4j.api.OtrEngineHosts.getReplyForUnreadableMessage;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
 /**
  * Tests for OtrEngineHostUtil utilities.
@@ -223,4 +225,62 @@ public class OtrEngineHostsTest {
         OtrEngineHosts.extraSymmetricKeyDiscovered(host, sessionID, message, key, tlvData);
         verify(host).extraSymmetricKeyDiscovered(sessionID, message, key, tlvData);
     }
+
+    @Test
+    public void testGetMetricsWithoutMetricsHost() {
+        final OtrEngineHost host = mock(OtrEngineHost.class);
+        assertSame(NoOpMetrics.instance(), OtrEngineHosts.getMetrics(host));
+    }
+
+    @Test
+    public void testGetMetricsOnMetricsHost() {
+        final OtrEngineHost host = mock(OtrEngineHost.class, withSettings().extraInterfaces(MetricsEngineHost.class));
+        final OtrMetrics metrics = mock(OtrMetrics.class);
+        when(((MetricsEngineHost) host).getMetrics()).thenReturn(metrics);
+        assertSame(metrics, OtrEngineHosts.getMetrics(host));
+    }
+
+    @Test
+    public void testGetMetricsOnMetricsHostReturningNull() {
+        final OtrEngineHost host = mock(OtrEngineHost.class, withSettings().extraInterfaces(MetricsEngineHost.class));
+        assertSame(NoOpMetrics.instance(), OtrEngineHosts.getMetrics(host));
+    }
+
+    @Test
+    public void testGetMetricsOnFaultyMetricsHost() {
+        final OtrEngineHost host = mock(OtrEngineHost.class, withSettings().extraInterfaces(MetricsEngineHost.class));
+        when(((MetricsEngineHost) host).getMetrics()).thenThrow(new IllegalStateException("programming error occurred"));
+        assertSame(NoOpMetrics.instance(), OtrEngineHosts.getMetrics(host));
+    }
+
+    @Test
+    public void testGetTracerWithoutTracingHost() {
+        final OtrEngineHost host = mock(OtrEngineHost.class);
+        assertSame(NoOpTracer.instance(), OtrEngineHosts.getTracer(host));
+    }
+
+    @Test
+    public void testGetTracerOnTracingHost() {
+        final OtrEngineHost host = mock(OtrEngineHost.class, withSettings().extraInterfaces(TracingEngineHost.class));
+        final OtrTracer tracer = mock(OtrTracer.class);
+        when(((TracingEngineHost) host).getTracer()).thenReturn(tracer);
+        assertSame(tracer, OtrEngineHosts.getTracer(host));
+    }
+
+    @Test
+    public void testGetTracerOnFaultyTracingHost() {
+        final OtrEngineHost host = mock(OtrEngineHost.class, withSettings().extraInterfaces(TracingEngineHost.class));
+        when(((TracingEngineHost) host).getTracer()).thenThrow(new IllegalStateException("programming error occurred"));
+        assertSame(NoOpTracer.instance(), OtrEngineHosts.getTracer(host));
+    }
+
+    @Test
+    public void testNoOpTracerSharesSpan() {
+        final SessionID sessionID = new SessionID("bob", "alice", "network");
+        final OtrTracer.Span first = NoOpTracer.instance().start(OtrTracer.Operation.PARSE_MESSAGE, sessionID,
+                InstanceTag.ZERO_TAG);
+        first.close();
+        assertSame(first, NoOpTracer.instance().start(OtrTracer.Operation.HOST_INJECT_MESSAGE, sessionID,
+                InstanceTag.SMALLEST_TAG));
+    }
 }
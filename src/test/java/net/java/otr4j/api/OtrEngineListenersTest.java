@@ -17,6 +17,7 @@ import org.junit.Test;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.withSettings;
 
 public class OtrEngineListenersTest {
 
@@ -96,4 +97,28 @@ public class OtrEngineListenersTest {
         verify(l1).outgoingSessionChanged(s);
         verify(l2).outgoingSessionChanged(s);
     }
+
+    @Test
+    public void testInstanceEvictedOnlyEvictionListeners() {
+        final SessionID s = new SessionID("localAccountID", "remoteAccountID", "protocolName");
+        final OtrEngineListener l1 = mock(OtrEngineListener.class);
+        final OtrEngineListener l2 = mock(OtrEngineListener.class,
+                withSettings().extraInterfaces(InstanceEvictionListener.class));
+        OtrEngineListeners.instanceEvicted(Arrays.asList(l1, l2), s, InstanceTag.SMALLEST_TAG);
+        verify((InstanceEvictionListener) l2).instanceEvicted(s, InstanceTag.SMALLEST_TAG);
+    }
+
+    @Test
+    public void testInstanceEvictedWithFaultyListener() {
+        final SessionID s = new SessionID("localAccountID", "remoteAccountID", "protocolName");
+        final OtrEngineListener l1 = mock(OtrEngineListener.class,
+                withSettings().extraInterfaces(InstanceEvictionListener.class));
+        final OtrEngineListener l2 = mock(OtrEngineListener.class,
+                withSettings().extraInterfaces(InstanceEvictionListener.class));
+        doThrow(new IllegalStateException("bad stuff happened")).when((InstanceEvictionListener) l1)
+                .instanceEvicted(s, InstanceTag.SMALLEST_TAG);
+        OtrEngineListeners.instanceEvicted(Arrays.asList(l1, l2), s, InstanceTag.SMALLEST_TAG);
+        verify((InstanceEvictionListener) l1).instanceEvicted(s, InstanceTag.SMALLEST_TAG);
+        verify((InstanceEvictionListener) l2).instanceEvicted(s, InstanceTag.SMALLEST_TAG);
+    }
 }
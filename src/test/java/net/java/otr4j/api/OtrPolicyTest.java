@@ -14,7 +14,9 @@ import org.junit.Test;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 public class OtrPolicyTest {
@@ -183,4 +185,137 @@ public class OtrPolicyTest {
         assertTrue(policy.isAllowV4());
         assertTrue(policy.isEnableManual());
     }
+
+    @Test
+    public void testDefaultHeartbeatIdleness() {
+        assertEquals(OtrPolicy.DEFAULT_HEARTBEAT_IDLENESS_MILLIS, new OtrPolicy().getHeartbeatIdlenessMillis());
+    }
+
+    @Test
+    public void testSetHeartbeatIdleness() {
+        final OtrPolicy policy = new OtrPolicy(OtrPolicy.OPPORTUNISTIC);
+        policy.setHeartbeatIdlenessMillis(5000L);
+        assertEquals(5000L, policy.getHeartbeatIdlenessMillis());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetHeartbeatIdlenessZero() {
+        new OtrPolicy().setHeartbeatIdlenessMillis(0L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetHeartbeatIdlenessNegative() {
+        new OtrPolicy().setHeartbeatIdlenessMillis(-1L);
+    }
+
+    @Test
+    public void testEqualityIncludesHeartbeatIdleness() {
+        final OtrPolicy first = new OtrPolicy(OtrPolicy.OPPORTUNISTIC);
+        final OtrPolicy second = new OtrPolicy(OtrPolicy.OPPORTUNISTIC);
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        second.setHeartbeatIdlenessMillis(30_000L);
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    public void testDefaultMessageQueueDisabled() {
+        final OtrPolicy policy = new OtrPolicy(OtrPolicy.OTRL_POLICY_ALWAYS);
+        assertEquals(0, policy.getMessageQueueBudget());
+        assertEquals(OtrPolicy.QueueOverflow.REJECT_NEWEST, policy.getMessageQueueOverflow());
+    }
+
+    @Test
+    public void testSetMessageQueue() {
+        final OtrPolicy policy = new OtrPolicy(OtrPolicy.OTRL_POLICY_ALWAYS);
+        policy.setMessageQueueBudget(65536);
+        policy.setMessageQueueOverflow(OtrPolicy.QueueOverflow.DROP_OLDEST);
+        assertEquals(65536, policy.getMessageQueueBudget());
+        assertEquals(OtrPolicy.QueueOverflow.DROP_OLDEST, policy.getMessageQueueOverflow());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetMessageQueueBudgetNegative() {
+        new OtrPolicy().setMessageQueueBudget(-1);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testSetMessageQueueOverflowNull() {
+        new OtrPolicy().setMessageQueueOverflow(null);
+    }
+
+    @Test
+    public void testEqualityIncludesMessageQueue() {
+        final OtrPolicy first = new OtrPolicy(OtrPolicy.OPPORTUNISTIC);
+        final OtrPolicy second = new OtrPolicy(OtrPolicy.OPPORTUNISTIC);
+        second.setMessageQueueBudget(1024);
+        assertNotEquals(first, second);
+        first.setMessageQueueBudget(1024);
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        second.setMessageQueueOverflow(OtrPolicy.QueueOverflow.DROP_OLDEST);
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    public void testDefaultInstanceLimit() {
+        assertEquals(OtrPolicy.DEFAULT_INSTANCE_LIMIT, new OtrPolicy().getInstanceLimit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetInstanceLimitZero() {
+        new OtrPolicy().setInstanceLimit(0);
+    }
+
+    @Test
+    public void testEqualityIncludesInstanceLimit() {
+        final OtrPolicy first = new OtrPolicy(OtrPolicy.OPPORTUNISTIC);
+        final OtrPolicy second = new OtrPolicy(OtrPolicy.OPPORTUNISTIC);
+        second.setInstanceLimit(4);
+        assertNotEquals(first, second);
+        first.setInstanceLimit(4);
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+    }
+
+    @Test
+    public void testDefaultFragmentAssembly() {
+        final OtrPolicy policy = new OtrPolicy();
+        assertEquals(OtrPolicy.DEFAULT_FRAGMENT_BUDGET, policy.getFragmentBudget());
+        assertEquals(OtrPolicy.DEFAULT_FRAGMENT_SESSION_BUDGET, policy.getFragmentSessionBudget());
+        assertEquals(OtrPolicy.DEFAULT_FRAGMENT_EXPIRY_MILLIS, policy.getFragmentExpiryMillis());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetFragmentBudgetZero() {
+        new OtrPolicy().setFragmentBudget(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetFragmentSessionBudgetZero() {
+        new OtrPolicy().setFragmentSessionBudget(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetFragmentExpiryZero() {
+        new OtrPolicy().setFragmentExpiryMillis(0);
+    }
+
+    @Test
+    public void testEqualityIncludesFragmentAssembly() {
+        final OtrPolicy first = new OtrPolicy(OtrPolicy.OPPORTUNISTIC);
+        final OtrPolicy second = new OtrPolicy(OtrPolicy.OPPORTUNISTIC);
+        second.setFragmentBudget(1024);
+        assertNotEquals(first, second);
+        first.setFragmentBudget(1024);
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        second.setFragmentSessionBudget(4096);
+        assertNotEquals(first, second);
+        first.setFragmentSessionBudget(4096);
+        second.setFragmentExpiryMillis(1000L);
+        assertNotEquals(first, second);
+        first.setFragmentExpiryMillis(1000L);
+        assertEquals(first, second);
+    }
 }
@@ -672,6 +672,108 @@ public class SessionTest {
         assertEquals(FINISHED, c.clientBob.session.getSessionStatus());
     }
 
+    @Test
+    public void testOTR3MessageTooLongForDestinationDoesNotDisruptSession() throws OtrException {
+        final Conversation c = new Conversation(2, 1000);
+        c.clientAlice.setPolicy(new OtrPolicy(ALLOW_V3));
+        c.clientBob.setPolicy(new OtrPolicy(ALLOW_V3));
+        c.clientAlice.session.startSession();
+        assertNull(c.clientBob.receiveMessage());
+        assertNull(c.clientAlice.receiveMessage());
+        assertNull(c.clientBob.receiveMessage());
+        assertNull(c.clientAlice.receiveMessage());
+        assertEquals(ENCRYPTED, c.clientAlice.session.getSessionStatus());
+        assertNull(c.clientBob.receiveMessage());
+        assertEquals(ENCRYPTED, c.clientBob.session.getSessionStatus());
+        assertMessageTooLongForDestinationDoesNotDisruptSession(c);
+    }
+
+    @Test
+    public void testOTR4MessageTooLongForDestinationDoesNotDisruptSession() throws OtrException {
+        final Conversation c = new Conversation(21, 1000);
+        c.clientAlice.session.startSession();
+        assertNull(c.clientBob.receiveMessage());
+        assertArrayEquals(new String[0], c.clientAlice.receiveAllMessages(true));
+        assertArrayEquals(new String[0], c.clientBob.receiveAllMessages(true));
+        assertEquals(ENCRYPTED, c.clientBob.session.getSessionStatus());
+        assertArrayEquals(new String[0], c.clientAlice.receiveAllMessages(true));
+        assertEquals(ENCRYPTED, c.clientAlice.session.getSessionStatus());
+        assertMessageTooLongForDestinationDoesNotDisruptSession(c);
+    }
+
+    private static void assertMessageTooLongForDestinationDoesNotDisruptSession(@Nonnull final Conversation c)
+            throws OtrException {
+        final StringBuilder tooLong = new StringBuilder();
+        while (tooLong.length() < 1000) {
+            tooLong.append("All work and no play makes Jack a dull boy. ");
+        }
+        try {
+            c.clientAlice.sendMessageDirectly(tooLong.toString());
+            fail("Expected message to be rejected for exceeding the maximum fragment size.");
+        } catch (final OtrException expected) {
+            // The message is rejected before it is encrypted.
+        }
+        assertEquals(0, c.clientBob.receiptChannel.size());
+        assertTrue(c.clientAlice.sendMessageDirectly("Hello Bob!"));
+        assertEquals("Hello Bob!", c.clientBob.receiveMessage());
+        c.clientBob.sendMessage("Hello Alice!");
+        assertEquals("Hello Alice!", c.clientAlice.receiveMessage());
+        assertTrue(c.clientAlice.sendMessageDirectly("Bye Bob!"));
+        assertEquals("Bye Bob!", c.clientBob.receiveMessage());
+    }
+
+    @Test
+    public void testOTR3MessagesQueuedUntilAKECompleted() throws OtrException {
+        final Conversation c = new Conversation(3);
+        final OtrPolicy policyAlice = new OtrPolicy(OtrPolicy.OTRL_POLICY_ALWAYS & ~ALLOW_V4);
+        policyAlice.setMessageQueueBudget(4096);
+        c.clientAlice.setPolicy(policyAlice);
+        c.clientBob.setPolicy(new OtrPolicy(OTRL_POLICY_MANUAL & ~ALLOW_V4));
+        // The first message initiates AKE by sending a query message. Both messages are queued.
+        c.clientAlice.sendMessage("Hello Bob!");
+        c.clientAlice.sendMessage("How are you?");
+        assertEquals(1, c.clientBob.receiptChannel.size());
+        // Expecting DH-Commit message from Bob.
+        assertNull(c.clientBob.receiveMessage());
+        // Expecting DH-Key message from Alice.
+        assertNull(c.clientAlice.receiveMessage());
+        // Expecting Reveal Signature message from Bob.
+        assertNull(c.clientBob.receiveMessage());
+        // Expecting Signature message from Alice, followed by the queued messages.
+        assertNull(c.clientAlice.receiveMessage());
+        assertEquals(ENCRYPTED, c.clientAlice.session.getSessionStatus());
+        assertEquals(3, c.clientBob.receiptChannel.size());
+        assertNull(c.clientBob.receiveMessage());
+        assertEquals(ENCRYPTED, c.clientBob.session.getSessionStatus());
+        assertEquals("Hello Bob!", c.clientBob.receiveMessage());
+        assertEquals("How are you?", c.clientBob.receiveMessage());
+    }
+
+    @Test
+    public void testOTR4MessagesQueuedUntilDAKECompleted() throws OtrException {
+        final Conversation c = new Conversation(3);
+        final OtrPolicy policyAlice = new OtrPolicy(OTRL_POLICY_MANUAL);
+        policyAlice.setMessageQueueBudget(4096);
+        c.clientAlice.setPolicy(policyAlice);
+        c.clientBob.session.startSession();
+        // Expecting Identity message from Alice.
+        assertNull(c.clientAlice.receiveMessage());
+        // Alice awaits the Auth-R message, therefore messages are queued.
+        c.clientAlice.sendMessage("Hello Bob!");
+        c.clientAlice.sendMessage("How are you?");
+        assertEquals(1, c.clientBob.receiptChannel.size());
+        // Expecting Auth-R message from Bob.
+        assertNull(c.clientBob.receiveMessage());
+        // Expecting Auth-I message from Alice, followed by the queued messages.
+        assertNull(c.clientAlice.receiveMessage());
+        assertEquals(ENCRYPTED, c.clientAlice.session.getSessionStatus());
+        assertEquals(3, c.clientBob.receiptChannel.size());
+        assertNull(c.clientBob.receiveMessage());
+        assertEquals(ENCRYPTED, c.clientBob.session.getSessionStatus());
+        assertEquals("Hello Bob!", c.clientBob.receiveMessage());
+        assertEquals("How are you?", c.clientBob.receiveMessage());
+    }
+
     // TODO make this test work once Double Ratchet algorithm is redesigned.
     @Ignore("As of yet unsupported use case. Depends on redesign of Double Ratchet algorithm.")
     @Test
@@ -1370,6 +1472,15 @@ public class SessionTest {
             this.sendChannel.addAll(asList(this.session.transformSending(msg)));
         }
 
+        boolean sendMessageDirectly(@Nonnull final String msg) throws OtrException {
+            final StringBuilder destination = new StringBuilder();
+            if (!this.session.transformSending(destination, msg, Collections.<TLV>emptyList())) {
+                return false;
+            }
+            this.sendChannel.add(destination.toString());
+            return true;
+        }
+
         void setPolicy(final OtrPolicy policy) {
             this.policy = requireNonNull(policy);
         }
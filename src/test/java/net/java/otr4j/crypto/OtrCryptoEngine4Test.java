@@ -15,6 +15,7 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.util.Arrays;
 
@@ -130,6 +131,30 @@ public class OtrCryptoEngine4Test {
         assertArrayEquals(expected, kdf1(FINGERPRINT, input, 32));
     }
 
+    @Test
+    public void testKdf1Remainder() {
+        final byte[] input = "hello".getBytes(US_ASCII);
+        final ByteBuffer remainder = ByteBuffer.wrap("xxworld".getBytes(US_ASCII), 2, 5);
+        assertArrayEquals(kdf1(FINGERPRINT, "helloworld".getBytes(US_ASCII), 32),
+                kdf1(FINGERPRINT, input, remainder, 32));
+        assertEquals(2, remainder.position());
+    }
+
+    @Test
+    public void testKdf1RemainderReadOnly() {
+        final byte[] data = new byte[3000];
+        RANDOM.nextBytes(data);
+        final ByteBuffer remainder = ByteBuffer.wrap(data, 100, 2900).slice().asReadOnlyBuffer();
+        final byte[] expected = kdf1(FINGERPRINT, Arrays.copyOfRange(data, 100, 3000), 64);
+        assertArrayEquals(expected, kdf1(FINGERPRINT, new byte[0], remainder, 64));
+        assertEquals(0, remainder.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKdf1RemainderNegativeOutputSize() {
+        kdf1(FINGERPRINT, new byte[] {1}, ByteBuffer.allocate(1), -1);
+    }
+
     @Test(expected = NullPointerException.class)
     public void testKdf1ReturnValueNullUsageID() {
         kdf1(null, new byte[] {1}, 32);
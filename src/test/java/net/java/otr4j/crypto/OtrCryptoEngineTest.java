@@ -9,7 +9,13 @@ package net.java.otr4j.crypto;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static net.java.otr4j.crypto.OtrCryptoEngine.checkEquals;
+import static net.java.otr4j.crypto.OtrCryptoEngine.sha1Hmac;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 /**
  * Tests for OtrCryptoEngine.
@@ -64,4 +70,12 @@ public class OtrCryptoEngineTest {
         final byte[] b = new byte[] {'a', 'a', 'a', 'a'};
         checkEquals(null, b, "Expected array to be equal.");
     }
+
+    @Test
+    public void testSha1HmacBufferEqualsByteArray() {
+        final byte[] key = "secret".getBytes(US_ASCII);
+        final ByteBuffer buffer = ByteBuffer.wrap("xxhello world".getBytes(US_ASCII), 2, 11).asReadOnlyBuffer();
+        assertArrayEquals(sha1Hmac("hello world".getBytes(US_ASCII), key), sha1Hmac(buffer, key));
+        assertEquals(2, buffer.position());
+    }
 }
@@ -0,0 +1,66 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.crypto;
+
+import org.junit.Test;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static net.java.otr4j.util.ByteArrays.allZeroBytes;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+@SuppressWarnings("ConstantConditions")
+public final class ThreadLocalRandomSourceTest {
+
+    @Test
+    public void testInstanceIsSingleton() {
+        assertSame(ThreadLocalRandomSource.instance(), ThreadLocalRandomSource.instance());
+    }
+
+    @Test
+    public void testSameThreadSameGenerator() {
+        final ThreadLocalRandomSource source = ThreadLocalRandomSource.instance();
+        assertSame(source.secureRandom(), source.secureRandom());
+    }
+
+    @Test
+    public void testOtherThreadOtherGenerator() throws ExecutionException, InterruptedException {
+        final ThreadLocalRandomSource source = ThreadLocalRandomSource.instance();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final SecureRandom other = executor.submit(new Callable<SecureRandom>() {
+                @Override
+                public SecureRandom call() {
+                    return source.secureRandom();
+                }
+            }).get();
+            assertNotSame(source.secureRandom(), other);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testGeneratesRandomData() {
+        final SecureRandom random = ThreadLocalRandomSource.instance().secureRandom();
+        final byte[] first = new byte[64];
+        final byte[] second = new byte[64];
+        random.nextBytes(first);
+        random.nextBytes(second);
+        assertFalse(allZeroBytes(first));
+        assertFalse(allZeroBytes(second));
+        assertFalse(Arrays.equals(first, second));
+    }
+}
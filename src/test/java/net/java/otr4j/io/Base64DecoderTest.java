@@ -0,0 +1,141 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.io;
+
+import org.bouncycastle.util.encoders.Base64;
+import org.junit.Test;
+
+import java.net.ProtocolException;
+import java.util.Random;
+
+import static java.util.Arrays.copyOfRange;
+import static net.java.otr4j.io.Base64Decoder.decode;
+import static net.java.otr4j.io.Base64Decoder.decodePrefix;
+import static net.java.otr4j.io.Base64Decoder.validate;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+@SuppressWarnings("ConstantConditions")
+public final class Base64DecoderTest {
+
+    @Test(expected = NullPointerException.class)
+    public void testDecodeNull() throws ProtocolException {
+        decode(null, 0, 0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testDecodeIllegalRange() throws ProtocolException {
+        decode("AAAA", 0, 8);
+    }
+
+    @Test
+    public void testDecodeEmpty() throws ProtocolException {
+        assertEquals(0, decode("", 0, 0).length);
+    }
+
+    @Test
+    public void testDecodeAllLengths() throws ProtocolException {
+        final Random random = new Random(42);
+        for (int length = 0; length < 100; length++) {
+            final byte[] data = new byte[length];
+            random.nextBytes(data);
+            final String encoded = Base64.toBase64String(data);
+            assertArrayEquals(data, decode(encoded, 0, encoded.length()));
+        }
+    }
+
+    @Test
+    public void testDecodeRange() throws ProtocolException {
+        final byte[] data = {1, 2, 3, 4, 5, (byte) 0xff, (byte) 0xfe};
+        final String text = "?OTR:" + Base64.toBase64String(data) + ".";
+        assertArrayEquals(data, decode(new StringBuilder(text), 5, text.length() - 1));
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testDecodeIllegalLength() throws ProtocolException {
+        decode("AAAAA", 0, 5);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testDecodeIllegalCharacter() throws ProtocolException {
+        decode("AA.A", 0, 4);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testDecodeNonAsciiCharacter() throws ProtocolException {
+        decode("AAéA", 0, 4);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testDecodeWhitespace() throws ProtocolException {
+        decode("AA A", 0, 4);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testDecodePaddingInTheMiddle() throws ProtocolException {
+        decode("AA==AAAA", 0, 8);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testDecodeOnlyPadding() throws ProtocolException {
+        decode("====", 0, 4);
+    }
+
+    @Test
+    public void testDecodePrefix() throws ProtocolException {
+        final byte[] data = new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17};
+        assertArrayEquals(copyOfRange(data, 0, 12), decodePrefix(Base64.toBase64String(data), 0, 24, 16));
+    }
+
+    @Test
+    public void testDecodePrefixShorterThanMaximum() throws ProtocolException {
+        final byte[] data = new byte[] {1, 2, 3, 4, 5};
+        assertArrayEquals(data, decodePrefix(Base64.toBase64String(data), 0, 8, 16));
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testDecodePrefixIllegalCharacterInRemainder() throws ProtocolException {
+        decodePrefix("AAAA*...", 0, 8, 4);
+    }
+
+    @Test
+    public void testValidate() throws ProtocolException {
+        validate("AAAAAA==", 0, 8);
+        validate("", 0, 0);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testValidateIllegalCharacter() throws ProtocolException {
+        validate("AAAAAA*A", 0, 8);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testValidateIllegalPadding() throws ProtocolException {
+        validate("AA==AAAA", 0, 8);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testDecodePrefixIllegalLength() throws ProtocolException {
+        decodePrefix("AAAAAAAAA", 0, 9, 4);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testDecodePrefixIllegalCharacter() throws ProtocolException {
+        decodePrefix("AA*AAAAA", 0, 8, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodePrefixIllegalMaximum() throws ProtocolException {
+        decodePrefix("AAAAAAAA", 0, 8, 5);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testDecodePrefixIllegalRange() throws ProtocolException {
+        decodePrefix("AAAA", 0, 8, 4);
+    }
+}
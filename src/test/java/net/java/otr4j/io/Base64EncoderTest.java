@@ -0,0 +1,91 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.io;
+
+import org.junit.Test;
+
+import java.security.SecureRandom;
+
+import static net.java.otr4j.util.SecureRandoms.randomBytes;
+import static org.bouncycastle.util.encoders.Base64.toBase64String;
+import static org.junit.Assert.assertEquals;
+
+@SuppressWarnings("ConstantConditions")
+public final class Base64EncoderTest {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    @Test(expected = NullPointerException.class)
+    public void testConstructNullBuilder() {
+        new Base64Encoder(null);
+    }
+
+    @Test
+    public void testEncodedLength() {
+        assertEquals(0, Base64Encoder.encodedLength(0));
+        assertEquals(4, Base64Encoder.encodedLength(1));
+        assertEquals(4, Base64Encoder.encodedLength(2));
+        assertEquals(4, Base64Encoder.encodedLength(3));
+        assertEquals(8, Base64Encoder.encodedLength(4));
+    }
+
+    @Test
+    public void testEncodeAllPaddings() {
+        for (int length = 0; length < 10; length++) {
+            final byte[] data = randomBytes(RANDOM, new byte[length]);
+            final StringBuilder builder = new StringBuilder();
+            final Base64Encoder encoder = new Base64Encoder(builder);
+            encoder.write(data, 0, data.length);
+            encoder.finish();
+            assertEquals(toBase64String(data), builder.toString());
+            assertEquals(Base64Encoder.encodedLength(length), builder.length());
+        }
+    }
+
+    @Test
+    public void testEncodeAllSplitPositions() {
+        final byte[] data = randomBytes(RANDOM, new byte[11]);
+        for (int split = 0; split <= data.length; split++) {
+            final StringBuilder builder = new StringBuilder();
+            final Base64Encoder encoder = new Base64Encoder(builder);
+            encoder.write(data, 0, split);
+            encoder.write(data, split, data.length - split);
+            encoder.finish();
+            assertEquals(toBase64String(data), builder.toString());
+        }
+    }
+
+    @Test
+    public void testEncodeByteByByte() {
+        final byte[] data = new byte[256];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        final StringBuilder builder = new StringBuilder();
+        final Base64Encoder encoder = new Base64Encoder(builder);
+        for (final byte b : data) {
+            encoder.write(b);
+        }
+        encoder.finish();
+        assertEquals(toBase64String(data), builder.toString());
+    }
+
+    @Test
+    public void testEncodeAppendsToBuilder() {
+        final StringBuilder builder = new StringBuilder("?OTR:");
+        final Base64Encoder encoder = new Base64Encoder(builder);
+        encoder.write(new byte[] {0, 3, 2}, 0, 3);
+        encoder.finish();
+        assertEquals("?OTR:AAMC", builder.toString());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testWriteIllegalRange() {
+        new Base64Encoder(new StringBuilder()).write(new byte[3], 2, 2);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.io;
+
+import org.junit.Test;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+import static net.java.otr4j.api.InstanceTag.ZERO_TAG;
+import static org.bouncycastle.util.encoders.Base64.toBase64String;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+@SuppressWarnings("ConstantConditions")
+public final class EncodedMessageDecoderTest {
+
+    private static final byte TYPE = 0x0a;
+
+    private static final int SENDER = 0x00000100;
+
+    private static final int RECEIVER = 0x12345678;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeExpectedLength() {
+        new EncodedMessageDecoder(-1);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testAppendNull() throws ProtocolException {
+        new EncodedMessageDecoder(0).append(null);
+    }
+
+    @Test
+    public void testDecodeSinglePart() throws ProtocolException {
+        final String message = encoded(3, new byte[] {1, 2, 3, 4, 5});
+        final EncodedMessageDecoder decoder = new EncodedMessageDecoder(message.length());
+        decoder.append(message);
+        assertMessage(3, new byte[] {1, 2, 3, 4, 5}, decoder.finish());
+    }
+
+    @Test
+    public void testDecodeAllPaddingsAndSplitPositions() throws ProtocolException {
+        for (int length = 0; length < 10; length++) {
+            final byte[] payload = new byte[length];
+            for (int i = 0; i < length; i++) {
+                payload[i] = (byte) (0xf0 + i);
+            }
+            final String message = encoded(4, payload);
+            for (int split = 0; split <= message.length(); split++) {
+                final EncodedMessageDecoder decoder = new EncodedMessageDecoder(0);
+                decoder.append(message.substring(0, split));
+                decoder.append(message.substring(split));
+                assertMessage(4, payload, decoder.finish());
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeCharacterByCharacter() throws ProtocolException {
+        final byte[] payload = new byte[300];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        final String message = encoded(3, payload);
+        final EncodedMessageDecoder decoder = new EncodedMessageDecoder(1);
+        for (int i = 0; i < message.length(); i++) {
+            decoder.append(message.subSequence(i, i + 1));
+        }
+        assertMessage(3, payload, decoder.finish());
+    }
+
+    @Test
+    public void testDecodeVersion2() throws ProtocolException {
+        final byte[] content = ByteBuffer.allocate(5).putShort((short) 2).put(TYPE).put((byte) 1).put((byte) 2)
+                .array();
+        final EncodedMessageDecoder decoder = new EncodedMessageDecoder(0);
+        decoder.append("?OTR:" + toBase64String(content) + ".");
+        final EncodedMessage message = decoder.finish();
+        assertEquals(2, message.version);
+        assertEquals(TYPE, message.type);
+        assertEquals(ZERO_TAG, message.senderTag);
+        assertEquals(ZERO_TAG, message.receiverTag);
+        assertEquals(2, message.getPayload().available());
+    }
+
+    @Test
+    public void testDecodeSameAsParser() throws ProtocolException {
+        final String message = encoded(3, new byte[] {(byte) 0xff, 0, 1});
+        final EncodedMessage parsed = (EncodedMessage) MessageProcessor.parseMessage(message);
+        final EncodedMessageDecoder decoder = new EncodedMessageDecoder(0);
+        decoder.append(message);
+        final EncodedMessage decoded = decoder.finish();
+        assertEquals(parsed.version, decoded.version);
+        assertEquals(parsed.type, decoded.type);
+        assertEquals(parsed.senderTag, decoded.senderTag);
+        assertEquals(parsed.receiverTag, decoded.receiverTag);
+        assertArrayEquals(read(parsed.getPayload()), read(decoded.getPayload()));
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testRejectMissingPrefix() throws ProtocolException {
+        new EncodedMessageDecoder(0).append("?OTR,AAMK.");
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testRejectPlainText() throws ProtocolException {
+        new EncodedMessageDecoder(0).append("Hello");
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testRejectInvalidCharacter() throws ProtocolException {
+        new EncodedMessageDecoder(0).append("?OTR:AA?A.");
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testRejectNonAsciiCharacter() throws ProtocolException {
+        new EncodedMessageDecoder(0).append("?OTR:AAéA.");
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testRejectIncompleteGroup() throws ProtocolException {
+        new EncodedMessageDecoder(0).append("?OTR:AAMKA.");
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testRejectPaddingAtStartOfGroup() throws ProtocolException {
+        new EncodedMessageDecoder(0).append("?OTR:AAMK====.");
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testRejectPaddingAtSecondPositionOfGroup() throws ProtocolException {
+        new EncodedMessageDecoder(0).append("?OTR:A===.");
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testRejectContentAfterPadding() throws ProtocolException {
+        new EncodedMessageDecoder(0).append("?OTR:AA=A.");
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testRejectGroupAfterPadding() throws ProtocolException {
+        new EncodedMessageDecoder(0).append("?OTR:AA==AAAA.");
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testRejectContentAfterTail() throws ProtocolException {
+        final EncodedMessageDecoder decoder = new EncodedMessageDecoder(0);
+        decoder.append("?OTR:AAMK.");
+        decoder.append("A");
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testFinishWithoutTail() throws ProtocolException {
+        final EncodedMessageDecoder decoder = new EncodedMessageDecoder(0);
+        decoder.append("?OTR:AAMK");
+        decoder.finish();
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testFinishEmpty() throws ProtocolException {
+        new EncodedMessageDecoder(0).finish();
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testFinishEmptyMessage() throws ProtocolException {
+        final EncodedMessageDecoder decoder = new EncodedMessageDecoder(0);
+        decoder.append("?OTR:.");
+        decoder.finish();
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testFinishUnsupportedVersion() throws ProtocolException {
+        final EncodedMessageDecoder decoder = new EncodedMessageDecoder(0);
+        decoder.append(encoded(5, new byte[0]));
+        decoder.finish();
+    }
+
+    private static String encoded(final int version, final byte[] payload) {
+        final ByteBuffer buffer = ByteBuffer.allocate(11 + payload.length);
+        buffer.putShort((short) version).put(TYPE).putInt(SENDER).putInt(RECEIVER).put(payload);
+        return "?OTR:" + toBase64String(buffer.array()) + ".";
+    }
+
+    private static void assertMessage(final int version, final byte[] payload, final EncodedMessage message)
+            throws ProtocolException {
+        assertEquals(version, message.version);
+        assertEquals(TYPE, message.type);
+        assertEquals(SENDER, message.senderTag.getValue());
+        assertEquals(RECEIVER, message.receiverTag.getValue());
+        assertArrayEquals(payload, read(message.getPayload()));
+    }
+
+    private static byte[] read(final OtrInputStream payload) throws ProtocolException {
+        final byte[] content = new byte[payload.available()];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = payload.readByte();
+        }
+        return content;
+    }
+}
@@ -11,6 +11,7 @@ import net.java.otr4j.api.InstanceTag;
 import net.java.otr4j.api.Session.Version;
 import org.junit.Test;
 
+import java.lang.management.ManagementFactory;
 import java.net.ProtocolException;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -19,7 +20,9 @@ import static net.java.otr4j.io.Fragment.parse;
 import static org.bouncycastle.util.encoders.Base64.toBase64String;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 @SuppressWarnings("ConstantConditions")
 public final class FragmentTest {
@@ -28,6 +31,13 @@ public final class FragmentTest {
 
     private static final String formatVersion4 = "?OTR|3c5b5f03|5a73a599|27e31597,00001,00001,%s,";
 
+    private static final int ITERATIONS = 100000;
+
+    /**
+     * Upper bound for the average number of bytes allocated per parsed fragment: the fragment and its instance tags.
+     */
+    private static final long MAX_ALLOCATION_PER_PARSE = 128;
+
     @Test(expected = NullPointerException.class)
     public void testParseNullMessage() throws ProtocolException {
         parse(null);
@@ -332,4 +342,94 @@ public final class FragmentTest {
     public void testFragmentTotalOverMaximum() throws ProtocolException {
         parse("?OTR|3c5b5f03|5a73a599|27e31597,00001,65536,,");
     }
+
+    @Test
+    public void testParseCharSequence() throws ProtocolException {
+        final StringBuilder message = new StringBuilder("?OTR|3c5b5f03|5a73a599|27e31597,00002,00003,")
+                .append(helloWorldBase64).append(',');
+        final Fragment fragment = parse(message);
+        assertEquals(Version.FOUR, fragment.getVersion());
+        assertEquals(2, fragment.getIndex());
+        assertEquals(3, fragment.getTotal());
+        assertEquals(helloWorldBase64, fragment.getContent());
+    }
+
+    @Test
+    public void testContentLength() throws ProtocolException {
+        assertEquals(helloWorldBase64.length(), parse(String.format(formatVersion4, helloWorldBase64)).getContentLength());
+        assertEquals(0, parse("?OTR,1,1,,").getContentLength());
+    }
+
+    @Test
+    public void testDecodeContent() throws ProtocolException {
+        final String encoded = "?OTR:AAMKAAABAAAAAQABAgM=.";
+        final Fragment first = parse("?OTR|00000100|00000100,00001,00002," + encoded.substring(0, 11) + ",");
+        final Fragment second = parse("?OTR|00000100|00000100,00002,00002," + encoded.substring(11) + ",");
+        final EncodedMessageDecoder decoder = new EncodedMessageDecoder(first.getContentLength() * 2);
+        first.decodeContent(decoder);
+        second.decodeContent(decoder);
+        final EncodedMessage message = decoder.finish();
+        assertEquals(Version.THREE, message.version);
+        assertEquals(0x0a, message.type);
+        assertEquals(0x100, message.senderTag.getValue());
+        assertEquals(0x100, message.receiverTag.getValue());
+        assertEquals(3, message.getPayload().available());
+    }
+
+    @Test
+    public void testFragmentationIllegalContent() {
+        final String[] variants = new String[] {
+                "?OTR|3c5b5f03|5a73a599|27e31597,00001,00001,te,st,",
+                "?OTR|3c5b5f03|5a73a599|27e31597,00001,00001,te st,",
+                "?OTR|3c5b5f03|5a73a599|27e31597,00001,00001,t\u00e9st,",
+                "?OTR|3c5b5f03|5a73a599|27e31597,00001,00001,",
+                "?OTR,00001,00001,",
+                "?OTR,",
+                "?OTR|,",
+                "?OTR|3c5b5f03|5a73a599|27e31597|12345678,00001,00001,test,",
+                "?OTR|3c5b5f03|5a73a599|27e31597,\uff11,00001,test,",
+                "?OTR|3c5b5f03|5a73a599|27e3159\uff17,00001,00001,test,",
+                "?OTR|3c5b5f03|5a73a599|27e31597,000001,00001,test,",
+        };
+        for (final String variant : variants) {
+            try {
+                parse(variant);
+                fail("Did not expect to successfully parse an illegal variant of fragment: " + variant);
+            } catch (final ProtocolException expected) {
+                // failure expected, continue
+            }
+        }
+    }
+
+    @Test
+    public void testParseAllocatesOnlyFragment() throws ProtocolException {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        final String[] messages = new String[] {
+                "?OTR,00001,00002," + helloWorldBase64 + ",",
+                "?OTR|5a73a599|27e31597,00001,00002," + helloWorldBase64 + ",",
+                "?OTR|3c5b5f03|5a73a599|27e31597,00001,00002," + helloWorldBase64 + ",",
+        };
+        final long thread = Thread.currentThread().getId();
+        for (final String message : messages) {
+            // Warm up, such that class loading and compilation do not count towards the measurement.
+            parseRepeatedly(message, ITERATIONS);
+            threads.getThreadAllocatedBytes(thread);
+            final long before = threads.getThreadAllocatedBytes(thread);
+            parseRepeatedly(message, ITERATIONS);
+            final long after = threads.getThreadAllocatedBytes(thread);
+            assertTrue("Too many bytes allocated per parse of " + message,
+                    (after - before) / ITERATIONS <= MAX_ALLOCATION_PER_PARSE);
+        }
+    }
+
+    private static void parseRepeatedly(final String message, final int iterations) throws ProtocolException {
+        int total = 0;
+        for (int i = 0; i < iterations; i++) {
+            total += parse(message).getTotal();
+        }
+        assertEquals(2 * iterations, total);
+    }
 }
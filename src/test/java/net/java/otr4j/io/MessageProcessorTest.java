@@ -21,12 +21,16 @@ import java.util.HashSet;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.copyOfRange;
 import static java.util.Objects.requireNonNull;
+import static net.java.otr4j.io.MessageProcessor.containsOTRMarker;
 import static net.java.otr4j.io.MessageProcessor.encodeVersionString;
+import static net.java.otr4j.io.MessageProcessor.encodedMessageLength;
 import static net.java.otr4j.io.MessageProcessor.parseMessage;
 import static net.java.otr4j.io.MessageProcessor.parseVersionString;
 import static net.java.otr4j.io.MessageProcessor.writeMessage;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -366,8 +370,189 @@ public final class MessageProcessorTest {
         assertEquals(0, encoded.senderTag.getValue());
         assertEquals(0, encoded.receiverTag.getValue());
         // Ensure that what would be the instance tags in OTRv3+ are considered part of the content payload in OTRv2.
-        assertEquals(0x01020304, encoded.payload.readInt());
-        assertEquals(0x04030201, encoded.payload.readInt());
+        assertEquals(0x01020304, encoded.getPayload().readInt());
+        assertEquals(0x04030201, encoded.getPayload().readInt());
+    }
+
+    @Test
+    public void testParseOTRv3PayloadOfVariousLengths() throws ProtocolException {
+        for (int n = 0; n < 8; n++) {
+            final byte[] data = new byte[11 + n];
+            data[1] = 0x03;
+            data[2] = (byte) 0xff;
+            data[5] = 0x01;
+            for (int i = 0; i < n; i++) {
+                data[11 + i] = (byte) (i + 1);
+            }
+            final EncodedMessage encoded = (EncodedMessage) parseMessage("?OTR:" + Base64.toBase64String(data) + ".");
+            assertEquals(0x100, encoded.senderTag.getValue());
+            final OtrInputStream payload = encoded.getPayload();
+            assertEquals(n, payload.available());
+            for (int i = 0; i < n; i++) {
+                assertEquals(i + 1, payload.readByte());
+            }
+        }
+    }
+
+    @Test
+    public void testParseOTRv2PayloadOfVariousLengths() throws ProtocolException {
+        for (int n = 0; n < 8; n++) {
+            final byte[] data = new byte[3 + n];
+            data[1] = 0x02;
+            data[2] = (byte) 0xff;
+            for (int i = 0; i < n; i++) {
+                data[3 + i] = (byte) (i + 1);
+            }
+            final EncodedMessage encoded = (EncodedMessage) parseMessage("?OTR:" + Base64.toBase64String(data) + ".");
+            assertEquals(2, encoded.version);
+            final OtrInputStream payload = encoded.getPayload();
+            assertEquals(n, payload.available());
+            for (int i = 0; i < n; i++) {
+                assertEquals(i + 1, payload.readByte());
+            }
+        }
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testParseEncodedMessageRejectsCorruptPayload() throws ProtocolException {
+        final String header = Base64.toBase64String(new byte[] {0x00, 0x03, (byte) 0xff, 0x1, 0x2, 0x3, 0x4, 0x4, 0x3,
+                0x2, 0x1, 0x0});
+        // The header is valid, but the payload is not. The message is rejected before it can be routed.
+        parseMessage("?OTR:" + header + "AA*A.");
+    }
+
+    @Test
+    public void testParseEncodedMessagePayloadIsDecodedOnce() throws ProtocolException {
+        final EncodedMessage encoded = (EncodedMessage) parseMessage("?OTR:" + Base64.toBase64String(
+                new byte[] {0x00, 0x03, (byte) 0xff, 0x1, 0x2, 0x3, 0x4, 0x4, 0x3, 0x2, 0x1, 0x0, 0x0, 0x0, 0x7}) + ".");
+        final OtrInputStream payload = encoded.getPayload();
+        assertSame(payload, encoded.getPayload());
+        assertEquals(7, payload.readInt());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testParseEncodedMessageIllegalContentLength() throws ProtocolException {
+        parseMessage("?OTR:" + Base64.toBase64String(new byte[] {0x00, 0x03, (byte) 0xff, 0x1, 0x2, 0x3, 0x4, 0x4, 0x3,
+                0x2, 0x1, 0x0}) + "AAAAA.");
+    }
+
+    @Test
+    public void testParseMessageFromCharSequence() throws ProtocolException {
+        final StringBuilder text = new StringBuilder("?OTR:");
+        text.append(Base64.toBase64String(new byte[] {0x00, 0x03, (byte) 0xff, 0x1, 0x2, 0x3, 0x4, 0x4, 0x3, 0x2, 0x1}));
+        text.append('.');
+        final EncodedMessage encoded = (EncodedMessage) parseMessage(text);
+        assertEquals(3, encoded.version);
+        assertEquals(0x01020304, encoded.senderTag.getValue());
+        assertEquals(0x04030201, encoded.receiverTag.getValue());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testParseMessageIllegalBase64Character() throws ProtocolException {
+        parseMessage("?OTR:AAMD*AAA.");
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testParseMessageIllegalBase64Length() throws ProtocolException {
+        parseMessage("?OTR:AAMDAAA.");
+    }
+
+    @Test
+    public void testParseMessageEndingInHeader() throws ProtocolException {
+        final PlainTextMessage msg = (PlainTextMessage) parseMessage("Hello ?OTR");
+        assertTrue(msg.getVersions().isEmpty());
+        assertEquals("Hello ?OTR", msg.getCleanText());
+    }
+
+    @Test
+    public void testParseQueryMessageMissingClosingQuestionMark() throws ProtocolException {
+        final QueryMessage msg = (QueryMessage) parseMessage("?OTRv34");
+        assertEquals(new HashSet<>(Arrays.asList(3, 4)), msg.getVersions());
+    }
+
+    @Test
+    public void testParseQueryMessageIgnoresTextAfterVersions() throws ProtocolException {
+        final QueryMessage msg = (QueryMessage) parseMessage("?OTRv3? Bob has requested an Off-the-Record private conversation 4");
+        assertEquals(Collections.singleton(3), msg.getVersions());
+    }
+
+    @Test
+    public void testWhitespaceTagBeforeFakeHeader() throws ProtocolException {
+        final PlainTextMessage msg = (PlainTextMessage) parseMessage("Hello \t  \t\t\t\t \t \t \t    \t\t  \t\t world ?OTRa");
+        assertEquals(Collections.singleton(Session.Version.THREE), msg.getVersions());
+        assertEquals("Hello world ?OTRa", msg.getCleanText());
+    }
+
+    @Test
+    public void testWhitespaceTagAfterFakeHeader() throws ProtocolException {
+        final PlainTextMessage msg = (PlainTextMessage) parseMessage("Hello ?OTRa \t  \t\t\t\t \t \t \t    \t\t  \t\t world");
+        assertEquals(Collections.singleton(Session.Version.THREE), msg.getVersions());
+        assertEquals("Hello ?OTRa world", msg.getCleanText());
+    }
+
+    @Test
+    public void testMultipleWhitespaceTagsAreRemoved() throws ProtocolException {
+        final PlainTextMessage msg = (PlainTextMessage) parseMessage("Hello \t  \t\t\t\t \t \t \t    \t\t  \t world \t  \t\t\t\t \t \t \t    \t\t \t  !");
+        assertEquals(new HashSet<>(Arrays.asList(Session.Version.TWO, Session.Version.FOUR)), msg.getVersions());
+        assertEquals("Helloworld!", msg.getCleanText());
+    }
+
+    @Test
+    public void testWrittenWhitespaceTagIsParsed() throws ProtocolException {
+        final PlainTextMessage original = new PlainTextMessage(new HashSet<>(Arrays.asList(Session.Version.THREE, Session.Version.FOUR)), "Hello world!");
+        final PlainTextMessage msg = (PlainTextMessage) parseMessage(writeMessage(original));
+        assertEquals(original.getVersions(), msg.getVersions());
+        assertEquals("Hello world!", msg.getCleanText());
+    }
+
+    @Test
+    public void testWhitespaceTagsInReverseOrder() throws ProtocolException {
+        final PlainTextMessage msg = (PlainTextMessage) parseMessage("Hello \t  \t\t\t\t \t \t \t    \t\t \t    \t\t  \t\t  \t\t  \t  world");
+        assertEquals(new HashSet<>(Arrays.asList(Session.Version.TWO, Session.Version.THREE, Session.Version.FOUR)), msg.getVersions());
+        assertEquals("Hello world", msg.getCleanText());
+    }
+
+    @Test
+    public void testWhitespaceTagsWithV1InBetween() throws ProtocolException {
+        final PlainTextMessage msg = (PlainTextMessage) parseMessage(" \t  \t\t\t\t \t \t \t    \t\t \t   \t \t  \t   \t\t  \t ");
+        assertEquals(new HashSet<>(Arrays.asList(Session.Version.TWO, Session.Version.FOUR)), msg.getVersions());
+        assertEquals("", msg.getCleanText());
+    }
+
+    @Test
+    public void testWhitespaceTagsDuplicated() throws ProtocolException {
+        final PlainTextMessage msg = (PlainTextMessage) parseMessage(" \t  \t\t\t\t \t \t \t    \t\t  \t\t  \t\t  \t\tHi");
+        assertEquals(Collections.singleton(Session.Version.THREE), msg.getVersions());
+        assertEquals("Hi", msg.getCleanText());
+    }
+
+    @Test
+    public void testWhitespaceTagBaseOnly() throws ProtocolException {
+        final PlainTextMessage msg = (PlainTextMessage) parseMessage("Hello \t  \t\t\t\t \t \t \t  world");
+        assertTrue(msg.getVersions().isEmpty());
+        assertEquals("Helloworld", msg.getCleanText());
+    }
+
+    @Test
+    public void testContainsOTRMarker() {
+        assertFalse(containsOTRMarker(""));
+        assertFalse(containsOTRMarker("Hello world"));
+        assertFalse(containsOTRMarker("?OT"));
+        assertFalse(containsOTRMarker("Is this OTR? \t  \t"));
+        assertTrue(containsOTRMarker("?OTR"));
+        assertTrue(containsOTRMarker("?OTRv34?"));
+        assertTrue(containsOTRMarker("Hello ?OTR Error: something"));
+        assertTrue(containsOTRMarker(new StringBuilder("?OTR:AAMD.")));
+        assertTrue(containsOTRMarker("Hello \t  \t\t\t\t \t \t \t  "));
+    }
+
+    @Test
+    public void testUnmarkedTextParsesToItself() throws ProtocolException {
+        final String text = "Hello world, how are you?";
+        assertFalse(containsOTRMarker(text));
+        final PlainTextMessage msg = (PlainTextMessage) parseMessage(text);
+        assertTrue(msg.getVersions().isEmpty());
+        assertSame(text, msg.getCleanText());
     }
 
     @Test
@@ -468,6 +653,24 @@ public final class MessageProcessorTest {
         assertEquals("?OTR:" + Base64.toBase64String("Hello world!".getBytes(UTF_8)) + ".", message);
     }
 
+    @Test
+    public void testWriteEncodableMessageToBuilder() {
+        final OtrEncodableTestMessage m = new OtrEncodableTestMessage("Hello world!");
+        final StringBuilder builder = new StringBuilder("prefix");
+        final int length = writeMessage(m, builder);
+        assertEquals("prefix" + writeMessage(m), builder.toString());
+        assertEquals(writeMessage(m).length(), length);
+        assertEquals(length, encodedMessageLength(m));
+    }
+
+    @Test
+    public void testWritePlainTextMessageToBuilder() {
+        final PlainTextMessage m = new PlainTextMessage(Collections.singleton(Session.Version.FOUR), "Hello");
+        final StringBuilder builder = new StringBuilder();
+        assertEquals(writeMessage(m).length(), writeMessage(m, builder));
+        assertEquals(writeMessage(m), builder.toString());
+    }
+
     private static final class OtrEncodableTestMessage implements Message, OtrEncodable {
 
         private final String message;
@@ -480,5 +683,10 @@ public final class MessageProcessorTest {
         public void writeTo(@Nonnull final OtrOutputStream out) {
             out.writeMessage(this.message);
         }
+
+        @Override
+        public int encodedLength() {
+            return this.message.getBytes(UTF_8).length;
+        }
     }
 }
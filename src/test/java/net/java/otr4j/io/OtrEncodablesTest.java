@@ -7,18 +7,39 @@
 
 package net.java.otr4j.io;
 
+import net.java.otr4j.api.TLV;
 import org.junit.Test;
 
 import javax.annotation.Nonnull;
+import javax.crypto.interfaces.DHPublicKey;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.security.interfaces.DSAPublicKey;
+import java.util.Collections;
+import java.util.List;
 
+import static java.math.BigInteger.ONE;
+import static java.math.BigInteger.ZERO;
+import static java.math.BigInteger.valueOf;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static net.java.otr4j.crypto.DHKeyPairOTR3.generateDHKeyPair;
+import static net.java.otr4j.crypto.DSAKeyPair.generateDSAKeyPair;
+import static net.java.otr4j.io.OtrEncodables.bigIntLength;
+import static net.java.otr4j.io.OtrEncodables.dataLength;
+import static net.java.otr4j.io.OtrEncodables.dhPublicKeyLength;
 import static net.java.otr4j.io.OtrEncodables.encode;
+import static net.java.otr4j.io.OtrEncodables.messageContentLength;
+import static net.java.otr4j.io.OtrEncodables.publicKeyLength;
 import static org.bouncycastle.util.Arrays.concatenate;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 @SuppressWarnings("ConstantConditions")
 public final class OtrEncodablesTest {
 
+    private static final SecureRandom RANDOM = new SecureRandom();
+
     @Test(expected = NullPointerException.class)
     public void testOtrEncodablesEncodeNull() {
         encode(null);
@@ -33,6 +54,69 @@ public final class OtrEncodablesTest {
             public void writeTo(@Nonnull final OtrOutputStream out) {
                 out.writeData(data);
             }
+
+            @Override
+            public int encodedLength() {
+                return dataLength(data.length);
+            }
         }));
     }
+
+    @Test
+    public void testOtrEncodablesEncodeLengthHintTooSmall() {
+        final byte[] data = "Hello World!".getBytes(UTF_8);
+        final byte[] expected = concatenate(new byte[]{0x00, 0x00, 0x00, 0xc}, data);
+        assertArrayEquals(expected, encode(new OtrEncodable() {
+            @Override
+            public void writeTo(@Nonnull final OtrOutputStream out) {
+                out.writeData(data);
+            }
+
+            @Override
+            public int encodedLength() {
+                return 0;
+            }
+        }));
+    }
+
+    @Test
+    public void testDataLength() {
+        assertEquals(4, dataLength(0));
+        assertEquals(16, dataLength(12));
+    }
+
+    @Test
+    public void testBigIntLengthMatchesEncoding() {
+        final BigInteger[] values = {ZERO, ONE, valueOf(0x7f), valueOf(0x80), valueOf(0xff), valueOf(0x100),
+            ONE.shiftLeft(1535).add(ONE), ONE.shiftLeft(1536).subtract(ONE)};
+        for (final BigInteger value : values) {
+            assertEquals(new OtrOutputStream().writeBigInt(value).toByteArray().length, bigIntLength(value));
+        }
+    }
+
+    @Test
+    public void testDHPublicKeyLengthMatchesEncoding() {
+        final DHPublicKey publicKey = generateDHKeyPair(RANDOM).getPublic();
+        assertEquals(new OtrOutputStream().writeDHPublicKey(publicKey).toByteArray().length,
+                dhPublicKeyLength(publicKey));
+    }
+
+    @Test
+    public void testPublicKeyLengthMatchesEncoding() {
+        final DSAPublicKey publicKey = generateDSAKeyPair().getPublic();
+        assertEquals(new OtrOutputStream().writePublicKey(publicKey).toByteArray().length, publicKeyLength(publicKey));
+    }
+
+    @Test
+    public void testMessageContentLengthMatchesEncoding() {
+        final List<TLV> tlvs = asList(new TLV(TLV.PADDING, new byte[13]), new TLV(TLV.DISCONNECTED, TLV.EMPTY_BODY));
+        final String[] messages = {"", "Hello World!", "asdf\0\0", "pouvons-nous parler en français?",
+                "チベット系民族", "\ud83c\udf00\ud83c\udf01", "unpaired \ud83c surrogates \udf01", "trailing \ud83c"};
+        for (final String message : messages) {
+            assertEquals(new OtrOutputStream().writeMessage(message).writeByte(0).writeTLV(tlvs).toByteArray().length,
+                    messageContentLength(message, tlvs));
+            assertEquals(new OtrOutputStream().writeMessage(message).writeByte(0).toByteArray().length,
+                    messageContentLength(message, Collections.<TLV>emptyList()));
+        }
+    }
 }
@@ -19,6 +19,7 @@ import org.junit.Test;
 
 import java.math.BigInteger;
 import java.net.ProtocolException;
+import java.nio.ByteBuffer;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
@@ -359,4 +360,45 @@ public class OtrInputStreamTest {
         final Scalar scalar = new OtrInputStream(input).readScalar();
         assertEquals(expected, scalar);
     }
+
+    @Test
+    public void testByteBufferDoesNotModifySource() throws ProtocolException {
+        final ByteBuffer source = ByteBuffer.wrap(new byte[] {0, 1, 2, 3, 4, 5});
+        source.position(1);
+        final OtrInputStream in = new OtrInputStream(source);
+        assertEquals(5, in.available());
+        assertEquals(1, in.readByte());
+        assertEquals(0x02030405, in.readInt());
+        assertEquals(0, in.available());
+        assertEquals(1, source.position());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testByteBufferReadBeyondLimit() throws ProtocolException {
+        final ByteBuffer source = ByteBuffer.wrap(new byte[] {0, 1, 2, 3, 4, 5});
+        source.limit(3);
+        new OtrInputStream(source).readInt();
+    }
+
+    @Test
+    public void testPrecedingBytes() throws ProtocolException {
+        final byte[] data = new byte[] {'x', 1, 2, 3, 4, 5};
+        final OtrInputStream in = new OtrInputStream(data, 1);
+        assertEquals(ByteBuffer.wrap(new byte[] {'x'}), in.precedingBytes());
+        in.readShort();
+        final ByteBuffer preceding = in.precedingBytes();
+        assertTrue(preceding.isReadOnly());
+        assertEquals(ByteBuffer.wrap(new byte[] {'x', 1, 2}), preceding);
+        assertEquals(3, in.available());
+    }
+
+    @Test
+    public void testPrecedingBytesByteBuffer() throws ProtocolException {
+        final ByteBuffer source = ByteBuffer.wrap(new byte[] {'x', 1, 2, 3});
+        source.position(1);
+        final OtrInputStream in = new OtrInputStream(source);
+        assertEquals(0, in.precedingBytes().remaining());
+        in.readByte();
+        assertEquals(ByteBuffer.wrap(new byte[] {1}), in.precedingBytes());
+    }
 }
@@ -40,6 +40,7 @@ import static net.java.otr4j.crypto.ed448.ScalarTestUtils.fromBigInteger;
 import static net.java.otr4j.util.SecureRandoms.randomBytes;
 import static org.bouncycastle.util.Arrays.concatenate;
 import static org.bouncycastle.util.BigIntegers.asUnsignedByteArray;
+import static org.bouncycastle.util.encoders.Base64.toBase64String;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
@@ -124,6 +125,37 @@ public class OtrOutputStreamTest {
         assertArrayEquals(expected, new OtrOutputStream().writeLong(value).toByteArray());
     }
 
+    @Test
+    public void testProduceConsecutiveNumbers() {
+        final byte[] expected = new byte[] {0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0a, 0x0b, 0x0c,
+                0x0d, 0x0e, 0x0f};
+        assertArrayEquals(expected, new OtrOutputStream().writeByte(0x01).writeShort(0x0203).writeInt(0x04050607)
+                .writeLong(0x08090a0b0c0d0e0fL).toByteArray());
+    }
+
+    @Test
+    public void testInitialCapacityExceeded() {
+        final byte[] data = randomBytes(RANDOM, new byte[100]);
+        assertArrayEquals(concatenate(new byte[] {0, 0, 0, 100}, data),
+                new OtrOutputStream(1).writeData(data).toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeInitialCapacity() {
+        new OtrOutputStream(-1);
+    }
+
+    @Test
+    public void testWriteBase64To() {
+        for (int length = 0; length < 10; length++) {
+            final byte[] data = randomBytes(RANDOM, new byte[length]);
+            final OtrOutputStream out = new OtrOutputStream().writeEncoded(data);
+            final StringBuilder builder = new StringBuilder("prefix");
+            out.writeBase64To(builder);
+            assertEquals("prefix" + toBase64String(data), builder.toString());
+        }
+    }
+
     @Test(expected = NullPointerException.class)
     public void testWriteEncodableNull() {
         new OtrOutputStream().write(null);
@@ -138,6 +170,11 @@ public class OtrOutputStreamTest {
             public void writeTo(@Nonnull final OtrOutputStream out) {
                 out.writeData(data);
             }
+
+            @Override
+            public int encodedLength() {
+                return 4 + data.length;
+            }
         }).toByteArray();
         assertArrayEquals(expected, result);
     }
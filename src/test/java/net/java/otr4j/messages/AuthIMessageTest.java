@@ -20,6 +20,7 @@ import java.security.SecureRandom;
 
 import static net.java.otr4j.api.InstanceTag.SMALLEST_TAG;
 import static net.java.otr4j.crypto.OtrCryptoEngine4.ringSign;
+import static net.java.otr4j.io.OtrEncodables.encode;
 import static net.java.otr4j.messages.AuthIMessage.MESSAGE_AUTH_I;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -69,4 +70,10 @@ public final class AuthIMessageTest {
         m.writeTo(out);
         assertArrayEquals(expected, out.toByteArray());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testEncodedLength() {
+        final AuthIMessage m = new AuthIMessage(Version.FOUR, SMALLEST_TAG, SMALLEST_TAG, SIG);
+        assertEquals(encode(m).length, m.encodedLength());
+    }
+}
@@ -23,6 +23,7 @@ import java.security.SecureRandom;
 
 import static java.util.Collections.singleton;
 import static net.java.otr4j.crypto.DSAKeyPair.generateDSAKeyPair;
+import static net.java.otr4j.io.OtrEncodables.encode;
 import static net.java.otr4j.messages.ClientProfilePayload.readFrom;
 import static net.java.otr4j.messages.ClientProfilePayload.sign;
 import static org.junit.Assert.assertArrayEquals;
@@ -50,6 +51,18 @@ public final class ClientProfilePayloadTest {
 
     private final DSAKeyPair dsaKeyPair = generateDSAKeyPair();
 
+    @Test
+    public void testWriteToIsStable() throws OtrCryptoException, ProtocolException, ValidationException {
+        final ClientProfile profile = new ClientProfile(tag, keypair.getPublicKey(), forgingKey, singleton(Version.FOUR),
+                null);
+        final ClientProfilePayload payload = sign(profile, Long.MAX_VALUE / 1000, null, keypair);
+        final byte[] first = new OtrOutputStream().write(payload).toByteArray();
+        final byte[] second = new OtrOutputStream().write(payload).toByteArray();
+        assertArrayEquals(first, second);
+        final ClientProfilePayload restored = readFrom(new OtrInputStream(first));
+        assertArrayEquals(first, new OtrOutputStream().write(restored).toByteArray());
+    }
+
     @Test
     public void testConstructedPayloadIsReversible() throws ValidationException {
         final ClientProfile profile = new ClientProfile(tag, keypair.getPublicKey(), forgingKey, singleton(Version.FOUR),
@@ -348,4 +361,12 @@ public final class ClientProfilePayloadTest {
         final byte[] input = new byte[] {0, 0, 0, 5, 0, 5, 0, 32, -60, -101, -91, -29, 83, -9, 0, 3, 0, 18, -89, 7, -57, 30, -5, -32, -76, 78, -42, -91, -7, 90, 119, -57, -41, -35, 51, -9, 71, 25, -106, 105, -42, -86, -19, -11, 39, -86, -6, 46, -115, -56, -17, 46, 97, 77, -30, 45, -17, -119, 105, -54, -60, -100, 15, -125, -54, 43, -27, -8, 52, -4, 108, -44, 25, 124, -128, 0, 2, 0, 16, -62, 115, -34, -32, 17, -118, -18, -21, 79, -25, -16, -127, 53, -44, -48, -6, 101, -73, -2, -68, 9, 37, -113, 44, -85, 94, -100, -122, -107, -40, 81, 61, 60, -12, -61, -27, -70, 105, 58, 1, -111, 35, 116, 122, -124, 14, 34, -61, -81, 24, 67, -114, -37, -107, 116, 8, -128, 0, 1, 0, 0, 1, 0, 0, 4, 0, 0, 0, 1, 52, 7, 42, -32, 5, 65, 111, 7, 10, -96, -7, -66, -45, -126, -3, 107, 72, 76, 37, -73, 123, -19, -49, -8, -27, 88, -60, 2, -72, -35, 123, 69, 44, 17, 1, 58, 48, 54, 123, -44, -58, 84, 111, -21, -89, -42, 45, 27, -17, 34, 127, 21, 76, 122, -83, 42, -101, 0, 32, 32, 2, 115, -109, -61, -56, 41, 75, 96, 114, 101, -121, -95, 6, -60, -61, 33, 99, -9, 53, 104, 6, -90, 113, 44, -95, 50, 120, 46, -98, 95, -52, 60, -114, 96, -16, 65, -95, 114, -50, 81, -94, -18, -50, -35, 107, 82, -60, 54, -46, 35, -40, 110, 52, 51, 0};
         readFrom(new OtrInputStream(input));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testEncodedLengthWithDSA() {
+        final ClientProfile profile = new ClientProfile(tag, keypair.getPublicKey(), forgingKey, singleton(Version.FOUR),
+                this.dsaKeyPair.getPublic());
+        final ClientProfilePayload payload = sign(profile, Long.MAX_VALUE / 1000, this.dsaKeyPair, keypair);
+        assertEquals(encode(payload).length, payload.encodedLength());
+    }
+}
@@ -12,6 +12,8 @@ import net.java.otr4j.api.Session.Version;
 import org.junit.Test;
 
 import static net.java.otr4j.api.InstanceTag.SMALLEST_TAG;
+import static net.java.otr4j.io.OtrEncodables.encode;
+import static org.junit.Assert.assertEquals;
 
 public final class DHCommitMessageTest {
 
@@ -24,4 +26,11 @@ public final class DHCommitMessageTest {
     public void testDHCommitMessageProtocolVersionIllegalVersion() {
         new DHCommitMessage(Version.FOUR, new byte[0], new byte[0], SMALLEST_TAG, SMALLEST_TAG);
     }
+
+    @Test
+    public void testEncodedLength() {
+        final DHCommitMessage message = new DHCommitMessage(Version.THREE, new byte[32], new byte[196], SMALLEST_TAG,
+                SMALLEST_TAG);
+        assertEquals(encode(message).length, message.encodedLength());
+    }
 }
@@ -15,6 +15,8 @@ import java.security.SecureRandom;
 
 import static net.java.otr4j.api.InstanceTag.SMALLEST_TAG;
 import static net.java.otr4j.crypto.DHKeyPairOTR3.generateDHKeyPair;
+import static net.java.otr4j.io.OtrEncodables.encode;
+import static org.junit.Assert.assertEquals;
 
 public final class DHKeyMessageTest {
 
@@ -31,4 +33,16 @@ public final class DHKeyMessageTest {
     public void testDHKeyMessageProtocolVersionIllegalValue() {
         new DHKeyMessage(Session.Version.FOUR, publicKey, SMALLEST_TAG, SMALLEST_TAG);
     }
+
+    @Test
+    public void testEncodedLength() {
+        final DHKeyMessage message = new DHKeyMessage(Session.Version.THREE, publicKey, SMALLEST_TAG, SMALLEST_TAG);
+        assertEquals(encode(message).length, message.encodedLength());
+    }
+
+    @Test
+    public void testEncodedLengthVersion2() {
+        final DHKeyMessage message = new DHKeyMessage(Session.Version.TWO, publicKey, SMALLEST_TAG, SMALLEST_TAG);
+        assertEquals(encode(message).length, message.encodedLength());
+    }
 }
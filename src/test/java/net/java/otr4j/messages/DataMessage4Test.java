@@ -24,6 +24,7 @@ import java.security.SecureRandom;
 import static java.util.Arrays.copyOfRange;
 import static net.java.otr4j.api.InstanceTag.HIGHEST_TAG;
 import static net.java.otr4j.api.InstanceTag.SMALLEST_TAG;
+import static net.java.otr4j.io.OtrEncodables.encode;
 import static net.java.otr4j.util.SecureRandoms.randomBytes;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -251,4 +252,23 @@ public final class DataMessage4Test {
                 dataMessageSections.length);
         assertArrayEquals(dataMessageSections, partOfSerialization);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testEncodedLength() {
+        final byte[] content = randomBytes(RANDOM, new byte[RANDOM.nextInt(10000)]);
+        final byte[] authenticator = randomBytes(RANDOM, new byte[64]);
+        final byte[] revealedMACs = randomBytes(RANDOM, new byte[128]);
+        final DataMessage4 message = new DataMessage4(Version.FOUR, SMALLEST_TAG, HIGHEST_TAG, (byte) 0, 0, 0, 0,
+                ECDH_PUBLIC_KEY, DH_PUBLIC_KEY, content, authenticator, revealedMACs);
+        assertEquals(encode(message).length, message.encodedLength());
+    }
+
+    @Test
+    public void testEncodedLengthWithoutDHPublicKey() {
+        final byte[] content = randomBytes(RANDOM, new byte[RANDOM.nextInt(10000)]);
+        final byte[] authenticator = randomBytes(RANDOM, new byte[64]);
+        final DataMessage4 message = new DataMessage4(Version.FOUR, SMALLEST_TAG, HIGHEST_TAG, (byte) 0, 0, 0, 0,
+                ECDH_PUBLIC_KEY, null, content, authenticator, new byte[0]);
+        assertEquals(encode(message).length, message.encodedLength());
+    }
+}
@@ -31,6 +31,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.net.ProtocolException;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 
 import static java.util.Arrays.copyOf;
@@ -42,6 +43,9 @@ import static net.java.otr4j.api.InstanceTag.ZERO_TAG;
 import static net.java.otr4j.crypto.DHKeyPairOTR3.generateDHKeyPair;
 import static net.java.otr4j.crypto.OtrCryptoEngine4.ringSign;
 import static net.java.otr4j.io.MessageProcessor.writeMessage;
+import static net.java.otr4j.io.OtrEncodables.encode;
+import static net.java.otr4j.messages.DataMessage4s.dataMessageSections;
+import static net.java.otr4j.messages.DataMessage4s.encodeDataMessageSections;
 import static net.java.otr4j.messages.EncodedMessageParser.parseEncodedMessage;
 import static net.java.otr4j.util.SecureRandoms.randomBytes;
 import static org.junit.Assert.assertEquals;
@@ -196,6 +200,49 @@ public class EncodedMessageParserTest {
         assertEquals(input, result);
     }
 
+    @Test
+    public void testParsingDataMessageEncodedTAsReceived() throws ProtocolException, OtrCryptoException, UnsupportedLengthException, ValidationException {
+        final DHKeyPairOTR3 dhKeyPair = generateDHKeyPair(RANDOM);
+        final DataMessage input = new DataMessage(3, (byte) 0, RANDOM.nextInt(), RANDOM.nextInt(),
+                dhKeyPair.getPublic(), randomBytes(RANDOM, new byte[8]), randomBytes(RANDOM, new byte[100]),
+                randomBytes(RANDOM, new byte[20]), randomBytes(RANDOM, new byte[40]), SMALLEST_TAG, HIGHEST_TAG);
+        final EncodedMessage encoded = (EncodedMessage) MessageProcessor.parseMessage(writeMessage(input));
+        final DataMessage result = (DataMessage) parseEncodedMessage(encoded);
+        assertEquals(input, result);
+        final ByteBuffer encodedT = result.getEncodedT();
+        assertTrue(encodedT.isReadOnly());
+        assertEquals(ByteBuffer.wrap(encode(input.getT())), encodedT);
+    }
+
+    @Test
+    public void testParsingDataMessageEncodedTWithoutHeader() throws ProtocolException, OtrCryptoException, UnsupportedLengthException, ValidationException {
+        final DHKeyPairOTR3 dhKeyPair = generateDHKeyPair(RANDOM);
+        final DataMessage input = new DataMessage(3, (byte) 0, RANDOM.nextInt(), RANDOM.nextInt(),
+                dhKeyPair.getPublic(), randomBytes(RANDOM, new byte[8]), randomBytes(RANDOM, new byte[100]),
+                randomBytes(RANDOM, new byte[20]), randomBytes(RANDOM, new byte[40]), SMALLEST_TAG, HIGHEST_TAG);
+        final byte[] fullPayload = new OtrOutputStream().write(input).toByteArray();
+        final byte[] payload = copyOfRange(fullPayload, 11, fullPayload.length);
+        final DataMessage result = (DataMessage) parseEncodedMessage(new EncodedMessage(Version.THREE,
+                DataMessage.MESSAGE_DATA, SMALLEST_TAG, HIGHEST_TAG, new OtrInputStream(payload)));
+        // The payload lacks the message header, so 'T' is re-encoded.
+        assertEquals(ByteBuffer.wrap(encode(input.getT())), result.getEncodedT());
+    }
+
+    @Test
+    public void testParsingDataMessage4SectionsAsReceived() throws ProtocolException, OtrCryptoException, UnsupportedLengthException, ValidationException {
+        final Point ecdhPublicKey = ECDHKeyPair.generate(RANDOM).getPublicKey();
+        final BigInteger dhPublicKey = DHKeyPair.generate(RANDOM).getPublicKey();
+        final DataMessage4 input = new DataMessage4(Version.FOUR, SMALLEST_TAG, HIGHEST_TAG, (byte) 0, 0, 0, 0,
+                ecdhPublicKey, dhPublicKey, randomBytes(RANDOM, new byte[100]), randomBytes(RANDOM, new byte[64]),
+                new byte[0]);
+        final EncodedMessage encoded = (EncodedMessage) MessageProcessor.parseMessage(writeMessage(input));
+        final DataMessage4 result = (DataMessage4) parseEncodedMessage(encoded);
+        assertEquals(input, result);
+        final ByteBuffer sections = dataMessageSections(result);
+        assertTrue(sections.isReadOnly());
+        assertEquals(ByteBuffer.wrap(encodeDataMessageSections(input)), sections);
+    }
+
     @Test
     public void testParsingDataMessage4() throws ProtocolException, OtrCryptoException, UnsupportedLengthException, ValidationException {
         final Point ecdhPublicKey = ECDHKeyPair.generate(RANDOM).getPublicKey();
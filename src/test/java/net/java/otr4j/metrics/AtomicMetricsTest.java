@@ -0,0 +1,135 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.metrics;
+
+import net.java.otr4j.api.SessionID;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public final class AtomicMetricsTest {
+
+    private static final SessionID SESSION_ID = new SessionID("bob", "alice", "network");
+
+    @Test
+    public void testMessagesCountedGloballyAndPerSession() {
+        final AtomicMetrics metrics = new AtomicMetrics();
+        metrics.sessionCreated(SESSION_ID);
+        metrics.messageReceived(SESSION_ID, 10);
+        metrics.messageReceived(SESSION_ID, 20);
+        metrics.messageSent(SESSION_ID, 7);
+        assertEquals(2, metrics.getMessagesReceived());
+        assertEquals(30, metrics.getBytesReceived());
+        assertEquals(1, metrics.getMessagesSent());
+        assertEquals(7, metrics.getBytesSent());
+        final AtomicMetrics.SessionMetrics session = metrics.getSession(SESSION_ID);
+        assertNotNull(session);
+        assertEquals(2, session.getMessagesReceived());
+        assertEquals(30, session.getBytesReceived());
+        assertEquals(1, session.getMessagesSent());
+        assertEquals(7, session.getBytesSent());
+    }
+
+    @Test
+    public void testUnmanagedSessionCountedGloballyOnly() {
+        final AtomicMetrics metrics = new AtomicMetrics();
+        metrics.messageReceived(SESSION_ID, 10);
+        metrics.decryptionFailed(SESSION_ID);
+        metrics.instanceCreated(SESSION_ID);
+        assertEquals(1, metrics.getMessagesReceived());
+        assertEquals(1, metrics.getDecryptionFailures());
+        assertEquals(0, metrics.getActiveInstances());
+        assertNull(metrics.getSession(SESSION_ID));
+    }
+
+    @Test
+    public void testFailuresAndRotations() {
+        final AtomicMetrics metrics = new AtomicMetrics();
+        metrics.sessionCreated(SESSION_ID);
+        metrics.fragmentAssembled(SESSION_ID);
+        metrics.fragmentAssembled(SESSION_ID);
+        metrics.fragmentDropped(SESSION_ID);
+        metrics.fragmentsEvicted(SESSION_ID, 3);
+        metrics.decryptionFailed(SESSION_ID);
+        metrics.verificationFailed(SESSION_ID);
+        metrics.ratchetRotated(SESSION_ID);
+        metrics.ratchetRotated(SESSION_ID);
+        assertEquals(2, metrics.getFragmentsAssembled());
+        assertEquals(1, metrics.getFragmentsDropped());
+        assertEquals(3, metrics.getFragmentsEvicted());
+        assertEquals(1, metrics.getDecryptionFailures());
+        assertEquals(1, metrics.getVerificationFailures());
+        assertEquals(2, metrics.getRatchetRotations());
+        final AtomicMetrics.SessionMetrics session = metrics.getSession(SESSION_ID);
+        assertEquals(2, session.getFragmentsAssembled());
+        assertEquals(1, session.getFragmentsDropped());
+        assertEquals(3, session.getFragmentsEvicted());
+        assertEquals(1, session.getDecryptionFailures());
+        assertEquals(1, session.getVerificationFailures());
+        assertEquals(2, session.getRatchetRotations());
+    }
+
+    @Test
+    public void testKeyExchangeLatencyPerProtocol() {
+        final AtomicMetrics metrics = new AtomicMetrics();
+        metrics.sessionCreated(SESSION_ID);
+        metrics.keyExchangeCompleted(SESSION_ID, 3, 1000);
+        metrics.keyExchangeCompleted(SESSION_ID, 4, 2000);
+        metrics.keyExchangeCompleted(SESSION_ID, 4, 3000);
+        assertEquals(1, metrics.getAkeLatency().getCount());
+        assertEquals(1000, metrics.getAkeLatency().getMax());
+        assertEquals(2, metrics.getDakeLatency().getCount());
+        assertEquals(3000, metrics.getDakeLatency().getMax());
+        assertEquals(3, metrics.getSession(SESSION_ID).getKeyExchanges());
+    }
+
+    @Test
+    public void testActiveSessionsAndInstances() {
+        final AtomicMetrics metrics = new AtomicMetrics();
+        final SessionID other = new SessionID("bob", "carol", "network");
+        metrics.sessionCreated(SESSION_ID);
+        metrics.sessionCreated(SESSION_ID);
+        metrics.sessionCreated(other);
+        assertEquals(2, metrics.getActiveSessions());
+        metrics.instanceCreated(SESSION_ID);
+        metrics.instanceCreated(SESSION_ID);
+        metrics.instanceCreated(other);
+        metrics.instanceRemoved(SESSION_ID);
+        assertEquals(2, metrics.getActiveInstances());
+        assertEquals(1, metrics.getSession(SESSION_ID).getInstances());
+        metrics.sessionRemoved(SESSION_ID);
+        metrics.sessionRemoved(SESSION_ID);
+        assertEquals(1, metrics.getActiveSessions());
+        assertEquals(1, metrics.getActiveInstances());
+        assertNull(metrics.getSession(SESSION_ID));
+    }
+
+    @Test
+    public void testConcurrentCounting() throws InterruptedException {
+        final AtomicMetrics metrics = new AtomicMetrics();
+        final Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        metrics.messageSent(SESSION_ID, 3);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80000, metrics.getMessagesSent());
+        assertEquals(240000, metrics.getBytesSent());
+    }
+}
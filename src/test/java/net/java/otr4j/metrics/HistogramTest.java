@@ -0,0 +1,105 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class HistogramTest {
+
+    @Test
+    public void testEmptyHistogram() {
+        final Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean(), 0);
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        for (int i = 0; i < Histogram.SUB_BUCKETS; i++) {
+            assertEquals(i, Histogram.index(i));
+            assertEquals(i, Histogram.upperBound(i));
+        }
+    }
+
+    @Test
+    public void testBucketsCoverValueRange() {
+        assertEquals(Histogram.BUCKETS - 1, Histogram.index(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, Histogram.upperBound(Histogram.BUCKETS - 1));
+        for (int i = 1; i < Histogram.BUCKETS; i++) {
+            assertEquals(i, Histogram.index(Histogram.upperBound(i - 1) + 1));
+            assertEquals(i, Histogram.index(Histogram.upperBound(i)));
+        }
+    }
+
+    @Test
+    public void testRelativeErrorIsBounded() {
+        for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+            final long upper = Histogram.upperBound(Histogram.index(value));
+            assertTrue(upper >= value);
+            assertTrue((double) (upper - value) / value <= 2.0 / Histogram.SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    public void testNegativeValueRecordedAsZero() {
+        final Histogram histogram = new Histogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testPercentiles() {
+        final Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500500, histogram.getMean(), 0.001);
+        final long median = histogram.getValueAtPercentile(50);
+        assertTrue(median >= 500000 && median <= 500000 * (1 + 2.0 / Histogram.SUB_BUCKETS));
+        final long p99 = histogram.getValueAtPercentile(99);
+        assertTrue(p99 >= 990000 && p99 <= 1000000);
+        assertEquals(1000000, histogram.getValueAtPercentile(100));
+        assertEquals(histogram.getValueAtPercentile(0), histogram.getValueAtPercentile(0.01));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPercentileOutOfRange() {
+        new Histogram().getValueAtPercentile(101);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        final Histogram histogram = new Histogram();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(9999, histogram.getMax());
+    }
+}
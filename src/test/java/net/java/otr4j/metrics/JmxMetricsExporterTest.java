@@ -0,0 +1,63 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.metrics;
+
+import net.java.otr4j.api.SessionID;
+import org.junit.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class JmxMetricsExporterTest {
+
+    private static final SessionID SESSION_ID = new SessionID("bob", "alice", "network");
+
+    @Test
+    public void testAttributesExported() throws JMException {
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        final ObjectName name = new ObjectName(JmxMetricsExporter.DEFAULT_NAME);
+        final AtomicMetrics metrics = new AtomicMetrics();
+        try (JmxMetricsExporter exporter = JmxMetricsExporter.register(metrics, server, name)) {
+            assertEquals(name, exporter.getName());
+            assertTrue(server.isRegistered(name));
+            metrics.sessionCreated(SESSION_ID);
+            metrics.messageReceived(SESSION_ID, 42);
+            metrics.keyExchangeCompleted(SESSION_ID, 4, 1000);
+            assertEquals(1L, server.getAttribute(name, "MessagesReceived"));
+            assertEquals(42L, server.getAttribute(name, "BytesReceived"));
+            assertEquals(1L, server.getAttribute(name, "ActiveSessions"));
+            assertEquals(1L, server.getAttribute(name, "DakeCount"));
+            assertEquals(0L, server.getAttribute(name, "AkeCount"));
+            assertEquals(1000L, server.getAttribute(name, "DakeLatencyMax"));
+        }
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test(expected = JMException.class)
+    public void testRegisterTwiceFails() throws JMException {
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        final ObjectName name = new ObjectName(JmxMetricsExporter.DEFAULT_NAME);
+        JmxMetricsExporter.register(new AtomicMetrics(), server, name);
+        JmxMetricsExporter.register(new AtomicMetrics(), server, name);
+    }
+
+    @Test
+    public void testCloseAfterUnregisterDoesNotFail() throws JMException {
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        final ObjectName name = new ObjectName(JmxMetricsExporter.DEFAULT_NAME);
+        final JmxMetricsExporter exporter = JmxMetricsExporter.register(new AtomicMetrics(), server, name);
+        server.unregisterMBean(name);
+        exporter.close();
+    }
+}
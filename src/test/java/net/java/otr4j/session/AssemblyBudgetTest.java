@@ -0,0 +1,77 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+@SuppressWarnings("ConstantConditions")
+public final class AssemblyBudgetTest {
+
+    @Test(expected = NullPointerException.class)
+    public void testReserveNullOwner() {
+        new AssemblyBudget().reserve(null);
+    }
+
+    @Test
+    public void testClaimAndRelease() {
+        final AssemblyBudget budget = new AssemblyBudget();
+        final Object owner = new Object();
+        final AssemblyBudget.Reservation reservation = budget.reserve(owner);
+        assertTrue(reservation.tryClaim(60, 100));
+        assertEquals(60, reservation.held());
+        assertEquals(60, budget.used());
+        reservation.release(20);
+        assertEquals(40, reservation.held());
+        assertEquals(40, budget.used());
+    }
+
+    @Test
+    public void testClaimExceedingLimitIsRefused() {
+        final AssemblyBudget budget = new AssemblyBudget();
+        final Object owner = new Object();
+        final AssemblyBudget.Reservation reservation = budget.reserve(owner);
+        assertTrue(reservation.tryClaim(100, 100));
+        assertFalse(reservation.tryClaim(1, 100));
+        assertEquals(100, budget.used());
+    }
+
+    @Test
+    public void testLimitIsSharedByReservations() {
+        final AssemblyBudget budget = new AssemblyBudget();
+        final Object owner1 = new Object();
+        final Object owner2 = new Object();
+        final AssemblyBudget.Reservation first = budget.reserve(owner1);
+        final AssemblyBudget.Reservation second = budget.reserve(owner2);
+        assertTrue(first.tryClaim(70, 100));
+        assertFalse(second.tryClaim(40, 100));
+        assertEquals(0, second.held());
+        first.release(70);
+        assertTrue(second.tryClaim(40, 100));
+        assertEquals(40, budget.used());
+    }
+
+    @Test
+    public void testBytesOfCollectedOwnerAreReclaimed() throws InterruptedException {
+        final AssemblyBudget budget = new AssemblyBudget();
+        Object owner = new Object();
+        assertTrue(budget.reserve(owner).tryClaim(100, 100));
+        owner = null;
+        for (int i = 0; i < 20 && budget.used() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assumeTrue(budget.used() == 0);
+        final Object other = new Object();
+        assertTrue(budget.reserve(other).tryClaim(100, 100));
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import net.java.otr4j.api.InstanceEvictionListener;
+import net.java.otr4j.api.InstanceTag;
+import net.java.otr4j.api.OtrEngineListener;
+import net.java.otr4j.api.SessionID;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("ConstantConditions")
+public final class AsyncOtrEngineListenerTest {
+
+    private static final SessionID SESSION_ID = new SessionID("bob@network", "alice@network", "network");
+
+    @Test(expected = NullPointerException.class)
+    public void testConstructNullDelegate() {
+        new AsyncOtrEngineListener(null, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructZeroCapacity() {
+        new AsyncOtrEngineListener(new RecordingListener(), 0);
+    }
+
+    @Test
+    public void testEventsDeliveredInOrderOnDispatcherThread() throws InterruptedException {
+        final RecordingListener delegate = new RecordingListener();
+        try (AsyncOtrEngineListener listener = new AsyncOtrEngineListener(delegate, 10)) {
+            listener.sessionStatusChanged(SESSION_ID, InstanceTag.SMALLEST_TAG);
+            listener.multipleInstancesDetected(SESSION_ID);
+            listener.outgoingSessionChanged(SESSION_ID);
+            listener.instanceEvicted(SESSION_ID, InstanceTag.SMALLEST_TAG);
+            assertEquals("sessionStatusChanged", delegate.next());
+            assertEquals("multipleInstancesDetected", delegate.next());
+            assertEquals("outgoingSessionChanged", delegate.next());
+            assertEquals("instanceEvicted", delegate.next());
+            assertEquals("otr-event-dispatcher", delegate.thread);
+        }
+    }
+
+    @Test
+    public void testInstanceEvictedNotDeliveredToPlainListener() throws InterruptedException {
+        final RecordingListener recorder = new RecordingListener();
+        final OtrEngineListener delegate = new OtrEngineListener() {
+            @Override
+            public void sessionStatusChanged(@Nonnull final SessionID sessionID, @Nonnull final InstanceTag receiver) {
+                recorder.sessionStatusChanged(sessionID, receiver);
+            }
+
+            @Override
+            public void multipleInstancesDetected(@Nonnull final SessionID sessionID) {
+                recorder.multipleInstancesDetected(sessionID);
+            }
+
+            @Override
+            public void outgoingSessionChanged(@Nonnull final SessionID sessionID) {
+                recorder.outgoingSessionChanged(sessionID);
+            }
+        };
+        try (AsyncOtrEngineListener listener = new AsyncOtrEngineListener(delegate, 10)) {
+            listener.instanceEvicted(SESSION_ID, InstanceTag.SMALLEST_TAG);
+            listener.outgoingSessionChanged(SESSION_ID);
+            assertEquals("outgoingSessionChanged", recorder.next());
+        }
+    }
+
+    @Test
+    public void testFaultyDelegateDoesNotStopDispatcher() throws InterruptedException {
+        final RecordingListener recorder = new RecordingListener();
+        final OtrEngineListener delegate = new OtrEngineListener() {
+            @Override
+            public void sessionStatusChanged(@Nonnull final SessionID sessionID, @Nonnull final InstanceTag receiver) {
+                throw new IllegalStateException("bad listener");
+            }
+
+            @Override
+            public void multipleInstancesDetected(@Nonnull final SessionID sessionID) {
+                recorder.multipleInstancesDetected(sessionID);
+            }
+
+            @Override
+            public void outgoingSessionChanged(@Nonnull final SessionID sessionID) {
+                recorder.outgoingSessionChanged(sessionID);
+            }
+        };
+        try (AsyncOtrEngineListener listener = new AsyncOtrEngineListener(delegate, 10)) {
+            listener.sessionStatusChanged(SESSION_ID, InstanceTag.SMALLEST_TAG);
+            listener.multipleInstancesDetected(SESSION_ID);
+            assertEquals("multipleInstancesDetected", recorder.next());
+        }
+    }
+
+    @Test
+    public void testEventsDroppedWhenBufferIsFull() throws InterruptedException {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingListener recorder = new RecordingListener();
+        final OtrEngineListener delegate = new OtrEngineListener() {
+            @Override
+            public void sessionStatusChanged(@Nonnull final SessionID sessionID, @Nonnull final InstanceTag receiver) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void multipleInstancesDetected(@Nonnull final SessionID sessionID) {
+                recorder.multipleInstancesDetected(sessionID);
+            }
+
+            @Override
+            public void outgoingSessionChanged(@Nonnull final SessionID sessionID) {
+                recorder.outgoingSessionChanged(sessionID);
+            }
+        };
+        try (AsyncOtrEngineListener listener = new AsyncOtrEngineListener(delegate, 2)) {
+            listener.sessionStatusChanged(SESSION_ID, InstanceTag.SMALLEST_TAG);
+            assertTrue(blocked.await(10, TimeUnit.SECONDS));
+            // The dispatcher is stuck in the delegate. Publishing must not block.
+            listener.multipleInstancesDetected(SESSION_ID);
+            listener.outgoingSessionChanged(SESSION_ID);
+            listener.multipleInstancesDetected(SESSION_ID);
+            assertEquals(1, listener.getDroppedEvents());
+            release.countDown();
+            assertEquals("multipleInstancesDetected", recorder.next());
+            assertEquals("outgoingSessionChanged", recorder.next());
+        }
+    }
+
+    @Test
+    public void testClosedListenerDiscardsEvents() throws InterruptedException {
+        final RecordingListener delegate = new RecordingListener();
+        final AsyncOtrEngineListener listener = new AsyncOtrEngineListener(delegate, 10);
+        listener.close();
+        listener.outgoingSessionChanged(SESSION_ID);
+        assertNull(delegate.events.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(0, listener.getDroppedEvents());
+    }
+
+    private static final class RecordingListener implements OtrEngineListener, InstanceEvictionListener {
+
+        private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+        private volatile String thread;
+
+        private String next() throws InterruptedException {
+            return this.events.poll(10, TimeUnit.SECONDS);
+        }
+
+        private void record(@Nonnull final String event) {
+            this.thread = Thread.currentThread().getName();
+            this.events.add(event);
+        }
+
+        @Override
+        public void sessionStatusChanged(@Nonnull final SessionID sessionID, @Nonnull final InstanceTag receiver) {
+            record("sessionStatusChanged");
+        }
+
+        @Override
+        public void multipleInstancesDetected(@Nonnull final SessionID sessionID) {
+            record("multipleInstancesDetected");
+        }
+
+        @Override
+        public void outgoingSessionChanged(@Nonnull final SessionID sessionID) {
+            record("outgoingSessionChanged");
+        }
+
+        @Override
+        public void instanceEvicted(@Nonnull final SessionID sessionID, @Nonnull final InstanceTag receiver) {
+            record("instanceEvicted");
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import net.java.otr4j.api.OtrException;
+import net.java.otr4j.api.Session;
+import net.java.otr4j.api.TLV;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("ConstantConditions")
+public final class AsyncSessionTest {
+
+    @Test(expected = NullPointerException.class)
+    public void testConstructNullSession() {
+        new AsyncSession(null, mock(Executor.class));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testConstructNullExecutor() {
+        new AsyncSession(mock(Session.class), null);
+    }
+
+    @Test
+    public void testGetSession() {
+        final Session session = mock(Session.class);
+        assertSame(session, new AsyncSession(session, mock(Executor.class)).getSession());
+    }
+
+    @Test
+    public void testTransformReceiving() throws OtrException, InterruptedException, ExecutionException {
+        final Session session = mock(Session.class);
+        when(session.transformReceiving("?OTR:AAMD")).thenReturn("Hello");
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<String> result = new AsyncSession(session, executor).transformReceiving("?OTR:AAMD");
+            assertEquals("Hello", result.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTransformSending() throws OtrException, InterruptedException, ExecutionException {
+        final Session session = mock(Session.class);
+        when(session.transformSending("Hello", Collections.<TLV>emptyList()))
+                .thenReturn(new String[] {"?OTR:AAMD"});
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<String[]> result = new AsyncSession(session, executor).transformSending("Hello");
+            assertArrayEquals(new String[] {"?OTR:AAMD"}, result.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailureIsReportedThroughFuture() throws OtrException, InterruptedException {
+        final Session session = mock(Session.class);
+        final OtrException failure = new OtrException("failure");
+        when(session.transformReceiving("?OTR:AAMD")).thenThrow(failure);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            new AsyncSession(session, executor).transformReceiving("?OTR:AAMD").get();
+            fail("Expected failure of transformation.");
+        } catch (final ExecutionException e) {
+            assertSame(failure, e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCallbackCompleted() throws OtrException, InterruptedException {
+        final Session session = mock(Session.class);
+        when(session.transformReceiving("?OTR:AAMD")).thenReturn("Hello");
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final AtomicReference<String> result = new AtomicReference<>();
+            final CountDownLatch done = new CountDownLatch(1);
+            new AsyncSession(session, executor).transformReceiving("?OTR:AAMD", new AsyncSession.Callback<String>() {
+                @Override
+                public void completed(final String value) {
+                    result.set(value);
+                    done.countDown();
+                }
+
+                @Override
+                public void failed(final Throwable cause) {
+                    fail("Did not expect failure.");
+                }
+            });
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals("Hello", result.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCallbackFailed() throws OtrException, InterruptedException {
+        final Session session = mock(Session.class);
+        final OtrException failure = new OtrException("failure");
+        when(session.transformSending("Hello", Collections.<TLV>emptyList())).thenThrow(failure);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final AtomicReference<Throwable> result = new AtomicReference<>();
+            final CountDownLatch done = new CountDownLatch(1);
+            new AsyncSession(session, executor).transformSending("Hello", Collections.<TLV>emptyList(),
+                    new AsyncSession.Callback<String[]>() {
+                        @Override
+                        public void completed(final String[] value) {
+                            fail("Did not expect success.");
+                        }
+
+                        @Override
+                        public void failed(final Throwable cause) {
+                            result.set(cause);
+                            done.countDown();
+                        }
+                    });
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertSame(failure, result.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testOperationsRunInSubmissionOrder() throws OtrException, InterruptedException, ExecutionException {
+        final Session session = mock(Session.class);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final AsyncSession async = new AsyncSession(session, executor);
+            async.startSession();
+            async.transformReceiving("?OTR:AAMD");
+            async.refreshSession();
+            assertNull(async.endSession().get());
+            final InOrder order = inOrder(session);
+            order.verify(session).startSession();
+            order.verify(session).transformReceiving("?OTR:AAMD");
+            order.verify(session).refreshSession();
+            order.verify(session).endSession();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedOperationDoesNotBlockSubsequentOperations() throws OtrException, InterruptedException,
+            ExecutionException {
+        final Session session = mock(Session.class);
+        when(session.transformReceiving("?OTR:AAMD")).thenThrow(new OtrException("failure"));
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final AsyncSession async = new AsyncSession(session, executor);
+            async.transformReceiving("?OTR:AAMD");
+            async.endSession().get();
+            verify(session).endSession();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import net.java.otr4j.api.ClientProfile;
+import net.java.otr4j.api.OtrEngineHost;
+import net.java.otr4j.api.Session.Version;
+import net.java.otr4j.api.SessionID;
+import net.java.otr4j.crypto.ed448.EdDSAKeyPair;
+import net.java.otr4j.crypto.ed448.Point;
+import net.java.otr4j.messages.ClientProfilePayload;
+import net.java.otr4j.messages.ValidationException;
+import org.junit.Test;
+
+import java.security.SecureRandom;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.Collections.singleton;
+import static net.java.otr4j.api.InstanceTag.SMALLEST_TAG;
+import static net.java.otr4j.session.ClientProfilePayloadCache.EXPIRATION_MARGIN_MILLIS;
+import static net.java.otr4j.session.ClientProfilePayloadCache.REFRESH_MILLIS;
+import static net.java.otr4j.session.ClientProfilePayloadCache.VALIDITY_MILLIS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("ConstantConditions")
+public final class ClientProfilePayloadCacheTest {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final long NOW = 1_500_000_000_000L;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+
+    private final EdDSAKeyPair longTermKeyPair = EdDSAKeyPair.generate(RANDOM);
+
+    private final Point forgingKey = EdDSAKeyPair.generate(RANDOM).getPublicKey();
+
+    private final ClientProfile profile = new ClientProfile(SMALLEST_TAG, longTermKeyPair.getPublicKey(), forgingKey,
+            singleton(Version.FOUR), null);
+
+    private final SessionID alice = new SessionID("bob@network", "alice@network", "network");
+
+    private final SessionID carol = new SessionID("bob@network", "carol@network", "network");
+
+    private OtrEngineHost host() {
+        final OtrEngineHost host = mock(OtrEngineHost.class);
+        when(host.getLongTermKeyPair(any(SessionID.class))).thenReturn(longTermKeyPair);
+        return host;
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testConstructNullExecutor() {
+        new ClientProfilePayloadCache(null);
+    }
+
+    @Test
+    public void testPayloadIsValid() throws ValidationException {
+        final ClientProfilePayloadCache cache = new ClientProfilePayloadCache(DIRECT);
+        assertEquals(this.profile, cache.get(this.profile, host(), this.alice).validate());
+    }
+
+    @Test
+    public void testPayloadIsSharedAmongSessions() {
+        final OtrEngineHost host = host();
+        final ClientProfilePayloadCache cache = new ClientProfilePayloadCache(DIRECT);
+        final ClientProfilePayload payload = cache.get(this.profile, host, this.alice, NOW);
+        assertSame(payload, cache.get(this.profile, host, this.alice, NOW + 1000));
+        assertSame(payload, cache.get(this.profile, host, this.carol, NOW + 2000));
+        verify(host, times(1)).getLongTermKeyPair(any(SessionID.class));
+    }
+
+    @Test
+    public void testPayloadRefreshedInBackgroundAfterHalfOfValidity() {
+        final OtrEngineHost host = host();
+        final ClientProfilePayloadCache cache = new ClientProfilePayloadCache(DIRECT);
+        final ClientProfilePayload first = cache.get(this.profile, host, this.alice, NOW);
+        assertSame(first, cache.get(this.profile, host, this.alice, NOW + REFRESH_MILLIS - 1));
+        // The refresh is triggered, but the current payload is still handed out.
+        assertSame(first, cache.get(this.profile, host, this.alice, NOW + REFRESH_MILLIS));
+        final ClientProfilePayload second = cache.get(this.profile, host, this.alice, NOW + REFRESH_MILLIS + 1);
+        assertNotSame(first, second);
+        verify(host, times(2)).getLongTermKeyPair(eq(this.alice));
+    }
+
+    @Test
+    public void testExpiredPayloadIsReplacedImmediately() {
+        final OtrEngineHost host = host();
+        final Executor rejecting = mock(Executor.class);
+        doThrow(new RejectedExecutionException("no refresh")).when(rejecting).execute(any(Runnable.class));
+        final ClientProfilePayloadCache cache = new ClientProfilePayloadCache(rejecting);
+        final ClientProfilePayload first = cache.get(this.profile, host, this.alice, NOW);
+        final ClientProfilePayload second = cache.get(this.profile, host, this.alice,
+                NOW + VALIDITY_MILLIS - EXPIRATION_MARGIN_MILLIS);
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void testFailedRefreshIsRetried() {
+        final OtrEngineHost host = host();
+        final Executor rejecting = mock(Executor.class);
+        doThrow(new RejectedExecutionException("no refresh")).when(rejecting).execute(any(Runnable.class));
+        final ClientProfilePayloadCache cache = new ClientProfilePayloadCache(rejecting);
+        final ClientProfilePayload first = cache.get(this.profile, host, this.alice, NOW);
+        assertSame(first, cache.get(this.profile, host, this.alice, NOW + REFRESH_MILLIS));
+        assertSame(first, cache.get(this.profile, host, this.alice, NOW + REFRESH_MILLIS + 1));
+        verify(rejecting, times(2)).execute(any(Runnable.class));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import net.java.otr4j.api.BatchEngineHost;
+import net.java.otr4j.api.InstanceTag;
+import net.java.otr4j.api.OtrEngineHost;
+import net.java.otr4j.api.SessionID;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.withSettings;
+
+@SuppressWarnings("ConstantConditions")
+public final class HeartbeatEngineTest {
+
+    private static final long IDLENESS = 60_000_000_000L;
+
+    private static final SessionID SESSION_ALICE = new SessionID("bob@network", "alice@network", "network");
+
+    private static final SessionID SESSION_CAROL = new SessionID("bob@network", "carol@network", "network");
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructZeroLimit() {
+        new HeartbeatEngine(0);
+    }
+
+    @Test
+    public void testJitterWithinWindow() {
+        for (int i = 0; i < 1000; i++) {
+            final SessionID sessionID = new SessionID("bob@network", "contact" + i + "@network", "network");
+            final long jitter = HeartbeatEngine.jitter(sessionID, new InstanceTag(InstanceTag.SMALLEST_TAG.getValue() + i),
+                    IDLENESS);
+            assertTrue(jitter >= 0);
+            assertTrue(jitter < IDLENESS / 4);
+        }
+    }
+
+    @Test
+    public void testJitterIsStable() {
+        final InstanceTag tag = new InstanceTag(InstanceTag.SMALLEST_TAG.getValue());
+        assertEquals(HeartbeatEngine.jitter(SESSION_ALICE, InstanceTag.SMALLEST_TAG, IDLENESS),
+                HeartbeatEngine.jitter(SESSION_ALICE, tag, IDLENESS));
+    }
+
+    @Test
+    public void testJitterTinyIdleness() {
+        assertEquals(0, HeartbeatEngine.jitter(SESSION_ALICE, InstanceTag.ZERO_TAG, 3));
+    }
+
+    @Test
+    public void testJitterIsSpreadOverWindow() {
+        final int buckets = 10;
+        final int[] counts = new int[buckets];
+        final int sessions = 10_000;
+        for (int i = 0; i < sessions; i++) {
+            final SessionID sessionID = new SessionID("bob@network", "contact" + i + "@network", "network");
+            final long jitter = HeartbeatEngine.jitter(sessionID, InstanceTag.ZERO_TAG, IDLENESS);
+            counts[(int) (jitter * buckets / (IDLENESS / 4))]++;
+        }
+        for (final int count : counts) {
+            // Expect roughly 1000 per bucket. Allow for ample deviation.
+            assertTrue(count > sessions / buckets / 2);
+            assertTrue(count < sessions / buckets * 2);
+        }
+    }
+
+    @Test
+    public void testFlushEmptyBatch() {
+        new HeartbeatEngine(10).batch().flush();
+    }
+
+    @Test
+    public void testFlushInjectsIndividuallyForRegularHost() {
+        final OtrEngineHost host = mock(OtrEngineHost.class);
+        final HeartbeatEngine.Batch batch = new HeartbeatEngine(10).batch();
+        batch.add(host, SESSION_ALICE, new String[] {"a1", "a2"});
+        batch.add(host, SESSION_CAROL, new String[] {"c1"});
+        batch.add(host, SESSION_ALICE, new String[0]);
+        verify(host, never()).injectMessage(any(SessionID.class), anyString());
+        batch.flush();
+        final InOrder order = inOrder(host);
+        order.verify(host).injectMessage(SESSION_ALICE, "a1");
+        order.verify(host).injectMessage(SESSION_ALICE, "a2");
+        order.verify(host).injectMessage(SESSION_CAROL, "c1");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFlushHandsBatchToBatchingHost() {
+        final OtrEngineHost host = mock(OtrEngineHost.class, withSettings().extraInterfaces(BatchEngineHost.class));
+        final HeartbeatEngine.Batch batch = new HeartbeatEngine(10).batch();
+        batch.add(host, SESSION_ALICE, new String[] {"a1", "a2"});
+        batch.add(host, SESSION_CAROL, new String[] {"c1"});
+        batch.flush();
+        final ArgumentCaptor<Map> captor = ArgumentCaptor.forClass(Map.class);
+        verify((BatchEngineHost) host).injectMessages(captor.capture());
+        verify(host, never()).injectMessage(any(SessionID.class), anyString());
+        final Map<SessionID, List<String>> messages = captor.getValue();
+        assertEquals(2, messages.size());
+        assertEquals(asList("a1", "a2"), messages.get(SESSION_ALICE));
+        assertEquals(singletonList("c1"), messages.get(SESSION_CAROL));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFlushSurvivesFaultyHost() {
+        final OtrEngineHost faulty = mock(OtrEngineHost.class, withSettings().extraInterfaces(BatchEngineHost.class));
+        doThrow(new IllegalStateException("bad host")).when((BatchEngineHost) faulty)
+                .injectMessages(any(Map.class));
+        final OtrEngineHost host = mock(OtrEngineHost.class);
+        final HeartbeatEngine.Batch batch = new HeartbeatEngine(10).batch();
+        batch.add(faulty, SESSION_ALICE, new String[] {"a1"});
+        batch.add(host, SESSION_CAROL, new String[] {"c1"});
+        batch.flush();
+        verify(host).injectMessage(SESSION_CAROL, "c1");
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@SuppressWarnings("ConstantConditions")
+public final class InstanceTableTest {
+
+    @Test
+    public void testEmptyTable() {
+        final InstanceTable<String> table = new InstanceTable<>();
+        assertEquals(0, table.size());
+        assertNull(table.get(256));
+        assertNull(table.access(256));
+        assertNull(table.remove(256));
+        assertEquals(emptyList(), table.values());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testPutNull() {
+        new InstanceTable<String>().put(256, null);
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        final InstanceTable<String> table = new InstanceTable<>();
+        assertNull(table.put(256, "a"));
+        assertNull(table.put(0xffffffff, "b"));
+        assertEquals(2, table.size());
+        assertEquals("a", table.get(256));
+        assertEquals("b", table.get(0xffffffff));
+        assertEquals("a", table.put(256, "c"));
+        assertEquals(2, table.size());
+        assertEquals("c", table.remove(256));
+        assertNull(table.get(256));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testValuesInAccessOrder() {
+        final InstanceTable<String> table = new InstanceTable<>();
+        table.put(1000, "a");
+        table.put(2000, "b");
+        table.put(3000, "c");
+        assertEquals(asList("a", "b", "c"), table.values());
+        table.get(1000);
+        assertEquals(asList("a", "b", "c"), table.values());
+        table.access(1000);
+        assertEquals(asList("b", "c", "a"), table.values());
+        table.put(2000, "d");
+        assertEquals(asList("c", "a", "d"), table.values());
+        table.remove(1000);
+        assertEquals(asList("c", "d"), table.values());
+    }
+
+    @Test
+    public void testManyEntries() {
+        final Random random = new Random(42);
+        final InstanceTable<Integer> table = new InstanceTable<>();
+        final Map<Integer, Integer> expected = new HashMap<>();
+        final List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            final int tag = random.nextInt();
+            if (expected.containsKey(tag)) {
+                continue;
+            }
+            expected.put(tag, i);
+            order.add(i);
+            table.put(tag, i);
+        }
+        assertEquals(expected.size(), table.size());
+        for (final Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), table.get(entry.getKey()));
+        }
+        assertEquals(order, table.values());
+        for (final Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), table.remove(entry.getKey()));
+        }
+        assertEquals(0, table.size());
+        assertEquals(emptyList(), table.values());
+    }
+}
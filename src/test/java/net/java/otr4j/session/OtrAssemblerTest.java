@@ -8,24 +8,35 @@
 package net.java.otr4j.session;
 
 import net.java.otr4j.api.InstanceTag;
+import net.java.otr4j.api.OtrPolicy;
+import net.java.otr4j.api.SessionID;
+import net.java.otr4j.io.EncodedMessage;
 import net.java.otr4j.io.Fragment;
+import net.java.otr4j.io.OtrInputStream;
+import net.java.otr4j.metrics.AtomicMetrics;
 import org.junit.Test;
 import org.mockito.internal.util.reflection.Whitebox;
 
+import javax.annotation.Nullable;
 import java.net.ProtocolException;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static java.util.Arrays.asList;
 import static java.util.Collections.shuffle;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static net.java.otr4j.io.MessageProcessor.parseMessage;
 import static org.bouncycastle.util.encoders.Base64.toBase64String;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 /**
  * Tests for OTR Assembler.
@@ -36,58 +47,123 @@ import static org.junit.Assert.fail;
 public final class OtrAssemblerTest {
 
     private static final SecureRandom RANDOM = new SecureRandom();
-    private String helloWorldBase64 = toBase64String("Hello World!".getBytes(UTF_8));
+    private static final SessionID SESSION_ID = new SessionID("alice@network", "bob@network", "network");
+    private static final OtrPolicy POLICY = new OtrPolicy();
+    private static final byte TYPE = 0x03;
+    private static final int SENDER = 0x5a73a599;
+    private static final int RECEIVER = 0x27e31597;
+    private static final byte[] PAYLOAD = "Hello World!".getBytes(UTF_8);
+    private static final String MESSAGE_V3 = encoded(3);
+    private static final String MESSAGE_V4 = encoded(4);
+    private final AtomicMetrics metrics = new AtomicMetrics();
+    private final AssemblyBudget sessionBudget = new AssemblyBudget();
+    private final AssemblyBudget globalBudget = new AssemblyBudget();
 
     @Test
     public void testAssembleSinglePartMessage() throws ProtocolException {
         final InstanceTag tag = InstanceTag.random(RANDOM);
-        final Fragment data = (Fragment) parseMessage(String.format("?OTR|ff123456|%08x,00001,00001,test,", tag.getValue()));
-        final OtrAssembler ass = new OtrAssembler();
-        assertEquals("test", ass.accumulate(data));
+        final Fragment data = (Fragment) parseMessage(String.format("?OTR|ff123456|%08x,00001,00001,%s,", tag.getValue(),
+                MESSAGE_V3));
+        final OtrAssembler ass = assembler();
+        assertMessage(3, ass.accumulate(data, POLICY, 0L));
     }
 
     @Test
     public void testAssembleTwoPartMessage() throws ProtocolException {
         final InstanceTag tag = InstanceTag.random(RANDOM);
-        final OtrAssembler ass = new OtrAssembler();
-        assertNull(ass.accumulate((Fragment) parseMessage(String.format("?OTR|ff123456|%08x,00001,00002,abcdef,", tag.getValue()))));
-        assertEquals("abcdeffedcba", ass.accumulate((Fragment) parseMessage(
-                String.format("?OTR|ff123456|%08x,00002,00002,fedcba,", tag.getValue()))));
+        final OtrAssembler ass = assembler();
+        assertNull(ass.accumulate((Fragment) parseMessage(String.format("?OTR|ff123456|%08x,00001,00002,%s,", tag.getValue(),
+                MESSAGE_V3.substring(0, 7))), POLICY, 0L));
+        assertMessage(3, ass.accumulate((Fragment) parseMessage(String.format("?OTR|ff123456|%08x,00002,00002,%s,",
+                tag.getValue(), MESSAGE_V3.substring(7))), POLICY, 0L));
+    }
+
+    @Test
+    public void testAssembleTwoPartMessageSplitAtEveryPosition() throws ProtocolException {
+        final OtrAssembler assembler = assembler();
+        for (int i = 1; i < MESSAGE_V3.length(); i++) {
+            assertNull(assembler.accumulate((Fragment) parseMessage("?OTR|ff123456|27e31597,00001,00002,"
+                    + MESSAGE_V3.substring(0, i) + ","), POLICY, 0L));
+            assertMessage(3, assembler.accumulate((Fragment) parseMessage("?OTR|ff123456|27e31597,00002,00002,"
+                    + MESSAGE_V3.substring(i) + ","), POLICY, 0L));
+        }
     }
 
     @Test
     public void testAssembleFourPartMessage() throws ProtocolException {
         final InstanceTag tag = InstanceTag.random(RANDOM);
-        final OtrAssembler assembler = new OtrAssembler();
-        assertNull(assembler.accumulate((Fragment) parseMessage(String.format("?OTR|ff123456|%08x,00001,00004,a,",
-                tag.getValue()))));
-        assertNull(assembler.accumulate((Fragment) parseMessage(String.format("?OTR|ff123456|%08x,00002,00004,b,",
-                tag.getValue()))));
-        assertNull(assembler.accumulate((Fragment) parseMessage(String.format("?OTR|ff123456|%08x,00003,00004,c,",
-                tag.getValue()))));
-        assertEquals("abcd", assembler.accumulate((Fragment) parseMessage(String.format("?OTR|ff123456|%08x,00004,00004,d,",
-                tag.getValue()))));
+        final OtrAssembler assembler = assembler();
+        final String[] parts = split(MESSAGE_V3, 4);
+        assertNull(assembler.accumulate((Fragment) parseMessage(String.format("?OTR|ff123456|%08x,00001,00004,%s,",
+                tag.getValue(), parts[0])), POLICY, 0L));
+        assertNull(assembler.accumulate((Fragment) parseMessage(String.format("?OTR|ff123456|%08x,00002,00004,%s,",
+                tag.getValue(), parts[1])), POLICY, 0L));
+        assertNull(assembler.accumulate((Fragment) parseMessage(String.format("?OTR|ff123456|%08x,00003,00004,%s,",
+                tag.getValue(), parts[2])), POLICY, 0L));
+        assertMessage(3, assembler.accumulate((Fragment) parseMessage(String.format("?OTR|ff123456|%08x,00004,00004,%s,",
+                tag.getValue(), parts[3])), POLICY, 0L));
         assertTrue(((Map<?, ?>) Whitebox.getInternalState(Whitebox.getInternalState(assembler, "inOrder"),
                 "accumulations")).isEmpty());
     }
 
+    @Test
+    public void testAssembleInOrderRejectsPlainTextEarly() throws ProtocolException {
+        final OtrAssembler assembler = assembler();
+        final Fragment plaintext = (Fragment) parseMessage("?OTR|ff123456|27e31597,00001,00002,Hello,");
+        try {
+            assembler.accumulate(plaintext, POLICY, 0L);
+            fail("Expected fragment of a message that is not OTR-encoded to be rejected.");
+        } catch (final ProtocolException expected) {
+            // Content is not an OTR-encoded message.
+        }
+        assertEquals(0, assembler.size());
+        assertTrue(((Map<?, ?>) Whitebox.getInternalState(Whitebox.getInternalState(assembler, "inOrder"),
+                "accumulations")).isEmpty());
+    }
+
+    @Test
+    public void testAssembleInOrderRejectsInvalidBase64() throws ProtocolException {
+        final OtrAssembler assembler = assembler();
+        assertNull(assembler.accumulate((Fragment) parseMessage("?OTR|ff123456|27e31597,00001,00003,"
+                + MESSAGE_V3.substring(0, 10) + ","), POLICY, 0L));
+        final Fragment invalid = (Fragment) parseMessage("?OTR|ff123456|27e31597,00002,00003,AB?D,");
+        try {
+            assembler.accumulate(invalid, POLICY, 0L);
+            fail("Expected fragment with invalid base64 content to be rejected.");
+        } catch (final ProtocolException expected) {
+            // Content is not valid base64.
+        }
+        assertEquals(0, assembler.size());
+        assertTrue(((Map<?, ?>) Whitebox.getInternalState(Whitebox.getInternalState(assembler, "inOrder"),
+                "accumulations")).isEmpty());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testAssembleInOrderRejectsMissingTail() throws ProtocolException {
+        final OtrAssembler assembler = assembler();
+        assertNull(assembler.accumulate((Fragment) parseMessage("?OTR|ff123456|27e31597,00001,00002,"
+                + MESSAGE_V3.substring(0, 10) + ","), POLICY, 0L));
+        assembler.accumulate((Fragment) parseMessage("?OTR|ff123456|27e31597,00002,00002,"
+                + MESSAGE_V3.substring(10, MESSAGE_V3.length() - 1) + ","), POLICY, 0L);
+    }
+
     @Test
     public void testConstruction() {
-        new OtrAssembler();
+        assembler();
     }
 
     @Test(expected = NullPointerException.class)
     public void testNullMessage() throws ProtocolException {
-        final OtrAssembler assembler = new OtrAssembler();
-        assembler.accumulate(null);
+        final OtrAssembler assembler = assembler();
+        assembler.accumulate(null, POLICY, 0L);
     }
 
     @Test
     public void testAssemblySingleFragment() throws ProtocolException {
         final Fragment fragment = (Fragment) parseMessage(String.format("?OTR|3c5b5f03|5a73a599|27e31597,00001,00001,%s,",
-                helloWorldBase64));
-        final OtrAssembler assembler = new OtrAssembler();
-        assertEquals(helloWorldBase64, assembler.accumulate(fragment));
+                MESSAGE_V4));
+        final OtrAssembler assembler = assembler();
+        assertMessage(4, assembler.accumulate(fragment, POLICY, 0L));
         assertTrue(((Map<?, ?>) Whitebox.getInternalState(Whitebox.getInternalState(assembler, "outOfOrder"),
                 "fragments")).isEmpty());
     }
@@ -95,112 +171,275 @@ public final class OtrAssemblerTest {
     @Test
     public void testAssembleTwoPartMessageOTRv4() throws ProtocolException {
         final Fragment part1 = (Fragment) parseMessage("?OTR|3c5b5f03|5a73a599|27e31597,00001,00002,"
-                + helloWorldBase64.substring(0, 8) + ",");
+                + MESSAGE_V4.substring(0, 13) + ",");
         final Fragment part2 = (Fragment) parseMessage("?OTR|3c5b5f03|5a73a599|27e31597,00002,00002,"
-                + helloWorldBase64.substring(8) + ",");
-        final OtrAssembler assembler = new OtrAssembler();
-        assertNull(assembler.accumulate(part1));
-        assertEquals(helloWorldBase64, assembler.accumulate(part2));
+                + MESSAGE_V4.substring(13) + ",");
+        final OtrAssembler assembler = assembler();
+        assertNull(assembler.accumulate(part1, POLICY, 0L));
+        assertMessage(4, assembler.accumulate(part2, POLICY, 0L));
     }
 
     @Test
     public void testAssembleSixteenPartMessage() throws ProtocolException {
-        final String[] parts = new String[] {
-                "?OTR|3c5b5f03|5a73a599|27e31597,00001,00016,S,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00002,00016,G,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00003,00016,V,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00004,00016,s,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00005,00016,b,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00006,00016,G,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00007,00016,8,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00008,00016,g,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00009,00016,V,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00010,00016,2,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00011,00016,9,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00012,00016,y,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00013,00016,b,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00014,00016,G,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00015,00016,Q,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00016,00016,h,",
-        };
-        final OtrAssembler assembler = new OtrAssembler();
-        for (int i = 0; i < parts.length - 1; i++) {
-            assertNull(assembler.accumulate((Fragment) parseMessage(parts[i])));
+        final List<String> parts = sixteenParts();
+        final OtrAssembler assembler = assembler();
+        for (int i = 0; i < parts.size() - 1; i++) {
+            assertNull(assembler.accumulate((Fragment) parseMessage(parts.get(i)), POLICY, 0L));
         }
-        assertEquals(helloWorldBase64, assembler.accumulate((Fragment) parseMessage(parts[parts.length - 1])));
+        assertMessage(4, assembler.accumulate((Fragment) parseMessage(parts.get(parts.size() - 1)), POLICY, 0L));
         assertTrue(((Map<?, ?>) Whitebox.getInternalState(Whitebox.getInternalState(assembler, "outOfOrder"),
                 "fragments")).isEmpty());
     }
 
     @Test
     public void testAssembleSixteenPartMessageShuffled() throws ProtocolException {
-        final List<String> parts = asList(
-                "?OTR|3c5b5f03|5a73a599|27e31597,00001,00016,S,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00002,00016,G,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00003,00016,V,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00004,00016,s,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00005,00016,b,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00006,00016,G,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00007,00016,8,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00008,00016,g,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00009,00016,V,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00010,00016,2,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00011,00016,9,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00012,00016,y,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00013,00016,b,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00014,00016,G,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00015,00016,Q,",
-                "?OTR|3c5b5f03|5a73a599|27e31597,00016,00016,h,");
+        final List<String> parts = sixteenParts();
         shuffle(parts);
-        final OtrAssembler assembler = new OtrAssembler();
+        final OtrAssembler assembler = assembler();
         for (int i = 0; i < parts.size() - 1; i++) {
-            assertNull(assembler.accumulate((Fragment) parseMessage(parts.get(i))));
+            assertNull(assembler.accumulate((Fragment) parseMessage(parts.get(i)), POLICY, 0L));
         }
-        assertEquals(helloWorldBase64, assembler.accumulate((Fragment) parseMessage(parts.get(parts.size() - 1))));
+        assertMessage(4, assembler.accumulate((Fragment) parseMessage(parts.get(parts.size() - 1)), POLICY, 0L));
         assertTrue(((Map<?, ?>) Whitebox.getInternalState(Whitebox.getInternalState(assembler, "outOfOrder"),
                 "fragments")).isEmpty());
     }
 
-    @Test
+    @Test(expected = ProtocolException.class)
     public void testAssemblyEmptyFragment() throws ProtocolException {
         final Fragment fragment = (Fragment) parseMessage("?OTR|3c5b5f03|5a73a599|27e31597,00001,00001,,");
-        final OtrAssembler assembler = new OtrAssembler();
-        assertEquals("", assembler.accumulate(fragment));
+        final OtrAssembler assembler = assembler();
+        assembler.accumulate(fragment, POLICY, 0L);
     }
 
     @Test(expected = ProtocolException.class)
     public void testAssembleTwoPartMessageDriftingTotalDown() throws ProtocolException {
         final Fragment part1 = (Fragment) parseMessage("?OTR|3c5b5f03|5a73a599|27e31597,00001,00003,"
-                + helloWorldBase64.substring(0, 8) + ",");
+                + MESSAGE_V4.substring(0, 8) + ",");
         final Fragment part2 = (Fragment) parseMessage("?OTR|3c5b5f03|5a73a599|27e31597,00002,00002,"
-                + helloWorldBase64.substring(8) + ",");
-        final OtrAssembler assembler = new OtrAssembler();
-        assertNull(assembler.accumulate(part1));
-        assembler.accumulate(part2);
+                + MESSAGE_V4.substring(8) + ",");
+        final OtrAssembler assembler = assembler();
+        assertNull(assembler.accumulate(part1, POLICY, 0L));
+        assembler.accumulate(part2, POLICY, 0L);
     }
 
     @Test(expected = ProtocolException.class)
     public void testAssembleTwoPartMessageDriftingTotalUp() throws ProtocolException {
         final Fragment part1 = (Fragment) parseMessage("?OTR|3c5b5f03|5a73a599|27e31597,00001,00002,"
-                + helloWorldBase64.substring(0, 8) + ",");
+                + MESSAGE_V4.substring(0, 8) + ",");
         final Fragment part2 = (Fragment) parseMessage("?OTR|3c5b5f03|5a73a599|27e31597,00002,00003,"
-                + helloWorldBase64.substring(8) + ",");
-        final OtrAssembler assembler = new OtrAssembler();
-        assertNull(assembler.accumulate(part1));
-        assembler.accumulate(part2);
+                + MESSAGE_V4.substring(8) + ",");
+        final OtrAssembler assembler = assembler();
+        assertNull(assembler.accumulate(part1, POLICY, 0L));
+        assembler.accumulate(part2, POLICY, 0L);
     }
 
     @Test(expected = ProtocolException.class)
     public void testFragmentReceivedMultipleTimesIgnoring() throws ProtocolException {
-        final OtrAssembler assembler = new OtrAssembler();
+        final OtrAssembler assembler = assembler();
         final Fragment fragment;
         try {
             fragment = (Fragment) parseMessage("?OTR|3c5b5f03|5a73a599|27e31597,00001,00002,,");
-            assertNull(assembler.accumulate(fragment));
+            assertNull(assembler.accumulate(fragment, POLICY, 0L));
         } catch (final ProtocolException e) {
             fail("Did not expect to fail sending message the first time.");
             throw new IllegalStateException("Failed!");
         }
-        assembler.accumulate(fragment);
+        assembler.accumulate(fragment, POLICY, 0L);
+    }
+
+    @Test
+    public void testCompletedMessageReleasesBudget() throws ProtocolException {
+        final OtrAssembler assembler = assembler();
+        assertNull(assembler.accumulate((Fragment) parseMessage("?OTR|3c5b5f03|5a73a599|27e31597,00001,00002,"
+                + MESSAGE_V4.substring(0, 8) + ","), POLICY, 0L));
+        assertTrue(assembler.size() > 0);
+        assertEquals(assembler.size(), this.sessionBudget.used());
+        assertEquals(assembler.size(), this.globalBudget.used());
+        assertMessage(4, assembler.accumulate((Fragment) parseMessage("?OTR|3c5b5f03|5a73a599|27e31597,00002,00002,"
+                + MESSAGE_V4.substring(8) + ","), POLICY, 0L));
+        assertEquals(0, assembler.size());
+        assertEquals(0, this.sessionBudget.used());
+        assertEquals(0, this.globalBudget.used());
+    }
+
+    @Test
+    public void testSenderBudgetEvictsOldestMessage() throws ProtocolException {
+        final OtrPolicy policy = new OtrPolicy();
+        policy.setFragmentBudget(200);
+        final OtrAssembler assembler = assembler();
+        assertNull(assembler.accumulate((Fragment) parseMessage("?OTR|00000001|5a73a599|27e31597,00001,00002,"
+                + MESSAGE_V4.substring(0, 30) + ","), policy, 0L));
+        assertNull(assembler.accumulate((Fragment) parseMessage("?OTR|00000002|5a73a599|27e31597,00001,00002,"
+                + MESSAGE_V4.substring(0, 30) + ","), policy, 1L));
+        assertEquals(1, this.metrics.getFragmentsEvicted());
+        assertTrue(assembler.size() <= 200);
+        assertMessage(4, assembler.accumulate((Fragment) parseMessage("?OTR|00000002|5a73a599|27e31597,00002,00002,"
+                + MESSAGE_V4.substring(30) + ","), policy, 2L));
+        // The first message is evicted, so its remaining fragment cannot complete it.
+        assertNull(assembler.accumulate((Fragment) parseMessage("?OTR|00000001|5a73a599|27e31597,00002,00002,"
+                + MESSAGE_V4.substring(30) + ","), policy, 3L));
+    }
+
+    @Test
+    public void testFragmentExceedingBudgetIsRejected() throws ProtocolException {
+        final OtrPolicy policy = new OtrPolicy();
+        policy.setFragmentBudget(100);
+        final OtrAssembler assembler = assembler();
+        assertNull(assembler.accumulate((Fragment) parseMessage("?OTR|3c5b5f03|5a73a599|27e31597,00001,00002,"
+                + MESSAGE_V4.substring(0, 8) + ","), policy, 0L));
+        try {
+            assembler.accumulate((Fragment) parseMessage("?OTR|3c5b5f03|5a73a599|27e31597,00002,00002,"
+                    + MESSAGE_V4.substring(8) + ","), policy, 0L);
+            fail("Expected fragment to be rejected.");
+        } catch (final ProtocolException expected) {
+            // Fragment exceeds budget.
+        }
+        assertEquals(0, assembler.size());
+        assertEquals(1, this.metrics.getFragmentsEvicted());
+    }
+
+    @Test
+    public void testLargeTotalIsAccountedForUpFront() throws ProtocolException {
+        final OtrPolicy policy = new OtrPolicy();
+        policy.setFragmentBudget(1000);
+        final OtrAssembler assembler = assembler();
+        try {
+            assembler.accumulate((Fragment) parseMessage("?OTR|3c5b5f03|5a73a599|27e31597,00001,65535,"
+                    + MESSAGE_V4.substring(0, 8) + ","), policy, 0L);
+            fail("Expected fragment to be rejected.");
+        } catch (final ProtocolException expected) {
+            // Array of parts exceeds budget.
+        }
+        assertEquals(0, assembler.size());
+        assertEquals(0, this.sessionBudget.used());
+    }
+
+    @Test
+    public void testIncompleteMessageExpires() throws ProtocolException {
+        final OtrAssembler assembler = assembler();
+        assertNull(assembler.accumulate((Fragment) parseMessage("?OTR|3c5b5f03|5a73a599|27e31597,00001,00002,"
+                + MESSAGE_V4.substring(0, 8) + ","), POLICY, 0L));
+        final long later = MILLISECONDS.toNanos(POLICY.getFragmentExpiryMillis()) + 1;
+        // The expired message is evicted, so its remaining fragment cannot complete it.
+        assertNull(assembler.accumulate((Fragment) parseMessage("?OTR|3c5b5f03|5a73a599|27e31597,00002,00002,"
+                + MESSAGE_V4.substring(8) + ","), POLICY, later));
+        assertEquals(1, this.metrics.getFragmentsEvicted());
+    }
+
+    @Test
+    public void testIncompleteMessageDoesNotExpireBeforeExpiry() throws ProtocolException {
+        final OtrAssembler assembler = assembler();
+        assertNull(assembler.accumulate((Fragment) parseMessage("?OTR|3c5b5f03|5a73a599|27e31597,00001,00002,"
+                + MESSAGE_V4.substring(0, 8) + ","), POLICY, 0L));
+        final long later = MILLISECONDS.toNanos(POLICY.getFragmentExpiryMillis());
+        assertMessage(4, assembler.accumulate((Fragment) parseMessage("?OTR|3c5b5f03|5a73a599|27e31597,00002,00002,"
+                + MESSAGE_V4.substring(8) + ","), POLICY, later));
+    }
+
+    @Test
+    public void testExpireEvictsIncompleteMessage() throws ProtocolException {
+        final OtrAssembler assembler = assembler();
+        assertNull(assembler.expiry(POLICY));
+        assertNull(assembler.accumulate((Fragment) parseMessage("?OTR|3c5b5f03|5a73a599|27e31597,00001,00002,"
+                + MESSAGE_V4.substring(0, 8) + ","), POLICY, 0L));
+        final long expiry = MILLISECONDS.toNanos(POLICY.getFragmentExpiryMillis());
+        assertEquals(Long.valueOf(expiry), assembler.expiry(POLICY));
+        assembler.expire(POLICY, expiry);
+        assertTrue(assembler.size() > 0);
+        assembler.expire(POLICY, expiry + 1);
+        assertEquals(0, assembler.size());
+        assertNull(assembler.expiry(POLICY));
+        assertEquals(1, this.metrics.getFragmentsEvicted());
+    }
+
+    @Test
+    public void testNewFirstFragmentEvictsIncompleteMessage() throws ProtocolException {
+        final OtrAssembler assembler = assembler();
+        assertNull(assembler.accumulate((Fragment) parseMessage(String.format("?OTR|%08x|%08x,00001,00003,%s,",
+                SENDER, RECEIVER, MESSAGE_V3.substring(0, 4))), POLICY, 0L));
+        assertNull(assembler.accumulate((Fragment) parseMessage(String.format("?OTR|%08x|%08x,00002,00003,%s,",
+                SENDER, RECEIVER, MESSAGE_V3.substring(4, 8))), POLICY, 0L));
+        assertNull(assembler.accumulate((Fragment) parseMessage(String.format("?OTR|%08x|%08x,00001,00002,%s,",
+                SENDER, RECEIVER, MESSAGE_V3.substring(0, 7))), POLICY, 0L));
+        assertEquals(2, this.metrics.getFragmentsEvicted());
+        assertMessage(3, assembler.accumulate((Fragment) parseMessage(String.format("?OTR|%08x|%08x,00002,00002,%s,",
+                SENDER, RECEIVER, MESSAGE_V3.substring(7))), POLICY, 0L));
+        assertEquals(0, assembler.size());
+    }
+
+    @Test
+    public void testSessionBudgetIsSharedByInstances() throws ProtocolException {
+        final OtrPolicy policy = new OtrPolicy();
+        policy.setFragmentSessionBudget(200);
+        final OtrAssembler first = assembler();
+        final OtrAssembler second = assembler();
+        assertNull(first.accumulate((Fragment) parseMessage("?OTR|00000001|5a73a599|27e31597,00001,00002,"
+                + MESSAGE_V4.substring(0, 30) + ","), policy, 0L));
+        try {
+            second.accumulate((Fragment) parseMessage("?OTR|00000002|5a73a599|27e31597,00001,00002,"
+                    + MESSAGE_V4.substring(0, 30) + ","), policy, 1L);
+            fail("Expected fragment to be rejected.");
+        } catch (final ProtocolException expected) {
+            // Session budget is exhausted by other instance.
+        }
+        assertEquals(0, second.size());
+        assertEquals(first.size(), this.sessionBudget.used());
+    }
+
+    @Test
+    public void testDiscardedAssemblerBudgetIsReclaimed() throws ProtocolException, InterruptedException {
+        OtrAssembler assembler = assembler();
+        assertNull(assembler.accumulate((Fragment) parseMessage("?OTR|3c5b5f03|5a73a599|27e31597,00001,00002,"
+                + MESSAGE_V4.substring(0, 8) + ","), POLICY, 0L));
+        assertTrue(this.sessionBudget.used() > 0);
+        assembler = null;
+        for (int i = 0; i < 20 && this.sessionBudget.used() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assumeTrue(this.sessionBudget.used() == 0);
+        assertEquals(0, this.globalBudget.used());
+    }
+
+    private OtrAssembler assembler() {
+        return new OtrAssembler(SESSION_ID, this.metrics, this.sessionBudget, this.globalBudget);
+    }
+
+    private static String encoded(final int version) {
+        final ByteBuffer buffer = ByteBuffer.allocate(11 + PAYLOAD.length);
+        buffer.putShort((short) version).put(TYPE).putInt(SENDER).putInt(RECEIVER).put(PAYLOAD);
+        return "?OTR:" + toBase64String(buffer.array()) + ".";
+    }
+
+    private static String[] split(final String text, final int count) {
+        final String[] parts = new String[count];
+        for (int i = 0; i < count; i++) {
+            parts[i] = text.substring(text.length() * i / count, text.length() * (i + 1) / count);
+        }
+        return parts;
+    }
+
+    private static List<String> sixteenParts() {
+        final String[] contents = split(MESSAGE_V4, 16);
+        final ArrayList<String> parts = new ArrayList<>();
+        for (int i = 0; i < contents.length; i++) {
+            parts.add(String.format("?OTR|3c5b5f03|5a73a599|27e31597,%05d,00016,%s,", i + 1, contents[i]));
+        }
+        return parts;
+    }
+
+    private static void assertMessage(final int version, @Nullable final EncodedMessage message)
+            throws ProtocolException {
+        assertNotNull(message);
+        assertEquals(version, message.version);
+        assertEquals(TYPE, message.type);
+        assertEquals(SENDER, message.senderTag.getValue());
+        assertEquals(RECEIVER, message.receiverTag.getValue());
+        final OtrInputStream payload = message.getPayload();
+        final byte[] content = new byte[payload.available()];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = payload.readByte();
+        }
+        assertArrayEquals(PAYLOAD, content);
     }
 }
@@ -8,12 +8,16 @@
 package net.java.otr4j.session;
 
 import net.java.otr4j.api.OtrEngineHost;
+import net.java.otr4j.api.RandomSource;
 import net.java.otr4j.api.SessionID;
+import net.java.otr4j.crypto.ThreadLocalRandomSource;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.Test;
 
+import javax.annotation.Nonnull;
 import java.net.ProtocolException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.regex.Pattern;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -21,7 +25,9 @@ import static net.java.otr4j.api.InstanceTag.ZERO_VALUE;
 import static org.bouncycastle.util.encoders.Base64.toBase64String;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -36,7 +42,7 @@ import static org.mockito.Mockito.when;
 @SuppressWarnings("ConstantConditions")
 public class OtrFragmenterTest {
 
-    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final RandomSource RANDOM = ThreadLocalRandomSource.instance();
 
     private final int senderTagOTRv4 = 0x5a73a599;
     private final int receiverTagOTRv4 = 0x27e31597;
@@ -326,7 +332,13 @@ public class OtrFragmenterTest {
                 return 0x3c5b5f03;
             }
         };
-        final OtrFragmenter fragmenter = new OtrFragmenter(fakeRandom, host, this.sessionID);
+        final OtrFragmenter fragmenter = new OtrFragmenter(new RandomSource() {
+            @Nonnull
+            @Override
+            public SecureRandom secureRandom() {
+                return fakeRandom;
+            }
+        }, host, this.sessionID);
         assertArrayEquals(specV4MessageParts208, fragmenter.fragment(4, senderTagOTRv4, receiverTagOTRv4,
                 getSpecV4MessageFull));
     }
@@ -367,6 +379,93 @@ public class OtrFragmenterTest {
         }
     }
 
+    @Test
+    public void testFragmentToConsumerMatchesFragmentArray() throws ProtocolException {
+        final SecureRandom fakeRandom = new SecureRandom() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public int nextInt() {
+                return 0x3c5b5f03;
+            }
+        };
+        final OtrFragmenter fragmenter = new OtrFragmenter(new RandomSource() {
+            @Nonnull
+            @Override
+            public SecureRandom secureRandom() {
+                return fakeRandom;
+            }
+        }, host(208), this.sessionID);
+        final ArrayList<String> fragments = new ArrayList<>();
+        fragmenter.fragment(4, senderTagOTRv4, receiverTagOTRv4, getSpecV4MessageFull,
+                new OtrFragmenter.FragmentConsumer() {
+                    @Override
+                    public void accept(@Nonnull final String fragment) {
+                        fragments.add(fragment);
+                    }
+                });
+        assertArrayEquals(specV4MessageParts208, fragments.toArray(new String[0]));
+    }
+
+    @Test
+    public void testFragmentToConsumerWithoutFragmentation() throws ProtocolException {
+        final OtrFragmenter fragmenter = new OtrFragmenter(RANDOM, host(Integer.MAX_VALUE), this.sessionID);
+        final ArrayList<String> fragments = new ArrayList<>();
+        fragmenter.fragment(3, senderTagOTRv3, receiverTagOTRv3, specV3MessageFull,
+                new OtrFragmenter.FragmentConsumer() {
+                    @Override
+                    public void accept(@Nonnull final String fragment) {
+                        fragments.add(fragment);
+                    }
+                });
+        assertEquals(1, fragments.size());
+        assertSame(specV3MessageFull, fragments.get(0));
+    }
+
+    @Test
+    public void testFragmentToConsumerNothingEmittedOnFailure() {
+        final OtrFragmenter fragmenter = new OtrFragmenter(RANDOM, host(36), this.sessionID);
+        final ArrayList<String> fragments = new ArrayList<>();
+        try {
+            fragmenter.fragment(3, senderTagOTRv3, receiverTagOTRv3, specV3MessageFull,
+                    new OtrFragmenter.FragmentConsumer() {
+                        @Override
+                        public void accept(@Nonnull final String fragment) {
+                            fragments.add(fragment);
+                        }
+                    });
+            fail("Expected fragmentation to fail because the fragment size is too small.");
+        } catch (final ProtocolException expected) {
+            assertTrue(fragments.isEmpty());
+        }
+    }
+
+    @Test
+    public void testFragmentHeadersMatchFormat() throws ProtocolException {
+        final int sender = 0x80000100;
+        final int receiver = 0xffffffff;
+        final StringBuilder message = new StringBuilder("?OTR:");
+        for (int i = 0; i < 1200; i++) {
+            message.append('a');
+        }
+        message.append('.');
+        final OtrFragmenter fragmenter = new OtrFragmenter(RANDOM, host(37), this.sessionID);
+        final String[] fragments = fragmenter.fragment(3, sender, receiver, message.toString());
+        assertEquals(1206, fragments.length);
+        for (int i = 0; i < fragments.length; i++) {
+            final String expected = String.format("?OTR|%08x|%08x,%05d,%05d,", sender, receiver, i + 1, 1206);
+            assertEquals(expected, fragments[i].substring(0, fragments[i].length() - 2));
+        }
+        final OtrFragmenter fragmenterV2 = new OtrFragmenter(RANDOM, host(19), this.sessionID);
+        final String[] fragmentsV2 = fragmenterV2.fragment(2, ZERO_VALUE, ZERO_VALUE, message.toString());
+        assertEquals(1206, fragmentsV2.length);
+        for (int i = 0; i < fragmentsV2.length; i++) {
+            final String expected = String.format("?OTR,%d,%d,", i + 1, 1206);
+            assertEquals(expected, fragmentsV2[i].substring(0, fragmentsV2[i].length() - 2));
+        }
+    }
+
     /**
      * Create mock OtrEngineHost which returns the provided instructions.
      *
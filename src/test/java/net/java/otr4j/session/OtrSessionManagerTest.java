@@ -8,8 +8,10 @@
 package net.java.otr4j.session;
 
 import net.java.otr4j.api.ClientProfile;
+import net.java.otr4j.api.MetricsEngineHost;
 import net.java.otr4j.api.OtrEngineHost;
 import net.java.otr4j.api.OtrEngineListener;
+import net.java.otr4j.api.OtrMetrics;
 import net.java.otr4j.api.Session;
 import net.java.otr4j.api.Session.Version;
 import net.java.otr4j.api.SessionID;
@@ -21,14 +23,24 @@ import org.junit.Test;
 
 import java.security.SecureRandom;
 import java.util.Collections;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static net.java.otr4j.api.InstanceTag.SMALLEST_TAG;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
 /**
  * Tests for OtrSessionManager.
@@ -60,6 +72,89 @@ public class OtrSessionManagerTest {
         assertSame(first, second);
     }
 
+    @Test(expected = NullPointerException.class)
+    public void testConstructWithNullExecutor() {
+        new OtrSessionManager(mock(OtrEngineHost.class), null);
+    }
+
+    @Test
+    public void testGetSessionWithHostProvidedExecutor() {
+        final OtrEngineHost host = mock(OtrEngineHost.class);
+        when(host.getLocalKeyPair(any(SessionID.class))).thenReturn(DSA_KEY_PAIR);
+        when(host.getLongTermKeyPair(any(SessionID.class))).thenReturn(EDDSA_KEY_PAIR);
+        when(host.getClientProfile(any(SessionID.class))).thenReturn(PROFILE);
+        final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        final OtrSessionManager mgr = new OtrSessionManager(host, executor);
+        verify(executor).scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), eq(TimeUnit.NANOSECONDS));
+        final SessionID sid = new SessionID("user", "dude", "xmpp");
+        final Session session = mgr.getSession(sid);
+        assertSame(session, mgr.getSession(sid));
+    }
+
+    @Test
+    public void testRemoveSession() {
+        final OtrEngineHost host = mock(OtrEngineHost.class);
+        when(host.getLocalKeyPair(any(SessionID.class))).thenReturn(DSA_KEY_PAIR);
+        when(host.getLongTermKeyPair(any(SessionID.class))).thenReturn(EDDSA_KEY_PAIR);
+        when(host.getClientProfile(any(SessionID.class))).thenReturn(PROFILE);
+        final OtrSessionManager mgr = new OtrSessionManager(host);
+        final SessionID sid = new SessionID("user", "dude", "xmpp");
+        final Session first = mgr.getSession(sid);
+        assertSame(first, mgr.removeSession(sid));
+        assertNull(mgr.removeSession(sid));
+        assertTrue(mgr.sessions().isEmpty());
+        final Session second = mgr.getSession(sid);
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void testSessionLifecycleReportedToMetrics() {
+        final OtrEngineHost host = mock(OtrEngineHost.class, withSettings().extraInterfaces(MetricsEngineHost.class));
+        when(host.getLocalKeyPair(any(SessionID.class))).thenReturn(DSA_KEY_PAIR);
+        when(host.getLongTermKeyPair(any(SessionID.class))).thenReturn(EDDSA_KEY_PAIR);
+        when(host.getClientProfile(any(SessionID.class))).thenReturn(PROFILE);
+        final OtrMetrics metrics = mock(OtrMetrics.class);
+        when(((MetricsEngineHost) host).getMetrics()).thenReturn(metrics);
+        final OtrSessionManager mgr = new OtrSessionManager(host);
+        final SessionID sid = new SessionID("user", "dude", "xmpp");
+        mgr.getSession(sid);
+        mgr.getSession(sid);
+        verify(metrics).sessionCreated(sid);
+        verify(metrics, never()).sessionRemoved(any(SessionID.class));
+        mgr.removeSession(sid);
+        mgr.removeSession(sid);
+        verify(metrics).sessionRemoved(sid);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testRemoveNullSession() {
+        final OtrEngineHost host = mock(OtrEngineHost.class);
+        final OtrSessionManager mgr = new OtrSessionManager(host);
+        mgr.removeSession(null);
+    }
+
+    @Test
+    public void testSessions() {
+        final OtrEngineHost host = mock(OtrEngineHost.class);
+        when(host.getLocalKeyPair(any(SessionID.class))).thenReturn(DSA_KEY_PAIR);
+        when(host.getLongTermKeyPair(any(SessionID.class))).thenReturn(EDDSA_KEY_PAIR);
+        when(host.getClientProfile(any(SessionID.class))).thenReturn(PROFILE);
+        final OtrSessionManager mgr = new OtrSessionManager(host);
+        assertTrue(mgr.sessions().isEmpty());
+        final Session first = mgr.getSession(new SessionID("user", "dude", "xmpp"));
+        final Session second = mgr.getSession(new SessionID("user", "dudette", "xmpp"));
+        assertEquals(2, mgr.sessions().size());
+        assertTrue(mgr.sessions().contains(first));
+        assertTrue(mgr.sessions().contains(second));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSessionsUnmodifiable() {
+        final OtrEngineHost host = mock(OtrEngineHost.class);
+        final OtrSessionManager mgr = new OtrSessionManager(host);
+        mgr.sessions().clear();
+    }
+
     @Test(expected = NullPointerException.class)
     public void testGetNullSession() {
         final OtrEngineHost host = mock(OtrEngineHost.class);
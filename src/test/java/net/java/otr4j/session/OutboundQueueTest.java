@@ -0,0 +1,101 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import net.java.otr4j.api.OtrException;
+import net.java.otr4j.api.TLV;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Collections.singletonList;
+import static net.java.otr4j.api.OtrPolicy.QueueOverflow.DROP_OLDEST;
+import static net.java.otr4j.api.OtrPolicy.QueueOverflow.REJECT_NEWEST;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@SuppressWarnings("ConstantConditions")
+public final class OutboundQueueTest {
+
+    private static final List<TLV> NO_TLVS = Collections.emptyList();
+
+    @Test
+    public void testNewQueueIsEmpty() {
+        final OutboundQueue queue = new OutboundQueue();
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.count());
+        assertEquals(0, queue.size());
+        assertTrue(queue.drain().isEmpty());
+    }
+
+    @Test
+    public void testDrainReturnsMessagesInOrder() throws OtrException {
+        final OutboundQueue queue = new OutboundQueue();
+        queue.add("first", NO_TLVS, 1000, REJECT_NEWEST);
+        queue.add("second", singletonList(new TLV(8, new byte[] {1, 2, 3})), 1000, REJECT_NEWEST);
+        assertEquals(2, queue.count());
+        final List<OutboundQueue.Entry> entries = queue.drain();
+        assertEquals(2, entries.size());
+        assertEquals("first", entries.get(0).msgText);
+        assertTrue(entries.get(0).tlvs.isEmpty());
+        assertEquals("second", entries.get(1).msgText);
+        assertEquals(8, entries.get(1).tlvs.get(0).type);
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testSizeAccountsForTextAndTLVs() throws OtrException {
+        final OutboundQueue queue = new OutboundQueue();
+        queue.add("a", NO_TLVS, 1000, REJECT_NEWEST);
+        final long single = queue.size();
+        queue.add("ab", NO_TLVS, 1000, REJECT_NEWEST);
+        assertEquals(2 * single + 2, queue.size());
+        queue.add("a", singletonList(new TLV(8, new byte[10])), 1000, REJECT_NEWEST);
+        assertEquals(3 * single + 12, queue.size());
+    }
+
+    @Test
+    public void testRejectNewestWhenFull() throws OtrException {
+        final OutboundQueue queue = new OutboundQueue();
+        queue.add("first", NO_TLVS, 100, REJECT_NEWEST);
+        try {
+            queue.add("second", NO_TLVS, 100, REJECT_NEWEST);
+            fail("Expected message to be rejected.");
+        } catch (final OtrException e) {
+            // Expected: queue is full.
+        }
+        final List<OutboundQueue.Entry> entries = queue.drain();
+        assertEquals(1, entries.size());
+        assertEquals("first", entries.get(0).msgText);
+    }
+
+    @Test
+    public void testDropOldestWhenFull() throws OtrException {
+        final OutboundQueue queue = new OutboundQueue();
+        queue.add("first", NO_TLVS, 160, DROP_OLDEST);
+        queue.add("second", NO_TLVS, 160, DROP_OLDEST);
+        queue.add("third", NO_TLVS, 160, DROP_OLDEST);
+        final List<OutboundQueue.Entry> entries = queue.drain();
+        assertEquals(2, entries.size());
+        assertEquals("second", entries.get(0).msgText);
+        assertEquals("third", entries.get(1).msgText);
+    }
+
+    @Test(expected = OtrException.class)
+    public void testMessageLargerThanBudget() throws OtrException {
+        new OutboundQueue().add("This message does not fit.", NO_TLVS, 10, DROP_OLDEST);
+    }
+
+    @Test(expected = OtrException.class)
+    public void testZeroBudget() throws OtrException {
+        new OutboundQueue().add("", NO_TLVS, 0, DROP_OLDEST);
+    }
+}
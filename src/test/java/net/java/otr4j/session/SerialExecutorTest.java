@@ -0,0 +1,173 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.Executors.callable;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@SuppressWarnings("ConstantConditions")
+public final class SerialExecutorTest {
+
+    @Test(expected = NullPointerException.class)
+    public void testConstructNullExecutor() {
+        new SerialExecutor(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testExecuteNullCommand() {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            new SerialExecutor(executor).execute(null);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTasksRunInSubmissionOrder() throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final SerialExecutor lane = new SerialExecutor(executor);
+            final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+            final AtomicInteger concurrent = new AtomicInteger();
+            final AtomicInteger maxConcurrent = new AtomicInteger();
+            final int count = 1000;
+            final CountDownLatch done = new CountDownLatch(count);
+            for (int i = 0; i < count; i++) {
+                final int index = i;
+                lane.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final int current = concurrent.incrementAndGet();
+                        if (current > maxConcurrent.get()) {
+                            maxConcurrent.set(current);
+                        }
+                        order.add(index);
+                        concurrent.decrementAndGet();
+                        done.countDown();
+                    }
+                });
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(1, maxConcurrent.get());
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, order.get(i).intValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailingTaskDoesNotBlockLane() throws InterruptedException {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final SerialExecutor lane = new SerialExecutor(executor);
+            final CountDownLatch done = new CountDownLatch(1);
+            lane.execute(new Runnable() {
+                @Override
+                public void run() {
+                    throw new IllegalStateException("task failure");
+                }
+            });
+            lane.execute(new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            });
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSeparateLanesRunConcurrently() throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final CountDownLatch started = new CountDownLatch(2);
+            final CountDownLatch finished = new CountDownLatch(2);
+            final Runnable rendezvous = new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        if (started.await(10, TimeUnit.SECONDS)) {
+                            finished.countDown();
+                        }
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            new SerialExecutor(executor).execute(rendezvous);
+            new SerialExecutor(executor).execute(rendezvous);
+            assertTrue(finished.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRejectionCancelsQueuedFutures() throws InterruptedException {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final SerialExecutor lane = new SerialExecutor(executor);
+        final CountDownLatch blocking = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                blocking.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final FutureTask<Object> queued = new FutureTask<>(callable(new Runnable() {
+            @Override
+            public void run() {
+                fail("Queued task should not run.");
+            }
+        }));
+        lane.execute(queued);
+        assertTrue(blocking.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        release.countDown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(queued.isCancelled());
+        try {
+            lane.execute(new Runnable() {
+                @Override
+                public void run() {
+                    fail("Task should not run.");
+                }
+            });
+            fail("Expected rejection of task.");
+        } catch (final RejectedExecutionException e) {
+            // Expected: the executor is shut down.
+        }
+    }
+}
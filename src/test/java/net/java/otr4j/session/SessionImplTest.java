@@ -8,75 +8,160 @@
 package net.java.otr4j.session;
 
 import net.java.otr4j.api.ClientProfile;
+import net.java.otr4j.api.InstanceEvictionListener;
+import net.java.otr4j.api.InstanceTag;
+import net.java.otr4j.api.MetricsEngineHost;
 import net.java.otr4j.api.OtrEngineHost;
 import net.java.otr4j.api.OtrEngineListener;
 import net.java.otr4j.api.OtrException;
+import net.java.otr4j.api.OtrMetrics;
+import net.java.otr4j.api.OtrPolicy;
+import net.java.otr4j.api.OtrTracer;
+import net.java.otr4j.api.RandomSource;
+import net.java.otr4j.api.ReceivedMessage;
 import net.java.otr4j.api.Session.Version;
 import net.java.otr4j.api.SessionID;
+import net.java.otr4j.api.TLV;
+import net.java.otr4j.api.TracingEngineHost;
+import net.java.otr4j.crypto.ThreadLocalRandomSource;
 import net.java.otr4j.crypto.ed448.EdDSAKeyPair;
 import net.java.otr4j.crypto.ed448.Point;
+import net.java.otr4j.io.PlainTextMessage;
 import net.java.otr4j.io.QueryMessage;
+import net.java.otr4j.messages.DataMessage;
+import net.java.otr4j.session.state.Context;
 import net.java.otr4j.session.state.State;
+import net.java.otr4j.session.state.StateEncrypted;
+import org.bouncycastle.util.encoders.Base64;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.internal.util.reflection.Whitebox;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
 import static java.util.Collections.singleton;
 import static net.java.otr4j.api.InstanceTag.SMALLEST_TAG;
 import static net.java.otr4j.api.InstanceTag.ZERO_TAG;
 import static net.java.otr4j.api.SessionStatus.ENCRYPTED;
+import static net.java.otr4j.api.SessionStatus.PLAINTEXT;
+import static net.java.otr4j.crypto.DHKeyPairOTR3.generateDHKeyPair;
+import static net.java.otr4j.io.MessageProcessor.writeMessage;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyByte;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
 @SuppressWarnings("ConstantConditions")
 public final class SessionImplTest {
 
     private static final SecureRandom RANDOM = new SecureRandom();
 
+    private static final SessionID SESSION_ID = new SessionID("bob@network", "alice@network", "network");
+
     @Test(expected = IllegalArgumentException.class)
     public void testTransitionFromNullState() {
-        final EdDSAKeyPair longTermKeyPair = EdDSAKeyPair.generate(RANDOM);
-        final Point forgingKey = EdDSAKeyPair.generate(RANDOM).getPublicKey();
-        final SessionID sessionID = new SessionID("bob@network", "alice@network", "network");
-        final ClientProfile profile = new ClientProfile(SMALLEST_TAG, longTermKeyPair.getPublicKey(), forgingKey,
-                singleton(Version.FOUR), null);
-        final OtrEngineHost host = mock(OtrEngineHost.class);
-        when(host.getLongTermKeyPair(eq(sessionID))).thenReturn(longTermKeyPair);
-        when(host.getClientProfile(eq(sessionID))).thenReturn(profile);
-        final SessionImpl session = new SessionImpl(sessionID, host);
+        final SessionImpl session = new SessionImpl(SESSION_ID, createHost());
         session.transition(null, mock(State.class));
     }
 
     @Test(expected = NullPointerException.class)
     public void testTransitionToNullState() {
-        final EdDSAKeyPair longTermKeyPair = EdDSAKeyPair.generate(RANDOM);
-        final Point forgingKey = EdDSAKeyPair.generate(RANDOM).getPublicKey();
-        final SessionID sessionID = new SessionID("bob@network", "alice@network", "network");
-        final ClientProfile profile = new ClientProfile(SMALLEST_TAG, longTermKeyPair.getPublicKey(), forgingKey,
-                singleton(Version.FOUR), null);
-        final OtrEngineHost host = mock(OtrEngineHost.class);
-        when(host.getLongTermKeyPair(eq(sessionID))).thenReturn(longTermKeyPair);
-        when(host.getClientProfile(eq(sessionID))).thenReturn(profile);
-        final SessionImpl session = new SessionImpl(sessionID, host);
+        final SessionImpl session = new SessionImpl(SESSION_ID, createHost());
         session.transition((State) Whitebox.getInternalState(session, "sessionState"), null);
     }
 
+    @Test
+    public void testSessionUsesRandomSourceOfHost() {
+        final OtrEngineHost host = createHost(RandomSource.class);
+        final SecureRandom random = new SecureRandom();
+        when(((RandomSource) host).secureRandom()).thenReturn(random);
+        final SessionImpl session = new SessionImpl(SESSION_ID, host);
+        assertSame(random, session.secureRandom());
+    }
+
+    @Test
+    public void testSessionUsesThreadLocalRandomSourceByDefault() {
+        final SessionImpl session = new SessionImpl(SESSION_ID, createHost());
+        assertSame(ThreadLocalRandomSource.instance().secureRandom(), session.secureRandom());
+    }
+
+    @Test
+    public void testIdleInstanceEvictedAtInstanceLimit() throws OtrException {
+        final OtrEngineHost host = createHost();
+        final OtrPolicy policy = new OtrPolicy(OtrPolicy.OTRL_POLICY_MANUAL);
+        policy.setInstanceLimit(2);
+        when(host.getSessionPolicy(eq(SESSION_ID))).thenReturn(policy);
+        final OtrEngineListener listener = mock(OtrEngineListener.class,
+                withSettings().extraInterfaces(InstanceEvictionListener.class));
+        final SessionImpl session = new SessionImpl(SESSION_ID, host);
+        session.addOtrEngineListener(listener);
+        assertNull(session.transformReceiving("?OTR|00000100|00000000,00001,00002,?OTR:AAM,"));
+        assertNull(session.transformReceiving("?OTR|00000200|00000000,00001,00002,?OTR:AAM,"));
+        // Instance 0x100 is accessed again, therefore instance 0x200 is least-recently used.
+        assertNull(session.transformReceiving("?OTR|00000100|00000000,00001,00002,?OTR:AAM,"));
+        assertNull(session.transformReceiving("?OTR|00000300|00000000,00001,00002,?OTR:AAM,"));
+        final List<SessionImpl> instances = session.getInstances();
+        assertEquals(3, instances.size());
+        assertEquals(new InstanceTag(0x100), instances.get(1).getReceiverInstanceTag());
+        assertEquals(new InstanceTag(0x300), instances.get(2).getReceiverInstanceTag());
+        verify((InstanceEvictionListener) listener).instanceEvicted(SESSION_ID, new InstanceTag(0x200));
+    }
+
+    @Test
+    public void testOutgoingInstanceNotEvicted() throws OtrException {
+        final OtrEngineHost host = createHost();
+        final OtrPolicy policy = new OtrPolicy(OtrPolicy.OTRL_POLICY_MANUAL);
+        policy.setInstanceLimit(1);
+        when(host.getSessionPolicy(eq(SESSION_ID))).thenReturn(policy);
+        final OtrEngineListener listener = mock(OtrEngineListener.class,
+                withSettings().extraInterfaces(InstanceEvictionListener.class));
+        final SessionImpl session = new SessionImpl(SESSION_ID, host);
+        session.addOtrEngineListener(listener);
+        assertNull(session.transformReceiving("?OTR|00000100|00000000,00001,00002,?OTR:AAM,"));
+        session.setOutgoingSession(new InstanceTag(0x100));
+        assertNull(session.transformReceiving("?OTR|00000200|00000000,00001,00002,?OTR:AAM,"));
+        final List<SessionImpl> instances = session.getInstances();
+        assertEquals(2, instances.size());
+        assertEquals(new InstanceTag(0x100), instances.get(1).getReceiverInstanceTag());
+        verify((InstanceEvictionListener) listener, never()).instanceEvicted(any(SessionID.class),
+                any(InstanceTag.class));
+    }
+
     @Test
     public void testTransitionDestroysPreviousState() {
-        final EdDSAKeyPair longTermKeyPair = EdDSAKeyPair.generate(RANDOM);
-        final Point forgingKey = EdDSAKeyPair.generate(RANDOM).getPublicKey();
-        final SessionID sessionID = new SessionID("bob@network", "alice@network", "network");
-        final ClientProfile profile = new ClientProfile(SMALLEST_TAG, longTermKeyPair.getPublicKey(), forgingKey,
-                singleton(Version.FOUR), null);
-        final OtrEngineHost host = mock(OtrEngineHost.class);
-        when(host.getLongTermKeyPair(eq(sessionID))).thenReturn(longTermKeyPair);
-        when(host.getClientProfile(eq(sessionID))).thenReturn(profile);
-        final SessionImpl session = new SessionImpl(sessionID, host);
+        final SessionImpl session = new SessionImpl(SESSION_ID, createHost());
         final State secondState = mock(State.class);
         session.transition((State) Whitebox.getInternalState(session, "sessionState"), secondState);
         verify(secondState, times(0)).destroy();
@@ -86,15 +171,7 @@ public final class SessionImplTest {
 
     @Test
     public void testTransitionToSecureSessionCallsSessionStatusChanged() {
-        final EdDSAKeyPair longTermKeyPair = EdDSAKeyPair.generate(RANDOM);
-        final Point forgingKey = EdDSAKeyPair.generate(RANDOM).getPublicKey();
-        final SessionID sessionID = new SessionID("bob@network", "alice@network", "network");
-        final ClientProfile profile = new ClientProfile(SMALLEST_TAG, longTermKeyPair.getPublicKey(), forgingKey,
-                singleton(Version.FOUR), null);
-        final OtrEngineHost host = mock(OtrEngineHost.class);
-        when(host.getLongTermKeyPair(eq(sessionID))).thenReturn(longTermKeyPair);
-        when(host.getClientProfile(eq(sessionID))).thenReturn(profile);
-        final SessionImpl session = new SessionImpl(sessionID, host);
+        final SessionImpl session = new SessionImpl(SESSION_ID, createHost());
         final OtrEngineListener listener = mock(OtrEngineListener.class);
         session.addOtrEngineListener(listener);
         final State secondState = mock(State.class);
@@ -102,26 +179,336 @@ public final class SessionImplTest {
         session.transition((State) Whitebox.getInternalState(session, "sessionState"), secondState);
         // Testing with master session here for simplicity, so not completely representative, but does confirm that
         // sessionStatusChanged is called.
-        verify(listener, times(1)).sessionStatusChanged(eq(sessionID), eq(ZERO_TAG));
+        verify(listener, times(1)).sessionStatusChanged(eq(SESSION_ID), eq(ZERO_TAG));
     }
 
     @Test
     public void testInjectingQueryTagWithFallbackMessageTooLarge() throws OtrException {
-        final EdDSAKeyPair longTermKeyPair = EdDSAKeyPair.generate(RANDOM);
-        final Point forgingKey = EdDSAKeyPair.generate(RANDOM).getPublicKey();
-        final SessionID sessionID = new SessionID("bob@network", "alice@network", "network");
-        final ClientProfile profile = new ClientProfile(SMALLEST_TAG, longTermKeyPair.getPublicKey(), forgingKey,
-                singleton(Version.FOUR), null);
-        final OtrEngineHost host = mock(OtrEngineHost.class);
-        when(host.getLongTermKeyPair(eq(sessionID))).thenReturn(longTermKeyPair);
-        when(host.getClientProfile(eq(sessionID))).thenReturn(profile);
-        when(host.getFallbackMessage(sessionID)).thenReturn("This is a super-long message that does not fit on the transport channel.");
-        when(host.getMaxFragmentSize(sessionID)).thenReturn(51);
-        final SessionImpl session = new SessionImpl(sessionID, host);
+        final OtrEngineHost host = createHost();
+        when(host.getFallbackMessage(SESSION_ID)).thenReturn("This is a super-long message that does not fit on the transport channel.");
+        when(host.getMaxFragmentSize(SESSION_ID)).thenReturn(51);
+        final SessionImpl session = new SessionImpl(SESSION_ID, host);
         final HashSet<Integer> versions = new HashSet<>();
         versions.add(Version.THREE);
         versions.add(Version.FOUR);
         session.injectMessage(new QueryMessage(versions));
-        verify(host).injectMessage(sessionID, "?OTRv34? This is a super-long message that does not");
+        verify(host).injectMessage(SESSION_ID, "?OTRv34? This is a super-long message that does not");
+    }
+
+    @Test
+    public void testTransformReceivingBatchReturnsResultPerMessage() {
+        final OtrEngineHost host = createManualPolicyHost();
+        final SessionImpl session = new SessionImpl(SESSION_ID, host);
+        final List<ReceivedMessage> results = session.transformReceiving(asList("Hello", "", "World"));
+        assertEquals(3, results.size());
+        assertEquals("Hello", results.get(0).getContent());
+        assertEquals("", results.get(1).getContent());
+        assertEquals("World", results.get(2).getContent());
+        assertFalse(results.get(0).isFailed());
+        assertFalse(results.get(1).isFailed());
+        assertFalse(results.get(2).isFailed());
+        verify(host, times(1)).getSessionPolicy(SESSION_ID);
+    }
+
+    @Test
+    public void testTransformReceivingBatchContinuesAfterFailure() {
+        final SessionImpl session = new SessionImpl(SESSION_ID, createManualPolicyHost());
+        // The encoded message specifies unsupported protocol version 1.
+        final List<ReceivedMessage> results = session.transformReceiving(asList("Hello", "?OTR:AAE=.", "World"));
+        assertEquals(3, results.size());
+        assertEquals("Hello", results.get(0).getContent());
+        assertTrue(results.get(1).isFailed());
+        assertNotNull(results.get(1).getFailure());
+        assertNull(results.get(1).getContent());
+        assertEquals("World", results.get(2).getContent());
+        assertFalse(results.get(2).isFailed());
+    }
+
+    @Test
+    public void testTransformReceivingBatchCoalescesSessionStatusChanges() {
+        final SessionImpl session = new SessionImpl(SESSION_ID, createManualPolicyHost());
+        final OtrEngineListener listener = mock(OtrEngineListener.class);
+        session.addOtrEngineListener(listener);
+        final State first = mock(State.class);
+        final State second = mock(State.class);
+        when(first.getStatus()).thenReturn(PLAINTEXT);
+        when(second.getStatus()).thenReturn(PLAINTEXT);
+        // Every message that is handled causes a transition to the other state.
+        when(first.handlePlainTextMessage(any(Context.class), any(PlainTextMessage.class))).thenAnswer(
+                new Answer<String>() {
+                    @Override
+                    public String answer(final InvocationOnMock invocation) {
+                        session.transition(first, second);
+                        return "first";
+                    }
+                });
+        when(second.handlePlainTextMessage(any(Context.class), any(PlainTextMessage.class))).thenAnswer(
+                new Answer<String>() {
+                    @Override
+                    public String answer(final InvocationOnMock invocation) {
+                        session.transition(second, first);
+                        return "second";
+                    }
+                });
+        Whitebox.setInternalState(session, "sessionState", first);
+        final List<ReceivedMessage> results = session.transformReceiving(asList("a", "b", "c"));
+        assertEquals("first", results.get(0).getContent());
+        assertEquals("second", results.get(1).getContent());
+        assertEquals("first", results.get(2).getContent());
+        verify(listener, times(1)).sessionStatusChanged(eq(SESSION_ID), eq(ZERO_TAG));
+        // Outside of a batch, every transition is notified immediately.
+        session.transition(second, first);
+        verify(listener, times(2)).sessionStatusChanged(eq(SESSION_ID), eq(ZERO_TAG));
+    }
+
+    @Test
+    public void testTransformSendingBatchReturnsResultPerMessage() throws OtrException {
+        final SessionImpl session = new SessionImpl(SESSION_ID, createManualPolicyHost());
+        final List<String[]> results = session.transformSending(asList("Hello", "World"));
+        assertEquals(2, results.size());
+        assertArrayEquals(new String[] {"Hello"}, results.get(0));
+        assertArrayEquals(new String[] {"World"}, results.get(1));
+    }
+
+    @Test
+    public void testMessagesReportedToMetrics() throws OtrException {
+        final OtrEngineHost host = createManualPolicyHost(MetricsEngineHost.class);
+        final OtrMetrics metrics = mock(OtrMetrics.class);
+        when(((MetricsEngineHost) host).getMetrics()).thenReturn(metrics);
+        final SessionImpl session = new SessionImpl(SESSION_ID, host);
+        session.transformSending("Hello");
+        verify(metrics).messageSent(SESSION_ID, 5);
+        session.transformReceiving("Hi");
+        verify(metrics).messageReceived(SESSION_ID, 2);
+    }
+
+    @Test
+    public void testParseMessageTraced() throws OtrException {
+        final OtrEngineHost host = createManualPolicyHost(TracingEngineHost.class);
+        final OtrTracer tracer = mock(OtrTracer.class);
+        final OtrTracer.Span span = mock(OtrTracer.Span.class);
+        when(tracer.start(any(OtrTracer.Operation.class), any(SessionID.class), any(InstanceTag.class)))
+                .thenReturn(span);
+        when(((TracingEngineHost) host).getTracer()).thenReturn(tracer);
+        final SessionImpl session = new SessionImpl(SESSION_ID, host);
+        assertEquals("Hi ?OTRa", session.transformReceiving("Hi ?OTRa"));
+        final InOrder order = inOrder(tracer, span);
+        order.verify(tracer).start(OtrTracer.Operation.PARSE_MESSAGE, SESSION_ID, ZERO_TAG);
+        order.verify(span).close();
+    }
+
+    @Test
+    public void testUnmarkedPlainTextIsNotParsed() throws OtrException {
+        final OtrEngineHost host = createManualPolicyHost(TracingEngineHost.class);
+        final OtrTracer tracer = mock(OtrTracer.class);
+        when(((TracingEngineHost) host).getTracer()).thenReturn(tracer);
+        final SessionImpl session = new SessionImpl(SESSION_ID, host);
+        final String message = "Hello world, how are you?";
+        assertSame(message, session.transformReceiving(message));
+        verify(tracer, never()).start(any(OtrTracer.Operation.class), any(SessionID.class), any(InstanceTag.class));
+        verify(host, never()).unencryptedMessageReceived(any(SessionID.class), anyString());
+    }
+
+    @Test
+    public void testEncodedMessageForOtherInstanceIsDiscardedWithoutDecodingPayload() throws OtrException {
+        final OtrEngineHost host = createManualPolicyHost();
+        final SessionImpl session = new SessionImpl(SESSION_ID, host);
+        // Header: version 4, data message, sender tag 0x00000200, receiver tag 0x00000300. The payload is not valid
+        // base64, which would be detected only if the payload were decoded.
+        final String header = Base64.toBase64String(new byte[] {0x00, 0x04, 0x03, 0x00, 0x00, 0x02, 0x00, 0x00, 0x00,
+                0x03, 0x00, 0x00});
+        assertNull(session.transformReceiving("?OTR:" + header + "AA*A."));
+        verify(host).messageFromAnotherInstanceReceived(eq(SESSION_ID));
+        verify(host, never()).showError(any(SessionID.class), anyString());
+        verify(host, never()).unreadableMessageReceived(any(SessionID.class));
+        assertEquals(1, session.getInstances().size());
+    }
+
+    @Test
+    public void testTransformReceivingCharSequence() throws OtrException {
+        final SessionImpl session = new SessionImpl(SESSION_ID, createManualPolicyHost());
+        assertEquals("Hi ?OTRa", session.transformReceiving(new StringBuilder("Hi ?OTRa")));
+        assertEquals("Hello world", session.transformReceiving((CharSequence) "Hello world"));
+    }
+
+    @Test
+    public void testTransformReceivingByteBuffer() throws OtrException {
+        final SessionImpl session = new SessionImpl(SESSION_ID, createManualPolicyHost());
+        final ByteBuffer bytes = ByteBuffer.wrap("xxHello wörld".getBytes(UTF_8));
+        bytes.position(2);
+        assertEquals("Hello wörld", session.transformReceiving(bytes));
+        assertEquals(2, bytes.position());
+    }
+
+    @Test
+    public void testTransformReceivingByteBufferEncodedMessage() throws OtrException {
+        final OtrEngineHost host = createManualPolicyHost();
+        final SessionImpl session = new SessionImpl(SESSION_ID, host);
+        final String header = Base64.toBase64String(new byte[] {0x00, 0x04, 0x03, 0x00, 0x00, 0x02, 0x00, 0x00, 0x00,
+                0x03, 0x00, 0x00});
+        final ByteBuffer bytes = ByteBuffer.wrap(("?OTR:" + header + ".").getBytes(US_ASCII)).asReadOnlyBuffer();
+        assertNull(session.transformReceiving(bytes));
+        verify(host).messageFromAnotherInstanceReceived(eq(SESSION_ID));
+    }
+
+    @Test
+    public void testTransformSendingToAppendable() throws OtrException {
+        final SessionImpl session = new SessionImpl(SESSION_ID, createManualPolicyHost());
+        final StringBuilder destination = new StringBuilder();
+        assertTrue(session.transformSending(destination, "Hello", Collections.<TLV>emptyList()));
+        assertEquals("Hello", destination.toString());
+    }
+
+    @Test
+    public void testTransformSendingToAppendableQueued() throws OtrException {
+        final OtrEngineHost host = createManualPolicyHost();
+        final OtrPolicy policy = new OtrPolicy(OtrPolicy.OTRL_POLICY_ALWAYS);
+        policy.setMessageQueueBudget(4096);
+        when(host.getSessionPolicy(eq(SESSION_ID))).thenReturn(policy);
+        final SessionImpl session = new SessionImpl(SESSION_ID, host);
+        final StringBuilder destination = new StringBuilder();
+        assertFalse(session.transformSending(destination, "Hello", Collections.<TLV>emptyList()));
+        assertEquals(0, destination.length());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testTransformSendingEncodedMessageToAppendable() throws OtrException {
+        final OtrEngineHost host = createManualPolicyHost();
+        when(host.getMaxFragmentSize(eq(SESSION_ID))).thenReturn(Integer.MAX_VALUE);
+        final SessionImpl session = new SessionImpl(SESSION_ID, host);
+        final DataMessage message = createDataMessage();
+        final State encrypted = mock(State.class);
+        when(encrypted.getStatus()).thenReturn(ENCRYPTED);
+        when(encrypted.transformSending(any(Context.class), anyString(), any(Iterable.class), anyByte()))
+                .thenReturn(message);
+        session.transition((State) Whitebox.getInternalState(session, "sessionState"), encrypted);
+        final StringWriter destination = new StringWriter();
+        assertTrue(session.transformSending(destination, "Hello", Collections.<TLV>emptyList()));
+        assertEquals(writeMessage(message), destination.toString());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testTransformSendingEncodedMessageToAppendableRequiresFragmentation() throws OtrException {
+        final OtrEngineHost host = createManualPolicyHost();
+        when(host.getMaxFragmentSize(eq(SESSION_ID))).thenReturn(100);
+        final SessionImpl session = new SessionImpl(SESSION_ID, host);
+        final StateEncrypted encrypted = mock(StateEncrypted.class);
+        when(encrypted.getStatus()).thenReturn(ENCRYPTED);
+        when(encrypted.encodedDataMessageLength(anyString(), any(Iterable.class)))
+                .thenReturn(createDataMessage().encodedLength());
+        session.transition((State) Whitebox.getInternalState(session, "sessionState"), encrypted);
+        final StringBuilder destination = new StringBuilder();
+        try {
+            session.transformSending(destination, "Hello", Collections.<TLV>emptyList());
+            fail("Expected message to be rejected for exceeding the maximum fragment size.");
+        } catch (final OtrException expected) {
+            // The message is rejected before it is encrypted.
+        }
+        assertEquals(0, destination.length());
+        verify(encrypted, never()).transformSending(any(Context.class), anyString(), any(Iterable.class), anyByte());
+    }
+
+    private static OtrEngineHost createHost(final Class<?>... extraInterfaces) {
+        final EdDSAKeyPair longTermKeyPair = EdDSAKeyPair.generate(RANDOM);
+        final Point forgingKey = EdDSAKeyPair.generate(RANDOM).getPublicKey();
+        final ClientProfile profile = new ClientProfile(SMALLEST_TAG, longTermKeyPair.getPublicKey(), forgingKey,
+                singleton(Version.FOUR), null);
+        final OtrEngineHost host = extraInterfaces.length == 0 ? mock(OtrEngineHost.class)
+                : mock(OtrEngineHost.class, withSettings().extraInterfaces(extraInterfaces));
+        when(host.getLongTermKeyPair(eq(SESSION_ID))).thenReturn(longTermKeyPair);
+        when(host.getClientProfile(eq(SESSION_ID))).thenReturn(profile);
+        return host;
+    }
+
+    private static OtrEngineHost createManualPolicyHost(final Class<?>... extraInterfaces) {
+        final OtrEngineHost host = createHost(extraInterfaces);
+        when(host.getSessionPolicy(eq(SESSION_ID))).thenReturn(new OtrPolicy(OtrPolicy.OTRL_POLICY_MANUAL));
+        return host;
+    }
+
+    private static DataMessage createDataMessage() {
+        return new DataMessage(Version.THREE, (byte) 0, 1, 1, generateDHKeyPair(RANDOM).getPublic(), new byte[8],
+                new byte[200], new byte[20], new byte[0], SMALLEST_TAG, SMALLEST_TAG);
+    }
+
+    @Test
+    public void testQueuedMessagesInitiateAKEOnce() throws OtrException {
+        final OtrEngineHost host = createHost();
+        final OtrPolicy policy = new OtrPolicy(OtrPolicy.OTRL_POLICY_ALWAYS);
+        policy.setMessageQueueBudget(4096);
+        when(host.getSessionPolicy(eq(SESSION_ID))).thenReturn(policy);
+        final SessionImpl session = new SessionImpl(SESSION_ID, host);
+        assertEquals(0, session.transformSending("Hello").length);
+        assertEquals(0, session.transformSending("World").length);
+        verify(host).requireEncryptedMessage(SESSION_ID, "Hello");
+        verify(host).requireEncryptedMessage(SESSION_ID, "World");
+        // Only the first message initiates AKE, i.e. sends a query message.
+        verify(host, times(1)).injectMessage(eq(SESSION_ID), anyString());
+    }
+
+    @Test
+    public void testMessagesNotQueuedWithoutBudget() throws OtrException {
+        final OtrEngineHost host = createHost();
+        when(host.getSessionPolicy(eq(SESSION_ID))).thenReturn(new OtrPolicy(OtrPolicy.OTRL_POLICY_ALWAYS));
+        final SessionImpl session = new SessionImpl(SESSION_ID, host);
+        assertEquals(0, session.transformSending("Hello").length);
+        assertEquals(0, session.transformSending("World").length);
+        // Without queueing, every message initiates AKE.
+        verify(host, times(2)).injectMessage(eq(SESSION_ID), anyString());
+    }
+
+    @Test
+    public void testSessionStatusQueryDoesNotRequireInstanceLock() throws Exception {
+        final OtrEngineHost host = createManualPolicyHost();
+        final SessionImpl session = new SessionImpl(SESSION_ID, host);
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        // The host blocks while injecting the query message, i.e. while the session holds its instance lock.
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws InterruptedException {
+                locked.countDown();
+                release.await();
+                return null;
+            }
+        }).when(host).injectMessage(eq(SESSION_ID), anyString());
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Void> holder = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws OtrException {
+                    session.startSession();
+                    return null;
+                }
+            });
+            assertTrue(locked.await(10, TimeUnit.SECONDS));
+            // Querying status and instances must not block on a busy session instance.
+            assertEquals(PLAINTEXT, session.getSessionStatus());
+            assertEquals(PLAINTEXT, session.getSessionStatus(ZERO_TAG));
+            assertEquals(1, session.getInstances().size());
+            release.countDown();
+            holder.get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testHostCallbacksDoNotHoldSessionMonitor() throws OtrException {
+        final OtrEngineHost host = createManualPolicyHost();
+        final SessionImpl session = new SessionImpl(SESSION_ID, host);
+        // Host callbacks that block, must not pin a virtual thread's carrier thread by holding a monitor.
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) {
+                assertFalse(Thread.holdsLock(session));
+                return null;
+            }
+        }).when(host).injectMessage(eq(SESSION_ID), anyString());
+        session.startSession();
+        verify(host).injectMessage(eq(SESSION_ID), anyString());
     }
-}
\ No newline at end of file
+}
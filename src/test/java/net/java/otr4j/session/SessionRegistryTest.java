@@ -0,0 +1,238 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import net.java.otr4j.api.SessionID;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@SuppressWarnings("ConstantConditions")
+public final class SessionRegistryTest {
+
+    private static final SessionID SESSION_ID = new SessionID("alice@network", "bob@network", "network");
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructZeroShards() {
+        new SessionRegistry<Object>(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructNonPowerOfTwoShards() {
+        new SessionRegistry<Object>(3);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testGetOrCreateNullFactory() {
+        new SessionRegistry<Object>().getOrCreate(SESSION_ID, null);
+    }
+
+    @Test
+    public void testGetOrCreateReturnsSameInstance() {
+        final SessionRegistry<Object> registry = new SessionRegistry<>();
+        final CountingFactory factory = new CountingFactory();
+        final Object first = registry.getOrCreate(SESSION_ID, factory);
+        final Object second = registry.getOrCreate(SESSION_ID, factory);
+        assertSame(first, second);
+        assertSame(first, registry.get(SESSION_ID));
+        assertEquals(1, factory.count.get());
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testGetNonExisting() {
+        assertNull(new SessionRegistry<>().get(SESSION_ID));
+    }
+
+    @Test
+    public void testRemove() {
+        final SessionRegistry<Object> registry = new SessionRegistry<>();
+        final CountingFactory factory = new CountingFactory();
+        final Object first = registry.getOrCreate(SESSION_ID, factory);
+        assertSame(first, registry.remove(SESSION_ID));
+        assertNull(registry.get(SESSION_ID));
+        assertNull(registry.remove(SESSION_ID));
+        assertEquals(0, registry.size());
+        final Object second = registry.getOrCreate(SESSION_ID, factory);
+        assertFalse(first == second);
+        assertEquals(2, factory.count.get());
+    }
+
+    @Test
+    public void testSessions() {
+        final SessionRegistry<Object> registry = new SessionRegistry<>(4);
+        final CountingFactory factory = new CountingFactory();
+        for (int i = 0; i < 100; i++) {
+            registry.getOrCreate(new SessionID("alice", "bob" + i, "network"), factory);
+        }
+        assertEquals(100, registry.sessions().size());
+        assertEquals(100, registry.size());
+    }
+
+    @Test
+    public void testFailedCreationIsRetried() {
+        final SessionRegistry<Object> registry = new SessionRegistry<>();
+        try {
+            registry.getOrCreate(SESSION_ID, new SessionRegistry.Factory<Object>() {
+                @Nonnull
+                @Override
+                public Object create(@Nonnull final SessionID sessionID) {
+                    throw new IllegalStateException("Failed to create session.");
+                }
+            });
+            fail("Expected failure during creation.");
+        } catch (final IllegalStateException expected) {
+            // Creation failure is propagated.
+        }
+        assertEquals(0, registry.size());
+        assertTrue(registry.sessions().isEmpty());
+        final CountingFactory factory = new CountingFactory();
+        registry.getOrCreate(SESSION_ID, factory);
+        assertEquals(1, factory.count.get());
+    }
+
+    @Test
+    public void testConcurrentCreationHappensOnce() throws Exception {
+        final SessionRegistry<Object> registry = new SessionRegistry<>();
+        final CountingFactory factory = new CountingFactory();
+        final int threads = 16;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final ArrayList<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws InterruptedException {
+                        start.await();
+                        return registry.getOrCreate(SESSION_ID, factory);
+                    }
+                }));
+            }
+            start.countDown();
+            final Object expected = results.get(0).get();
+            for (final Future<Object> result : results) {
+                assertSame(expected, result.get());
+            }
+            assertEquals(1, factory.count.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSlowCreationDoesNotBlockOtherSessions() throws Exception {
+        final SessionRegistry<Object> registry = new SessionRegistry<>();
+        final CountDownLatch creating = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Object> slow = executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return registry.getOrCreate(SESSION_ID, new SessionRegistry.Factory<Object>() {
+                        @Nonnull
+                        @Override
+                        public Object create(@Nonnull final SessionID sessionID) {
+                            creating.countDown();
+                            try {
+                                release.await();
+                            } catch (final InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            return new Object();
+                        }
+                    });
+                }
+            });
+            assertTrue(creating.await(10, TimeUnit.SECONDS));
+            // While the first session is still being constructed, other sessions can be created and looked up.
+            final SessionID other = new SessionID("alice@network", "carol@network", "network");
+            final Object otherSession = registry.getOrCreate(other, new CountingFactory());
+            assertSame(otherSession, registry.get(other));
+            assertNull(registry.get(SESSION_ID));
+            assertFalse(slow.isDone());
+            release.countDown();
+            assertSame(slow.get(10, TimeUnit.SECONDS), registry.get(SESSION_ID));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Contention check: many threads repeatedly looking up a large set of sessions, all of which should complete
+     * without creating any session twice.
+     */
+    @Test
+    public void testContendedLookupsAcrossManySessions() throws Exception {
+        final SessionRegistry<Object> registry = new SessionRegistry<>();
+        final CountingFactory factory = new CountingFactory();
+        final int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        final int sessions = 1000;
+        final SessionID[] ids = new SessionID[sessions];
+        for (int i = 0; i < sessions; i++) {
+            ids[i] = new SessionID("alice@network", "contact" + i + "@network", "network");
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final ArrayList<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t;
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws InterruptedException {
+                        start.await();
+                        for (int round = 0; round < 20; round++) {
+                            for (int i = 0; i < sessions; i++) {
+                                registry.getOrCreate(ids[(i + offset * 31) % sessions], factory);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (final Future<Void> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+            assertEquals(sessions, factory.count.get());
+            assertEquals(sessions, registry.sessions().size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static final class CountingFactory implements SessionRegistry.Factory<Object> {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Nonnull
+        @Override
+        public Object create(@Nonnull final SessionID sessionID) {
+            count.incrementAndGet();
+            return new Object();
+        }
+    }
+}
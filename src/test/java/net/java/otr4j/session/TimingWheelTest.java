@@ -0,0 +1,130 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.session;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("ConstantConditions")
+public final class TimingWheelTest {
+
+    @Test(expected = NullPointerException.class)
+    public void testScheduleNullItem() {
+        new TimingWheel<String>(0).schedule(null, 10);
+    }
+
+    @Test
+    public void testAdvanceEmptyWheel() {
+        final TimingWheel<String> wheel = new TimingWheel<>(0);
+        assertTrue(wheel.advance(1_000_000).isEmpty());
+        assertEquals(1_000_000, wheel.currentTick());
+    }
+
+    @Test
+    public void testTimeoutFiresAtDeadline() {
+        final TimingWheel<String> wheel = new TimingWheel<>(0);
+        wheel.schedule("a", 5);
+        assertTrue(wheel.advance(4).isEmpty());
+        assertEquals(singletonList("a"), wheel.advance(5));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testPastDeadlineFiresOnNextTick() {
+        final TimingWheel<String> wheel = new TimingWheel<>(100);
+        final TimingWheel.Timeout<String> timeout = wheel.schedule("a", 3);
+        assertEquals(101, timeout.getDeadlineTick());
+        assertEquals(singletonList("a"), wheel.advance(101));
+    }
+
+    @Test
+    public void testTimeoutsFireInOrderOfDeadline() {
+        final TimingWheel<String> wheel = new TimingWheel<>(0);
+        wheel.schedule("c", 5000);
+        wheel.schedule("a", 10);
+        wheel.schedule("b", 100);
+        wheel.schedule("d", 300_000);
+        assertEquals(asList("a", "b", "c", "d"), wheel.advance(300_000));
+    }
+
+    @Test
+    public void testCascadedTimeoutsFireExactlyAtDeadline() {
+        final TimingWheel<String> wheel = new TimingWheel<>(7);
+        wheel.schedule("a", 7 + 4095);
+        wheel.schedule("b", 7 + 64);
+        wheel.schedule("c", 7 + 262_200);
+        assertTrue(wheel.advance(7 + 63).isEmpty());
+        assertEquals(singletonList("b"), wheel.advance(7 + 64));
+        assertTrue(wheel.advance(7 + 4094).isEmpty());
+        assertEquals(singletonList("a"), wheel.advance(7 + 4095));
+        assertTrue(wheel.advance(7 + 262_199).isEmpty());
+        assertEquals(singletonList("c"), wheel.advance(7 + 262_200));
+    }
+
+    @Test
+    public void testDeadlineBeyondRange() {
+        final TimingWheel<String> wheel = new TimingWheel<>(0);
+        final long deadline = 20_000_000L;
+        wheel.schedule("far", deadline);
+        assertTrue(wheel.advance(deadline - 1).isEmpty());
+        assertEquals(1, wheel.size());
+        assertEquals(singletonList("far"), wheel.advance(deadline));
+    }
+
+    @Test
+    public void testCancel() {
+        final TimingWheel<String> wheel = new TimingWheel<>(0);
+        final TimingWheel.Timeout<String> a = wheel.schedule("a", 10);
+        final TimingWheel.Timeout<String> b = wheel.schedule("b", 10);
+        final TimingWheel.Timeout<String> c = wheel.schedule("c", 10);
+        assertTrue(wheel.cancel(b));
+        assertFalse(b.isScheduled());
+        assertFalse(wheel.cancel(b));
+        assertEquals(2, wheel.size());
+        final List<String> due = wheel.advance(10);
+        assertEquals(2, due.size());
+        assertTrue(due.contains("a"));
+        assertTrue(due.contains("c"));
+        assertFalse(a.isScheduled());
+        assertFalse(wheel.cancel(c));
+    }
+
+    @Test
+    public void testRandomDeadlinesFireAtDeadline() {
+        final Random random = new Random(42);
+        final TimingWheel<Long> wheel = new TimingWheel<>(0);
+        final ArrayList<Long> deadlines = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            final long deadline = 1 + random.nextInt(1_000_000);
+            deadlines.add(deadline);
+            wheel.schedule(deadline, deadline);
+        }
+        long tick = 0;
+        int fired = 0;
+        while (wheel.size() > 0) {
+            final long previous = tick;
+            tick += 1 + random.nextInt(5000);
+            for (final Long deadline : wheel.advance(tick)) {
+                // Timeouts must fire in the advance that passes their deadline, i.e. neither early nor late.
+                assertTrue(deadline <= tick);
+                assertTrue(deadline > previous);
+                fired++;
+            }
+        }
+        assertEquals(deadlines.size(), fired);
+    }
+}
@@ -15,6 +15,7 @@ import org.junit.Test;
 import static java.math.BigInteger.valueOf;
 import static net.java.otr4j.crypto.ed448.Ed448.basePoint;
 import static net.java.otr4j.crypto.ed448.ScalarTestUtils.fromBigInteger;
+import static net.java.otr4j.io.OtrEncodables.encode;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
@@ -132,4 +133,16 @@ public final class SMPMessage1Test {
         message.writeTo(out);
         assertArrayEquals(expected, out.toByteArray());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testEncodedLength() {
+        final Point g2a = basePoint().multiply(fromBigInteger(valueOf(2L)));
+        final Scalar c2 = fromBigInteger(valueOf(1L));
+        final Scalar d2 = fromBigInteger(valueOf(2L));
+        final Point g3a = basePoint().multiply(fromBigInteger(valueOf(3L)));
+        final Scalar c3 = fromBigInteger(valueOf(3L));
+        final Scalar d3 = fromBigInteger(valueOf(4L));
+        final SMPMessage1 message = new SMPMessage1("Wie heißt mein Hund?", g2a, c2, d2, g3a, c3, d3);
+        assertEquals(encode(message).length, message.encodedLength());
+    }
+}
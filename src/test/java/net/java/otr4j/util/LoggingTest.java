@@ -0,0 +1,157 @@
+/*
+ * otr4j, the open source java otr library.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+
+package net.java.otr4j.util;
+
+import net.java.otr4j.api.SessionID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.FINEST;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+import static net.java.otr4j.util.Logging.log;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+@SuppressWarnings("ConstantConditions")
+public final class LoggingTest {
+
+    private static final SessionID SESSION_ID = new SessionID("alice@network", "bob@network", "network");
+
+    private static final int ITERATIONS = 100000;
+
+    private final Logger logger = Logger.getLogger(LoggingTest.class.getName());
+
+    private final List<LogRecord> records = new ArrayList<>();
+
+    private final Handler handler = new Handler() {
+        @Override
+        public void publish(final LogRecord record) {
+            records.add(record);
+        }
+
+        @Override
+        public void flush() {
+            // Nothing to flush.
+        }
+
+        @Override
+        public void close() {
+            // Nothing to close.
+        }
+    };
+
+    private Level previousLevel;
+
+    @Before
+    public void setUp() {
+        this.previousLevel = this.logger.getLevel();
+        this.logger.setLevel(INFO);
+        this.logger.setUseParentHandlers(false);
+        this.logger.addHandler(this.handler);
+    }
+
+    @After
+    public void tearDown() {
+        this.logger.removeHandler(this.handler);
+        this.logger.setUseParentHandlers(true);
+        this.logger.setLevel(this.previousLevel);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testLogNullLogger() {
+        log(null, INFO, "Hello world");
+    }
+
+    @Test
+    public void testDisabledLevelIsNotPublished() {
+        log(this.logger, FINE, "Hello world");
+        log(this.logger, FINE, "{0}: Hello world", SESSION_ID);
+        log(this.logger, FINE, "{0}: Hello {1}", SESSION_ID, 42);
+        log(this.logger, FINEST, "{0}: Hello {1} {2}", SESSION_ID, 1, 2);
+        assertTrue(this.records.isEmpty());
+    }
+
+    @Test
+    public void testEnabledLevelIsPublished() {
+        log(this.logger, WARNING, "{0}: Hello {1} {2}", SESSION_ID, 1, 2);
+        assertEquals(1, this.records.size());
+        final LogRecord record = this.records.get(0);
+        assertSame(WARNING, record.getLevel());
+        assertEquals("{0}: Hello {1} {2}", record.getMessage());
+        assertArrayEquals(new Object[] {SESSION_ID, 1, 2}, record.getParameters());
+        assertEquals(LoggingTest.class.getName(), record.getLoggerName());
+        assertEquals(LoggingTest.class.getName(), record.getSourceClassName());
+        assertNull(record.getThrown());
+    }
+
+    @Test
+    public void testMessageWithoutParameters() {
+        log(this.logger, INFO, "Hello world");
+        assertEquals(1, this.records.size());
+        assertNull(this.records.get(0).getParameters());
+    }
+
+    @Test
+    public void testThrownIsNotAParameter() {
+        final IllegalStateException e = new IllegalStateException("bad");
+        log(this.logger, WARNING, "{0}: Hello {1}", SESSION_ID, "world", e);
+        assertEquals(1, this.records.size());
+        final LogRecord record = this.records.get(0);
+        assertArrayEquals(new Object[] {SESSION_ID, "world"}, record.getParameters());
+        assertSame(e, record.getThrown());
+    }
+
+    @Test
+    public void testLevelChangeIsRespected() {
+        log(this.logger, FINEST, "{0}: Hello", SESSION_ID);
+        this.logger.setLevel(FINEST);
+        log(this.logger, FINEST, "{0}: Hello", SESSION_ID);
+        assertEquals(1, this.records.size());
+    }
+
+    @Test
+    public void testNoAllocationsAtDisabledLevels() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        final long thread = Thread.currentThread().getId();
+        // Warm up, such that class loading and compilation do not count towards the measurement.
+        logDisabled(ITERATIONS);
+        threads.getThreadAllocatedBytes(thread);
+        final long before = threads.getThreadAllocatedBytes(thread);
+        logDisabled(ITERATIONS);
+        final long after = threads.getThreadAllocatedBytes(thread);
+        assertEquals(0, after - before);
+        assertTrue(this.records.isEmpty());
+    }
+
+    private void logDisabled(final int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            log(this.logger, FINEST, "{0}: Rotating root key and sending chain key for ratchet {1}", SESSION_ID, i);
+            log(this.logger, FINEST, "Generating message keys for encryption of ratchet {0}, message {1}.", i, i + 1);
+            log(this.logger, FINE, "{0}: Encrypting message with keyids ({1}, {2})", SESSION_ID, i, i + 1);
+            log(this.logger, FINE, "Expiring session {0} ({1})", SESSION_ID, this.logger);
+        }
+    }
+}
@@ -9,8 +9,12 @@ package net.java.otr4j.util;
 
 import org.junit.Test;
 
+import static net.java.otr4j.util.Strings.indexOf;
 import static net.java.otr4j.util.Strings.join;
+import static net.java.otr4j.util.Strings.startsWith;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 @SuppressWarnings("ConstantConditions")
 public final class StringsTest {
@@ -44,4 +48,31 @@ public final class StringsTest {
     public void testJoiningManyEmptyStrings() {
         assertEquals("", join(new String[]{"", "", "", ""}));
     }
+
+    @Test
+    public void testStartsWith() {
+        assertTrue(startsWith("Hello world", 0, "Hello"));
+        assertTrue(startsWith("Hello world", 6, "world"));
+        assertTrue(startsWith(new StringBuilder("Hello world"), 6, "wor"));
+        assertTrue(startsWith("Hello world", 11, ""));
+    }
+
+    @Test
+    public void testStartsWithMismatch() {
+        assertFalse(startsWith("Hello world", 1, "Hello"));
+        assertFalse(startsWith("Hello world", 7, "world"));
+        assertFalse(startsWith("Hello world", -1, "Hello"));
+        assertFalse(startsWith("Hello", 0, "Hello world"));
+    }
+
+    @Test
+    public void testIndexOf() {
+        assertEquals(0, indexOf("?OTR?OTR", "?OTR", 0));
+        assertEquals(4, indexOf("?OTR?OTR", "?OTR", 1));
+        assertEquals(4, indexOf(new StringBuilder("?OTR?OTR"), "?OTR", 4));
+        assertEquals(-1, indexOf("?OTR?OTR", "?OTR", 5));
+        assertEquals(-1, indexOf("?OT", "?OTR", 0));
+        assertEquals(0, indexOf("?OTR", "?OTR", -3));
+    }
 }
+